@@ -0,0 +1,184 @@
+package pl.gpiwosz.wordpdfconverter.benchmarks;
+
+import org.jodconverter.core.office.OfficeManager;
+import org.jodconverter.core.task.OfficeTask;
+import org.jodconverter.core.office.OfficeException;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+import pl.gpiwosz.wordpdfconverter.services.ConversionCache;
+import pl.gpiwosz.wordpdfconverter.services.ConversionLeaseService;
+import pl.gpiwosz.wordpdfconverter.services.ConversionRunner;
+import pl.gpiwosz.wordpdfconverter.services.ConversionScheduler;
+import pl.gpiwosz.wordpdfconverter.services.ConverterMetrics;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.LibreOfficeConverterService;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstance;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+import pl.gpiwosz.wordpdfconverter.services.PdfExportProfiles;
+import pl.gpiwosz.wordpdfconverter.services.QuarantineService;
+import pl.gpiwosz.wordpdfconverter.services.SplitConversionService;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmarks: a Redis stand-in and an {@link OfficeInstancePool} which does not start LibreOffice.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public final class BenchmarkSupport {
+
+  /**
+   * System property pointing the benchmarks at an existing Redis (e.g. redis://localhost:6379) instead of an embedded one.
+   */
+  public static final String REDIS_URL_PROPERTY = "benchmark.redis.url";
+
+  private BenchmarkSupport() {
+  }
+
+  /**
+   * Starts an embedded Redis server on a free port, unless an external one is configured.
+   *
+   * @return The started Redis, which has to be stopped with {@link Redis#close()}.
+   * @throws IOException If the embedded server cannot be started.
+   */
+  public static Redis startRedis() throws IOException {
+    String externalUrl = System.getProperty(REDIS_URL_PROPERTY);
+    if (externalUrl != null && !externalUrl.isEmpty()) {
+      return new Redis(externalUrl, null);
+    }
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    RedisServer server = new RedisServer(port);
+    server.start();
+    return new Redis("redis://localhost:" + port, server);
+  }
+
+  /**
+   * Creates a started {@link OfficeInstancePool} of instances backed by an {@link OfficeManager} which accepts every task
+   * without running it, so only the Java-side cost of a conversion is measured.
+   *
+   * @param ports The ports the stub instances pretend to listen on.
+   * @return The started pool.
+   * @throws OfficeException Never, the stub instances start immediately.
+   */
+  public static OfficeInstancePool stubInstancePool(final int... ports) throws OfficeException {
+    OfficeInstancePool pool = new OfficeInstancePool(Arrays.stream(ports)
+      .mapToObj(port -> new OfficeInstance(port, BenchmarkSupport::noOpOfficeManager))
+      .toList());
+    pool.start();
+    return pool;
+  }
+
+  /**
+   * @return A new {@link OfficeManager} which accepts every task without running it, for instances without LibreOffice.
+   */
+  public static OfficeManager noOpOfficeManager() {
+    return new NoOpOfficeManager();
+  }
+
+  /**
+   * Creates a {@link ConversionRunner} on platform threads with the default deadlines and without hedging.
+   *
+   * @param pool      The pool the conversions run on.
+   * @param scheduler The scheduler of the conversions.
+   * @param metrics   The metrics of the conversions.
+   * @return The runner.
+   */
+  public static ConversionRunner conversionRunner(final OfficeInstancePool pool, final ConversionScheduler scheduler, final ConverterMetrics metrics) {
+    return new ConversionRunner(pool, scheduler, metrics, new ThreadingConfig(false, 1),
+      Duration.ofSeconds(60), Duration.ofSeconds(180), 2, false, Duration.ofSeconds(10));
+  }
+
+  /**
+   * Creates a {@link LibreOfficeConverterService} converting on the given pool, without the conversion cache,
+   * with the default PDF export profile, without splitting large documents and without the quarantine.
+   *
+   * @param outputPath    The output directory.
+   * @param pool          The pool the conversions run on.
+   * @param scheduler     The scheduler of the conversions.
+   * @param metrics       The metrics of the conversions.
+   * @param tempDirConfig The temporary directory.
+   * @param repository    The repository the statuses are written to.
+   * @return The service.
+   */
+  public static LibreOfficeConverterService converterService(final Path outputPath, final OfficeInstancePool pool, final ConversionScheduler scheduler,
+                                                             final ConverterMetrics metrics, final TempDirConfig tempDirConfig,
+                                                             final StatusStore repository) {
+    ConversionRunner runner = conversionRunner(pool, scheduler, metrics);
+    SplitConversionService splitConversionService = new SplitConversionService(runner, scheduler, new DocxAnalyzer(DataSize.ofMegabytes(20), 50, 30),
+      tempDirConfig, metrics, new ThreadingConfig(false, 1), false, 200, 4);
+    return new LibreOfficeConverterService(outputPath.toString(), runner, tempDirConfig, repository, scheduler,
+      new ConversionCache(false, outputPath.resolve("cache").toString(), DataSize.ofMegabytes(1), false), metrics,
+      new PdfExportProfiles("", PdfExportProfiles.DEFAULT_PROFILE, ""), splitConversionService,
+      new QuarantineService(repository, new ConversionLeaseService(repository, "benchmark", Duration.ofSeconds(60)), outputPath.resolve("quarantine").toString(), 0));
+  }
+
+  /**
+   * Deletes a directory and all its contents.
+   *
+   * @param directory The directory to delete.
+   * @throws IOException If an I/O error occurs during deletion.
+   */
+  public static void deleteRecursively(final Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  /**
+   * A running Redis used by a benchmark.
+   *
+   * @param url    The URL of the server.
+   * @param server The embedded server, or null for an external one.
+   */
+  public record Redis(String url, RedisServer server) implements AutoCloseable {
+    @Override
+    public void close() throws IOException {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  /**
+   * {@link OfficeManager} which completes every task immediately.
+   */
+  private static final class NoOpOfficeManager implements OfficeManager {
+    @Override
+    public void execute(final OfficeTask task) {
+      // no LibreOffice, nothing to do
+    }
+
+    @Override
+    public boolean isRunning() {
+      return true;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
+}
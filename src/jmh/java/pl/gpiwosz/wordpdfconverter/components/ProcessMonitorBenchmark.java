@@ -0,0 +1,55 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.benchmarks.BenchmarkSupport;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+import pl.gpiwosz.wordpdfconverter.services.UtilsService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one sampling round of {@link ProcessMonitor#checkProcesses()} and the /proc read behind it.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcessMonitorBenchmark {
+
+  private final long pid = ProcessHandle.current().pid();
+  private OfficeInstancePool pool;
+  private ProcessMonitor processMonitor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    pool = BenchmarkSupport.stubInstancePool(2001, 2002, 2003, 2004, 2005, 2006);
+    processMonitor = new ProcessMonitor(pool, DataSize.ofMegabytes(768), DataSize.ofGigabytes(1));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.stop();
+  }
+
+  @Benchmark
+  public long readResidentSetSize() {
+    return UtilsService.readResidentSetSize(pid);
+  }
+
+  @Benchmark
+  public void checkProcesses() {
+    processMonitor.checkProcesses();
+  }
+}
@@ -0,0 +1,118 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.AdviceWith;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.benchmarks.BenchmarkSupport;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.FileSystemContentStore;
+import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.services.ConversionLeaseService;
+import pl.gpiwosz.wordpdfconverter.services.ConversionScheduler;
+import pl.gpiwosz.wordpdfconverter.services.ConverterMetrics;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.InputDirectoryScanner;
+import pl.gpiwosz.wordpdfconverter.services.LibreOfficeConverterService;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+import pl.gpiwosz.wordpdfconverter.services.PayloadMemoryBudget;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of dispatching one fileQueue message through the real {@link PDFFileRoute}
+ * (claim, bean dispatch, temp file, status updates, lease release) with a stub converter in place of LibreOffice.
+ * The ActiveMQ consumer is replaced by a direct endpoint, so broker latency is not part of the result.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteDispatchBenchmark {
+
+  private BenchmarkSupport.Redis redis;
+  private Path baseDir;
+  private CamelContext camelContext;
+  private ProducerTemplate producerTemplate;
+  private RedisIdempotentRepository fileRepository;
+  private RedisIdempotentRepository queueRepository;
+  private byte[] document;
+  private final AtomicLong sequence = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    redis = BenchmarkSupport.startRedis();
+    baseDir = Files.createTempDirectory("route-benchmark");
+    document = new byte[32 * 1024];
+    ThreadLocalRandom.current().nextBytes(document);
+
+    fileRepository = new RedisIdempotentRepository(redis.url(), "benchmark:file:", FileStatusEnum.READ, Duration.ofMinutes(10));
+    queueRepository = new RedisIdempotentRepository(redis.url(), "benchmark:queue:", FileStatusEnum.PROCESSED, Duration.ofMinutes(10));
+    TempDirConfig tempDirConfig = new TempDirConfig(baseDir.resolve("temp").toString());
+    tempDirConfig.run();
+    ConversionScheduler scheduler = new ConversionScheduler("2001, 2002, 2003, 2004", 1);
+    OfficeInstancePool pool = BenchmarkSupport.stubInstancePool(2001, 2002, 2003, 2004);
+    ConverterMetrics metrics = new ConverterMetrics(new SimpleMeterRegistry(), scheduler, tempDirConfig, pool);
+    LibreOfficeConverterService converterService = BenchmarkSupport.converterService(baseDir, pool, scheduler, metrics, tempDirConfig, queueRepository);
+    FileSystemContentStore contentStore = new FileSystemContentStore(baseDir);
+    ConversionLeaseService leaseService = new ConversionLeaseService(queueRepository, "benchmark", Duration.ofSeconds(60));
+
+    PDFFileRoute route = new PDFFileRoute(fileRepository, queueRepository, scheduler, contentStore, leaseService, metrics,
+      new DocxAnalyzer(DataSize.ofMegabytes(20), 50, 30), new InputDirectoryScanner(baseDir.resolve("input").toString(),
+      baseDir.resolve("checkpoint").toString(), "benchmark", false, true, Duration.ofSeconds(1), Duration.ofMinutes(5), Duration.ofSeconds(1)),
+      new ThreadingConfig(false, 1), pool,
+      new PayloadMemoryBudget(new SimpleMeterRegistry(), DataSize.ofMegabytes(256), DataSize.ofMegabytes(8)));
+
+    camelContext = new DefaultCamelContext();
+    camelContext.getRegistry().bind("camelFileProcessor", new CamelFileProcessor(converterService, contentStore));
+    camelContext.addRoutes(route);
+    AdviceWith.adviceWith(camelContext, "inputScanRoute", advice -> advice.replaceFromWith("direct:scan"));
+    AdviceWith.adviceWith(camelContext, "fileQueueRoute", advice -> advice.replaceFromWith("direct:fileQueue"));
+    AdviceWith.adviceWith(camelContext, "fileQueueLargeRoute", advice -> advice.replaceFromWith("direct:fileQueueLarge"));
+    camelContext.start();
+    producerTemplate = camelContext.createProducerTemplate();
+    queueRepository.add("processed.docx", FileStatusEnum.PROCESSED.toString());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    camelContext.stop();
+    fileRepository.stop();
+    queueRepository.stop();
+    redis.close();
+    BenchmarkSupport.deleteRecursively(baseDir);
+  }
+
+  @Benchmark
+  public Object dispatchNewFile() {
+    String fileName = "document-" + sequence.incrementAndGet() + ".docx";
+    return producerTemplate.requestBodyAndHeaders("direct:fileQueue", document, Map.of(MessageHeaders.FILE_NAME, fileName));
+  }
+
+  @Benchmark
+  public Object dispatchProcessedFile() {
+    return producerTemplate.requestBodyAndHeaders("direct:fileQueue", document, Map.of(MessageHeaders.FILE_NAME, "processed.docx"));
+  }
+}
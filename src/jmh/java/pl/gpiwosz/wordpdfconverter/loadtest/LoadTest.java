@@ -0,0 +1,426 @@
+package pl.gpiwosz.wordpdfconverter.loadtest;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ServiceStatus;
+import org.apache.camel.component.activemq.ActiveMQComponent;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.CamelEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.jodconverter.local.office.LocalOfficeManager;
+import org.jodconverter.local.office.LocalOfficeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.benchmarks.BenchmarkSupport;
+import pl.gpiwosz.wordpdfconverter.components.CamelFileProcessor;
+import pl.gpiwosz.wordpdfconverter.components.IdempotentConsumer;
+import pl.gpiwosz.wordpdfconverter.components.MessageHeaders;
+import pl.gpiwosz.wordpdfconverter.components.PDFFileRoute;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.FileSystemContentStore;
+import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.services.ConversionLeaseService;
+import pl.gpiwosz.wordpdfconverter.services.ConversionScheduler;
+import pl.gpiwosz.wordpdfconverter.services.ConverterMetrics;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.InputDirectoryScanner;
+import pl.gpiwosz.wordpdfconverter.services.LibreOfficeConverterService;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstance;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+import pl.gpiwosz.wordpdfconverter.services.PayloadMemoryBudget;
+import pl.gpiwosz.wordpdfconverter.services.UtilsService;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of one node: the real {@link PDFFileRoute} (input scanner, file route, both lane queues and
+ * the {@link CamelFileProcessor}) on an embedded ActiveMQ broker and a Redis stand-in, converting a synthetic corpus
+ * (see {@link SyntheticCorpus}) with a {@link SimulatedConverter} or with LibreOffice, if it is installed.
+ * The documents are moved into the input directory all at once or at a fixed rate, and the test reports the throughput,
+ * the percentiles of the latency from the move until the message is done, the peak heap, the GC time and the Redis
+ * commands per document. Each run appends a row to a CSV file, with the commit it ran on, so runs can be compared
+ * across commits; the corpus depends only on the seed, the number of documents and the size mix.
+ * <p>
+ * Run with: {@code ./mvnw -Pjmh test-compile exec:exec@loadtest [-Dloadtest.args="-Dloadtest.documents=1000 -Dloadtest.rate=20"]}.
+ * Settings (system properties):
+ * <ul>
+ *     <li>loadtest.documents (200), loadtest.mix (20KB:70,500KB:25,5MB:5), loadtest.seed (42): the corpus.</li>
+ *     <li>loadtest.rate: documents moved into the input directory per second, 0 (the default) for all at once.</li>
+ *     <li>loadtest.converter: "simulated", "soffice" or "auto" (the default, soffice if LibreOffice is installed).</li>
+ *     <li>loadtest.latency.base (300ms), loadtest.latency.per-mb (200ms), loadtest.latency.jitter (0.3): the simulated conversions.</li>
+ *     <li>loadtest.ports (2001,2002,2003,2004): one instance (and slot) per port.</li>
+ *     <li>loadtest.payload.memory-budget (256MB), loadtest.payload.spill-threshold (8MB), loadtest.virtual-threads (false): the node.</li>
+ *     <li>loadtest.redis.pool.max-total (16), loadtest.redis.pool.max-idle (16), loadtest.redis.pool.min-idle (2),
+ *     loadtest.redis.pool.max-wait (2s), loadtest.redis.near-cache-ttl (10s): the status stores, as in application.properties.</li>
+ *     <li>loadtest.timeout (10m), loadtest.results (target/loadtest/results.csv), loadtest.label, loadtest.log-level (WARN).</li>
+ *     <li>benchmark.redis.url: an existing Redis instead of the embedded one (see {@link BenchmarkSupport}).</li>
+ * </ul>
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public final class LoadTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+  private static final String PREFIX = "loadtest.";
+  private static final String KEY_PREFIX = "loadtest";
+  private static final List<String> QUEUE_ROUTE_IDS = List.of("fileQueueRoute", "fileQueueLargeRoute");
+  private static final String CSV_HEADER = "timestamp,commit,label,converter,documents,mix,seed,rate,slots,seconds,"
+    + "documents_per_second,p50_ms,p90_ms,p99_ms,max_ms,failed,peak_heap_mb,gc_ms,redis_commands_per_document";
+  private static final long HEAP_SAMPLE_MILLIS = 50;
+
+  private final Map<String, Long> released = new ConcurrentHashMap<>();
+  private final Map<String, Long> completed = new ConcurrentHashMap<>();
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicLong peakHeap = new AtomicLong();
+  private CachingConnectionFactory connectionFactory;
+
+  private LoadTest() {
+  }
+
+  public static void main(final String[] args) throws Exception {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+      .setLevel(Level.toLevel(setting("log-level", "WARN")));
+    new LoadTest().run();
+    // the JMS and Redis clients may leave non-daemon threads behind
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    int documents = Integer.parseInt(setting("documents", "200"));
+    String mixSetting = setting("mix", "20KB:70,500KB:25,5MB:5");
+    List<SyntheticCorpus.SizeClass> mix = SyntheticCorpus.parseMix(mixSetting);
+    long seed = Long.parseLong(setting("seed", "42"));
+    double rate = Double.parseDouble(setting("rate", "0"));
+    String portsSetting = setting("ports", "2001,2002,2003,2004");
+    int[] ports = UtilsService.getNumbersArray(portsSetting);
+    String converter = converterType(setting("converter", "auto"));
+    Duration timeout = DurationStyle.detectAndParse(setting("timeout", "10m"));
+
+    Path baseDir = Files.createTempDirectory("loadtest");
+    Path inputDir = Files.createDirectories(baseDir.resolve("input"));
+    System.out.printf("Generating %d documents (%s, seed %d) in %s%n", documents, mixSetting, seed, baseDir);
+    List<Path> corpus = SyntheticCorpus.generate(baseDir.resolve("corpus"), documents, mix, seed);
+
+    BenchmarkSupport.Redis redis = BenchmarkSupport.startRedis();
+    BrokerService broker = startBroker();
+    // both repositories share one key space and one connection pool, like the beans of IdempotentConsumer
+    JedisPoolConfig poolConfig = IdempotentConsumer.jedisPoolConfig(Integer.parseInt(setting("redis.pool.max-total", "16")),
+      Integer.parseInt(setting("redis.pool.max-idle", "16")), Integer.parseInt(setting("redis.pool.min-idle", "2")),
+      DurationStyle.detectAndParse(setting("redis.pool.max-wait", "2s")));
+    Duration nearCacheTtl = DurationStyle.detectAndParse(setting("redis.near-cache-ttl", "10s"));
+    JedisPool redisPool = new JedisPool(poolConfig, new URI(redis.url()));
+    RedisIdempotentRepository fileRepository = new RedisIdempotentRepository(redisPool, KEY_PREFIX, FileStatusEnum.READ, Duration.ofDays(1), nearCacheTtl);
+    RedisIdempotentRepository queueRepository = new RedisIdempotentRepository(redisPool, KEY_PREFIX, FileStatusEnum.PROCESSED, Duration.ofDays(1), nearCacheTtl);
+    OfficeInstancePool pool = instancePool(converter, ports);
+    CamelContext camelContext = new DefaultCamelContext();
+    try {
+      ConversionScheduler scheduler = new ConversionScheduler(portsSetting, 1);
+      pool.start();
+      scheduler.resize(pool.getRunningCount());
+      startRoutes(camelContext, baseDir, inputDir, scheduler, pool, fileRepository, queueRepository);
+
+      long redisCommandsBefore = redisCommands(redis.url());
+      long gcMillisBefore = gcMillis();
+      Thread heapSampler = startHeapSampler();
+      System.out.printf("Converting %d documents with the %s converter on %d slots%n", documents, converter, ports.length);
+      long start = System.nanoTime();
+      release(corpus, inputDir, rate);
+      boolean finished = awaitCompletion(documents, start + timeout.toNanos());
+      long end = completed.values().stream().mapToLong(Long::longValue).max().orElse(System.nanoTime());
+      heapSampler.interrupt();
+      long gcMillis = gcMillis() - gcMillisBefore;
+      // the INFO command of the second sample is counted too
+      long redisCommands = redisCommands(redis.url()) - redisCommandsBefore - 1;
+      if (!finished) {
+        System.out.printf("Timed out after %s with %d of %d documents done%n", timeout, completed.size(), documents);
+      }
+
+      long[] latencies = completed.entrySet().stream()
+        .mapToLong(entry -> entry.getValue() - released.get(entry.getKey()))
+        .sorted()
+        .toArray();
+      double seconds = (end - start) / 1e9;
+      String row = String.join(",",
+        Instant.now().toString(), commit(), setting("label", ""), converter, String.valueOf(latencies.length), "\"" + mixSetting + "\"",
+        String.valueOf(seed), String.valueOf(rate), String.valueOf(ports.length), format(seconds), format(latencies.length / seconds),
+        millis(percentile(latencies, 0.5)), millis(percentile(latencies, 0.9)), millis(percentile(latencies, 0.99)),
+        millis(percentile(latencies, 1)), String.valueOf(failures.get()), String.valueOf(peakHeap.get() / (1024 * 1024)),
+        String.valueOf(gcMillis), format((double) redisCommands / Math.max(1, latencies.length)));
+      printReport(CSV_HEADER.split(","), row.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"));
+      appendResult(Path.of(setting("results", "target/loadtest/results.csv")), row);
+    } finally {
+      camelContext.stop();
+      if (connectionFactory != null) {
+        connectionFactory.destroy();
+      }
+      pool.stop();
+      fileRepository.stop();
+      queueRepository.stop();
+      redisPool.close();
+      broker.stop();
+      redis.close();
+      BenchmarkSupport.deleteRecursively(baseDir);
+    }
+  }
+
+  /**
+   * Wires the routes like the application context does, with the queues on the embedded broker.
+   */
+  private void startRoutes(final CamelContext camelContext, final Path baseDir, final Path inputDir, final ConversionScheduler scheduler,
+                           final OfficeInstancePool pool, final RedisIdempotentRepository fileRepository,
+                           final RedisIdempotentRepository queueRepository) throws Exception {
+    TempDirConfig tempDirConfig = new TempDirConfig(baseDir.resolve("temp").toString());
+    tempDirConfig.run();
+    ConverterMetrics metrics = new ConverterMetrics(new SimpleMeterRegistry(), scheduler, tempDirConfig, pool);
+    LibreOfficeConverterService converterService = BenchmarkSupport.converterService(baseDir.resolve("output"), pool, scheduler, metrics,
+      tempDirConfig, queueRepository);
+    FileSystemContentStore contentStore = new FileSystemContentStore(inputDir);
+    ConversionLeaseService leaseService = new ConversionLeaseService(queueRepository, "loadtest", Duration.ofSeconds(60));
+    DocxAnalyzer docxAnalyzer = new DocxAnalyzer(DataSize.ofMegabytes(20), 50, 30);
+    InputDirectoryScanner scanner = new InputDirectoryScanner(inputDir.toString(), baseDir.resolve("checkpoint").toString(), "loadtest",
+      true, true, Duration.ZERO, Duration.ofMinutes(5), Duration.ofMillis(100));
+    PayloadMemoryBudget payloadMemoryBudget = new PayloadMemoryBudget(new SimpleMeterRegistry(),
+      DataSize.parse(setting("payload.memory-budget", "256MB")), DataSize.parse(setting("payload.spill-threshold", "8MB")));
+    PDFFileRoute route = new PDFFileRoute(fileRepository, queueRepository, scheduler, contentStore, leaseService, metrics, docxAnalyzer,
+      scanner, new ThreadingConfig(Boolean.parseBoolean(setting("virtual-threads", "false")), 2), pool, payloadMemoryBudget);
+
+    // the connection factory Spring Boot would create for spring.activemq.*
+    ActiveMQConnectionFactory brokerConnectionFactory = new ActiveMQConnectionFactory("vm://loadtest?create=false");
+    brokerConnectionFactory.setNonBlockingRedelivery(true);
+    connectionFactory = new CachingConnectionFactory(brokerConnectionFactory);
+    ActiveMQComponent activeMQComponent = new ActiveMQComponent();
+    activeMQComponent.setConnectionFactory(connectionFactory);
+    camelContext.addComponent("activemq", activeMQComponent);
+    camelContext.getRegistry().bind("camelFileProcessor", new CamelFileProcessor(converterService, contentStore));
+    camelContext.getManagementStrategy().addEventNotifier(new CompletionNotifier());
+    camelContext.addRoutes(route);
+    camelContext.start();
+    for (String routeId : QUEUE_ROUTE_IDS) {
+      while (camelContext.getRouteController().getRouteStatus(routeId) != ServiceStatus.Started) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+    }
+  }
+
+  /**
+   * Moves the documents into the input directory, all at once or at the given rate.
+   */
+  private void release(final List<Path> corpus, final Path inputDir, final double rate) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    for (int i = 0; i < corpus.size(); i++) {
+      if (rate > 0) {
+        long due = start + (long) (i / rate * 1e9);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+      }
+      Path document = corpus.get(i);
+      String fileName = document.getFileName().toString();
+      released.put(fileName, System.nanoTime());
+      Files.move(document, inputDir.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  private boolean awaitCompletion(final int documents, final long deadline) throws InterruptedException {
+    while (completed.size() < documents) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    return true;
+  }
+
+  private Thread startHeapSampler() {
+    Thread sampler = new Thread(() -> {
+      while (!Thread.currentThread().isInterrupted()) {
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        peakHeap.accumulateAndGet(used, Math::max);
+        try {
+          TimeUnit.MILLISECONDS.sleep(HEAP_SAMPLE_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }, "loadtest-heap-sampler");
+    sampler.setDaemon(true);
+    sampler.start();
+    return sampler;
+  }
+
+  private static OfficeInstancePool instancePool(final String converter, final int[] ports) {
+    Duration baseLatency = DurationStyle.detectAndParse(setting("latency.base", "300ms"));
+    Duration latencyPerMb = DurationStyle.detectAndParse(setting("latency.per-mb", "200ms"));
+    double jitter = Double.parseDouble(setting("latency.jitter", "0.3"));
+    return new OfficeInstancePool(Arrays.stream(ports)
+      .mapToObj(port -> "soffice".equals(converter)
+        ? new OfficeInstance(port, () -> LocalOfficeManager.builder().portNumbers(port).maxTasksPerProcess(0).build())
+        : new OfficeInstance(port, BenchmarkSupport::noOpOfficeManager,
+          officeManager -> new SimulatedConverter(officeManager, baseLatency, latencyPerMb, jitter)))
+      .toList());
+  }
+
+  private static String converterType(final String setting) {
+    if (!"auto".equals(setting)) {
+      return setting;
+    }
+    File officeHome;
+    try {
+      officeHome = LocalOfficeUtils.getDefaultOfficeHome();
+    } catch (RuntimeException e) {
+      officeHome = null;
+    }
+    return officeHome != null ? "soffice" : "simulated";
+  }
+
+  private static BrokerService startBroker() throws Exception {
+    BrokerService broker = new BrokerService();
+    broker.setBrokerName("loadtest");
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.setAdvisorySupport(false);
+    broker.getSystemUsage().getMemoryUsage().setLimit(Runtime.getRuntime().maxMemory() / 4);
+    broker.start();
+    broker.waitUntilStarted();
+    return broker;
+  }
+
+  private static long redisCommands(final String redisUrl) {
+    try (Jedis jedis = new Jedis(URI.create(redisUrl))) {
+      return jedis.info("stats").lines()
+        .filter(line -> line.startsWith("total_commands_processed:"))
+        .mapToLong(line -> Long.parseLong(line.substring(line.indexOf(':') + 1).trim()))
+        .findFirst()
+        .orElse(0);
+    }
+  }
+
+  private static long gcMillis() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+      .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+      .filter(time -> time > 0)
+      .sum();
+  }
+
+  /**
+   * @return The abbreviated commit of the working directory, or "unknown" outside of a git checkout.
+   */
+  private static String commit() {
+    try {
+      Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+      try (BufferedReader output = new BufferedReader(new InputStreamReader(git.getInputStream(), StandardCharsets.UTF_8))) {
+        String line = output.readLine();
+        return git.waitFor() == 0 && line != null ? line.trim() : "unknown";
+      }
+    } catch (IOException e) {
+      return "unknown";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "unknown";
+    }
+  }
+
+  private static long percentile(final long[] sorted, final double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[(int) Math.max(0, Math.ceil(percentile * sorted.length) - 1)];
+  }
+
+  private static String millis(final long nanos) {
+    return String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  private static String format(final double value) {
+    return String.format(Locale.ROOT, "%.2f", value);
+  }
+
+  private static void printReport(final String[] names, final String[] values) {
+    System.out.println();
+    for (int i = 0; i < names.length && i < values.length; i++) {
+      System.out.printf("%-28s %s%n", names[i], values[i]);
+    }
+  }
+
+  private static void appendResult(final Path results, final String row) throws IOException {
+    Path parent = results.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    if (!Files.exists(results)) {
+      Files.writeString(results, CSV_HEADER + System.lineSeparator(), StandardOpenOption.CREATE);
+    }
+    Files.writeString(results, row + System.lineSeparator(), StandardOpenOption.APPEND);
+    System.out.println("Appended to " + results.toAbsolutePath());
+  }
+
+  private static String setting(final String name, final String defaultValue) {
+    return System.getProperty(PREFIX + name, defaultValue);
+  }
+
+  /**
+   * Notes when the message of a document is done on a queue route, and whether it failed.
+   */
+  private final class CompletionNotifier extends EventNotifierSupport {
+
+    @Override
+    public void notify(final CamelEvent event) {
+      Exchange exchange = ((CamelEvent.ExchangeEvent) event).getExchange();
+      if (!QUEUE_ROUTE_IDS.contains(exchange.getFromRouteId())) {
+        return;
+      }
+      String fileName = exchange.getIn().getHeader(MessageHeaders.FILE_NAME, String.class);
+      if (fileName == null) {
+        return;
+      }
+      if (event instanceof CamelEvent.ExchangeFailedEvent) {
+        // the message is rolled back and redelivered; the document is done once a delivery completes
+        failures.incrementAndGet();
+        LOG.warn("Conversion of {} failed: {}", fileName, exchange.getException() != null ? exchange.getException().getMessage() : "");
+      } else if (!exchange.isFailed()) {
+        completed.putIfAbsent(fileName, System.nanoTime());
+      }
+    }
+
+    @Override
+    public boolean isEnabled(final CamelEvent event) {
+      return event instanceof CamelEvent.ExchangeCompletedEvent || event instanceof CamelEvent.ExchangeFailedEvent;
+    }
+  }
+}
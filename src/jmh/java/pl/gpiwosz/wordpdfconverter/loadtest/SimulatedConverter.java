@@ -0,0 +1,80 @@
+package pl.gpiwosz.wordpdfconverter.loadtest;
+
+import org.jodconverter.core.document.DefaultDocumentFormatRegistry;
+import org.jodconverter.core.job.AbstractConversionJob;
+import org.jodconverter.core.job.AbstractConversionJobWithSourceFormatUnspecified;
+import org.jodconverter.core.job.AbstractConverter;
+import org.jodconverter.core.job.AbstractSourceDocumentSpecs;
+import org.jodconverter.core.job.AbstractTargetDocumentSpecs;
+import org.jodconverter.core.office.OfficeException;
+import org.jodconverter.core.office.OfficeManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link org.jodconverter.core.DocumentConverter} standing in for LibreOffice in load tests: a conversion takes
+ * a base latency plus a latency per MB of the input, scattered by a log-normal jitter, and writes a minimal PDF.
+ * The Java side of the pipeline (routes, statuses, temporary files) runs exactly as with LibreOffice.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class SimulatedConverter extends AbstractConverter {
+
+  private static final byte[] PDF = "%PDF-1.4\n1 0 obj<</Type/Catalog>>endobj\ntrailer<</Root 1 0 R>>\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+  private static final double BYTES_PER_MB = 1024 * 1024;
+
+  private final Duration baseLatency;
+  private final Duration latencyPerMb;
+  private final double jitter;
+
+  /**
+   * Constructs a new SimulatedConverter.
+   *
+   * @param officeManager The office manager of the instance, which is not used to convert.
+   * @param baseLatency   The latency of a conversion of an empty document.
+   * @param latencyPerMb  The latency added per MB of the input.
+   * @param jitter        The standard deviation of the logarithm of the latency factor, 0 for constant latencies.
+   */
+  public SimulatedConverter(final OfficeManager officeManager, final Duration baseLatency, final Duration latencyPerMb, final double jitter) {
+    super(officeManager, DefaultDocumentFormatRegistry.getInstance());
+    this.baseLatency = baseLatency;
+    this.latencyPerMb = latencyPerMb;
+    this.jitter = jitter;
+  }
+
+  @Override
+  protected AbstractConversionJobWithSourceFormatUnspecified convert(final AbstractSourceDocumentSpecs source) {
+    return new AbstractConversionJobWithSourceFormatUnspecified(source, officeManager, formatRegistry) {
+      @Override
+      protected AbstractConversionJob to(final AbstractTargetDocumentSpecs target) {
+        return new AbstractConversionJob(source, target) {
+          @Override
+          protected void doExecute() throws OfficeException {
+            simulate(source.getFile(), target.getFile());
+          }
+        };
+      }
+    };
+  }
+
+  private void simulate(final File inputFile, final File outputFile) throws OfficeException {
+    double factor = jitter > 0 ? Math.exp(ThreadLocalRandom.current().nextGaussian() * jitter) : 1;
+    long nanos = (long) ((baseLatency.toNanos() + latencyPerMb.toNanos() * (inputFile.length() / BYTES_PER_MB)) * factor);
+    try {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+      Files.write(outputFile.toPath(), PDF);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OfficeException("Simulated conversion of " + inputFile.getName() + " interrupted", e);
+    } catch (IOException e) {
+      throw new OfficeException("Cannot write " + outputFile, e);
+    }
+  }
+}
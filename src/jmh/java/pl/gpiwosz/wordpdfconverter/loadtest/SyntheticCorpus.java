@@ -0,0 +1,173 @@
+package pl.gpiwosz.wordpdfconverter.loadtest;
+
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a corpus of synthetic DOCX documents with a configurable size mix, e.g. {@code 20KB:70,500KB:25,25MB:5}
+ * (70% documents of about 20 KB, 25% of 500 KB and 5% of 25 MB).
+ * A document has one page of text per 64 KB of its size (at least one, at most {@value #MAX_PAGES}), and the rest of
+ * its size is an incompressible media part, so the size of the file is close to the requested one and the
+ * {@link pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer} sees realistic page counts and sizes.
+ * The same seed always generates the same corpus, so runs on different commits convert the same documents.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public final class SyntheticCorpus {
+
+  private static final int MAX_PAGES = 200;
+  private static final long BYTES_PER_PAGE = 64 * 1024;
+  private static final int PARAGRAPHS_PER_PAGE = 12;
+  private static final int RUNS_PER_PARAGRAPH = 8;
+  private static final int WORDS_PER_RUN = 6;
+  private static final String[] WORDS = {
+    "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor",
+    "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "zażółć", "gęślą", "jaźń", "umowa", "faktura"
+  };
+
+  private SyntheticCorpus() {
+  }
+
+  /**
+   * Parses a size mix like {@code 20KB:70,500KB:25,25MB:5} into sizes and weights.
+   *
+   * @param mix The size mix.
+   * @return The classes of the mix.
+   * @throws IllegalArgumentException If the mix is empty or invalid.
+   */
+  public static List<SizeClass> parseMix(final String mix) {
+    List<SizeClass> classes = new ArrayList<>();
+    for (String part : mix.split(",")) {
+      if (part.isBlank()) {
+        continue;
+      }
+      String[] sizeAndWeight = part.trim().split(":", 2);
+      int weight = sizeAndWeight.length == 2 ? Integer.parseInt(sizeAndWeight[1].trim()) : 1;
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Invalid weight in the size mix: " + part.trim());
+      }
+      classes.add(new SizeClass(DataSize.parse(sizeAndWeight[0].trim()), weight));
+    }
+    if (classes.isEmpty()) {
+      throw new IllegalArgumentException("Empty size mix");
+    }
+    return classes;
+  }
+
+  /**
+   * Writes the documents of a corpus.
+   *
+   * @param directory The directory the documents are written to.
+   * @param documents The number of documents.
+   * @param mix       The size mix.
+   * @param seed      The seed of the sizes and the content.
+   * @return The written documents, in the order of their names.
+   * @throws IOException If a document cannot be written.
+   */
+  public static List<Path> generate(final Path directory, final int documents, final List<SizeClass> mix, final long seed) throws IOException {
+    Files.createDirectories(directory);
+    Random random = new Random(seed);
+    int totalWeight = mix.stream().mapToInt(SizeClass::weight).sum();
+    List<Path> files = new ArrayList<>(documents);
+    for (int i = 0; i < documents; i++) {
+      int pick = random.nextInt(totalWeight);
+      SizeClass sizeClass = mix.get(0);
+      for (SizeClass candidate : mix) {
+        if (pick < candidate.weight()) {
+          sizeClass = candidate;
+          break;
+        }
+        pick -= candidate.weight();
+      }
+      Path file = directory.resolve(String.format("document-%06d.docx", i));
+      write(file, sizeClass.size().toBytes(), random);
+      files.add(file);
+    }
+    return files;
+  }
+
+  private static void write(final Path file, final long size, final Random random) throws IOException {
+    int pages = (int) Math.max(1, Math.min(MAX_PAGES, size / BYTES_PER_PAGE));
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+      writeEntry(zip, "[Content_Types].xml", """
+        <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+        <Types xmlns="http://schemas.openxmlformats.org/package/2006/content-types">
+          <Default Extension="rels" ContentType="application/vnd.openxmlformats-package.relationships+xml"/>
+          <Default Extension="xml" ContentType="application/xml"/>
+          <Default Extension="bin" ContentType="application/octet-stream"/>
+          <Override PartName="/word/document.xml" ContentType="application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml"/>
+        </Types>
+        """.getBytes(StandardCharsets.UTF_8));
+      writeEntry(zip, "_rels/.rels", """
+        <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+        <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+          <Relationship Id="rId1" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument" Target="word/document.xml"/>
+        </Relationships>
+        """.getBytes(StandardCharsets.UTF_8));
+      writeEntry(zip, "word/document.xml", documentXml(pages, random));
+      zip.flush();
+      long padding = size - Files.size(file);
+      if (padding > 0) {
+        byte[] media = new byte[(int) Math.min(Integer.MAX_VALUE - 8, padding)];
+        random.nextBytes(media);
+        writeEntry(zip, "word/media/padding.bin", media);
+      }
+    }
+  }
+
+  private static byte[] documentXml(final int pages, final Random random) {
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+      .append("<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>");
+    for (int page = 0; page < pages; page++) {
+      if (page > 0) {
+        xml.append("<w:p><w:r><w:br w:type=\"page\"/></w:r></w:p>");
+      }
+      xml.append("<w:p><w:r><w:rPr><w:b/><w:sz w:val=\"32\"/></w:rPr><w:t>Page ").append(page + 1).append("</w:t></w:r></w:p>");
+      for (int paragraph = 0; paragraph < PARAGRAPHS_PER_PAGE; paragraph++) {
+        // formatted runs, so a page takes about as much markup as a page of a real document
+        xml.append("<w:p>");
+        for (int run = 0; run < RUNS_PER_PARAGRAPH; run++) {
+          xml.append("<w:r><w:rPr><w:rFonts w:ascii=\"Liberation Serif\" w:hAnsi=\"Liberation Serif\"/>")
+            .append(run % 3 == 0 ? "<w:i/>" : "")
+            .append("<w:sz w:val=\"22\"/></w:rPr><w:t xml:space=\"preserve\">");
+          for (int word = 0; word < WORDS_PER_RUN; word++) {
+            xml.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+          }
+          xml.append("</w:t></w:r>");
+        }
+        xml.append("</w:p>");
+      }
+    }
+    return xml.append("<w:sectPr/></w:body></w:document>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void writeEntry(final ZipOutputStream zip, final String name, final byte[] content) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content);
+    zip.closeEntry();
+  }
+
+  /**
+   * One class of the size mix.
+   *
+   * @param size   The size of the documents of the class.
+   * @param weight The share of the class, relative to the other classes.
+   */
+  public record SizeClass(DataSize size, int weight) {
+    @Override
+    public String toString() {
+      return size.toKilobytes() + "KB:" + weight;
+    }
+  }
+}
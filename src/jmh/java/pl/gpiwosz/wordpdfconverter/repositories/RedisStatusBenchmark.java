@@ -0,0 +1,96 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pl.gpiwosz.wordpdfconverter.benchmarks.BenchmarkSupport;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the status checks the routes perform against Redis for every message,
+ * using an embedded Redis server (or the one given by the "benchmark.redis.url" system property).
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedisStatusBenchmark {
+
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"0s", "10s"})
+  String nearCacheTtl;
+
+  private BenchmarkSupport.Redis redis;
+  private RedisIdempotentRepository repository;
+  private List<String> batch;
+  private final AtomicLong sequence = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    redis = BenchmarkSupport.startRedis();
+    repository = new RedisIdempotentRepository(redis.url(), "benchmark:", FileStatusEnum.PROCESSED, Duration.ofMinutes(10),
+      new JedisPoolConfig(), Duration.parse("PT" + nearCacheTtl.toUpperCase()));
+    repository.add("processed.docx", FileStatusEnum.PROCESSED.toString());
+    repository.add("processing.docx", FileStatusEnum.PROCESSING.toString());
+    batch = IntStream.range(0, BATCH_SIZE).mapToObj(i -> "batch-" + i + ".docx").collect(Collectors.toList());
+    Map<String, FileStatusEnum> statuses = new HashMap<>();
+    batch.forEach(fileName -> statuses.put(fileName, FileStatusEnum.READ));
+    repository.setStatuses(statuses);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    repository.stop();
+    redis.close();
+  }
+
+  @Benchmark
+  public FileStatusEnum getStatusProcessed() {
+    return repository.getStatus("processed.docx");
+  }
+
+  @Benchmark
+  public FileStatusEnum getStatusProcessing() {
+    return repository.getStatus("processing.docx");
+  }
+
+  @Benchmark
+  public boolean containsValueTwice() {
+    return !repository.containsValue("processing.docx", FileStatusEnum.PROCESSED.toString())
+      && !repository.containsValue("processing.docx", FileStatusEnum.PROCESSING.toString());
+  }
+
+  @Benchmark
+  public Map<String, FileStatusEnum> getStatusesBatch() {
+    return repository.getStatuses(batch);
+  }
+
+  @Benchmark
+  public boolean claimAndRelease() {
+    String fileName = "claim-" + sequence.incrementAndGet() + ".docx";
+    boolean claimed = repository.claim(fileName, null, "benchmark", Duration.ofSeconds(60));
+    repository.releaseLease(fileName, "benchmark");
+    return claimed;
+  }
+}
@@ -0,0 +1,88 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentProfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the pre-flight analysis of a DOCX by {@link DocxAnalyzer}, which has to stay negligible next to a conversion.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DocxAnalyzerBenchmark {
+
+  /**
+   * Number of embedded images; the document size grows with it.
+   */
+  @Param({"1", "100"})
+  int mediaCount;
+
+  private Path file;
+  private byte[] content;
+  private final DocxAnalyzer docxAnalyzer = new DocxAnalyzer(DataSize.ofMegabytes(20), 50, 30);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    content = createDocx(mediaCount);
+    file = Files.createTempFile("analyzer-benchmark", ".docx");
+    Files.write(file, content);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public DocumentProfile analyzeFile() {
+    return docxAnalyzer.analyze(file);
+  }
+
+  @Benchmark
+  public DocumentProfile analyzeBytes() {
+    return docxAnalyzer.analyze(content);
+  }
+
+  /**
+   * Builds a zip with the parts of a DOCX: some text markup and the given number of 64 KB images.
+   */
+  static byte[] createDocx(final int mediaCount) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+      zip.write("<Types/>".getBytes());
+      zip.putNextEntry(new ZipEntry("word/document.xml"));
+      zip.write("<w:p><w:r><w:t>Lorem ipsum dolor sit amet</w:t></w:r></w:p>".repeat(2000).getBytes());
+      byte[] image = new byte[64 * 1024];
+      for (int i = 0; i < mediaCount; i++) {
+        ThreadLocalRandom.current().nextBytes(image);
+        zip.putNextEntry(new ZipEntry("word/media/image" + i + ".png"));
+        zip.write(image);
+      }
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,87 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pl.gpiwosz.wordpdfconverter.benchmarks.BenchmarkSupport;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast an incoming document is spooled to the temporary directory before LibreOffice reads it,
+ * from a byte array ({@link LibreOfficeConverterService#createFileFromByteArray}) and from a stream, by document size.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TempFileWriteBenchmark {
+
+  @Param({"65536", "1048576", "16777216"})
+  int size;
+
+  private Path baseDir;
+  private byte[] data;
+  private LibreOfficeConverterService converterService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    baseDir = Files.createTempDirectory("temp-file-benchmark");
+    data = new byte[size];
+    ThreadLocalRandom.current().nextBytes(data);
+    TempDirConfig tempDirConfig = new TempDirConfig(baseDir.resolve("temp").toString());
+    tempDirConfig.run();
+    // the repository connects lazily and is never used by the measured methods
+    RedisIdempotentRepository repository = new RedisIdempotentRepository("redis://localhost:6379", "benchmark", FileStatusEnum.PROCESSED, Duration.ofMinutes(1));
+    ConversionScheduler scheduler = new ConversionScheduler("2001", 1);
+    OfficeInstancePool pool = BenchmarkSupport.stubInstancePool(2001);
+    ConverterMetrics metrics = new ConverterMetrics(new SimpleMeterRegistry(), scheduler, tempDirConfig, pool);
+    converterService = BenchmarkSupport.converterService(baseDir, pool, scheduler, metrics, tempDirConfig, repository);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    BenchmarkSupport.deleteRecursively(baseDir);
+  }
+
+  @Benchmark
+  public long createFileFromByteArray() throws Exception {
+    File file = converterService.createFileFromByteArray(data, "benchmark.docx");
+    long length = file.length();
+    Files.delete(file.toPath());
+    return length;
+  }
+
+  @Benchmark
+  public String transferAndHash() throws Exception {
+    Path file = Files.createTempFile(baseDir, "_temp", "_data");
+    String sha256 = UtilsService.transferAndHash(new ByteArrayInputStream(data), file);
+    Files.delete(file);
+    return sha256;
+  }
+
+  @Benchmark
+  public String sha256() {
+    return UtilsService.sha256Hex(data);
+  }
+}
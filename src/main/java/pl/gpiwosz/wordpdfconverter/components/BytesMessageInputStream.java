@@ -0,0 +1,58 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over the body of a received {@link BytesMessage}, read in chunks, so the document is copied to its destination
+ * (a temporary file or the content store) without another copy of the whole body in the heap.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class BytesMessageInputStream extends InputStream {
+
+  private final BytesMessage message;
+  private byte[] chunk;
+
+  /**
+   * Constructs a new BytesMessageInputStream.
+   *
+   * @param message The received message, positioned at the start of its body.
+   */
+  BytesMessageInputStream(final BytesMessage message) {
+    this.message = message;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    try {
+      if (offset == 0) {
+        return message.readBytes(buffer, length);
+      }
+      if (chunk == null || chunk.length < length) {
+        chunk = new byte[length];
+      }
+      int read = message.readBytes(chunk, length);
+      if (read > 0) {
+        System.arraycopy(chunk, 0, buffer, offset, read);
+      }
+      return read;
+    } catch (JMSException e) {
+      throw new IOException("Cannot read the body of the message", e);
+    }
+  }
+}
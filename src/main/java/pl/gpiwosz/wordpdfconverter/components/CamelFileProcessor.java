@@ -1,9 +1,20 @@
 package pl.gpiwosz.wordpdfconverter.components;
 
+import org.apache.camel.Body;
 import org.apache.camel.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.enums.ConversionPriorityEnum;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.ContentStore;
+import pl.gpiwosz.wordpdfconverter.services.DocumentQuarantinedException;
 import pl.gpiwosz.wordpdfconverter.services.LibreOfficeConverterService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 
 /**
@@ -15,29 +26,128 @@ import java.util.Map;
 @Component("camelFileProcessor")
 public class CamelFileProcessor {
 
+  private static final Logger LOG = LoggerFactory.getLogger(CamelFileProcessor.class);
+
   private final LibreOfficeConverterService libreOfficeConverter;
+  private final ContentStore contentStore;
 
   /**
    * Constructs a new CamelFileProcessor with the specified LibreOfficeConverterService.
    *
    * @param libreOfficeConverter The service used for converting files using LibreOffice.
+   * @param contentStore         The store holding document content referenced by claim-check messages.
    */
-  public CamelFileProcessor(LibreOfficeConverterService libreOfficeConverter, RedisIdempotentRepository redisQueueIdempotentRepository) {
+  public CamelFileProcessor(LibreOfficeConverterService libreOfficeConverter, ContentStore contentStore) {
     this.libreOfficeConverter = libreOfficeConverter;
+    this.contentStore = contentStore;
   }
 
   /**
    * Processes the incoming file content.
-   * This method receives the file content as a byte array and extracts the filename from the Camel headers.
+   * This method receives the file content as a stream and extracts the filename from the Camel headers.
+   * If the original file is readable on this node (it was picked up locally or lives on the shared volume) and unchanged,
+   * it is converted in place and the message body is never read; otherwise the body is streamed into a temporary file.
+   * The PDF export profile is taken from the {@link MessageHeaders#EXPORT_PROFILE} header, if set.
    * It then delegates the conversion to the {@link LibreOfficeConverterService}.
+   * A quarantined document is consumed; any other failure is rethrown, so the message is redelivered after a backoff.
+   *
+   * @param files   The stream with the file content.
+   * @param headers The Camel headers associated with the message, containing metadata such as the filename.
+   * @throws Exception If an error occurs during file processing or conversion. This can include exceptions thrown by the underlying {@link LibreOfficeConverterService}.
+   */
+  public void process(@Body InputStream files, @Headers Map<String, Object> headers) throws Exception {
+    String fileName = (String) headers.get(MessageHeaders.FILE_NAME);
+    LOG.debug("Processing file: {}", fileName);
+    DocumentLaneEnum lane = getLane(headers);
+    String profile = getProfile(headers);
+    Path originalPath = getLocalOriginal(headers);
+    try {
+      if (originalPath != null) {
+        files.close();
+        libreOfficeConverter.convertFile(originalPath, fileName, null, lane, ConversionPriorityEnum.BATCH, profile);
+      } else {
+        libreOfficeConverter.convertFile(files, fileName, null, lane, profile);
+      }
+    } catch (DocumentQuarantinedException e) {
+      LOG.warn("Not converting {}: {}", fileName, e.getMessage());
+    }
+  }
+
+  /**
+   * Processes a claim-check message carrying only a reference to the file content.
+   * If the content store keeps the file on the local (shared) file system, the file is converted in place;
+   * otherwise the content is streamed from the store.
+   * Content copied into the store only for the conversion ({@link MessageHeaders#DOCUMENT_TRANSIENT}) is deleted by the queue route
+   * once the message is done, whether it was converted, quarantined or filtered out.
    *
-   * @param files   The byte array containing the file content.
+   * @param key     The key of the file in the {@link ContentStore}.
    * @param headers The Camel headers associated with the message, containing metadata such as the filename.
    * @throws Exception If an error occurs during file processing or conversion. This can include exceptions thrown by the underlying {@link LibreOfficeConverterService}.
    */
-  public void process(byte[] files, @Headers Map<String, Object> headers) throws Exception {
-    String fileName = (String) headers.get("CamelFileName");
-    System.out.println("Processing file: " + fileName);
-    libreOfficeConverter.convertFile(files, fileName);
+  public void processReference(@Body String key, @Headers Map<String, Object> headers) throws Exception {
+    String fileName = (String) headers.get(MessageHeaders.FILE_NAME);
+    String sha256 = (String) headers.get(MessageHeaders.DOCUMENT_SHA256);
+    LOG.debug("Processing file reference: {}", key);
+    DocumentLaneEnum lane = getLane(headers);
+    String profile = getProfile(headers);
+    Path localPath = contentStore.resolve(key);
+    try {
+      if (localPath != null && Files.isReadable(localPath)) {
+        libreOfficeConverter.convertFile(localPath, fileName, sha256, lane, ConversionPriorityEnum.BATCH, profile);
+      } else {
+        libreOfficeConverter.convertFile(contentStore.open(key), fileName, sha256, lane, profile);
+      }
+    } catch (DocumentQuarantinedException e) {
+      LOG.warn("Not converting {}: {}", fileName, e.getMessage());
+    }
+  }
+
+  /**
+   * Resolves the original file the message was created from, if it is readable on this node and still has the sent size.
+   *
+   * @param headers The Camel headers associated with the message.
+   * @return The path of the original file, or null if the message body has to be used.
+   */
+  private Path getLocalOriginal(Map<String, Object> headers) {
+    Object absolutePath = headers.get(MessageHeaders.FILE_ABSOLUTE_PATH);
+    Object length = headers.get(MessageHeaders.FILE_LENGTH);
+    if (absolutePath == null || length == null) {
+      return null;
+    }
+    Path path = Path.of(absolutePath.toString());
+    try {
+      return Files.isReadable(path) && Files.size(path) == Long.parseLong(length.toString()) ? path : null;
+    } catch (IOException | NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the lane the document was routed to; messages sent before lanes existed are treated as SMALL.
+   *
+   * @param headers The Camel headers associated with the message.
+   * @return The lane of the document.
+   */
+  private DocumentLaneEnum getLane(Map<String, Object> headers) {
+    Object lane = headers.get(MessageHeaders.DOCUMENT_LANE);
+    if (lane == null) {
+      return DocumentLaneEnum.SMALL;
+    }
+    try {
+      return DocumentLaneEnum.valueOf(lane.toString());
+    } catch (IllegalArgumentException e) {
+      return DocumentLaneEnum.SMALL;
+    }
+  }
+
+  /**
+   * Reads the PDF export profile requested by the producer of the message.
+   *
+   * @param headers The Camel headers associated with the message.
+   * @return The name of the profile, or null for the profile of the document's input folder.
+   */
+  private String getProfile(Map<String, Object> headers) {
+    Object profile = headers.get(MessageHeaders.EXPORT_PROFILE);
+    return profile != null ? profile.toString() : null;
   }
 }
@@ -1,13 +1,30 @@
 package pl.gpiwosz.wordpdfconverter.components;
 
+import jakarta.jms.BytesMessage;
+import org.apache.camel.Body;
 import org.apache.camel.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.stereotype.Component;
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentReference;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.ContentStore;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.PayloadMemoryBudget;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Component responsible for sending files as messages to a JMS queue using Spring's {@link JmsTemplate}.
+ * The file content is spooled to the {@link ContentStore}; in claim-check mode, or if the file is above the spill threshold of
+ * the {@link PayloadMemoryBudget}, only a reference is sent, otherwise the content is streamed back into the message within the budget.
  *
  *  @author Grzegorz Piwosz
  *  @version 1.0
@@ -16,29 +33,110 @@ import java.util.Map;
 @Component("camelFileSender")
 public class CamelFileSender {
 
+  private static final Logger LOG = LoggerFactory.getLogger(CamelFileSender.class);
+
+  /**
+   * Directory of the content store holding files sent by this component, kept apart from the picked up input files.
+   */
+  private static final String CLAIM_CHECK_DIRECTORY = ".claim-check";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private final JmsTemplate jmsTemplate;
+  private final ContentStore contentStore;
+  private final boolean claimCheck;
+  private final DocxAnalyzer docxAnalyzer;
+  private final PayloadMemoryBudget payloadMemoryBudget;
 
   /**
    * Constructs a new CamelFileSender with the specified {@link JmsTemplate}.
    *
-   * @param jmsTemplate The Spring JmsTemplate used for sending messages.
+   * @param jmsTemplate  The Spring JmsTemplate used for sending messages.
+   * @param contentStore The store holding document content in claim-check mode.
+   * @param claimCheck   Whether to send references instead of file content, read from the "claim-check.enabled" property.
+   * @param docxAnalyzer The analyzer picking the lane, and so the queue, of every file.
+   * @param payloadMemoryBudget The budget of the file content held in the heap, and the size from which files are sent as references.
    */
-  public CamelFileSender(final JmsTemplate jmsTemplate) {
+  public CamelFileSender(final JmsTemplate jmsTemplate, final ContentStore contentStore, @Value("${claim-check.enabled:false}") final boolean claimCheck, final DocxAnalyzer docxAnalyzer, final PayloadMemoryBudget payloadMemoryBudget) {
     this.jmsTemplate = jmsTemplate;
+    this.contentStore = contentStore;
+    this.claimCheck = claimCheck;
+    this.docxAnalyzer = docxAnalyzer;
+    this.payloadMemoryBudget = payloadMemoryBudget;
   }
 
   /**
-   * Processes the incoming file content and sends it as a message to the "fileQueue" JMS queue.
-   * This method receives the file content as a byte array and extracts the filename from the Camel headers for logging purposes.
-   * It then uses the {@link JmsTemplate} to convert and send the file content to the specified queue.
+   * Processes the incoming file content and sends it as a message to the JMS queue of its lane ("fileQueue" or "fileQueue.large").
+   * This method receives the file content as a stream and extracts the filename from the Camel headers.
+   * The content is spooled to the content store first, so it is never held in the heap as a whole before its size is known.
+   * It then uses the {@link JmsTemplate} to send a reference to it (in claim-check mode or for files above the spill threshold),
+   * or the content itself, streamed from the store into the message once the {@link PayloadMemoryBudget} allows it, to the specified queue.
+   * If a reference cannot be sent, the spooled content is deleted again.
    *
-   * @param file    The byte array containing the file content.
+   * @param file    The stream with the file content. It is closed by this method.
    * @param headers The Camel headers associated with the message, containing metadata such as the filename.
+   * @throws IOException          If the file content cannot be written to or read from the content store.
+   * @throws InterruptedException If the thread is interrupted while waiting for the memory budget.
    */
+  public void process(@Body final InputStream file, @Headers final Map<String, Object> headers) throws IOException, InterruptedException {
+    String fileName = (String) headers.get(MessageHeaders.FILE_NAME);
+    LOG.debug("Processing file: {}", fileName);
+    DocumentReference reference;
+    try (file) {
+      reference = contentStore.put(claimCheckKey(fileName), file);
+    }
+    Path localPath = contentStore.resolve(reference.getKey());
+    DocumentLaneEnum lane = localPath != null ? docxAnalyzer.analyze(localPath).getLane() : DocumentLaneEnum.SMALL;
+    if (claimCheck || payloadMemoryBudget.shouldSpill(reference.getSize())) {
+      if (!claimCheck) {
+        payloadMemoryBudget.countSpill();
+      }
+      try {
+        jmsTemplate.convertAndSend(lane.getQueueName(), reference.getKey(), message -> {
+          message.setStringProperty(MessageHeaders.FILE_NAME, fileName);
+          message.setStringProperty(MessageHeaders.DOCUMENT_LANE, lane.name());
+          message.setStringProperty(MessageHeaders.DOCUMENT_KEY, reference.getKey());
+          message.setLongProperty(MessageHeaders.DOCUMENT_SIZE, reference.getSize());
+          message.setStringProperty(MessageHeaders.DOCUMENT_SHA256, reference.getSha256());
+          message.setStringProperty(MessageHeaders.DOCUMENT_VERSION, reference.getSha256());
+          message.setBooleanProperty(MessageHeaders.DOCUMENT_TRANSIENT, true);
+          return message;
+        });
+      } catch (RuntimeException e) {
+        contentStore.delete(reference.getKey());
+        throw e;
+      }
+      return;
+    }
+    int reservation = payloadMemoryBudget.reserve(reference.getSize());
+    try (InputStream in = contentStore.open(reference.getKey())) {
+      jmsTemplate.send(lane.getQueueName(), session -> {
+        BytesMessage message = session.createBytesMessage();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+          for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            message.writeBytes(buffer, 0, read);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        message.setStringProperty(MessageHeaders.FILE_NAME, fileName);
+        message.setStringProperty(MessageHeaders.DOCUMENT_LANE, lane.name());
+        message.setStringProperty(MessageHeaders.DOCUMENT_VERSION, reference.getSha256());
+        return message;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      payloadMemoryBudget.release(reservation);
+      contentStore.delete(reference.getKey());
+    }
+  }
 
-  public void process(final byte[] file, @Headers final Map<String, Object> headers) {
-    String fileName = (String) headers.get("CamelFileName");
-    System.out.println("Processing file: " + fileName);
-    jmsTemplate.convertAndSend("fileQueue", file);
+  /**
+   * @param fileName The name of a file.
+   * @return A new key of the content store for a transient copy of the file, e.g. a spooled or spilled one.
+   */
+  static String claimCheckKey(final String fileName) {
+    return CLAIM_CHECK_DIRECTORY + "/" + UUID.randomUUID() + "-" + Path.of(fileName).getFileName();
   }
 }
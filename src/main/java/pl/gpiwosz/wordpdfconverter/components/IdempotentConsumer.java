@@ -1,27 +1,162 @@
 package pl.gpiwosz.wordpdfconverter.components;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.h2.mvstore.MVStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.MVStoreStatusRepository;
 import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 
-import java.net.URISyntaxException;
+import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
 
+/**
+ * Creates the {@link StatusStore status stores} of the file route and the queue routes, backed by the store chosen with the
+ * "status-store.type" property: "redis" (the default, required when several nodes share the queues) or "embedded", an
+ * {@link MVStoreStatusRepository} file on the local disk ("status-store.embedded.path") for single-node deployments.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
 @Component
 public class IdempotentConsumer {
 
+  private static final String KEY_PREFIX = "docx-pdf-idempotent";
+  private static final Duration EXPIRY_TIME = Duration.ofDays(5);
+  private static final String EMBEDDED = "embedded";
+
+  @Value("${status-store.type:redis}")
+  String statusStoreType;
+
+  @Value("${status-store.embedded.path:${output.path}/status-store.mv.db}")
+  String embeddedPath;
+
+  @Value("${status-store.embedded.cache-size:16MB}")
+  DataSize embeddedCacheSize;
+
   @Value("${spring.data.redis.host}")
   String redisHost;
 
+  @Value("${spring.data.redis.port:6379}")
+  int redisPort;
+
+  @Value("${redis.pool.max-total:16}")
+  int poolMaxTotal;
+
+  @Value("${redis.pool.max-idle:16}")
+  int poolMaxIdle;
+
+  @Value("${redis.pool.min-idle:2}")
+  int poolMinIdle;
+
+  @Value("${redis.pool.max-wait:2s}")
+  Duration poolMaxWait;
+
+  @Value("${redis.near-cache-ttl:10s}")
+  Duration nearCacheTtl;
+
+  private MVStore embeddedStore;
+  private MVStoreStatusRepository embeddedRepository;
+  private JedisPool redisPool;
+
   @Bean
-  public RedisIdempotentRepository redisFileIdempotentRepository() throws URISyntaxException {
-    return RedisIdempotentRepository.redisIdempotentRepository("redis://"+redisHost+":6379", "docx-pdf-idempotent", FileStatusEnum.READ, Duration.ofDays(5));
+  public StatusStore redisFileIdempotentRepository(MeterRegistry meterRegistry) throws Exception {
+    return statusStore(FileStatusEnum.READ, meterRegistry);
   };
 
   @Bean
-  public RedisIdempotentRepository redisQueueIdempotentRepository() throws URISyntaxException {
-    return RedisIdempotentRepository.redisIdempotentRepository("redis://"+redisHost+":6379", "docx-pdf-idempotent", FileStatusEnum.PROCESSED, Duration.ofDays(5));
+  public StatusStore redisQueueIdempotentRepository(MeterRegistry meterRegistry) throws Exception {
+    return statusStore(FileStatusEnum.PROCESSED, meterRegistry);
   };
+
+  /**
+   * Removes the expired entries of the embedded store, at the interval set by the "status-store.embedded.purge-interval" property.
+   * Redis expires its keys itself.
+   */
+  @Scheduled(fixedDelayString = "${status-store.embedded.purge-interval:10m}")
+  public void purgeExpired() {
+    MVStoreStatusRepository repository = embeddedRepository;
+    if (repository != null) {
+      repository.purgeExpired();
+    }
+  }
+
+  /**
+   * Closes the embedded store or the Redis connection pool, if it was opened.
+   */
+  @PreDestroy
+  public synchronized void close() {
+    if (embeddedStore != null) {
+      embeddedStore.close();
+      embeddedStore = null;
+      embeddedRepository = null;
+    }
+    if (redisPool != null) {
+      redisPool.close();
+      redisPool = null;
+    }
+  }
+
+  /**
+   * Creates a status store of the configured type.
+   *
+   * @param fileStatus    The status set when a message is added.
+   * @param meterRegistry The registry to publish the metrics of the store to.
+   * @return The status store; both embedded stores share the same file, both Redis stores the same connection pool.
+   * @throws Exception If Redis' URL is invalid or the embedded store cannot be opened.
+   */
+  private synchronized StatusStore statusStore(FileStatusEnum fileStatus, MeterRegistry meterRegistry) throws Exception {
+    StatusStore repository;
+    if (EMBEDDED.equalsIgnoreCase(statusStoreType.trim())) {
+      if (embeddedStore == null) {
+        embeddedStore = MVStoreStatusRepository.openStore(Path.of(embeddedPath), (int) embeddedCacheSize.toMegabytes());
+      }
+      embeddedRepository = new MVStoreStatusRepository(embeddedStore, KEY_PREFIX, fileStatus, EXPIRY_TIME);
+      repository = embeddedRepository;
+    } else {
+      if (redisPool == null) {
+        redisPool = new JedisPool(jedisPoolConfig(), new URI("redis://" + redisHost + ":" + redisPort));
+      }
+      repository = RedisIdempotentRepository.redisIdempotentRepository(redisPool, KEY_PREFIX, fileStatus, EXPIRY_TIME, nearCacheTtl);
+    }
+    repository.setMeterRegistry(meterRegistry);
+    return repository;
+  }
+
+  /**
+   * Creates the connection pool configuration shared by the repositories, sized from the "redis.pool.*" properties.
+   *
+   * @return A new {@link JedisPoolConfig}.
+   */
+  private JedisPoolConfig jedisPoolConfig() {
+    return jedisPoolConfig(poolMaxTotal, poolMaxIdle, poolMinIdle, poolMaxWait);
+  }
+
+  /**
+   * Creates a connection pool configuration of the repositories.
+   *
+   * @param maxTotal The maximum number of connections.
+   * @param maxIdle  The maximum number of idle connections.
+   * @param minIdle  The number of idle connections kept open.
+   * @param maxWait  How long a caller waits for a connection when all are in use.
+   * @return A new {@link JedisPoolConfig}.
+   */
+  public static JedisPoolConfig jedisPoolConfig(int maxTotal, int maxIdle, int minIdle, Duration maxWait) {
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMaxTotal(maxTotal);
+    poolConfig.setMaxIdle(maxIdle);
+    poolConfig.setMinIdle(minIdle);
+    poolConfig.setMaxWait(maxWait);
+    return poolConfig;
+  }
 }
@@ -0,0 +1,66 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+/**
+ * Names of the message headers exchanged between the file route and the queue consumers.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public final class MessageHeaders {
+
+  /**
+   * The original file name, shared with Camel's file component.
+   */
+  public static final String FILE_NAME = "CamelFileName";
+
+  /**
+   * The absolute path of the picked up file, shared with Camel's file component.
+   */
+  public static final String FILE_ABSOLUTE_PATH = "CamelFileAbsolutePath";
+
+  /**
+   * The length of the picked up file, shared with Camel's file component.
+   */
+  public static final String FILE_LENGTH = "CamelFileLength";
+
+  /**
+   * The key of the document in the {@link pl.gpiwosz.wordpdfconverter.repositories.ContentStore} (claim-check mode).
+   */
+  public static final String DOCUMENT_KEY = "DocumentKey";
+
+  /**
+   * The size of the document in bytes.
+   */
+  public static final String DOCUMENT_SIZE = "DocumentSize";
+
+  /**
+   * The hex encoded SHA-256 hash of the document content.
+   */
+  public static final String DOCUMENT_SHA256 = "DocumentSha256";
+
+  /**
+   * The version of the document content: its modification time and size for picked up files, its SHA-256 hash for sent ones.
+   * Together with the file name it identifies a document, so a changed document saved under the same name is converted again.
+   */
+  public static final String DOCUMENT_VERSION = "DocumentVersion";
+
+  /**
+   * Set when the document was copied into the content store only for the conversion and can be deleted afterwards.
+   */
+  public static final String DOCUMENT_TRANSIENT = "DocumentTransient";
+
+  /**
+   * The {@link pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum lane} the document is converted in.
+   */
+  public static final String DOCUMENT_LANE = "DocumentLane";
+
+  /**
+   * The name of the {@link pl.gpiwosz.wordpdfconverter.services.PdfExportProfiles PDF export profile}, set by producers which
+   * want another profile than the one of the document's input folder.
+   */
+  public static final String EXPORT_PROFILE = "PdfExportProfile";
+
+  private MessageHeaders() {
+  }
+}
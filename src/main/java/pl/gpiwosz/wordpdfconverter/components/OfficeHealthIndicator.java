@@ -0,0 +1,42 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+
+/**
+ * Health indicator of the {@link OfficeInstancePool}, reported as "office" by /actuator/health.
+ * It is OUT_OF_SERVICE until the first LibreOffice instance is started and warmed up, and is part of the readiness group
+ * (/actuator/health/readiness), so a starting node only gets traffic once it can convert.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Component("office")
+public class OfficeHealthIndicator implements HealthIndicator {
+
+  private final OfficeInstancePool officeInstancePool;
+
+  /**
+   * Constructs a new OfficeHealthIndicator.
+   *
+   * @param officeInstancePool The pool whose instances are reported.
+   */
+  public OfficeHealthIndicator(final OfficeInstancePool officeInstancePool) {
+    this.officeInstancePool = officeInstancePool;
+  }
+
+  @Override
+  public Health health() {
+    int ready = officeInstancePool.getRunningCount();
+    Health.Builder health = ready > 0 ? Health.up() : Health.outOfService();
+    return health
+      .withDetail("ready", ready)
+      .withDetail("starting", officeInstancePool.getStartingCount())
+      .withDetail("idle", officeInstancePool.getIdleCount())
+      .withDetail("max", officeInstancePool.getMaxInstances())
+      .build();
+  }
+}
@@ -1,10 +1,39 @@
 package pl.gpiwosz.wordpdfconverter.components;
 
+import jakarta.jms.BytesMessage;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExtendedStartupListener;
+import org.apache.camel.Message;
+import org.apache.camel.Route;
+import org.apache.camel.component.jms.JmsConsumer;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.jms.JmsMessage;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.listener.AbstractMessageListenerContainer;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
 import org.springframework.stereotype.Component;
-import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
-import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentReference;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.ContentStore;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+import pl.gpiwosz.wordpdfconverter.services.ConversionLeaseService;
+import pl.gpiwosz.wordpdfconverter.services.ConversionScheduler;
+import pl.gpiwosz.wordpdfconverter.services.ConverterMetrics;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.InputDirectoryScanner;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+import pl.gpiwosz.wordpdfconverter.services.PayloadMemoryBudget;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Apache Camel route configuration for processing DOCX files from a file system and sending them to an ActiveMQ queue.
@@ -17,71 +46,461 @@ import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
 @Component()
 public class PDFFileRoute extends RouteBuilder {
 
-  private final RedisIdempotentRepository redisFileIdempotentRepository;
-  private final RedisIdempotentRepository redisQueueIdempotentRepository;
+  private static final Logger LOG = LoggerFactory.getLogger(PDFFileRoute.class);
+  private static final String QUEUE_ROUTE_ID = "fileQueueRoute";
+  private static final String LARGE_QUEUE_ROUTE_ID = "fileQueueLargeRoute";
+  private static final List<String> QUEUE_ROUTE_IDS = List.of(QUEUE_ROUTE_ID, LARGE_QUEUE_ROUTE_ID);
+  /**
+   * Receive attempts after which a consumer thread ends its task and is rescheduled, unless the consumers were reduced meanwhile.
+   */
+  private static final int CONSUMER_TASK_RECEIVES = 10;
+  /**
+   * Exchange property holding the reservation of the {@link PayloadMemoryBudget} for the document carried by the message.
+   */
+  private static final String PAYLOAD_RESERVATION = "PayloadReservation";
+  /**
+   * Exchange property holding the path of the file reported by the {@link InputDirectoryScanner}.
+   */
+  private static final String SCANNED_FILE = "ScannedFile";
+  /**
+   * Exchange property holding the file name claimed by the exchange, whose lease it has to release.
+   */
+  private static final String CLAIMED_FILE = "ClaimedFile";
+
+  private final StatusStore redisFileIdempotentRepository;
+  private final StatusStore redisQueueIdempotentRepository;
+  private final ConversionScheduler conversionScheduler;
+  private final ContentStore contentStore;
+  private final ConversionLeaseService conversionLeaseService;
+  private final ConverterMetrics converterMetrics;
+  private final DocxAnalyzer docxAnalyzer;
+  private final InputDirectoryScanner inputDirectoryScanner;
+  private final ThreadingConfig threadingConfig;
+  private final OfficeInstancePool officeInstancePool;
+  private final PayloadMemoryBudget payloadMemoryBudget;
+  private final AtomicBoolean queueRoutesStarted = new AtomicBoolean();
 
   /**
-   * The input path for the file consumer, read from application properties.
+   * Whether the file route sends only references to the files (claim-check mode) instead of their content.
    */
-  @Value("${input.path}")
-  String inputPath;
+  @Value("${claim-check.enabled:false}")
+  boolean claimCheck;
 
   /**
-   * Creates and configures a RedisIdempotentRepository for tracking processed files.
-   * This repository uses a redis-based storage mechanism to persist the processed file names.
+   * The number of messages the broker pushes to a queue consumer ahead of its receive calls; 0 makes the consumers pull.
    */
-  public PDFFileRoute(RedisIdempotentRepository redisFileIdempotentRepository, RedisIdempotentRepository redisQueueIdempotentRepository) {
+  @Value("${queue.consumer.prefetch:0}")
+  int prefetch;
+
+  /**
+   * Creates and configures the route with a {@link StatusStore} for tracking processed files.
+   * The store (Redis, or an embedded file for a single node) persists the processed file names.
+   * The {@link ConversionScheduler} determines how many messages are consumed from the queue at the same time.
+   * The {@link ContentStore} describes the picked up files in claim-check mode.
+   * The {@link ConversionLeaseService} claims files cluster-wide before they are converted.
+   * The {@link ConverterMetrics} time the pickup and the queue wait of every file.
+   * The {@link DocxAnalyzer} picks the lane (and so the queue) of every file.
+   * The {@link InputDirectoryScanner} reports the new and changed files of the input directory.
+   * The {@link ThreadingConfig} provides the (virtual or platform) threads of the queue consumers.
+   * The {@link OfficeInstancePool} reports when the first LibreOffice instance is ready, which starts the queue consumers.
+   * The {@link PayloadMemoryBudget} bounds the document bytes held in the heap by the messages being sent and consumed.
+   */
+  public PDFFileRoute(StatusStore redisFileIdempotentRepository, StatusStore redisQueueIdempotentRepository, ConversionScheduler conversionScheduler, ContentStore contentStore, ConversionLeaseService conversionLeaseService, ConverterMetrics converterMetrics, DocxAnalyzer docxAnalyzer, InputDirectoryScanner inputDirectoryScanner, ThreadingConfig threadingConfig, OfficeInstancePool officeInstancePool, PayloadMemoryBudget payloadMemoryBudget) {
     this.redisFileIdempotentRepository = redisFileIdempotentRepository;
     this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.conversionScheduler = conversionScheduler;
+    this.contentStore = contentStore;
+    this.conversionLeaseService = conversionLeaseService;
+    this.converterMetrics = converterMetrics;
+    this.docxAnalyzer = docxAnalyzer;
+    this.inputDirectoryScanner = inputDirectoryScanner;
+    this.threadingConfig = threadingConfig;
+    this.officeInstancePool = officeInstancePool;
+    this.payloadMemoryBudget = payloadMemoryBudget;
   }
 
   /**
    * Configures the Camel routes.
-   * This method defines two routes:
+   * This method defines four routes:
    * <ol>
-   *     <li>A route that consumes DOCX files from the specified input path, applies idempotent consumption using the {@link #redisFileIdempotentRepository}, and sends them to the "fileQueue" on ActiveMQ.</li>
-   *     <li>A route that consumes messages from the "fileQueue", applies idempotent consumption using the {@link #redisQueueIdempotentRepository} on ActiveMQ and sends them to the "camelFileProcessor" bean for further processing.</li>
+   *     <li>A route that polls the {@link InputDirectoryScanner} and hands every new or changed DOCX file to the file route.</li>
+   *     <li>A route that takes the reported DOCX files, applies idempotent consumption using the {@link #redisFileIdempotentRepository}, and sends them to the queue of their lane on ActiveMQ.</li>
+   *     <li>Two routes, one per lane, that consume messages from the "fileQueue" and the "fileQueue.large", atomically claim them with a lease in the {@link #redisQueueIdempotentRepository} and send them to the "camelFileProcessor" bean for further processing.</li>
    * </ol>
-   * The file consumer is configured to:
+   * The file routes are configured to:
+   * <ul>
+   *     <li>Only include files ending with ".docx", also in subdirectories of the input path, once they are completely written.</li>
+   *     <li>Not move the processed files.</li>
+   *     <li>Look at changes only (watch events and a persisted cursor) instead of listing the whole directory on every poll.</li>
+   *     <li>Use idempotent consumption to prevent duplicate processing, keyed by the file name and the version of its content
+   *     (modification time and size, see {@link MessageHeaders#DOCUMENT_VERSION}), so a document saved again under the same name is converted again.</li>
+   *     <li>In claim-check mode, send only a reference (key, size and SHA-256 hash) to the file on the shared volume instead of its content.</li>
+   *     <li>Otherwise, send files above "payload.spill-threshold" as such a reference too, and hold the content of the smaller ones
+   *     in the heap only within the {@link PayloadMemoryBudget}, waiting for it before the file is read.</li>
+   *     <li>Route large documents (by the zip central directory, see {@link DocxAnalyzer}) to their own queue, so they never hold up small ones.</li>
+   * </ul>
+   * The queue consumers are configured to:
    * <ul>
-   *     <li>Only include files ending with ".docx".</li>
-   *     <li>Not move the processed files (noop=true).</li>
-   *     <li>Use idempotent consumption to prevent duplicate processing.</li>
+   *     <li>Start only once the first LibreOffice instance is started and warmed up, so a starting node does not take messages it cannot convert yet.</li>
+   *     <li>Run as many concurrent consumers as the {@link ConversionScheduler} currently has slots for the lane, resized whenever the office pool grows or shrinks,
+   *     so a node takes only as many messages as it can convert and a new node gets its share of the backlog as soon as it is ready.
+   *     On virtual threads (see {@link ThreadingConfig}) several consumers per slot run, so the I/O of the next documents overlaps the conversions.</li>
+   *     <li>Pull messages instead of having them pushed ("queue.consumer.prefetch" 0), so the backlog stays on the broker and is shared between nodes
+   *     by their free consumers, instead of being buffered by the node which connected first.</li>
+   *     <li>Reserve the size of the document carried by the message from the {@link PayloadMemoryBudget} until the message is done,
+   *     if the budget is free; otherwise (or above the spill threshold) stream the document into the content store at once,
+   *     rather than holding it in the heap while waiting. While the budget is exhausted the consumers are paused.</li>
+   *     <li>Delete content copied into the content store only for the conversion once the message is done, also if it was filtered out.</li>
+   *     <li>Consume within a JMS transaction, so the message is acknowledged only after the conversion finishes and redelivered if it fails.</li>
    * </ul>
    */
   @Override
-  public void configure() {
-    from("file:" + inputPath + "?include=.*.docx&noop=true&idempotent=true")
-      .idempotentConsumer(header("CamelFileName"), this.redisFileIdempotentRepository)
-      .to("activemq:queue:fileQueue");
-
-    from("activemq:queue:fileQueue")
-      // forward only not PROCESSED or currently not PROCESSING files
-      .filter(exchange -> {
-        String key = exchange.getIn().getHeader("CamelFileName", String.class);
-        return !redisQueueIdempotentRepository.containsValue(key, FileStatusEnum.PROCESSED.toString())
-          && !redisQueueIdempotentRepository.containsValue(key, FileStatusEnum.PROCESSING.toString());
-      })
-      .to("bean:camelFileProcessor");
-
-
-    /*
-    * POTENTIAL IMPROVEMENTS
-    *
-    * Additionally, if machine is busy, we can log a message and send the message back to the queue
-    * */
-//    from("activemq:queue:fileQueue")
-//      .filter(exchange -> {
-//        String key = exchange.getIn().getHeader("CamelFileName", String.class);
-//        return !redisQueueIdempotentRepository.containsValue(key, FileStatusEnum.PROCESSED.toString())
-//          && !redisQueueIdempotentRepository.containsValue(key, FileStatusEnum.PROCESSING.toString());
-//      })
-//      .choice()
-//        .when(exchange -> libreOfficeConverter.getNumberOfCurrentTasks().get() <= Runtime.getRuntime().availableProcessors()) // check if machine is busy
-//        .to("bean:camelFileProcessor")
-//      .otherwise()
-//        .log("Message cannot be processed at the moment")
-//        .to("activemq:queue:fileQueue").
-//      endChoice();
-  }
-}
\ No newline at end of file
+  public void configure() throws Exception {
+    from("scheduler:inputScanner?delay=" + inputDirectoryScanner.getPollInterval().toMillis())
+      .routeId("inputScanRoute")
+      .process(exchange -> exchange.getIn().setBody(inputDirectoryScanner.poll()))
+      .split(body())
+        .setProperty(SCANNED_FILE, body())
+        // confirm each file to the scanner once queued, or give it back to be reported again
+        .doTry()
+          .process(this::describeFile)
+          .to("direct:pickup")
+          .process(exchange -> inputDirectoryScanner.completed(exchange.getProperty(SCANNED_FILE, Path.class)))
+        .doCatch(Exception.class)
+          .process(this::returnScannedFile)
+        .end()
+      .end();
+
+    ProcessorDefinition<?> fileRoute = from("direct:pickup")
+      .routeId("fileRoute")
+      .idempotentConsumer(simple("${header.CamelFileName}@${header." + MessageHeaders.DOCUMENT_VERSION + "}"), this.redisFileIdempotentRepository);
+    fileRoute = fileRoute.process(claimCheck ? this::checkIn : this::spillOrReserve);
+    fileRoute.process(this::assignLane)
+      .doTry()
+        .choice()
+          .when(header(MessageHeaders.DOCUMENT_LANE).isEqualTo(DocumentLaneEnum.LARGE.name()))
+            .to("activemq:queue:" + DocumentLaneEnum.LARGE.getQueueName())
+          .otherwise()
+            .to("activemq:queue:" + DocumentLaneEnum.SMALL.getQueueName())
+        .end()
+      .endDoTry()
+      .doFinally()
+        .process(this::releasePayload)
+      .end()
+      .process(converterMetrics::recordPickupToEnqueue);
+
+    bindToRegistry("conversionTaskExecutor", threadingConfig.getTaskExecutor());
+    configureQueueRoute(QUEUE_ROUTE_ID, DocumentLaneEnum.SMALL, threadingConfig.consumersFor(conversionScheduler.getMaxCapacity()));
+    configureQueueRoute(LARGE_QUEUE_ROUTE_ID, DocumentLaneEnum.LARGE, threadingConfig.consumersFor(conversionScheduler.getMaxLargeCapacity()));
+    conversionScheduler.addCapacityListener(this::resizeQueueConsumers);
+    payloadMemoryBudget.addPressureListener(this::throttleQueueConsumers);
+    getContext().addStartupListener(new ExtendedStartupListener() {
+      @Override
+      public void onCamelContextStarted(final CamelContext context, final boolean alreadyStarted) {
+      }
+
+      @Override
+      public void onCamelContextFullyStarted(final CamelContext context, final boolean alreadyStarted) {
+        officeInstancePool.addReadyListener(PDFFileRoute.this::startQueueRoutes);
+      }
+    });
+  }
+
+  /**
+   * Starts the queue routes, once, when the first LibreOffice instance is ready, with consumers for the slots ready.
+   */
+  private void startQueueRoutes() {
+    if (!queueRoutesStarted.compareAndSet(false, true)) {
+      return;
+    }
+    resizeQueueConsumers();
+    for (String routeId : QUEUE_ROUTE_IDS) {
+      try {
+        getContext().getRouteController().startRoute(routeId);
+      } catch (Exception e) {
+        LOG.error("Cannot start the route {}: {}", routeId, e.getMessage());
+      }
+    }
+    throttleQueueConsumers();
+  }
+
+  /**
+   * Pauses the consumers of the queue routes while the {@link PayloadMemoryBudget} is exhausted, so no further messages
+   * are received into the heap, and resumes them once it is available again. Messages being processed are not affected.
+   */
+  private synchronized void throttleQueueConsumers() {
+    if (!queueRoutesStarted.get()) {
+      return;
+    }
+    boolean exhausted = payloadMemoryBudget.isExhausted();
+    for (String routeId : QUEUE_ROUTE_IDS) {
+      Route route = getContext().getRoute(routeId);
+      if (route == null || !(route.getConsumer() instanceof JmsConsumer jmsConsumer)) {
+        continue;
+      }
+      try {
+        AbstractMessageListenerContainer container = jmsConsumer.getListenerContainer();
+        if (container == null) {
+          continue;
+        }
+        if (exhausted && container.isRunning()) {
+          container.stop();
+          LOG.info("Route {} paused until the payload memory budget is available", routeId);
+        } else if (!exhausted && !container.isRunning()) {
+          container.start();
+          LOG.info("Route {} resumed", routeId);
+        }
+      } catch (Exception e) {
+        LOG.error("Cannot throttle the consumers of the route {}: {}", routeId, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Sets the number of consumers of the queue routes to the current slots of their lane (at least one).
+   * Additional consumers are started as the existing ones receive messages; surplus consumers stop after their current task.
+   */
+  private void resizeQueueConsumers() {
+    if (!queueRoutesStarted.get()) {
+      return;
+    }
+    resizeQueueConsumers(QUEUE_ROUTE_ID, threadingConfig.consumersFor(Math.max(1, conversionScheduler.getCapacity())));
+    resizeQueueConsumers(LARGE_QUEUE_ROUTE_ID, threadingConfig.consumersFor(Math.max(1, conversionScheduler.getLargeCapacity())));
+  }
+
+  private void resizeQueueConsumers(final String routeId, final int consumers) {
+    Route route = getContext().getRoute(routeId);
+    if (route == null || !(route.getConsumer() instanceof JmsConsumer jmsConsumer)) {
+      return;
+    }
+    try {
+      AbstractMessageListenerContainer container = jmsConsumer.getListenerContainer();
+      if (container instanceof DefaultMessageListenerContainer listenerContainer && listenerContainer.getMaxConcurrentConsumers() != consumers) {
+        // concurrent first: it raises the maximum when growing, and the maximum can only be lowered to it when shrinking
+        listenerContainer.setConcurrentConsumers(consumers);
+        listenerContainer.setMaxConcurrentConsumers(consumers);
+        LOG.info("Route {} runs {} consumers", routeId, consumers);
+      }
+    } catch (Exception e) {
+      LOG.error("Cannot resize the consumers of the route {}: {}", routeId, e.getMessage());
+    }
+  }
+
+  /**
+   * Configures the consumer of the queue of one lane.
+   *
+   * @param routeId   The id of the route.
+   * @param lane      The lane whose queue is consumed.
+   * @param consumers The largest number of concurrent consumers, used until the route is resized to the slots ready.
+   */
+  private void configureQueueRoute(final String routeId, final DocumentLaneEnum lane, final int consumers) {
+    from("activemq:queue:" + lane.getQueueName()
+      + "?concurrentConsumers=" + consumers
+      + "&maxConcurrentConsumers=" + consumers
+      + "&maxMessagesPerTask=" + CONSUMER_TASK_RECEIVES
+      + "&transacted=true"
+      + "&taskExecutor=#conversionTaskExecutor"
+      + "&destination.consumer.prefetchSize=" + Math.max(0, prefetch))
+      .routeId(routeId)
+      .autoStartup(false)
+      // give up the lease claimed by this exchange once the message is done, whether converted or failed
+      .onCompletion()
+        .process(exchange -> conversionLeaseService.release(exchange.getProperty(CLAIMED_FILE, String.class)))
+        .process(this::releasePayload)
+      .end()
+      .process(converterMetrics::recordQueueWait)
+      .process(this::deleteTransientContentWhenDone)
+      .process(this::claim)
+      // forward only files claimed atomically for this node (not PROCESSED, or not PROCESSING by a live node)
+      .filter(exchangeProperty(CLAIMED_FILE).isNotNull())
+      // only claimed documents take memory from the budget or are spilled to the content store
+      .process(this::admitReceivedPayload)
+      .choice()
+        .when(header(MessageHeaders.DOCUMENT_KEY).isNotNull())
+          .to("bean:camelFileProcessor?method=processReference")
+        .otherwise()
+          .to("bean:camelFileProcessor?method=process")
+      .end();
+  }
+
+  /**
+   * Sets the headers Camel's file component would set for a file reported by the {@link InputDirectoryScanner}.
+   * Files in subdirectories are named by their path relative to the input directory.
+   *
+   * @param exchange The exchange carrying the path of the reported file.
+   * @throws Exception If the file cannot be read.
+   */
+  private void describeFile(final Exchange exchange) throws Exception {
+    Message message = exchange.getIn();
+    Path file = message.getBody(Path.class);
+    message.setHeader(MessageHeaders.FILE_NAME, inputDirectoryScanner.relativeName(file));
+    message.setHeader(MessageHeaders.FILE_ABSOLUTE_PATH, file.toString());
+    message.setHeader(MessageHeaders.FILE_LENGTH, Files.size(file));
+    message.setHeader(MessageHeaders.DOCUMENT_VERSION, Files.getLastModifiedTime(file).toMillis() + "-" + Files.size(file));
+    message.setBody(file.toFile());
+  }
+
+  /**
+   * Gives a file whose pickup failed back to the {@link InputDirectoryScanner}, which reports it again.
+   *
+   * @param exchange The exchange of the file, carrying the caught exception.
+   */
+  private void returnScannedFile(final Exchange exchange) {
+    Path file = exchange.getProperty(SCANNED_FILE, Path.class);
+    Exception cause = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Exception.class);
+    LOG.warn("Cannot pick up {}, it is retried: {}", file, cause == null ? null : cause.getMessage());
+    inputDirectoryScanner.failed(file);
+  }
+
+  /**
+   * Analyzes the picked up file and sets the lane it is converted in.
+   *
+   * @param exchange The exchange carrying the picked up file.
+   */
+  private void assignLane(final Exchange exchange) {
+    Message message = exchange.getIn();
+    String absolutePath = message.getHeader(MessageHeaders.FILE_ABSOLUTE_PATH, String.class);
+    DocumentLaneEnum lane = absolutePath == null ? DocumentLaneEnum.SMALL : docxAnalyzer.analyze(Path.of(absolutePath)).getLane();
+    message.setHeader(MessageHeaders.DOCUMENT_LANE, lane.name());
+  }
+
+  /**
+   * Replaces the file content with a reference to the file in the {@link ContentStore}.
+   * The content store is rooted at the input directory by default, so the file is referenced in place and never copied.
+   *
+   * @param exchange The exchange carrying the picked up file.
+   * @throws Exception If the file cannot be read for hashing.
+   */
+  private void checkIn(final Exchange exchange) throws Exception {
+    Message message = exchange.getIn();
+    DocumentReference reference = contentStore.reference(message.getHeader(MessageHeaders.FILE_NAME, String.class));
+    message.setHeader(MessageHeaders.DOCUMENT_KEY, reference.getKey());
+    message.setHeader(MessageHeaders.DOCUMENT_SIZE, reference.getSize());
+    message.setHeader(MessageHeaders.DOCUMENT_SHA256, reference.getSha256());
+    message.setBody(reference.getKey());
+  }
+
+  /**
+   * Sends a file above the spill threshold as a reference to the {@link ContentStore}, like in claim-check mode;
+   * otherwise reserves its size from the {@link PayloadMemoryBudget} before the JMS producer reads it into the message.
+   *
+   * @param exchange The exchange carrying the picked up file.
+   * @throws Exception If the file cannot be read for hashing, or the thread is interrupted while waiting for the budget.
+   */
+  private void spillOrReserve(final Exchange exchange) throws Exception {
+    long size = exchange.getIn().getHeader(MessageHeaders.FILE_LENGTH, 0L, Long.class);
+    if (payloadMemoryBudget.shouldSpill(size)) {
+      checkIn(exchange);
+      payloadMemoryBudget.countSpill();
+    } else {
+      exchange.setProperty(PAYLOAD_RESERVATION, payloadMemoryBudget.reserve(size));
+    }
+  }
+
+  /**
+   * Claims the file of a received message for this node and records the claim in the {@link #CLAIMED_FILE} property,
+   * so only this exchange releases the lease. A message which cannot be claimed is dropped as a duplicate, unless the file
+   * is being converted in another version: the message is then rolled back, to be redelivered once that conversion is done,
+   * since its version was marked as seen by the file route and would never be picked up again.
+   *
+   * @param exchange The exchange created by the queue consumer.
+   */
+  private void claim(final Exchange exchange) {
+    Message message = exchange.getIn();
+    String fileName = message.getHeader(MessageHeaders.FILE_NAME, String.class);
+    String version = message.getHeader(MessageHeaders.DOCUMENT_VERSION, String.class);
+    if (conversionLeaseService.claim(fileName, version)) {
+      exchange.setProperty(CLAIMED_FILE, fileName);
+    } else if (conversionLeaseService.isConvertingOtherVersion(fileName, version)) {
+      LOG.info("Version {} of {} waits for the conversion of another version, rolling it back", version, fileName);
+      exchange.setRollbackOnly(true);
+    }
+  }
+
+  /**
+   * Deletes the content copied into the store only for the conversion ({@link MessageHeaders#DOCUMENT_TRANSIENT}) once the
+   * message is done, also when it is filtered out and so never reaches the processor. Content spilled by the producer is kept
+   * if the message failed, since it is redelivered.
+   *
+   * @param exchange The exchange created by the queue consumer.
+   */
+  private void deleteTransientContentWhenDone(final Exchange exchange) {
+    Message message = exchange.getIn();
+    String key = message.getHeader(MessageHeaders.DOCUMENT_KEY, String.class);
+    if (key != null && message.getHeader(MessageHeaders.DOCUMENT_TRANSIENT, false, Boolean.class)) {
+      exchange.getExchangeExtension().addOnCompletion(new SynchronizationAdapter() {
+        @Override
+        public void onComplete(final Exchange done) {
+          contentStore.delete(key);
+        }
+      });
+    }
+  }
+
+  /**
+   * Admits the document of a claimed message. The document carried in the body is in the heap already, so the consumer does
+   * not wait for the {@link PayloadMemoryBudget} while holding it: its size is reserved only if the budget is free right now
+   * and the document is below the spill threshold, and the body is then read as a stream, without another copy in the heap.
+   * Otherwise the body is streamed into the {@link ContentStore} and the document is converted from there like a spilled one.
+   * Content spilled here is deleted once the message is done, even if it failed: the redelivered message carries it again.
+   *
+   * @param exchange The exchange created by the queue consumer.
+   * @throws Exception If the message cannot be read, or its body cannot be written to the content store.
+   */
+  private void admitReceivedPayload(final Exchange exchange) throws Exception {
+    Message message = exchange.getIn();
+    if (message instanceof JmsMessage jmsMessage && jmsMessage.getJmsMessage() instanceof BytesMessage bytesMessage) {
+      long size = bytesMessage.getBodyLength();
+      int reservation = payloadMemoryBudget.shouldSpill(size) ? -1 : payloadMemoryBudget.tryReserve(size);
+      if (reservation >= 0) {
+        exchange.setProperty(PAYLOAD_RESERVATION, reservation);
+        message.setBody(new BytesMessageInputStream(bytesMessage));
+      } else {
+        String key = spillReceivedPayload(message, bytesMessage);
+        exchange.getExchangeExtension().addOnCompletion(new SynchronizationAdapter() {
+          @Override
+          public void onDone(final Exchange done) {
+            contentStore.delete(key);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Streams the body of a received message into the {@link ContentStore} and replaces it with a reference to the copy.
+   *
+   * @param message      The received message.
+   * @param bytesMessage The JMS message carrying the document.
+   * @return The key of the copy.
+   * @throws Exception If the body cannot be read or written.
+   */
+  private String spillReceivedPayload(final Message message, final BytesMessage bytesMessage) throws Exception {
+    String fileName = message.getHeader(MessageHeaders.FILE_NAME, String.class);
+    DocumentReference reference;
+    try (BytesMessageInputStream body = new BytesMessageInputStream(bytesMessage)) {
+      reference = contentStore.put(CamelFileSender.claimCheckKey(fileName), body);
+    }
+    LOG.debug("Spilled the received document {} ({} bytes) to the content store", fileName, reference.getSize());
+    payloadMemoryBudget.countSpill();
+    message.setHeader(MessageHeaders.DOCUMENT_KEY, reference.getKey());
+    message.setHeader(MessageHeaders.DOCUMENT_SIZE, reference.getSize());
+    message.setHeader(MessageHeaders.DOCUMENT_SHA256, reference.getSha256());
+    message.setHeader(MessageHeaders.DOCUMENT_TRANSIENT, true);
+    message.setBody(reference.getKey());
+    return reference.getKey();
+  }
+
+  /**
+   * Releases the reservation of the {@link PayloadMemoryBudget} made for the exchange, if any.
+   *
+   * @param exchange The exchange.
+   */
+  private void releasePayload(final Exchange exchange) {
+    Integer reservation = exchange.getProperty(PAYLOAD_RESERVATION, Integer.class);
+    if (reservation != null) {
+      exchange.removeProperty(PAYLOAD_RESERVATION);
+      payloadMemoryBudget.release(reservation);
+    }
+  }
+}
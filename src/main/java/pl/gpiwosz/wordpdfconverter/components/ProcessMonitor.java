@@ -1,22 +1,21 @@
 package pl.gpiwosz.wordpdfconverter.components;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import pl.gpiwosz.wordpdfconverter.dtos.ProcessInfo;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstance;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
 
 
 /**
- * This class monitors a specific process identified by a command and takes action
- * if its memory usage exceeds a certain threshold.
+ * This class monitors the memory of the LibreOffice processes owned by the {@link OfficeInstancePool}
+ * and restarts an instance gracefully if its resident set size exceeds a threshold.
+ * The processes are found with {@link ProcessHandle} and their memory is read from /proc/&lt;pid&gt;/status,
+ * so no external command is run and processes of other applications are never touched.
+ * An instance above the threshold is drained first, so a conversion in progress is never killed.
  *
  * @author Grzegorz Piwosz
  * @version 1.0
@@ -25,87 +24,54 @@ import java.util.regex.Pattern;
 @Component
 public class ProcessMonitor {
 
-  /**
-   * Schedules a periodic check for the target process every 10 minutes.
-   *
-   * @throws IOException If there is an error reading from the process output.
-   * @throws InterruptedException If the process is interrupted while waiting.
-   */
-  @Scheduled(fixedRate = 10, timeUnit = TimeUnit.MINUTES)
-  private void checkProcess() throws IOException, InterruptedException {
-    List<String> command = Arrays.asList("/bin/bash", "-c", "ps aux | grep soffice.bin");
-
-    ProcessBuilder builder = new ProcessBuilder(command);
-    Process process = builder.start();
-    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+  private static final Logger LOG = LoggerFactory.getLogger(ProcessMonitor.class);
 
-      String inputLine;
-      while ((inputLine = reader.readLine()) != null) {
-        ProcessInfo processInfo = parseProcessLine(inputLine);
-        if (processInfo != null) {
-          handleProcess(processInfo);
-        }
-      }
-  }
+  private final OfficeInstancePool officeInstancePool;
+  private final long warnResidentSetSize;
+  private final long maxResidentSetSize;
 
   /**
-   * Handles a process based on its memory usage. If the memory usage exceeds 10.0%,
-   * the process is terminated.
+   * Constructs a new ProcessMonitor.
    *
-   * @param processInfo The information about the process.
-   * @throws IOException If there is an error during process termination.
-   * @throws InterruptedException If the process is interrupted while waiting.
+   * @param officeInstancePool  The pool whose instances are monitored.
+   * @param warnResidentSetSize The memory above which a warning is logged, read from the "office.monitor.warn-rss" property.
+   * @param maxResidentSetSize  The memory above which an instance is restarted, read from the "office.restart.max-rss" property.
    */
-  private void handleProcess(ProcessInfo processInfo) throws IOException, InterruptedException {
-    if(Float.parseFloat(processInfo.getMemUsage()) > 10.0) {
-        killProcess(processInfo.getPid());
-    }
+  public ProcessMonitor(final OfficeInstancePool officeInstancePool,
+                        @Value("${office.monitor.warn-rss:768MB}") final DataSize warnResidentSetSize,
+                        @Value("${office.restart.max-rss:1GB}") final DataSize maxResidentSetSize) {
+    this.officeInstancePool = officeInstancePool;
+    this.warnResidentSetSize = warnResidentSetSize.toBytes();
+    this.maxResidentSetSize = maxResidentSetSize.toBytes();
   }
 
   /**
-   * Terminates a process identified by its PID using the `kill` command.
-   *
-   * @param pid The process ID of the process to terminate.
-   * @throws IOException If there is an error during process termination.
-   * @throws InterruptedException If the process is interrupted while waiting.
+   * Samples the memory of every LibreOffice instance, at the interval set by the "office.monitor.interval" property.
    */
-  private void killProcess(String pid) throws IOException, InterruptedException {
-    List<String> command = Arrays.asList("/bin/bash", "-c", "kill -9 " + pid);
-    ProcessBuilder builder = new ProcessBuilder(command);
-    Process process = builder.start();
-    process.waitFor();
+  @Scheduled(fixedRateString = "${office.monitor.interval:30s}")
+  public void checkProcesses() {
+    for (OfficeInstance instance : officeInstancePool.getInstances()) {
+      handleInstance(instance, instance.getResidentSetSize());
+    }
   }
 
   /**
-   * Parses a line of output from the `ps aux` command and extracts information about a process.
-   * The regular expression used for parsing might need adjustment for different systems.
+   * Handles an instance based on its memory usage. If it exceeds the maximum, the instance is restarted
+   * as soon as it is idle.
    *
-   * @param line A line of output from the `ps aux` command.
-   * @return A {@link ProcessInfo} object containing information about the process,
-   *         or null if the line doesn't match the expected format.
+   * @param instance        The instance.
+   * @param residentSetSize The resident set size of its process in bytes, or -1 if unknown
+   *                        (a running instance whose memory cannot be read is reported by {@link OfficeInstance#getResidentSetSize()}).
    */
-  private ProcessInfo parseProcessLine(String line) {
-    // Regular expression to parse 'ps aux' output (adjust as needed for your system)
-    String regex = "^\\S+\\s+(\\d+)\\s+(\\d+\\.\\d+)\\s+(\\d+\\.\\d+)\\s+\\S+\\s+\\S+\\s+\\S+\\s+\\S+\\s+\\S+\\s+(.*)$";
-    Pattern pattern = Pattern.compile(regex);
-    Matcher matcher = pattern.matcher(line);
-
-    if (matcher.find()) {
-      String pid = matcher.group(1);
-      String cpuUsage = matcher.group(2);
-      String memUsage = matcher.group(3);
-      String command = matcher.group(4);
-
-      System.out.println("PID: " + pid + ", CPU%: " + cpuUsage + ", MEM%: " + memUsage + ", Command: " + command);
-
-      return ProcessInfo.builder()
-        .memUsage(memUsage)
-        .pid(pid)
-        .build();
-
-    } else {
-      return null;
+  void handleInstance(final OfficeInstance instance, final long residentSetSize) {
+    if (residentSetSize < 0 || instance.isRestartRequested()) {
+      return;
+    }
+    if (maxResidentSetSize > 0 && residentSetSize > maxResidentSetSize) {
+      LOG.warn("LibreOffice on port {} uses {} MB, restarting it once idle", instance.getPort(), residentSetSize / (1024 * 1024));
+      officeInstancePool.requestRestart(instance);
+    } else if (warnResidentSetSize > 0 && residentSetSize > warnResidentSetSize) {
+      LOG.warn("LibreOffice on port {} uses {} MB", instance.getPort(), residentSetSize / (1024 * 1024));
     }
   }
-
 }
@@ -0,0 +1,33 @@
+package pl.gpiwosz.wordpdfconverter.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import pl.gpiwosz.wordpdfconverter.repositories.ContentStore;
+import pl.gpiwosz.wordpdfconverter.repositories.FileSystemContentStore;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration class for the {@link ContentStore} used in claim-check mode.
+ * By default the store is rooted at the input directory, so picked up files are referenced in place
+ * on the shared volume instead of being copied through the broker.
+ *
+ *  @author Grzegorz Piwosz
+ *  @version 1.0
+ *  @since 2025-01-01
+ */
+@Configuration
+public class ContentStoreConfig {
+
+  /**
+   * Creates the {@link ContentStore} holding document content for claim-check messages.
+   *
+   * @param storePath The root directory of the store, read from the "claim-check.store-path" property (defaults to "input.path").
+   * @return A {@link FileSystemContentStore} rooted at the configured directory.
+   */
+  @Bean
+  public ContentStore contentStore(@Value("${claim-check.store-path:${input.path}}") final String storePath) {
+    return new FileSystemContentStore(Path.of(storePath));
+  }
+}
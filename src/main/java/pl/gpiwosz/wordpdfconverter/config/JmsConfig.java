@@ -0,0 +1,49 @@
+package pl.gpiwosz.wordpdfconverter.config;
+
+import org.apache.activemq.RedeliveryPolicy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jms.activemq.ActiveMQConnectionFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Configuration class for the ActiveMQ connection of the queue consumers.
+ * A failed conversion rolls back the transaction of its message, which the client redelivers with an exponential backoff
+ * ("conversion.redelivery.*"), without blocking the consumer for other messages ("spring.activemq.non-blocking-redelivery").
+ * Documents failing repeatedly are quarantined by the {@link pl.gpiwosz.wordpdfconverter.services.QuarantineService} before
+ * the redeliveries run out; the broker's dead letter queue stays the last resort, e.g. while Redis cannot be reached.
+ *
+ *  @author Grzegorz Piwosz
+ *  @version 1.0
+ *  @since 2025-01-01
+ */
+@Configuration
+public class JmsConfig {
+
+  /**
+   * Creates the customizer setting the redelivery policy of the ActiveMQ connection factory.
+   *
+   * @param maxRedeliveries The number of redeliveries before a message goes to the dead letter queue, read from the "conversion.redelivery.max-redeliveries" property.
+   * @param initialDelay    The delay of the first redelivery, read from the "conversion.redelivery.initial-delay" property.
+   * @param multiplier      The factor by which each further delay grows, read from the "conversion.redelivery.multiplier" property.
+   * @param maxDelay        The longest delay, read from the "conversion.redelivery.max-delay" property.
+   * @return The customizer.
+   */
+  @Bean
+  public ActiveMQConnectionFactoryCustomizer redeliveryPolicyCustomizer(@Value("${conversion.redelivery.max-redeliveries:5}") final int maxRedeliveries,
+                                                                       @Value("${conversion.redelivery.initial-delay:5s}") final Duration initialDelay,
+                                                                       @Value("${conversion.redelivery.multiplier:2}") final double multiplier,
+                                                                       @Value("${conversion.redelivery.max-delay:5m}") final Duration maxDelay) {
+    return connectionFactory -> {
+      RedeliveryPolicy policy = connectionFactory.getRedeliveryPolicy();
+      policy.setMaximumRedeliveries(maxRedeliveries);
+      policy.setInitialRedeliveryDelay(initialDelay.toMillis());
+      policy.setRedeliveryDelay(initialDelay.toMillis());
+      policy.setUseExponentialBackOff(multiplier > 1);
+      policy.setBackOffMultiplier(multiplier);
+      policy.setMaximumRedeliveryDelay(maxDelay.toMillis());
+    };
+  }
+}
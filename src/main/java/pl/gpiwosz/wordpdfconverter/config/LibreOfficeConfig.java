@@ -1,18 +1,28 @@
 package pl.gpiwosz.wordpdfconverter.config;
 
-import org.jodconverter.core.DocumentConverter;
+import org.jodconverter.core.office.OfficeException;
 import org.jodconverter.core.office.OfficeManager;
-import org.jodconverter.local.LocalConverter;
 import org.jodconverter.local.office.LocalOfficeManager;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstance;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
 import pl.gpiwosz.wordpdfconverter.services.UtilsService;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 /**
  * Configuration class for setting up the LibreOffice integration using JODConverter.
- * This class defines Spring beans for the {@link OfficeManager} and {@link DocumentConverter}.
+ * This class defines the Spring bean for the {@link OfficeInstancePool}, holding one {@link OfficeManager}
+ * and converter per LibreOffice port.
  *
  *  @author Grzegorz Piwosz
  *  @version 1.0
@@ -20,34 +30,71 @@ import pl.gpiwosz.wordpdfconverter.services.UtilsService;
  */
 @Configuration
 public class LibreOfficeConfig {
+
+  private static final String WARMUP_DOCUMENT = "_warmup.docx";
+
   /**
-   * Creates and starts a {@link LocalOfficeManager} instance.
-   * This manager is responsible for managing the LibreOffice processes.
+   * Creates an {@link OfficeInstancePool} and starts its instances in the background.
+   * Each port gets its own {@link LocalOfficeManager} managing a single LibreOffice process, so conversions can be
+   * attributed to (and measured for) the instance that ran them.
    * The port numbers used by LibreOffice are read from the "libreoffice.ports" property.
+   * Only "office.pool.min-instances" instances are started at boot, in parallel and without holding up the startup;
+   * the pool grows up to "office.pool.max-instances" (at most one per port) under load.
+   * Every started instance first converts a sample document from the temporary directory, so fonts and filters are
+   * loaded before the first real document arrives. Until then the application reports itself as not ready.
+   * <p>
+   * Instances are restarted by the pool after "office.restart.max-tasks" tasks or once they use more than
+   * "office.restart.max-rss" of memory, instead of by JODConverter in the middle of its own task accounting.
+   * JODConverter's task execution timeout is the hard conversion deadline ("conversion.timeout.hard"); the soft deadline
+   * and the retries are handled by the {@link pl.gpiwosz.wordpdfconverter.services.ConversionRunner}.
    *
-   * @param ports A comma-separated string of port numbers for LibreOffice, read from application properties.
-   * @return A started {@link OfficeManager} instance.
-   * @throws Exception If an error occurs during the OfficeManager startup. This can include exceptions thrown by the underlying JODConverter library.
+   * @param ports              A comma-separated string of port numbers for LibreOffice, read from application properties.
+   * @param minInstances       The number of instances which always run.
+   * @param maxInstances       The largest number of instances, 0 for one per port.
+   * @param maxTasksPerProcess The number of tasks after which an instance is restarted, 0 for no limit.
+   * @param maxResidentSetSize The memory above which an instance is restarted after its task, 0 for no limit.
+   * @param hardTimeout        The time after which JODConverter gives up a conversion and restarts the process.
+   * @param tempDirConfig      The temporary directory holding the warm-up document.
+   * @return An {@link OfficeInstancePool} instance, whose instances are starting.
+   * @throws Exception If the warm-up document cannot be written.
    */
-  @Bean
-  public OfficeManager officeManager(@Value("${libreoffice.ports}") final String ports) throws Exception {
-    LocalOfficeManager officeManager = LocalOfficeManager.builder()
-      .portNumbers(UtilsService.getNumbersArray(ports))
-      .maxTasksPerProcess(0) // Set to 0 to allow unlimited tasks per process
-      .build();
-    officeManager.start();
-    return officeManager;
+  @Bean(destroyMethod = "stop")
+  public OfficeInstancePool officeInstancePool(@Value("${libreoffice.ports}") final String ports,
+                                               @Value("${office.pool.min-instances:2}") final int minInstances,
+                                               @Value("${office.pool.max-instances:0}") final int maxInstances,
+                                               @Value("${office.restart.max-tasks:200}") final long maxTasksPerProcess,
+                                               @Value("${office.restart.max-rss:1GB}") final DataSize maxResidentSetSize,
+                                               @Value("${conversion.timeout.hard:180s}") final Duration hardTimeout,
+                                               final TempDirConfig tempDirConfig) throws Exception {
+    List<OfficeInstance> instances = new ArrayList<>();
+    int[] portNumbers = UtilsService.getNumbersArray(ports);
+    if (maxInstances > 0 && maxInstances < portNumbers.length) {
+      portNumbers = Arrays.copyOf(portNumbers, maxInstances);
+    }
+    for (int port : portNumbers) {
+      instances.add(new OfficeInstance(port, () -> LocalOfficeManager.builder()
+        .portNumbers(port)
+        .maxTasksPerProcess(0) // Restarts are handled by the OfficeInstancePool
+        .taskExecutionTimeout(hardTimeout.toMillis())
+        .build()));
+    }
+    Path sample = tempDirConfig.getTempDirPath().resolve(WARMUP_DOCUMENT);
+    UtilsService.writeSampleDocx(sample);
+    OfficeInstancePool officeInstancePool = new OfficeInstancePool(instances, minInstances, maxTasksPerProcess, maxResidentSetSize.toBytes(),
+      instance -> warmUp(instance, sample, tempDirConfig.getTempDirPath()));
+    officeInstancePool.startInBackground();
+    return officeInstancePool;
   }
 
   /**
-   * Creates a {@link DocumentConverter} instance using the provided {@link OfficeManager}.
-   * This converter is used to perform document conversions using LibreOffice.
-   *
-   * @param officeManager The {@link OfficeManager} instance to be used by the converter.
-   * @return A {@link DocumentConverter} instance.
+   * Converts the sample document on the given instance and deletes the result.
    */
-  @Bean
-  public DocumentConverter documentConverter(final OfficeManager officeManager) {
-    return LocalConverter.builder().officeManager(officeManager).build();
+  private static void warmUp(final OfficeInstance instance, final Path sample, final Path tempDir) throws OfficeException {
+    File target = tempDir.resolve("_warmup_" + instance.getPort() + ".pdf").toFile();
+    try {
+      instance.getConverter().convert(sample.toFile()).to(target).execute();
+    } finally {
+      target.delete();
+    }
   }
-}
\ No newline at end of file
+}
@@ -13,7 +13,8 @@ import java.nio.file.Path;
 /**
  * Configuration class responsible for managing a temporary directory.
  * This component creates the temporary directory on startup and deletes it on shutdown.
- * The location of the temporary directory is determined by the "output.path" property.
+ * The location of the temporary directory is determined by the "temp.path" property, falling back to "output.path"/temp.
+ * Pointing "temp.path" at a tmpfs location (e.g. /dev/shm) keeps temporary copies of documents off the disk.
  *
  *  @author Grzegorz Piwosz
  *  @version 1.0
@@ -25,12 +26,12 @@ public class TempDirConfig {
 
   /**
    * Constructs a new TempDirConfig.
-   * The temporary directory path is constructed by appending "/temp" to the path specified by the "output.path" property.
+   * By default the temporary directory path is constructed by appending "/temp" to the path specified by the "output.path" property.
    *
-   * @param outputPath The base output path read from application properties.
+   * @param tempPath The temporary directory path read from the "temp.path" property.
    */
-  public TempDirConfig(@Value("${output.path}") final String outputPath) {
-    this.tempDirPath = Path.of(outputPath + "/temp");
+  public TempDirConfig(@Value("${temp.path:${output.path}/temp}") final String tempPath) {
+    this.tempDirPath = Path.of(tempPath);
   }
 
   /**
@@ -42,7 +43,7 @@ public class TempDirConfig {
   @PostConstruct
   public void run() throws Exception {
     if (!Files.exists(this.tempDirPath)) {
-      Files.createDirectory(this.tempDirPath);
+      Files.createDirectories(this.tempDirPath);
     }
   }
 
@@ -63,7 +64,7 @@ public class TempDirConfig {
    * @param path The path to the directory or file to delete.
    * @throws IOException If an I/O error occurs during deletion.
    */
-  private void deleteRecursively(final Path path) throws IOException {
+  public static void deleteRecursively(final Path path) throws IOException {
     if (Files.isDirectory(path)) {
       try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
         for (Path entry : entries) {
@@ -0,0 +1,69 @@
+package pl.gpiwosz.wordpdfconverter.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration class for the threads running the I/O bound stages of the pipeline: the JMS consumers of the lane queues
+ * (message transfer, Redis calls, temporary files and waiting for LibreOffice) and the conversions of the HTTP API.
+ * <p>
+ * With "spring.threads.virtual.enabled" set (the same switch Spring Boot uses for Tomcat and the scheduler) and a Java 21+
+ * runtime, these stages run on virtual threads. They are cheap to park, so more consumers than LibreOffice slots can be
+ * started ("threads.virtual.consumers-per-slot"): the surplus consumers receive, hash and store the next documents while the
+ * others convert, and the number of conversions stays bounded by the {@link pl.gpiwosz.wordpdfconverter.services.ConversionScheduler}
+ * semaphore instead of by thread counts. On older runtimes a warning is logged and platform threads are used.
+ *
+ *  @author Grzegorz Piwosz
+ *  @version 1.0
+ *  @since 2025-01-01
+ */
+@Component
+public class ThreadingConfig {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ThreadingConfig.class);
+  private static final int VIRTUAL_THREADS_FEATURE_VERSION = 21;
+
+  private final boolean virtualThreads;
+  private final int consumersPerSlot;
+  private final SimpleAsyncTaskExecutor taskExecutor;
+
+  /**
+   * Constructs a new ThreadingConfig.
+   *
+   * @param virtualThreadsEnabled Whether to use virtual threads, read from the "spring.threads.virtual.enabled" property.
+   * @param consumersPerSlot      The number of queue consumers per LibreOffice slot on virtual threads, read from the "threads.virtual.consumers-per-slot" property.
+   */
+  public ThreadingConfig(@Value("${spring.threads.virtual.enabled:false}") final boolean virtualThreadsEnabled,
+                         @Value("${threads.virtual.consumers-per-slot:2}") final int consumersPerSlot) {
+    boolean supported = Runtime.version().feature() >= VIRTUAL_THREADS_FEATURE_VERSION;
+    if (virtualThreadsEnabled && !supported) {
+      LOG.warn("Virtual threads need Java {}+, running on {}; using platform threads", VIRTUAL_THREADS_FEATURE_VERSION, Runtime.version());
+    }
+    this.virtualThreads = virtualThreadsEnabled && supported;
+    this.consumersPerSlot = Math.max(1, consumersPerSlot);
+    this.taskExecutor = new SimpleAsyncTaskExecutor("conversion-");
+    this.taskExecutor.setVirtualThreads(this.virtualThreads);
+  }
+
+  /**
+   * @param slots The number of LibreOffice slots the consumers feed.
+   * @return The number of concurrent queue consumers: one per slot on platform threads, more on virtual threads.
+   */
+  public int consumersFor(final int slots) {
+    return virtualThreads ? slots * consumersPerSlot : slots;
+  }
+
+  public boolean isVirtualThreads() {
+    return this.virtualThreads;
+  }
+
+  /**
+   * @return The executor starting a new (virtual or platform) thread per task.
+   */
+  public SimpleAsyncTaskExecutor getTaskExecutor() {
+    return this.taskExecutor;
+  }
+}
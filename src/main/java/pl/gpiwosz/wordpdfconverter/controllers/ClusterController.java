@@ -0,0 +1,52 @@
+package pl.gpiwosz.wordpdfconverter.controllers;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.gpiwosz.wordpdfconverter.dtos.NodeCapacity;
+import pl.gpiwosz.wordpdfconverter.services.NodeCapacityService;
+
+import java.util.List;
+
+/**
+ * HTTP API reporting the capacity of the converter nodes, to check that the queued documents are spread evenly.
+ * <ul>
+ *     <li>GET /api/cluster/capacity returns the capacities published by all live nodes.</li>
+ *     <li>GET /api/cluster/capacity/local returns the current capacity of the answering node.</li>
+ * </ul>
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@RestController
+@RequestMapping("/api/cluster/capacity")
+public class ClusterController {
+
+  private final NodeCapacityService nodeCapacityService;
+
+  /**
+   * Constructs a new ClusterController.
+   *
+   * @param nodeCapacityService The service publishing and reading the capacities of the nodes.
+   */
+  public ClusterController(final NodeCapacityService nodeCapacityService) {
+    this.nodeCapacityService = nodeCapacityService;
+  }
+
+  /**
+   * @return The capacities of the live nodes, ordered by node id.
+   */
+  @GetMapping
+  public List<NodeCapacity> getClusterCapacity() {
+    return nodeCapacityService.getClusterCapacity();
+  }
+
+  /**
+   * @return The capacity of this node.
+   */
+  @GetMapping("/local")
+  public NodeCapacity getLocalCapacity() {
+    return nodeCapacityService.getLocalCapacity();
+  }
+}
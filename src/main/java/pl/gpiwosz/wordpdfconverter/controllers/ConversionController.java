@@ -0,0 +1,245 @@
+package pl.gpiwosz.wordpdfconverter.controllers;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import pl.gpiwosz.wordpdfconverter.dtos.ConversionStatus;
+import pl.gpiwosz.wordpdfconverter.dtos.ExportResult;
+import pl.gpiwosz.wordpdfconverter.dtos.ExportStatus;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.services.ConversionApiService;
+import pl.gpiwosz.wordpdfconverter.services.DocumentQuarantinedException;
+import pl.gpiwosz.wordpdfconverter.services.PdfExportProfiles;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HTTP API converting DOCX documents directly, for interactive callers which cannot wait for the input directory poller and the queues.
+ * The DOCX is sent as the raw request body and streamed to disk, the PDF is streamed back from the output directory
+ * (or, for POST /api/conversions/pdf, from a temporary file deleted once the response was written).
+ * <ul>
+ *     <li>POST /api/conversions/pdf converts the document and responds with the PDF.</li>
+ *     <li>POST /api/conversions accepts the document (202) and converts it in the background; the Location header points to its status.</li>
+ *     <li>GET /api/conversions/{id} returns the status of a conversion, GET /api/conversions/{id}/pdf its PDF once it is PROCESSED.</li>
+ *     <li>POST /api/conversions/exports?targets=default,archive,thumbnail loads the document once, exports it to all targets and
+ *     responds with the status of each; GET /api/conversions/{id}/exports/{target} returns a target once it is PROCESSED.</li>
+ * </ul>
+ * The optional "profile" parameter selects a PDF export profile (see {@link PdfExportProfiles}); unknown profiles and
+ * export targets are rejected with 400.
+ * When too many conversions are pending, requests are rejected with 503 and a Retry-After header;
+ * documents which failed too often and were quarantined are rejected with 422.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@RestController
+@RequestMapping("/api/conversions")
+public class ConversionController {
+
+  private static final String RETRY_AFTER_SECONDS = "5";
+
+  private final ConversionApiService conversionApiService;
+  private final PdfExportProfiles pdfExportProfiles;
+
+  /**
+   * Constructs a new ConversionController.
+   *
+   * @param conversionApiService The service converting the uploaded documents.
+   * @param pdfExportProfiles    The PDF export profiles the callers may choose from.
+   */
+  public ConversionController(final ConversionApiService conversionApiService, final PdfExportProfiles pdfExportProfiles) {
+    this.conversionApiService = conversionApiService;
+    this.pdfExportProfiles = pdfExportProfiles;
+  }
+
+  /**
+   * Converts the uploaded document and responds with the PDF.
+   *
+   * @param content  The DOCX, sent as the request body.
+   * @param fileName The name of the document, used for the name of the returned PDF.
+   * @param profile  The PDF export profile, or null for the default profile.
+   * @return The PDF, or 400 for an unknown profile.
+   * @throws Exception If the upload cannot be stored or the conversion fails.
+   */
+  @PostMapping("/pdf")
+  public ResponseEntity<Resource> convert(final InputStream content,
+                                          @RequestParam(defaultValue = "document.docx") final String fileName,
+                                          @RequestParam(required = false) final String profile) throws Exception {
+    if (profile != null && !pdfExportProfiles.exists(profile)) {
+      content.close();
+      return ResponseEntity.badRequest().build();
+    }
+    Path pdf = conversionApiService.convert(content, profile);
+    try {
+      long size = Files.size(pdf);
+      // the temporary PDF is deleted when the response body has been written and the stream is closed
+      InputStream pdfContent = Files.newInputStream(pdf, StandardOpenOption.DELETE_ON_CLOSE);
+      return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_PDF)
+        .contentLength(size)
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(pdfNameOf(fileName)).build().toString())
+        .body(new InputStreamResource(pdfContent));
+    } catch (Exception e) {
+      Files.deleteIfExists(pdf);
+      throw e;
+    }
+  }
+
+  /**
+   * Accepts the uploaded document for a conversion in the background.
+   *
+   * @param content The DOCX, sent as the request body.
+   * @param profile The PDF export profile, or null for the default profile.
+   * @return 202 with the status of the conversion and its URL in the Location header, or 400 for an unknown profile.
+   * @throws Exception If the upload cannot be stored.
+   */
+  @PostMapping
+  public ResponseEntity<ConversionStatus> submit(final InputStream content,
+                                                 @RequestParam(required = false) final String profile) throws Exception {
+    if (profile != null && !pdfExportProfiles.exists(profile)) {
+      content.close();
+      return ResponseEntity.badRequest().build();
+    }
+    String id = conversionApiService.submit(content, profile);
+    URI location = ServletUriComponentsBuilder.fromCurrentRequestUri().path("/{id}").buildAndExpand(id).toUri();
+    return ResponseEntity.accepted()
+      .location(location)
+      .body(ConversionStatus.builder().id(id).status(FileStatusEnum.READ.toString()).build());
+  }
+
+  /**
+   * Exports the uploaded document to several targets from a single load of the document.
+   *
+   * @param content The DOCX, sent as the request body.
+   * @param targets The targets: names of PDF export profiles, or "thumbnail" for a PNG of the first page.
+   * @return The status of the export and of each target, with the URLs of the PROCESSED targets.
+   * @throws Exception If the upload cannot be stored or the document cannot be loaded.
+   */
+  @PostMapping("/exports")
+  public ResponseEntity<ExportStatus> export(final InputStream content, @RequestParam final List<String> targets) throws Exception {
+    List<String> distinctTargets = targets.stream().map(String::trim).filter(target -> !target.isEmpty()).distinct().toList();
+    for (String target : distinctTargets) {
+      if (pdfExportProfiles.exportFormatOf(target) == null) {
+        content.close();
+        return ResponseEntity.badRequest().build();
+      }
+    }
+    ExportStatus status = conversionApiService.export(content, distinctTargets);
+    for (ExportResult result : status.getTargets()) {
+      if (FileStatusEnum.PROCESSED.toString().equals(result.getStatus())) {
+        result.setUrl(ServletUriComponentsBuilder.fromCurrentContextPath()
+          .path("/api/conversions/{id}/exports/{target}")
+          .buildAndExpand(status.getId(), result.getTarget())
+          .toUriString());
+      }
+    }
+    return ResponseEntity.ok(status);
+  }
+
+  /**
+   * Returns a target of a multi-target export.
+   *
+   * @param id     The id of the export.
+   * @param target The name of the target.
+   * @return The exported file, or 404 if the export or the target is unknown or the target is not PROCESSED.
+   * @throws Exception If the file cannot be read.
+   */
+  @GetMapping("/{id}/exports/{target}")
+  public ResponseEntity<Resource> getExport(@PathVariable final String id, @PathVariable final String target) throws Exception {
+    Path export = conversionApiService.getExport(id, target);
+    if (export == null || !Files.exists(export)) {
+      return ResponseEntity.notFound().build();
+    }
+    String fileName = export.getFileName().toString();
+    return ResponseEntity.ok()
+      .contentType(fileName.endsWith(".png") ? MediaType.IMAGE_PNG : MediaType.APPLICATION_PDF)
+      .contentLength(Files.size(export))
+      .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName).build().toString())
+      .body(new FileSystemResource(export));
+  }
+
+  /**
+   * Returns the status of a conversion, with the URL of its PDF once it is PROCESSED.
+   *
+   * @param id The id of the conversion.
+   * @return The status, or 404 if the conversion is unknown.
+   */
+  @GetMapping("/{id}")
+  public ResponseEntity<ConversionStatus> getStatus(@PathVariable final String id) {
+    ConversionStatus status = conversionApiService.getStatus(id);
+    if (status == null) {
+      return ResponseEntity.notFound().build();
+    }
+    if (FileStatusEnum.PROCESSED.toString().equals(status.getStatus())) {
+      status.setPdfUrl(ServletUriComponentsBuilder.fromCurrentRequestUri().path("/pdf").toUriString());
+    }
+    return ResponseEntity.ok(status);
+  }
+
+  /**
+   * Returns the PDF of a conversion.
+   *
+   * @param id The id of the conversion.
+   * @return The PDF, or 404 if the conversion is unknown or not PROCESSED yet.
+   * @throws Exception If the PDF cannot be read.
+   */
+  @GetMapping("/{id}/pdf")
+  public ResponseEntity<Resource> getPdf(@PathVariable final String id) throws Exception {
+    ConversionStatus status = conversionApiService.getStatus(id);
+    Path pdf = conversionApiService.getPdf(id);
+    if (status == null || !FileStatusEnum.PROCESSED.toString().equals(status.getStatus()) || pdf == null || !Files.exists(pdf)) {
+      return ResponseEntity.notFound().build();
+    }
+    return pdfResponse(pdf, id + ".pdf");
+  }
+
+  @ExceptionHandler(RejectedExecutionException.class)
+  public ResponseEntity<Void> handleRejected() {
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+      .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+      .build();
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<Void> handleInvalidRequest() {
+    return ResponseEntity.badRequest().build();
+  }
+
+  @ExceptionHandler(DocumentQuarantinedException.class)
+  public ResponseEntity<Void> handleQuarantined() {
+    return ResponseEntity.unprocessableEntity().build();
+  }
+
+  private ResponseEntity<Resource> pdfResponse(final Path pdf, final String fileName) throws Exception {
+    return ResponseEntity.ok()
+      .contentType(MediaType.APPLICATION_PDF)
+      .contentLength(Files.size(pdf))
+      .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(pdfNameOf(fileName)).build().toString())
+      .body(new FileSystemResource(pdf));
+  }
+
+  private static String pdfNameOf(final String fileName) {
+    int extension = fileName.lastIndexOf('.');
+    return (extension > 0 ? fileName.substring(0, extension) : fileName) + ".pdf";
+  }
+}
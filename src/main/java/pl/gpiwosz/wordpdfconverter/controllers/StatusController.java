@@ -0,0 +1,81 @@
+package pl.gpiwosz.wordpdfconverter.controllers;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusPage;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.services.StatusReportService;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP API reporting the documents by conversion status, e.g. to see what is still pending.
+ * <ul>
+ *     <li>GET /api/statuses returns the number of documents of each status.</li>
+ *     <li>GET /api/statuses/{status}?limit=&amp;cursor= lists the documents with the given status; the next page is requested
+ *     with the "nextCursor" of the previous one, which is null on the last page.</li>
+ *     <li>GET /api/statuses/history?fileName= lists the status changes of a document, oldest first.</li>
+ * </ul>
+ * Unknown statuses and invalid cursors are rejected with 400.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@RestController
+@RequestMapping("/api/statuses")
+public class StatusController {
+
+  private final StatusReportService statusReportService;
+
+  /**
+   * Constructs a new StatusController.
+   *
+   * @param statusReportService The service reading the statuses.
+   */
+  public StatusController(final StatusReportService statusReportService) {
+    this.statusReportService = statusReportService;
+  }
+
+  /**
+   * @return The number of documents of each status.
+   */
+  @GetMapping
+  public Map<FileStatusEnum, Long> countByStatus() {
+    return statusReportService.countByStatus();
+  }
+
+  /**
+   * @param status The status.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit  The number of documents per page.
+   * @return A page of the documents with the given status.
+   */
+  @GetMapping("/{status}")
+  public StatusPage list(@PathVariable final FileStatusEnum status,
+                         @RequestParam(required = false) final String cursor,
+                         @RequestParam(defaultValue = "100") final int limit) {
+    return statusReportService.list(status, cursor, limit);
+  }
+
+  /**
+   * @param fileName The file name of the document.
+   * @return The status changes of the document, oldest first.
+   */
+  @GetMapping("/history")
+  public List<StatusChange> history(@RequestParam final String fileName) {
+    return statusReportService.history(fileName);
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<Void> handleInvalidCursor() {
+    return ResponseEntity.badRequest().build();
+  }
+}
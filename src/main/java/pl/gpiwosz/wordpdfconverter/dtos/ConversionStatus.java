@@ -0,0 +1,16 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class ConversionStatus {
+    private String id;
+    /**
+     * READ, PROCESSING, PROCESSED, FAILED or QUARANTINED (see {@link pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum}).
+     */
+    private String status;
+    private String error;
+    private String pdfUrl;
+}
@@ -0,0 +1,14 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+
+@Builder
+@Data
+public class DocumentProfile {
+    private long uncompressedSize;
+    private int mediaCount;
+    private int estimatedPages;
+    private DocumentLaneEnum lane;
+}
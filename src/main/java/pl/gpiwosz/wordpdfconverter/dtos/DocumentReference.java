@@ -0,0 +1,12 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class DocumentReference {
+    private String key;
+    private long size;
+    private String sha256;
+}
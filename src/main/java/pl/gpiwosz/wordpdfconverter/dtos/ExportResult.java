@@ -0,0 +1,19 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class ExportResult {
+    /**
+     * The name of a PDF export profile, or "thumbnail" for the PNG of the first page.
+     */
+    private String target;
+    /**
+     * PROCESSED or FAILED (see {@link pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum}).
+     */
+    private String status;
+    private String error;
+    private String url;
+}
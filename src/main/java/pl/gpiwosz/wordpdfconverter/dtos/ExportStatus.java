@@ -0,0 +1,17 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Builder
+@Data
+public class ExportStatus {
+    private String id;
+    /**
+     * PROCESSED if every target was written, otherwise FAILED (see {@link pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum}).
+     */
+    private String status;
+    private List<ExportResult> targets;
+}
@@ -0,0 +1,27 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class NodeCapacity {
+    private String nodeId;
+    /**
+     * The conversion slots of the node, one per LibreOffice instance ready.
+     */
+    private int slots;
+    private int busySlots;
+    /**
+     * The conversions waiting on the node for a free slot.
+     */
+    private int waiting;
+    /**
+     * The slots of the node once its office pool is fully grown.
+     */
+    private int maxSlots;
+    /**
+     * When the node published its capacity, in milliseconds since the epoch.
+     */
+    private long updatedAt;
+}
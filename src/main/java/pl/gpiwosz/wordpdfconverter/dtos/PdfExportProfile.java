@@ -0,0 +1,26 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class PdfExportProfile {
+    private String name;
+    /**
+     * JPEG quality of the images (1-100), or null to keep LibreOffice's lossless default.
+     */
+    private Integer jpegQuality;
+    /**
+     * Resolution images are reduced to (75, 150, 300, 600 or 1200 DPI), or null to keep them as they are.
+     */
+    private Integer maxImageResolution;
+    /**
+     * PDF/A part (1, 2 or 3, conformance level b), or null for a plain PDF.
+     */
+    private Integer pdfaVersion;
+    /**
+     * Whether the 14 standard PDF fonts are embedded too (other fonts are always embedded), or null for LibreOffice's default.
+     */
+    private Boolean embedStandardFonts;
+}
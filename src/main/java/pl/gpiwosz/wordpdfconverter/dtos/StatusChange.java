@@ -0,0 +1,16 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Builder
+@Data
+public class StatusChange {
+    private String status;
+    /**
+     * When the status was set.
+     */
+    private Instant changedAt;
+}
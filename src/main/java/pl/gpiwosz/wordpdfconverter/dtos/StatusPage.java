@@ -0,0 +1,17 @@
+package pl.gpiwosz.wordpdfconverter.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Builder
+@Data
+public class StatusPage {
+    private String status;
+    private List<String> fileNames;
+    /**
+     * The cursor of the next page, or null if this is the last page.
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,10 @@
+package pl.gpiwosz.wordpdfconverter.enums;
+
+/**
+ * Priorities of conversions waiting for a LibreOffice slot. INTERACTIVE conversions (callers of the HTTP API waiting
+ * for their PDF) get the next free slot before BATCH conversions from the queues.
+ */
+public enum ConversionPriorityEnum {
+  INTERACTIVE,
+  BATCH
+}
@@ -0,0 +1,19 @@
+package pl.gpiwosz.wordpdfconverter.enums;
+
+/**
+ * Lanes documents are converted in. Each lane has its own queue, so small documents are never stuck behind large ones.
+ */
+public enum DocumentLaneEnum {
+  SMALL("fileQueue"),
+  LARGE("fileQueue.large");
+
+  private final String queueName;
+
+  DocumentLaneEnum(String queueName) {
+    this.queueName = queueName;
+  }
+
+  public String getQueueName() {
+    return queueName;
+  }
+}
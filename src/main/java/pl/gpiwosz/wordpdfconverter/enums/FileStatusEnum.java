@@ -4,4 +4,12 @@ public enum FileStatusEnum {
   READ,
   PROCESSING,
   PROCESSED,
+  /**
+   * The last conversion attempt failed; the message is redelivered after a backoff.
+   */
+  FAILED,
+  /**
+   * The document failed too often and was moved to the quarantine directory; it is not converted again.
+   */
+  QUARANTINED,
 }
@@ -0,0 +1,62 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentReference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Store holding document content for claim-check messaging.
+ * Messages on the queue only carry a {@link DocumentReference}; workers read the content back from the store.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public interface ContentStore {
+
+  /**
+   * Writes the content to the store under the given name.
+   *
+   * @param name    The name of the document, used to build the key.
+   * @param content The document content.
+   * @return A reference to the stored content.
+   * @throws IOException If the content cannot be written.
+   */
+  DocumentReference put(String name, InputStream content) throws IOException;
+
+  /**
+   * Describes content which is already present in the store, without copying it.
+   *
+   * @param key The key of the document.
+   * @return A reference to the stored content.
+   * @throws IOException If the content cannot be read.
+   */
+  DocumentReference reference(String key) throws IOException;
+
+  /**
+   * Opens the stored content for reading.
+   *
+   * @param key The key of the document.
+   * @return A stream of the document content. The caller is responsible for closing it.
+   * @throws IOException If the content cannot be read.
+   */
+  InputStream open(String key) throws IOException;
+
+  /**
+   * Resolves the key to a file on the local file system, if the store keeps its content there.
+   *
+   * @param key The key of the document.
+   * @return The local path of the content, or null if the content is not available as a local file.
+   */
+  Path resolve(String key);
+
+  /**
+   * Deletes the stored content.
+   *
+   * @param key The key of the document.
+   * @return true if the content was deleted.
+   */
+  boolean delete(String key);
+}
@@ -0,0 +1,87 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentReference;
+import pl.gpiwosz.wordpdfconverter.services.UtilsService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@link ContentStore} keeping documents on a (shared) file system volume.
+ * Keys are paths relative to the store root, so files already placed under the root can be referenced in place.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class FileSystemContentStore implements ContentStore {
+
+  private final Path root;
+
+  /**
+   * Constructs a new FileSystemContentStore.
+   *
+   * @param root The root directory of the store.
+   */
+  public FileSystemContentStore(final Path root) {
+    this.root = root.toAbsolutePath().normalize();
+  }
+
+  @Override
+  public DocumentReference put(final String name, final InputStream content) throws IOException {
+    Path target = resolve(name);
+    Files.createDirectories(target.getParent());
+    Path temp = Files.createTempFile(target.getParent(), "_store", "_data");
+    try {
+      String sha256 = UtilsService.transferAndHash(content, temp);
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return DocumentReference.builder()
+        .key(name)
+        .size(Files.size(target))
+        .sha256(sha256)
+        .build();
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Override
+  public DocumentReference reference(final String key) throws IOException {
+    Path path = resolve(key);
+    String sha256;
+    try (InputStream in = Files.newInputStream(path)) {
+      sha256 = UtilsService.copyAndHash(in, null);
+    }
+    return DocumentReference.builder()
+      .key(key)
+      .size(Files.size(path))
+      .sha256(sha256)
+      .build();
+  }
+
+  @Override
+  public InputStream open(final String key) throws IOException {
+    return Files.newInputStream(resolve(key));
+  }
+
+  @Override
+  public Path resolve(final String key) {
+    Path path = root.resolve(key).normalize();
+    if (!path.startsWith(root)) {
+      throw new IllegalArgumentException("Key points outside of the content store: " + key);
+    }
+    return path;
+  }
+
+  @Override
+  public boolean delete(final String key) {
+    try {
+      return Files.deleteIfExists(resolve(key));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+}
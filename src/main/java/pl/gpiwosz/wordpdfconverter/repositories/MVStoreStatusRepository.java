@@ -0,0 +1,689 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusPage;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StatusStore} keeping the statuses in an embedded H2 MVStore file on the local disk, for single-node deployments
+ * which do not need Redis. Lookups are served from the memory of the process (the hot pages of the file are cached,
+ * up to "status-store.embedded.cache-size"), so a status check takes microseconds instead of a network round trip.
+ * <p>
+ * Every write is committed to the file before the method returns, so a killed process loses no status; the file is
+ * append-only with checksummed chunks, so after a power loss it opens at the last complete commit instead of being corrupted.
+ * Entries carry their expiry time: expired entries are treated as absent and removed by {@link #purgeExpired()}.
+ * The seen markers of the idempotent consumer are kept in their own map, and an index map sorted by status and message id
+ * serves {@link #countByStatus()} (from the positions of the keys, until the expired entries are purged) and {@link #listByStatus}.
+ * The status changes of every message are appended to a history map, which outlives the removal of its status or marker.
+ * Several repositories (e.g. for the file route and the queue routes) may share one store; compound updates such as
+ * claims are atomic across all of them.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class MVStoreStatusRepository implements StatusStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MVStoreStatusRepository.class);
+  private static final String DEFAULT_KEY_PREFIX = "camel.idempotent.";
+  private static final char EXPIRY_SEPARATOR = '|';
+  private static final char INDEX_SEPARATOR = '|';
+  private static final char FIELD_SEPARATOR = '\n';
+  private static final char VALUE_SEPARATOR = '=';
+  private static final String HISTORY_SEPARATOR = ",";
+  private static final char CHANGE_SEPARATOR = '@';
+  private static final String ATTEMPTS_FIELD = "attempts";
+  private static final String FAILURES_FIELD = "failures";
+
+  private final String keyPrefix;
+  private final MVStore store;
+  private final MVMap<String, String> statuses;
+  private final MVMap<String, String> seen;
+  /**
+   * Keys "&lt;status&gt;|&lt;message id&gt;" of all statuses, with empty values.
+   */
+  private final MVMap<String, String> index;
+  private final MVMap<String, String> leases;
+  /**
+   * The document versions of the claimed messages.
+   */
+  private final MVMap<String, String> versions;
+  /**
+   * The status changes of the messages, "STATUS@epoch ms" separated by commas.
+   */
+  private final MVMap<String, String> history;
+  private final MVMap<String, String> fingerprints;
+  private final MVMap<String, String> capacities;
+  private final String fileStatus;
+  private final Duration expiryTime;
+  private MeterRegistry meterRegistry;
+
+  /**
+   * Constructs a new MVStoreStatusRepository.
+   *
+   * @param store      The store, opened with {@link #openStore(Path, int)} and closed by its owner.
+   * @param keyPrefix  The prefix of the maps of this repository; repositories with the same prefix share their entries.
+   * @param fileStatus The status set by {@link #add(String)} for messages without one.
+   * @param expiryTime How long statuses and fingerprints are kept.
+   */
+  public MVStoreStatusRepository(MVStore store, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime) {
+    this.keyPrefix = (keyPrefix == null || keyPrefix.isEmpty()) ? DEFAULT_KEY_PREFIX : keyPrefix;
+    this.store = store;
+    this.statuses = store.openMap(this.keyPrefix + "statuses");
+    this.seen = store.openMap(this.keyPrefix + "seen");
+    this.index = store.openMap(this.keyPrefix + "index");
+    this.leases = store.openMap(this.keyPrefix + "leases");
+    this.versions = store.openMap(this.keyPrefix + "versions");
+    this.history = store.openMap(this.keyPrefix + "history");
+    this.fingerprints = store.openMap(this.keyPrefix + "fingerprints");
+    this.capacities = store.openMap(this.keyPrefix + "capacities");
+    this.fileStatus = fileStatus.toString();
+    this.expiryTime = expiryTime;
+  }
+
+  /**
+   * Opens (or creates) a store file.
+   *
+   * @param file        The store file; its directory is created if needed.
+   * @param cacheSizeMb The memory caching the pages of the file, in MB.
+   * @return The open store, to be closed with {@link MVStore#close()}.
+   * @throws Exception If the file cannot be created or is locked by another process.
+   */
+  public static MVStore openStore(Path file, int cacheSizeMb) throws Exception {
+    Path directory = file.toAbsolutePath().getParent();
+    if (directory != null) {
+      Files.createDirectories(directory);
+    }
+    MVStore store = new MVStore.Builder()
+      .fileName(file.toString())
+      .cacheSize(Math.max(1, cacheSizeMb))
+      .open();
+    LOG.info("Status store {} opened", file);
+    return store;
+  }
+
+  @Override
+  public boolean add(String messageId) {
+    return markSeen(messageId, messageId);
+  }
+
+  @Override
+  public boolean markSeen(String key, String messageId) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        if (live(seen, key) != null) {
+          return false;
+        }
+        seen.put(key, withExpiry("1", expiryTime));
+        if (live(statuses, messageId) == null) {
+          putStatus(messageId, fileStatus);
+        }
+        store.commit();
+      }
+      countTransition(fileStatus);
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("set", start);
+    }
+  }
+
+  @Override
+  public boolean add(String messageId, String value) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        putStatus(messageId, value);
+        store.commit();
+      }
+      countTransition(value);
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("set", start);
+    }
+  }
+
+  @Override
+  public boolean contains(String messageId) {
+    long start = System.nanoTime();
+    try {
+      return live(seen, messageId) != null;
+    } finally {
+      recordLatency("exists", start);
+    }
+  }
+
+  @Override
+  public boolean containsValue(String messageId, String value) {
+    FileStatusEnum status = getStatus(messageId);
+    return status != null && status.toString().equals(value);
+  }
+
+  @Override
+  public FileStatusEnum getStatus(String messageId) {
+    long start = System.nanoTime();
+    try {
+      return toStatus(live(statuses, messageId));
+    } finally {
+      recordLatency("get", start);
+    }
+  }
+
+  @Override
+  public Map<String, FileStatusEnum> getStatuses(Collection<String> messageIds) {
+    long start = System.nanoTime();
+    try {
+      Map<String, FileStatusEnum> found = new HashMap<>();
+      for (String messageId : messageIds) {
+        FileStatusEnum status = toStatus(live(statuses, messageId));
+        if (status != null) {
+          found.put(messageId, status);
+        }
+      }
+      return found;
+    } finally {
+      recordLatency("mget", start);
+    }
+  }
+
+  @Override
+  public boolean setStatuses(Map<String, FileStatusEnum> newStatuses) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        newStatuses.forEach((messageId, status) -> putStatus(messageId, status.toString()));
+        store.commit();
+      }
+      newStatuses.values().forEach(status -> countTransition(status.toString()));
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("pipeline_set", start);
+    }
+  }
+
+  @Override
+  public boolean claim(String messageId, String version, String owner, Duration leaseTtl) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        FileStatusEnum status = toStatus(live(statuses, messageId));
+        if ((status == FileStatusEnum.PROCESSED || status == FileStatusEnum.QUARANTINED)
+          && (version == null || version.equals(live(versions, messageId)))) {
+          return false;
+        }
+        if (status == FileStatusEnum.PROCESSING && live(leases, messageId) != null) {
+          return false;
+        }
+        putStatus(messageId, FileStatusEnum.PROCESSING.toString());
+        leases.put(messageId, withExpiry(owner, leaseTtl));
+        if (version != null) {
+          versions.put(messageId, withExpiry(version, expiryTime));
+        }
+        store.commit();
+      }
+      countTransition(FileStatusEnum.PROCESSING.toString());
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("claim", start);
+    }
+  }
+
+  @Override
+  public String getClaimedVersion(String messageId) {
+    long start = System.nanoTime();
+    try {
+      return live(versions, messageId);
+    } finally {
+      recordLatency("get_version", start);
+    }
+  }
+
+  @Override
+  public boolean renewLease(String messageId, String owner, Duration leaseTtl) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        if (!owner.equals(live(leases, messageId))) {
+          return false;
+        }
+        leases.put(messageId, withExpiry(owner, leaseTtl));
+        store.commit();
+        return true;
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("renew_lease", start);
+    }
+  }
+
+  @Override
+  public boolean releaseLease(String messageId, String owner) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        if (!owner.equals(live(leases, messageId))) {
+          return false;
+        }
+        leases.remove(messageId);
+        store.commit();
+        return true;
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("release_lease", start);
+    }
+  }
+
+  @Override
+  public long recordAttempt(String sha256) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        Map<String, String> fingerprint = decodeFields(live(fingerprints, sha256));
+        long attempts = Long.parseLong(fingerprint.getOrDefault(ATTEMPTS_FIELD, "0")) + 1;
+        fingerprint.put(ATTEMPTS_FIELD, String.valueOf(attempts));
+        fingerprints.put(sha256, withExpiry(encodeFields(fingerprint), expiryTime));
+        store.commit();
+        return attempts;
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return 0;
+    } finally {
+      recordLatency("record_attempt", start);
+    }
+  }
+
+  @Override
+  public boolean recordFailure(String sha256, Map<String, String> details) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        Map<String, String> fingerprint = decodeFields(live(fingerprints, sha256));
+        long failures = Long.parseLong(fingerprint.getOrDefault(FAILURES_FIELD, "0")) + 1;
+        fingerprint.put(FAILURES_FIELD, String.valueOf(failures));
+        fingerprint.putAll(details);
+        fingerprints.put(sha256, withExpiry(encodeFields(fingerprint), expiryTime));
+        store.commit();
+        return true;
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("record_failure", start);
+    }
+  }
+
+  @Override
+  public Map<String, String> getFingerprint(String sha256) {
+    return decodeFields(live(fingerprints, sha256));
+  }
+
+  @Override
+  public boolean clearFingerprint(String sha256) {
+    return removeAndCommit(fingerprints, sha256);
+  }
+
+  @Override
+  public boolean setNodeCapacity(String nodeId, String capacity) {
+    try {
+      synchronized (store) {
+        capacities.put(nodeId, capacity);
+        store.commit();
+      }
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    }
+  }
+
+  @Override
+  public Map<String, String> getNodeCapacities() {
+    return new HashMap<>(capacities);
+  }
+
+  @Override
+  public boolean removeNodeCapacity(String nodeId) {
+    return removeAndCommit(capacities, nodeId);
+  }
+
+  /**
+   * Removes the seen marker of a message, and its status if it is still the one set by {@link #add(String)}.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return true if a marker or status was removed.
+   */
+  @Override
+  public boolean remove(String messageId) {
+    return removeSeen(messageId, messageId);
+  }
+
+  @Override
+  public boolean removeSeen(String key, String messageId) {
+    long start = System.nanoTime();
+    try {
+      synchronized (store) {
+        boolean removed = seen.remove(key) != null;
+        if (fileStatus.equals(live(statuses, messageId))) {
+          removeStatus(messageId);
+          removed = true;
+        }
+        store.commit();
+        return removed;
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("del", start);
+    }
+  }
+
+  @Override
+  public Map<FileStatusEnum, Long> countByStatus() {
+    Map<FileStatusEnum, Long> counts = new EnumMap<>(FileStatusEnum.class);
+    long start = System.nanoTime();
+    try {
+      for (FileStatusEnum status : FileStatusEnum.values()) {
+        counts.put(status, position(status.toString() + (char) (INDEX_SEPARATOR + 1)) - position(status.toString() + INDEX_SEPARATOR));
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      counts.clear();
+    } finally {
+      recordLatency("count", start);
+    }
+    return counts;
+  }
+
+  @Override
+  public StatusPage listByStatus(FileStatusEnum status, String cursor, int limit) {
+    String prefix = status.toString() + INDEX_SEPARATOR;
+    String after = cursor == null || cursor.isEmpty()
+      ? prefix
+      : prefix + new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    List<String> fileNames = new ArrayList<>();
+    String nextCursor = null;
+    long start = System.nanoTime();
+    try {
+      Iterator<String> keys = index.keyIterator(after);
+      while (keys.hasNext()) {
+        String key = keys.next();
+        if (!key.startsWith(prefix)) {
+          break;
+        }
+        String messageId = key.substring(prefix.length());
+        if (key.equals(after) || !status.toString().equals(live(statuses, messageId))) {
+          continue;
+        }
+        if (fileNames.size() == limit) {
+          nextCursor = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(fileNames.get(limit - 1).getBytes(StandardCharsets.UTF_8));
+          break;
+        }
+        fileNames.add(messageId);
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      fileNames.clear();
+      nextCursor = null;
+    } finally {
+      recordLatency("list", start);
+    }
+    return StatusPage.builder().status(status.toString()).fileNames(fileNames).nextCursor(nextCursor).build();
+  }
+
+  @Override
+  public List<StatusChange> getHistory(String messageId) {
+    List<StatusChange> changes = new ArrayList<>();
+    long start = System.nanoTime();
+    try {
+      String entry = live(history, messageId);
+      if (entry != null) {
+        for (String change : entry.split(HISTORY_SEPARATOR)) {
+          int separator = change.lastIndexOf(CHANGE_SEPARATOR);
+          changes.add(StatusChange.builder()
+            .status(change.substring(0, separator))
+            .changedAt(Instant.ofEpochMilli(Long.parseLong(change.substring(separator + 1))))
+            .build());
+        }
+      }
+    } finally {
+      recordLatency("history", start);
+    }
+    return changes;
+  }
+
+  /**
+   * Removes the expired statuses (with their index entries), seen markers, leases, versions, histories and fingerprints from the store.
+   *
+   * @return The number of removed entries.
+   */
+  public int purgeExpired() {
+    int purged = 0;
+    try {
+      synchronized (store) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry : statuses.entrySet()) {
+          if (expiresAt(entry.getValue()) < now && statuses.remove(entry.getKey(), entry.getValue())) {
+            index.remove(indexKey(entry.getValue(), entry.getKey()));
+            purged++;
+          }
+        }
+        for (MVMap<String, String> map : List.of(seen, leases, versions, history, fingerprints)) {
+          for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (expiresAt(entry.getValue()) < now && map.remove(entry.getKey(), entry.getValue())) {
+              purged++;
+            }
+          }
+        }
+        if (purged > 0) {
+          store.commit();
+        }
+      }
+      LOG.debug("Purged {} expired entries from the status store", purged);
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+    }
+    return purged;
+  }
+
+  @Override
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public boolean confirm(String messageId) {
+    // No-op as add already confirms
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    // The statuses outlive the routes, like in Redis; expired entries are purged instead
+  }
+
+  @Override
+  public void start() {
+    // The store is opened by its owner
+    LOG.info("Embedded status repository started.");
+  }
+
+  @Override
+  public void stop() {
+    // The store may be shared, it is closed by its owner
+    LOG.info("Embedded status repository stopped.");
+  }
+
+  /**
+   * Sets the status of a message, moves its index entry and appends the change to its history; the caller holds the lock
+   * of the store and commits.
+   */
+  private void putStatus(String messageId, String status) {
+    String previous = statuses.put(messageId, withExpiry(status, expiryTime));
+    if (previous != null) {
+      index.remove(indexKey(previous, messageId));
+    }
+    index.put(status + INDEX_SEPARATOR + messageId, "");
+    String changes = live(history, messageId);
+    String change = status + CHANGE_SEPARATOR + System.currentTimeMillis();
+    history.put(messageId, withExpiry(changes == null ? change : changes + HISTORY_SEPARATOR + change, expiryTime));
+  }
+
+  /**
+   * Removes the status of a message and its index entry; the caller holds the lock of the store and commits.
+   */
+  private void removeStatus(String messageId) {
+    String previous = statuses.remove(messageId);
+    if (previous != null) {
+      index.remove(indexKey(previous, messageId));
+    }
+  }
+
+  /**
+   * @return The index key of a status entry (with its expiry time).
+   */
+  private static String indexKey(String entry, String messageId) {
+    return entry.substring(entry.indexOf(EXPIRY_SEPARATOR) + 1) + INDEX_SEPARATOR + messageId;
+  }
+
+  /**
+   * @return The position the given key has, or would have, in the index.
+   */
+  private long position(String key) {
+    long position = index.getKeyIndex(key);
+    return position >= 0 ? position : -position - 1;
+  }
+
+  private boolean removeAndCommit(MVMap<String, String> map, String key) {
+    try {
+      synchronized (store) {
+        String removed = map.remove(key);
+        store.commit();
+        return removed != null && expiresAt(removed) >= System.currentTimeMillis();
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return false;
+    }
+  }
+
+  /**
+   * @return The value of the entry without its expiry time, or null if the entry is absent, expired or the store is closed.
+   */
+  private static String live(MVMap<String, String> map, String key) {
+    String entry;
+    try {
+      entry = map.get(key);
+    } catch (Exception e) {
+      LOG.error("Error interacting with the status store: {}", e.getMessage(), e);
+      return null;
+    }
+    if (entry == null || expiresAt(entry) < System.currentTimeMillis()) {
+      return null;
+    }
+    return entry.substring(entry.indexOf(EXPIRY_SEPARATOR) + 1);
+  }
+
+  private static String withExpiry(String value, Duration ttl) {
+    return (System.currentTimeMillis() + ttl.toMillis()) + String.valueOf(EXPIRY_SEPARATOR) + value;
+  }
+
+  private static long expiresAt(String entry) {
+    int separator = entry.indexOf(EXPIRY_SEPARATOR);
+    try {
+      return separator > 0 ? Long.parseLong(entry.substring(0, separator)) : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static Map<String, String> decodeFields(String value) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    if (value == null || value.isEmpty()) {
+      return fields;
+    }
+    for (String field : value.split(String.valueOf(FIELD_SEPARATOR))) {
+      int separator = field.indexOf(VALUE_SEPARATOR);
+      if (separator > 0) {
+        fields.put(field.substring(0, separator), field.substring(separator + 1));
+      }
+    }
+    return fields;
+  }
+
+  private static String encodeFields(Map<String, String> fields) {
+    StringBuilder encoded = new StringBuilder();
+    fields.forEach((field, value) -> {
+      if (encoded.length() > 0) {
+        encoded.append(FIELD_SEPARATOR);
+      }
+      encoded.append(field).append(VALUE_SEPARATOR).append(value.replace(FIELD_SEPARATOR, ' '));
+    });
+    return encoded.toString();
+  }
+
+  private FileStatusEnum toStatus(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return FileStatusEnum.valueOf(value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private void recordLatency(String operation, long startNanos) {
+    if (meterRegistry != null) {
+      meterRegistry.timer("converter.status-store.operation", "operation", operation, "prefix", keyPrefix)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void countTransition(String status) {
+    if (meterRegistry != null) {
+      meterRegistry.counter("converter.status.transitions", "status", status, "prefix", keyPrefix).increment();
+    }
+  }
+}
@@ -1,117 +1,895 @@
 package pl.gpiwosz.wordpdfconverter.repositories;
 
-import org.apache.camel.spi.IdempotentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusPage;
 import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.resps.Tuple;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-public class RedisIdempotentRepository implements IdempotentRepository {
+/**
+ * {@link StatusStore} in Redis, shared by all nodes. Instead of one key per file, the entries are grouped in a few keys
+ * per day (UTC) of their last change, each expiring as a whole "expiryTime" after the end of its day:
+ * <ul>
+ *     <li>"&lt;prefix&gt;:status:&lt;day&gt;", a hash of the status of the files changed that day;</li>
+ *     <li>"&lt;prefix&gt;:seen:&lt;day&gt;", a hash of the files seen by the idempotent consumer that day (its markers);</li>
+ *     <li>"&lt;prefix&gt;:version:&lt;day&gt;", a hash of the document versions of the files claimed that day;</li>
+ *     <li>"&lt;prefix&gt;:history:&lt;day&gt;", a hash of the status changes of the files that day ("STATUS@epoch ms", comma separated).</li>
+ * </ul>
+ * Writes only go to today's buckets: the newest bucket holding a file wins, so the entries of a file in older buckets are
+ * shadowed rather than deleted, and an empty value is a tombstone for a removed status or marker. A lookup checks the buckets
+ * of the retention period, newest first, with one pipelined round trip.
+ * "&lt;prefix&gt;:index:&lt;status&gt;" is a sorted set of the files having that status, scored by the expiry (epoch s) of
+ * the bucket of their status, to count and list them; a status change moves the file between these sets in the same script.
+ * The scripts are given every key they may touch in KEYS (none is built from ARGV), as Redis requires of scripts, and are
+ * run with EVALSHA, so their source is only sent when the Redis script cache does not have them (e.g. after a restart).
+ * Leases ("&lt;prefix&gt;&lt;file&gt;:lease"), failure fingerprints and node capacities keep their own keys.
+ * <p>
+ * The per-file keys of the previous layout ("&lt;prefix&gt;&lt;file&gt;") are still read, and dropped on the next status change
+ * of their file, until they expire.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class RedisIdempotentRepository implements StatusStore {
 
   private static final Logger LOG = LoggerFactory.getLogger(RedisIdempotentRepository.class);
   private static final String DEFAULT_KEY_PREFIX = "camel.idempotent.";
+  /**
+   * Statuses which do not change any more, cached locally for {@link #nearCacheTtl} to save round trips.
+   */
+  private static final Set<FileStatusEnum> TERMINAL_STATUSES = Set.of(FileStatusEnum.PROCESSED, FileStatusEnum.QUARANTINED);
+  private static final int NEAR_CACHE_MAX_ENTRIES = 100_000;
+  private static final String LEASE_SUFFIX = ":lease";
+  private static final String CAPACITY_SUFFIX = ":capacity";
+  private static final String FINGERPRINT_INFIX = ":fingerprint:";
+  private static final String ATTEMPTS_FIELD = "attempts";
+  private static final String FAILURES_FIELD = "failures";
+
+  private static final String STATUS_INFIX = ":status:";
+  private static final String INDEX_INFIX = ":index:";
+  private static final String SEEN_INFIX = ":seen:";
+  private static final String VERSION_INFIX = ":version:";
+  private static final String HISTORY_INFIX = ":history:";
+  private static final String HISTORY_SEPARATOR = ",";
+  private static final char CHANGE_SEPARATOR = '@';
+  private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+  private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+  /**
+   * Shared part of the status scripts. Every key a script touches is passed in KEYS, in the order of {@link #scriptKeys}:
+   * the per-file key of the previous layout, the lease key, today's history hash, then per day of the buckets (newest first)
+   * the status hashes, the seen hashes and the version hashes, and last the index sets (in the order of {@link FileStatusEnum}).
+   * ARGV: message id, expiry of today's buckets (epoch s), number of days, the time of the change (epoch ms),
+   * then the arguments of the script.
+   * find() returns the current status and whether it is a key of the previous layout, drop() removes it with a tombstone
+   * and move() sets a new status in today's buckets, appending it to the history.
+   */
+  private static final String BUCKET_FUNCTIONS =
+    "local id, expireAt, dayCount, now = ARGV[1], ARGV[2], tonumber(ARGV[3]), ARGV[4] "
+      + "local legacyKey, leaseKey, historyKey = KEYS[1], KEYS[2], KEYS[3] "
+      + "local statuses = {" + luaStatuses() + "} "
+      + "local statusKeys, seenKeys, versionKeys, indexKeys = {}, {}, {}, {} "
+      + "for day = 1, dayCount do "
+      + "  statusKeys[day] = KEYS[3 + day] "
+      + "  seenKeys[day] = KEYS[3 + dayCount + day] "
+      + "  versionKeys[day] = KEYS[3 + 2 * dayCount + day] "
+      + "end "
+      + "for i, status in ipairs(statuses) do "
+      + "  indexKeys[status] = KEYS[3 + 3 * dayCount + i] "
+      + "end "
+      + "local function newest(keys, field) "
+      + "  for day = 1, dayCount do "
+      + "    local value = redis.call('HGET', keys[day], field) "
+      + "    if value then "
+      + "      if value == '' then return nil end "
+      + "      return value "
+      + "    end "
+      + "  end "
+      + "  return nil "
+      + "end "
+      + "local function put(key, field, value) "
+      + "  redis.call('HSET', key, field, value) "
+      + "  redis.call('EXPIREAT', key, expireAt) "
+      + "end "
+      + "local function find() "
+      + "  for day = 1, dayCount do "
+      + "    local status = redis.call('HGET', statusKeys[day], id) "
+      + "    if status then "
+      + "      if status == '' then return nil, false end "
+      + "      return status, false "
+      + "    end "
+      + "  end "
+      + "  local legacy = redis.pcall('GET', legacyKey) "
+      + "  if type(legacy) == 'string' then return legacy, true end "
+      + "  return nil, false "
+      + "end "
+      + "local function unindex(status, legacy) "
+      + "  if legacy then redis.call('DEL', legacyKey) end "
+      + "  if status and indexKeys[status] then redis.call('ZREM', indexKeys[status], id) end "
+      + "end "
+      + "local function drop(status, legacy) "
+      + "  unindex(status, legacy) "
+      + "  put(statusKeys[1], id, '') "
+      + "end "
+      + "local function move(old, legacy, status) "
+      + "  unindex(old, legacy) "
+      + "  put(statusKeys[1], id, status) "
+      + "  redis.call('ZADD', indexKeys[status], expireAt, id) "
+      + "  redis.call('ZREMRANGEBYSCORE', indexKeys[status], '-inf', '(' .. math.floor(tonumber(now) / 1000)) "
+      + "  local history = redis.call('HGET', historyKey, id) "
+      + "  local change = status .. '" + CHANGE_SEPARATOR + "' .. now "
+      + "  put(historyKey, id, history and (history .. '" + HISTORY_SEPARATOR + "' .. change) or change) "
+      + "end ";
+
+  /**
+   * Sets the status of a message. ARGV[5]: the status.
+   */
+  private static final Script SET_SCRIPT = Script.of(BUCKET_FUNCTIONS
+    + "local old, legacy = find() "
+    + "move(old, legacy, ARGV[5]) "
+    + "return 1");
+
+  /**
+   * Marks a key as seen unless it was seen already, and sets the initial status of its message if it has none.
+   * ARGV[5]: the initial status, ARGV[6]: the key of the seen marker.
+   */
+  private static final Script ADD_SCRIPT = Script.of(BUCKET_FUNCTIONS
+    + "if redis.call('EXISTS', legacyKey) == 1 then return 0 end "
+    + "if newest(seenKeys, ARGV[6]) then return 0 end "
+    + "put(seenKeys[1], ARGV[6], 1) "
+    + "local old, legacy = find() "
+    + "if not old then move(nil, false, ARGV[5]) end "
+    + "return 1");
+
+  /**
+   * Removes the seen marker of a key (with a tombstone in today's bucket), and the status of its message if it is still
+   * the initial one. ARGV[5]: the initial status, ARGV[6]: the key of the seen marker.
+   */
+  private static final Script REMOVE_SCRIPT = Script.of(BUCKET_FUNCTIONS
+    + "local removed = 0 "
+    + "if newest(seenKeys, ARGV[6]) then "
+    + "  put(seenKeys[1], ARGV[6], '') "
+    + "  removed = 1 "
+    + "end "
+    + "local status, legacy = find() "
+    + "if status == ARGV[5] or legacy then "
+    + "  drop(status, legacy) "
+    + "  removed = 1 "
+    + "end "
+    + "return removed");
+
+  /**
+   * Claims a message unless it is PROCESSING under a live lease, or PROCESSED or QUARANTINED in the same version
+   * (any version if none is given). ARGV[5..]: owner, lease TTL (ms), PROCESSED, PROCESSING, QUARANTINED, version ("" for none).
+   */
+  private static final Script CLAIM_SCRIPT = Script.of(BUCKET_FUNCTIONS
+    + "local version = ARGV[10] "
+    + "local old, legacy = find() "
+    + "if old == ARGV[7] or old == ARGV[9] then "
+    + "  if version == '' or newest(versionKeys, id) == version then return 0 end "
+    + "end "
+    + "if old == ARGV[8] and redis.call('EXISTS', leaseKey) == 1 then return 0 end "
+    + "move(old, legacy, ARGV[8]) "
+    + "redis.call('SET', leaseKey, ARGV[5], 'PX', ARGV[6]) "
+    + "if version ~= '' then put(versionKeys[1], id, version) end "
+    + "return 1");
+
+  /**
+   * Extends a lease if it is still held by the owner. KEYS: lease key. ARGV: owner, lease TTL (ms).
+   */
+  private static final Script RENEW_SCRIPT = Script.of(
+    "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end "
+      + "return 0");
+
+  /**
+   * Deletes a lease if it is still held by the owner. KEYS: lease key. ARGV: owner.
+   */
+  private static final Script RELEASE_SCRIPT = Script.of(
+    "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end "
+      + "return 0");
   private final String keyPrefix;
   private final JedisPool jedisPool;
+  /**
+   * Whether the pool was created by this repository, so stopping the repository closes it.
+   */
+  private final boolean ownsPool;
   private final Duration expiryTime;
   private final String fileStatus;
+  /**
+   * The number of daily buckets which may still hold live entries: today's and those of the retention period.
+   */
+  private final int bucketCount;
+  private final Duration nearCacheTtl;
+  private final Map<String, NearCacheEntry> nearCache = new ConcurrentHashMap<>();
+  private MeterRegistry meterRegistry;
 
   public RedisIdempotentRepository(String redisUrl, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime) throws URISyntaxException {
+    this(redisUrl, keyPrefix, fileStatus, expiryTime, new JedisPoolConfig(), Duration.ZERO);
+  }
+
+  public RedisIdempotentRepository(String redisUrl, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime, JedisPoolConfig poolConfig, Duration nearCacheTtl) throws URISyntaxException {
+    this(new JedisPool(poolConfig, new URI(redisUrl)), true, keyPrefix, fileStatus, expiryTime, nearCacheTtl);
+  }
+
+  /**
+   * Constructs a repository on a pool shared with other repositories. Stopping the repository leaves the pool open; its
+   * owner closes it.
+   *
+   * @param jedisPool    The connection pool.
+   * @param keyPrefix    The prefix of the keys.
+   * @param fileStatus   The status set when a message is added.
+   * @param expiryTime   The retention period of the entries.
+   * @param nearCacheTtl How long looked up statuses are kept locally, or zero to always ask Redis.
+   */
+  public RedisIdempotentRepository(JedisPool jedisPool, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime, Duration nearCacheTtl) {
+    this(jedisPool, false, keyPrefix, fileStatus, expiryTime, nearCacheTtl);
+  }
+
+  private RedisIdempotentRepository(JedisPool jedisPool, boolean ownsPool, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime, Duration nearCacheTtl) {
     this.keyPrefix = (keyPrefix == null || keyPrefix.isEmpty()) ? DEFAULT_KEY_PREFIX : keyPrefix;
     this.expiryTime = expiryTime;
     this.fileStatus = fileStatus.toString();
-
-    URI redisUri = new URI(redisUrl);
-    JedisPoolConfig poolConfig = new JedisPoolConfig();
-    // Configure pool as needed (e.g., maxTotal, maxIdle, minIdle)
-    this.jedisPool = new JedisPool(poolConfig, redisUri);
+    this.bucketCount = (int) ((expiryTime.toMillis() + DAY_MILLIS - 1) / DAY_MILLIS) + 1;
+    this.nearCacheTtl = nearCacheTtl == null ? Duration.ZERO : nearCacheTtl;
+    this.jedisPool = jedisPool;
+    this.ownsPool = ownsPool;
   }
 
   public static RedisIdempotentRepository redisIdempotentRepository(String redisUrl, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime) throws URISyntaxException {
     return new RedisIdempotentRepository(redisUrl, keyPrefix, fileStatus, expiryTime);
   }
 
+  public static RedisIdempotentRepository redisIdempotentRepository(String redisUrl, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime, JedisPoolConfig poolConfig, Duration nearCacheTtl) throws URISyntaxException {
+    return new RedisIdempotentRepository(redisUrl, keyPrefix, fileStatus, expiryTime, poolConfig, nearCacheTtl);
+  }
 
-  @Override
-  public boolean add(String messageId) {
-    return addValue(messageId, fileStatus, true);
+  public static RedisIdempotentRepository redisIdempotentRepository(JedisPool jedisPool, String keyPrefix, FileStatusEnum fileStatus, Duration expiryTime, Duration nearCacheTtl) {
+    return new RedisIdempotentRepository(jedisPool, keyPrefix, fileStatus, expiryTime, nearCacheTtl);
   }
 
-  public boolean add(String messageId, String value) {
-    return addValue(messageId, value, false);
+
+  /**
+   * Marks a message as seen by the idempotent consumer, unless it was seen already within the retention period.
+   * The status given to the constructor is set only if the message has no status yet.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return true if the message was not seen before.
+   */
+  @Override
+  public boolean add(String messageId) {
+    return markSeen(messageId, messageId);
   }
 
-  private boolean addValue(String messageId, String value, boolean nx) {
+  /**
+   * Marks a key of the idempotent consumer (e.g. a version of a file) as seen, unless it was seen already within
+   * the retention period. The status given to the constructor is set only if the message has no status yet.
+   *
+   * @param key       The key of the idempotent consumer.
+   * @param messageId The message id the status is kept under, e.g. the file name.
+   * @return true if the key was not seen before.
+   */
+  @Override
+  public boolean markSeen(String key, String messageId) {
+    long start = System.nanoTime();
     try (Jedis jedis = jedisPool.getResource()) {
-      String key = keyPrefix + messageId;
-      if (nx) {
-        return jedis.set(key, value, SetParams.setParams().nx().ex(expiryTime.toSeconds())) != null;
-      } else {
-        return jedis.set(key, value, SetParams.setParams().ex(expiryTime.toSeconds())) != null;
+      boolean added = Long.valueOf(1).equals(evalStatusScript(jedis, ADD_SCRIPT, messageId, fileStatus, key));
+      if (added) {
+        countTransition(fileStatus);
       }
+      return added;
     } catch (Exception e) {
       LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
       return false; // Important: Return false on error to prevent message loss
+    } finally {
+      recordLatency("add", start);
     }
   }
 
+  @Override
+  public boolean add(String messageId, String value) {
+    nearCache.remove(messageId);
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      evalStatusScript(jedis, SET_SCRIPT, messageId, value);
+      cacheIfTerminal(messageId, toStatus(value));
+      countTransition(value);
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("set", start);
+    }
+  }
+
+  /**
+   * @param messageId The message id, e.g. the file name.
+   * @return true if the message was seen by the idempotent consumer within the retention period (and not removed since).
+   */
   @Override
   public boolean contains(String messageId) {
+    long start = System.nanoTime();
     try (Jedis jedis = jedisPool.getResource()) {
-      String key = keyPrefix + messageId;
-      return jedis.exists(key);
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<String>> markers = new ArrayList<>();
+      for (String day : days(LocalDate.now(ZoneOffset.UTC))) {
+        markers.add(pipeline.hget(keyPrefix + SEEN_INFIX + day, messageId));
+      }
+      Response<Boolean> legacy = pipeline.exists(keyPrefix + messageId);
+      pipeline.sync();
+      for (Response<String> marker : markers) {
+        if (marker.get() != null) {
+          return !marker.get().isEmpty();
+        }
+      }
+      return legacy.get();
     } catch (Exception e) {
       LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
       return false; // Return false on error
+    } finally {
+      recordLatency("exists", start);
     }
   }
 
+  @Override
   public boolean containsValue(String messageId, String value) {
+    FileStatusEnum status = getStatus(messageId);
+    return status != null && status.toString().equals(value);
+  }
+
+  /**
+   * Looks up the status of a message with a single round trip (or from the near-cache for terminal statuses).
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return The status, or null if the message is unknown or Redis cannot be reached.
+   */
+  @Override
+  public FileStatusEnum getStatus(String messageId) {
+    FileStatusEnum cached = getCached(messageId);
+    if (cached != null) {
+      return cached;
+    }
+    long start = System.nanoTime();
     try (Jedis jedis = jedisPool.getResource()) {
-      String key = keyPrefix + messageId;
-      return jedis.exists(key) && value.equals(jedis.get(key));
+      FileStatusEnum status = toStatus(lookup(jedis, List.of(messageId)).get(0));
+      cacheIfTerminal(messageId, status);
+      return status;
     } catch (Exception e) {
       LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
-      return false; // Return false on error
+      return null; // Return null on error
+    } finally {
+      recordLatency("get", start);
+    }
+  }
+
+  /**
+   * Looks up the statuses of several messages with a single pipelined round trip.
+   *
+   * @param messageIds The message ids, e.g. the file names.
+   * @return The statuses of the known messages, keyed by message id. Unknown messages are left out.
+   */
+  @Override
+  public Map<String, FileStatusEnum> getStatuses(Collection<String> messageIds) {
+    Map<String, FileStatusEnum> statuses = new HashMap<>();
+    List<String> misses = new ArrayList<>();
+    for (String messageId : messageIds) {
+      FileStatusEnum cached = getCached(messageId);
+      if (cached != null) {
+        statuses.put(messageId, cached);
+      } else {
+        misses.add(messageId);
+      }
+    }
+    if (misses.isEmpty()) {
+      return statuses;
+    }
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> values = lookup(jedis, misses);
+      for (int i = 0; i < misses.size(); i++) {
+        FileStatusEnum status = toStatus(values.get(i));
+        if (status != null) {
+          statuses.put(misses.get(i), status);
+          cacheIfTerminal(misses.get(i), status);
+        }
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+    } finally {
+      recordLatency("lookup", start);
+    }
+    return statuses;
+  }
+
+  /**
+   * Sets the statuses of several messages in one pipelined round trip, with one status script per message
+   * (loaded into the script cache first if needed).
+   *
+   * @param statuses The statuses to set, keyed by message id.
+   * @return true if all statuses were written.
+   */
+  @Override
+  public boolean setStatuses(Map<String, FileStatusEnum> statuses) {
+    statuses.keySet().forEach(nearCache::remove);
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      if (!Boolean.TRUE.equals(jedis.scriptExists(SET_SCRIPT.sha1()))) {
+        jedis.scriptLoad(SET_SCRIPT.source());
+      }
+      Pipeline pipeline = jedis.pipelined();
+      LocalDate today = LocalDate.now(ZoneOffset.UTC);
+      long now = System.currentTimeMillis();
+      statuses.forEach((messageId, status) ->
+        pipeline.evalsha(SET_SCRIPT.sha1(), scriptKeys(messageId, today), scriptArgs(messageId, today, now, status.toString())));
+      pipeline.sync();
+      statuses.forEach(this::cacheIfTerminal);
+      statuses.values().forEach(status -> countTransition(status.toString()));
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("pipeline_set", start);
+    }
+  }
+
+  /**
+   * Counts the messages by status with one ZCOUNT of the unexpired members per index set, in one pipelined round trip.
+   *
+   * @return The number of messages of each status, empty if Redis cannot be reached.
+   */
+  @Override
+  public Map<FileStatusEnum, Long> countByStatus() {
+    Map<FileStatusEnum, Long> counts = new EnumMap<>(FileStatusEnum.class);
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      double now = System.currentTimeMillis() / 1000.0;
+      Pipeline pipeline = jedis.pipelined();
+      Map<FileStatusEnum, Response<Long>> sizes = new EnumMap<>(FileStatusEnum.class);
+      for (FileStatusEnum status : FileStatusEnum.values()) {
+        sizes.put(status, pipeline.zcount(indexKey(status), now, Double.POSITIVE_INFINITY));
+      }
+      pipeline.sync();
+      sizes.forEach((status, size) -> counts.put(status, size.get()));
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      counts.clear();
+    } finally {
+      recordLatency("count", start);
+    }
+    return counts;
+  }
+
+  /**
+   * Lists the messages with the given status with ZSCAN over its index set, leaving out the expired members.
+   * The cursor holds the ZSCAN cursor.
+   *
+   * @param status The status.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit  The number of messages per page, passed to ZSCAN as its COUNT hint.
+   * @return The page, empty if Redis cannot be reached.
+   * @throws IllegalArgumentException If the cursor is invalid.
+   */
+  @Override
+  public StatusPage listByStatus(FileStatusEnum status, String cursor, int limit) {
+    String scanCursor = ScanParams.SCAN_POINTER_START;
+    if (cursor != null && !cursor.isEmpty()) {
+      scanCursor = decodeCursor(cursor);
+      if (scanCursor.isEmpty() || !scanCursor.chars().allMatch(Character::isDigit)) {
+        throw new IllegalArgumentException("Invalid cursor");
+      }
+    }
+    List<String> fileNames = new ArrayList<>();
+    String nextCursor = null;
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      double now = System.currentTimeMillis() / 1000.0;
+      ScanResult<Tuple> result;
+      do {
+        result = jedis.zscan(indexKey(status), scanCursor, new ScanParams().count(limit - fileNames.size()));
+        for (Tuple member : result.getResult()) {
+          if (member.getScore() > now) {
+            fileNames.add(member.getElement());
+          }
+        }
+        scanCursor = result.getCursor();
+      } while (!result.isCompleteIteration() && fileNames.size() < limit);
+      if (!result.isCompleteIteration()) {
+        nextCursor = encodeCursor(scanCursor);
+      }
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      fileNames.clear();
+      nextCursor = null;
+    } finally {
+      recordLatency("list", start);
     }
+    return StatusPage.builder().status(status.toString()).fileNames(fileNames).nextCursor(nextCursor).build();
   }
 
-  public FileStatusEnum get(String messageId) {
+  /**
+   * Reads the status changes of a message from the history hashes of the retention period, in one pipelined round trip.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return The changes, oldest first; empty if the message is unknown or Redis cannot be reached.
+   */
+  @Override
+  public List<StatusChange> getHistory(String messageId) {
+    List<StatusChange> history = new ArrayList<>();
+    long start = System.nanoTime();
     try (Jedis jedis = jedisPool.getResource()) {
-      String key = keyPrefix + messageId;
-      return FileStatusEnum.valueOf(jedis.get(key));
+      List<String> days = days(LocalDate.now(ZoneOffset.UTC));
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<String>> entries = new ArrayList<>();
+      for (int day = days.size() - 1; day >= 0; day--) {
+        entries.add(pipeline.hget(keyPrefix + HISTORY_INFIX + days.get(day), messageId));
+      }
+      pipeline.sync();
+      for (Response<String> entry : entries) {
+        if (entry.get() != null) {
+          for (String change : entry.get().split(HISTORY_SEPARATOR)) {
+            int separator = change.lastIndexOf(CHANGE_SEPARATOR);
+            history.add(StatusChange.builder()
+              .status(change.substring(0, separator))
+              .changedAt(Instant.ofEpochMilli(Long.parseLong(change.substring(separator + 1))))
+              .build());
+          }
+        }
+      }
     } catch (Exception e) {
       LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
-     throw new RuntimeException(e);
+      history.clear();
+    } finally {
+      recordLatency("history", start);
     }
+    return history;
   }
 
+  /**
+   * Atomically claims a message for conversion: sets the PROCESSING status and a lease owned by the given node.
+   * The claim fails if the message is PROCESSING under a lease which has not expired yet, or PROCESSED or QUARANTINED
+   * in the given version (in any version if none is given). A PROCESSING message whose lease expired (e.g. its node crashed)
+   * is taken over.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param version   The version of the document, or null to claim it only once.
+   * @param owner     The id of the claiming node.
+   * @param leaseTtl  How long the lease is valid unless renewed.
+   * @return true if the message was claimed by the owner.
+   */
+  @Override
+  public boolean claim(String messageId, String version, String owner, Duration leaseTtl) {
+    if (version == null && getCached(messageId) != null) {
+      return false;
+    }
+    nearCache.remove(messageId);
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object claimed = evalStatusScript(jedis, CLAIM_SCRIPT, messageId, owner, String.valueOf(leaseTtl.toMillis()),
+        FileStatusEnum.PROCESSED.toString(), FileStatusEnum.PROCESSING.toString(), FileStatusEnum.QUARANTINED.toString(),
+        version == null ? "" : version);
+      if (!Long.valueOf(1).equals(claimed)) {
+        return false;
+      }
+      countTransition(FileStatusEnum.PROCESSING.toString());
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("claim", start);
+    }
+  }
+
+  /**
+   * Reads the version of the last versioned claim of a message from the version hashes, newest first, in one pipelined round trip.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return The version, or null if there is none or Redis cannot be reached.
+   */
+  @Override
+  public String getClaimedVersion(String messageId) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<String>> versions = new ArrayList<>();
+      for (String day : days(LocalDate.now(ZoneOffset.UTC))) {
+        versions.add(pipeline.hget(keyPrefix + VERSION_INFIX + day, messageId));
+      }
+      pipeline.sync();
+      return versions.stream().map(Response::get).filter(Objects::nonNull).findFirst().orElse(null);
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return null;
+    } finally {
+      recordLatency("get_version", start);
+    }
+  }
+
+  /**
+   * Extends the lease of a claimed message.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param owner     The id of the node holding the lease.
+   * @param leaseTtl  The new validity of the lease.
+   * @return true if the lease is still held by the owner and was extended.
+   */
+  @Override
+  public boolean renewLease(String messageId, String owner, Duration leaseTtl) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object renewed = evalScript(jedis, RENEW_SCRIPT, List.of(keyPrefix + messageId + LEASE_SUFFIX), List.of(owner, String.valueOf(leaseTtl.toMillis())));
+      return Long.valueOf(1).equals(renewed);
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("renew_lease", start);
+    }
+  }
+
+  /**
+   * Gives up the lease of a claimed message, if it is still held by the owner.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param owner     The id of the node holding the lease.
+   * @return true if the lease was deleted.
+   */
+  @Override
+  public boolean releaseLease(String messageId, String owner) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Object released = evalScript(jedis, RELEASE_SCRIPT, List.of(keyPrefix + messageId + LEASE_SUFFIX), List.of(owner));
+      return Long.valueOf(1).equals(released);
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("release_lease", start);
+    }
+  }
+
+  /**
+   * Counts a conversion attempt of a document in its failure fingerprint, before the conversion starts,
+   * so attempts which take down the whole node are counted as well.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return The number of attempts including this one, or 0 if Redis cannot be reached.
+   */
+  @Override
+  public long recordAttempt(String sha256) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      String key = keyPrefix + FINGERPRINT_INFIX + sha256;
+      Pipeline pipeline = jedis.pipelined();
+      Response<Long> attempts = pipeline.hincrBy(key, ATTEMPTS_FIELD, 1);
+      pipeline.expire(key, expiryTime.toSeconds());
+      pipeline.sync();
+      return attempts.get();
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return 0;
+    } finally {
+      recordLatency("record_attempt", start);
+    }
+  }
+
+  /**
+   * Adds a failed attempt to the failure fingerprint of a document.
+   *
+   * @param sha256  The hex encoded SHA-256 hash of the document.
+   * @param details Details of the failure (e.g. the error and the node), replacing those of the previous failure.
+   * @return true if the failure was recorded.
+   */
+  @Override
+  public boolean recordFailure(String sha256, Map<String, String> details) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      String key = keyPrefix + FINGERPRINT_INFIX + sha256;
+      Pipeline pipeline = jedis.pipelined();
+      pipeline.hincrBy(key, FAILURES_FIELD, 1);
+      pipeline.hset(key, details);
+      pipeline.expire(key, expiryTime.toSeconds());
+      pipeline.sync();
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("record_failure", start);
+    }
+  }
+
+  /**
+   * Reads the failure fingerprint of a document.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return The attempts, failures and details of the last failure, empty if the document never failed or Redis cannot be reached.
+   */
+  @Override
+  public Map<String, String> getFingerprint(String sha256) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.hgetAll(keyPrefix + FINGERPRINT_INFIX + sha256);
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return Map.of();
+    } finally {
+      recordLatency("hgetall", start);
+    }
+  }
+
+  /**
+   * Deletes the failure fingerprint of a document, e.g. once it was converted.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return true if a fingerprint was deleted.
+   */
+  @Override
+  public boolean clearFingerprint(String sha256) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.del(keyPrefix + FINGERPRINT_INFIX + sha256) == 1;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("del", start);
+    }
+  }
+
+  /**
+   * Publishes the capacity of a node in the hash of node capacities.
+   *
+   * @param nodeId   The id of the node.
+   * @param capacity The capacity, encoded by the caller.
+   * @return true if the capacity was written.
+   */
+  @Override
+  public boolean setNodeCapacity(String nodeId, String capacity) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.hset(keyPrefix + CAPACITY_SUFFIX, nodeId, capacity);
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("hset", start);
+    }
+  }
+
+  /**
+   * Reads the capacities published by all nodes with a single HGETALL.
+   *
+   * @return The encoded capacities keyed by node id, empty if Redis cannot be reached.
+   */
+  @Override
+  public Map<String, String> getNodeCapacities() {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.hgetAll(keyPrefix + CAPACITY_SUFFIX);
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return Map.of();
+    } finally {
+      recordLatency("hgetall", start);
+    }
+  }
+
+  /**
+   * Removes the capacity of a node, e.g. when it shuts down or stopped publishing.
+   *
+   * @param nodeId The id of the node.
+   * @return true if the capacity was removed.
+   */
+  @Override
+  public boolean removeNodeCapacity(String nodeId) {
+    long start = System.nanoTime();
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.hdel(keyPrefix + CAPACITY_SUFFIX, nodeId) == 1;
+    } catch (Exception e) {
+      LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
+      return false;
+    } finally {
+      recordLatency("hdel", start);
+    }
+  }
+
+  /**
+   * Removes the seen marker of a message, e.g. when the idempotent consumer failed to handle it, so it is taken again.
+   * Its status is removed as well if it is still the one set by {@link #add(String)}.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return true if a marker or status was removed.
+   */
   @Override
   public boolean remove(String messageId) {
+    return removeSeen(messageId, messageId);
+  }
+
+  /**
+   * Removes the seen marker of a key of the idempotent consumer, and the status of its message if it is still the one set
+   * by {@link #markSeen(String, String)}.
+   *
+   * @param key       The key of the idempotent consumer.
+   * @param messageId The message id the status is kept under, e.g. the file name.
+   * @return true if a marker or status was removed.
+   */
+  @Override
+  public boolean removeSeen(String key, String messageId) {
+    nearCache.remove(messageId);
+    long start = System.nanoTime();
     try (Jedis jedis = jedisPool.getResource()) {
-      String key = keyPrefix + messageId;
-      return jedis.del(key) == 1;
+      Object removed = evalStatusScript(jedis, REMOVE_SCRIPT, messageId, fileStatus, key);
+      return removed instanceof Long count && count > 0;
     } catch (Exception e) {
       LOG.error("Error interacting with Redis: {}", e.getMessage(), e);
       return false; // Return false on error
+    } finally {
+      recordLatency("del", start);
     }
   }
 
+  /**
+   * Registers the Redis operation latencies ("converter.redis.operation", tagged by operation and key prefix)
+   * and the status transitions ("converter.status.transitions", tagged by status) in the given registry.
+   *
+   * @param meterRegistry The registry to publish the metrics to.
+   */
+  @Override
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
   @Override
   public boolean confirm(String messageId) {
-    // No-op for Redis as add already confirms (using SETNX or SET with NX)
+    // No-op for Redis as add already confirms (the marker is set by the add script)
     return true;
   }
 
   @Override
   public void clear() {
-    jedisPool.clear();
+    nearCache.clear();
+    if (ownsPool) {
+      jedisPool.clear();
+    }
   }
 
   @Override
@@ -122,10 +900,179 @@ public class RedisIdempotentRepository implements IdempotentRepository {
 
   @Override
   public void stop() {
-    if (jedisPool != null) {
+    if (ownsPool && jedisPool != null) {
       jedisPool.close();
       jedisPool.destroy();
     }
     LOG.info("Redis Idempotent Repository stopped.");
   }
-}
\ No newline at end of file
+
+  /**
+   * Reads the current statuses of the given messages from the daily buckets (newest first) and the keys of the previous layout.
+   * The newest bucket holding a message wins, even with a tombstone.
+   *
+   * @return The raw statuses, in the order of the message ids, null for unknown messages and "" for removed ones.
+   */
+  private List<String> lookup(Jedis jedis, List<String> messageIds) {
+    String[] ids = messageIds.toArray(String[]::new);
+    Pipeline pipeline = jedis.pipelined();
+    List<Response<List<String>>> buckets = new ArrayList<>();
+    for (String day : days(LocalDate.now(ZoneOffset.UTC))) {
+      buckets.add(pipeline.hmget(keyPrefix + STATUS_INFIX + day, ids));
+    }
+    buckets.add(pipeline.mget(messageIds.stream().map(messageId -> keyPrefix + messageId).toArray(String[]::new)));
+    pipeline.sync();
+    List<String> values = new ArrayList<>(ids.length);
+    for (int i = 0; i < ids.length; i++) {
+      String value = null;
+      for (int bucket = 0; bucket < buckets.size() && value == null; bucket++) {
+        value = buckets.get(bucket).get().get(i);
+      }
+      values.add(value);
+    }
+    return values;
+  }
+
+  /**
+   * Runs a status script for a change made now.
+   */
+  private Object evalStatusScript(Jedis jedis, Script script, String messageId, String... args) {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    return evalScript(jedis, script, scriptKeys(messageId, today), scriptArgs(messageId, today, System.currentTimeMillis(), args));
+  }
+
+  /**
+   * Runs a script by its SHA1 digest, sending its source only if Redis does not have it cached (NOSCRIPT).
+   */
+  private static Object evalScript(Jedis jedis, Script script, List<String> keys, List<String> args) {
+    try {
+      return jedis.evalsha(script.sha1(), keys, args);
+    } catch (JedisNoScriptException e) {
+      return jedis.eval(script.source(), keys, args);
+    }
+  }
+
+  /**
+   * Builds the keys of a status script, in the order expected by {@link #BUCKET_FUNCTIONS}.
+   */
+  private List<String> scriptKeys(String messageId, LocalDate today) {
+    List<String> days = days(today);
+    FileStatusEnum[] statuses = FileStatusEnum.values();
+    List<String> keys = new ArrayList<>(3 + days.size() * 3 + statuses.length);
+    keys.add(keyPrefix + messageId);
+    keys.add(keyPrefix + messageId + LEASE_SUFFIX);
+    keys.add(keyPrefix + HISTORY_INFIX + days.get(0));
+    days.forEach(day -> keys.add(keyPrefix + STATUS_INFIX + day));
+    days.forEach(day -> keys.add(keyPrefix + SEEN_INFIX + day));
+    days.forEach(day -> keys.add(keyPrefix + VERSION_INFIX + day));
+    for (FileStatusEnum status : statuses) {
+      keys.add(indexKey(status));
+    }
+    return keys;
+  }
+
+  /**
+   * Builds the arguments of a status script: the message id, the expiry of today's buckets, the number of days
+   * and the time of the change.
+   */
+  private List<String> scriptArgs(String messageId, LocalDate today, long now, String... args) {
+    long expireAt = today.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond() + expiryTime.toSeconds();
+    List<String> scriptArgs = new ArrayList<>(List.of(messageId, String.valueOf(expireAt), String.valueOf(bucketCount), String.valueOf(now)));
+    scriptArgs.addAll(List.of(args));
+    return scriptArgs;
+  }
+
+  /**
+   * @return The statuses as a Lua list of strings, in the order of {@link FileStatusEnum}.
+   */
+  private static String luaStatuses() {
+    return Arrays.stream(FileStatusEnum.values()).map(status -> "'" + status + "'").collect(Collectors.joining(", "));
+  }
+
+  /**
+   * @return The days of the buckets which may hold live entries, newest first.
+   */
+  private List<String> days(LocalDate today) {
+    List<String> days = new ArrayList<>(bucketCount);
+    for (int day = 0; day < bucketCount; day++) {
+      days.add(today.minusDays(day).format(DAY_FORMAT));
+    }
+    return days;
+  }
+
+  private String indexKey(FileStatusEnum status) {
+    return keyPrefix + INDEX_INFIX + status;
+  }
+
+  private static String encodeCursor(String position) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String decodeCursor(String cursor) {
+    return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+  }
+
+  private FileStatusEnum toStatus(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return FileStatusEnum.valueOf(value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private void recordLatency(String operation, long startNanos) {
+    if (meterRegistry != null) {
+      meterRegistry.timer("converter.redis.operation", "operation", operation, "prefix", keyPrefix)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void countTransition(String status) {
+    if (meterRegistry != null) {
+      meterRegistry.counter("converter.status.transitions", "status", status, "prefix", keyPrefix).increment();
+    }
+  }
+
+  private FileStatusEnum getCached(String messageId) {
+    NearCacheEntry entry = nearCache.get(messageId);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt() < System.currentTimeMillis()) {
+      nearCache.remove(messageId, entry);
+      return null;
+    }
+    return entry.status();
+  }
+
+  private void cacheIfTerminal(String messageId, FileStatusEnum status) {
+    if (status != null && !nearCacheTtl.isZero() && TERMINAL_STATUSES.contains(status)) {
+      if (nearCache.size() >= NEAR_CACHE_MAX_ENTRIES) {
+        long now = System.currentTimeMillis();
+        nearCache.values().removeIf(entry -> entry.expiresAt() < now);
+      }
+      nearCache.put(messageId, new NearCacheEntry(status, System.currentTimeMillis() + nearCacheTtl.toMillis()));
+    }
+  }
+
+  private record NearCacheEntry(FileStatusEnum status, long expiresAt) {
+  }
+
+  /**
+   * A Lua script with the SHA1 digest Redis caches it under.
+   */
+  private record Script(String source, String sha1) {
+
+    static Script of(String source) {
+      try {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+        return new Script(source, HexFormat.of().formatHex(digest));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-1 is not available", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.IdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusPage;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store of the conversion statuses, leases, failure fingerprints and node capacities, keyed by file name (or content hash).
+ * As a Camel {@link IdempotentRepository} it also backs the idempotent consumer of the file route: its markers
+ * ({@link #add(String)}, {@link #contains(String)}, {@link #remove(String)}) are kept apart from the statuses, so marking a file
+ * as seen never overwrites the status of its conversion; {@link #add(String)} only sets the initial status of a message without one.
+ * The key of the idempotent consumer may carry the version of the document besides its file name, so a changed document is
+ * picked up again: the marker is then kept for that key, while the status stays under the file name of the exchange.
+ * Implementations: {@link RedisIdempotentRepository}, shared by all nodes of a cluster, and {@link MVStoreStatusRepository},
+ * an embedded store on the local disk for single-node deployments (chosen by the "status-store.type" property).
+ * Entries expire after the expiry time of the store; failures to reach the store are logged and reported as "not found" or false.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public interface StatusStore extends IdempotentRepository {
+
+  /**
+   * Marks the key of the idempotent consumer as seen, keeping the status under the file name of the exchange.
+   *
+   * @param exchange The exchange of the file.
+   * @param key      The key, e.g. the file name with the version of the document.
+   * @return true if the key was not seen before.
+   */
+  @Override
+  default boolean add(Exchange exchange, String key) {
+    String messageId = exchange.getIn().getHeader(Exchange.FILE_NAME, String.class);
+    return messageId == null ? add(key) : markSeen(key, messageId);
+  }
+
+  /**
+   * Removes the marker of the key of the idempotent consumer, e.g. when the exchange failed, and the initial status set with it.
+   *
+   * @param exchange The exchange of the file.
+   * @param key      The key, e.g. the file name with the version of the document.
+   * @return true if the marker or the status was removed.
+   */
+  @Override
+  default boolean remove(Exchange exchange, String key) {
+    String messageId = exchange.getIn().getHeader(Exchange.FILE_NAME, String.class);
+    return messageId == null ? remove(key) : removeSeen(key, messageId);
+  }
+
+  /**
+   * Marks a key as seen unless it was seen already, and sets the initial status of its message if it has none.
+   * {@link #add(String)} is the same with the message id as the key.
+   *
+   * @param key       The key of the idempotent consumer.
+   * @param messageId The message id the status is kept under, e.g. the file name.
+   * @return true if the key was not seen before.
+   */
+  boolean markSeen(String key, String messageId);
+
+  /**
+   * Removes the marker of a key, and the status of its message if it still is the initial one.
+   * {@link #remove(String)} is the same with the message id as the key.
+   *
+   * @param key       The key of the idempotent consumer.
+   * @param messageId The message id the status is kept under, e.g. the file name.
+   * @return true if the marker or the status was removed.
+   */
+  boolean removeSeen(String key, String messageId);
+
+  /**
+   * Sets the status of a message, replacing the current one.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param value     The status.
+   * @return true if the status was written.
+   */
+  boolean add(String messageId, String value);
+
+  /**
+   * @param messageId The message id, e.g. the file name.
+   * @param value     The status.
+   * @return true if the message has the given status.
+   */
+  boolean containsValue(String messageId, String value);
+
+  /**
+   * Looks up the status of a message.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return The status, or null if the message is unknown or the store cannot be reached.
+   */
+  FileStatusEnum getStatus(String messageId);
+
+  /**
+   * Looks up the statuses of several messages at once.
+   *
+   * @param messageIds The message ids, e.g. the file names.
+   * @return The statuses of the known messages, keyed by message id. Unknown messages are left out.
+   */
+  Map<String, FileStatusEnum> getStatuses(Collection<String> messageIds);
+
+  /**
+   * Sets the statuses of several messages at once.
+   *
+   * @param statuses The statuses to set, keyed by message id.
+   * @return true if all statuses were written.
+   */
+  boolean setStatuses(Map<String, FileStatusEnum> statuses);
+
+  /**
+   * Counts the messages by status, without iterating over the messages.
+   *
+   * @return The number of messages of each status, in the order of {@link FileStatusEnum}; empty if the store cannot be reached.
+   */
+  Map<FileStatusEnum, Long> countByStatus();
+
+  /**
+   * Lists the messages with the given status, page by page. A message changing its status while the pages are read
+   * may be left out or listed twice.
+   *
+   * @param status The status.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit  The number of messages per page; the Redis store may return a few more or fewer.
+   * @return The page, empty if the store cannot be reached.
+   * @throws IllegalArgumentException If the cursor is invalid.
+   */
+  StatusPage listByStatus(FileStatusEnum status, String cursor, int limit);
+
+  /**
+   * Reads the status changes of a message within the retention period. The history is kept apart from the current status
+   * and the seen markers, so removing a marker or a status does not erase it.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @return The changes, oldest first; empty if the message is unknown or the store cannot be reached.
+   */
+  List<StatusChange> getHistory(String messageId);
+
+  /**
+   * Atomically claims a message for conversion: sets the PROCESSING status and a lease owned by the given node.
+   * The claim fails if the message is PROCESSING under a lease which has not expired yet, or if it is PROCESSED or QUARANTINED,
+   * unless a version is given which differs from the one of the message's last claim (the document changed since).
+   * The version is kept with the status until it expires.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param version   The version of the document, e.g. its modification time and size, or null to claim it only once.
+   * @param owner     The id of the claiming node.
+   * @param leaseTtl  How long the lease is valid unless renewed.
+   * @return true if the message was claimed by the owner.
+   */
+  boolean claim(String messageId, String version, String owner, Duration leaseTtl);
+
+  /**
+   * @param messageId The message id, e.g. the file name.
+   * @return The version given to the last claim of the message which had one, or null if there is none or the store cannot be reached.
+   */
+  String getClaimedVersion(String messageId);
+
+  /**
+   * Extends the lease of a claimed message.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param owner     The id of the node holding the lease.
+   * @param leaseTtl  The new validity of the lease.
+   * @return true if the lease is still held by the owner and was extended.
+   */
+  boolean renewLease(String messageId, String owner, Duration leaseTtl);
+
+  /**
+   * Gives up the lease of a claimed message, if it is still held by the owner.
+   *
+   * @param messageId The message id, e.g. the file name.
+   * @param owner     The id of the node holding the lease.
+   * @return true if the lease was deleted.
+   */
+  boolean releaseLease(String messageId, String owner);
+
+  /**
+   * Counts a conversion attempt of a document in its failure fingerprint.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return The number of attempts including this one, or 0 if the store cannot be reached.
+   */
+  long recordAttempt(String sha256);
+
+  /**
+   * Adds a failed attempt to the failure fingerprint of a document.
+   *
+   * @param sha256  The hex encoded SHA-256 hash of the document.
+   * @param details Details of the failure, replacing those of the previous failure.
+   * @return true if the failure was recorded.
+   */
+  boolean recordFailure(String sha256, Map<String, String> details);
+
+  /**
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return The attempts, failures and details of the last failure of the document, empty if it never failed.
+   */
+  Map<String, String> getFingerprint(String sha256);
+
+  /**
+   * Deletes the failure fingerprint of a document.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return true if a fingerprint was deleted.
+   */
+  boolean clearFingerprint(String sha256);
+
+  /**
+   * Publishes the capacity of a node.
+   *
+   * @param nodeId   The id of the node.
+   * @param capacity The capacity, encoded by the caller.
+   * @return true if the capacity was written.
+   */
+  boolean setNodeCapacity(String nodeId, String capacity);
+
+  /**
+   * @return The encoded capacities of all nodes, keyed by node id.
+   */
+  Map<String, String> getNodeCapacities();
+
+  /**
+   * Removes the capacity of a node.
+   *
+   * @param nodeId The id of the node.
+   * @return true if the capacity was removed.
+   */
+  boolean removeNodeCapacity(String nodeId);
+
+  /**
+   * Registers the latencies of the store operations and the status transitions in the given registry.
+   *
+   * @param meterRegistry The registry to publish the metrics to.
+   */
+  void setMeterRegistry(MeterRegistry meterRegistry);
+}
@@ -0,0 +1,365 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+import pl.gpiwosz.wordpdfconverter.dtos.ConversionStatus;
+import pl.gpiwosz.wordpdfconverter.dtos.ExportResult;
+import pl.gpiwosz.wordpdfconverter.dtos.ExportStatus;
+import pl.gpiwosz.wordpdfconverter.enums.ConversionPriorityEnum;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Service behind the HTTP conversion API, converting uploaded documents without the detour over the input directory and ActiveMQ.
+ * Uploads are streamed into the temporary directory, then converted on the shared {@link OfficeInstancePool} with
+ * {@link ConversionPriorityEnum#INTERACTIVE INTERACTIVE} priority, so they get the next free slot of the {@link ConversionScheduler}
+ * before queued documents, but never run beside them on more instances than there are slots.
+ * At most "api.max-pending" conversions are accepted at the same time; further requests are rejected instead of piling up.
+ * <p>
+ * Each conversion gets an id; its status is kept in the {@link StatusStore} like the status of a queued file
+ * (under the name "api/&lt;id&gt;.docx"), and its PDF is written to "api/&lt;id&gt;.pdf" in the output directory.
+ * A multi-target export writes "api/&lt;id&gt;.&lt;target&gt;.&lt;extension&gt;" instead, with a status per target
+ * (see {@link LibreOfficeConverterService#exportFile}).
+ * <p>
+ * The PDF of a synchronous conversion is moved to a temporary file, to be deleted once it was sent, and its status is removed.
+ * The results of asynchronous conversions and exports are kept for "api.result-ttl" and then deleted with their PROCESSED
+ * statuses; the other statuses expire with the status store.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConversionApiService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConversionApiService.class);
+  private static final String FILE_NAME_PREFIX = "api/";
+  private static final String EXTENSION = ".docx";
+  private static final int MAX_REMEMBERED_FAILURES = 1000;
+
+  private final LibreOfficeConverterService libreOfficeConverterService;
+  private final ConversionLeaseService conversionLeaseService;
+  private final StatusStore redisQueueIdempotentRepository;
+  private final DocxAnalyzer docxAnalyzer;
+  private final TempDirConfig tempDirConfig;
+  private final Path resultDirectory;
+  private final Duration resultTtl;
+  private final Semaphore pending;
+  private final Executor executor;
+  /**
+   * Errors of the failed asynchronous conversions of this node, whose status was removed from the status store for a retry.
+   */
+  private final Map<String, String> failures = Collections.synchronizedMap(new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+      return size() > MAX_REMEMBERED_FAILURES;
+    }
+  });
+
+  /**
+   * Constructs a new ConversionApiService.
+   *
+   * @param libreOfficeConverterService    The service converting the documents.
+   * @param conversionLeaseService         The service claiming the conversions in the status store.
+   * @param redisQueueIdempotentRepository The repository holding the conversion statuses.
+   * @param docxAnalyzer                   The analyzer picking the lane of the uploaded documents.
+   * @param tempDirConfig                  The temporary directory the uploads are written to.
+   * @param threadingConfig                The threads the asynchronous conversions run on.
+   * @param maxPending                     The number of conversions accepted at the same time, read from the "api.max-pending" property.
+   * @param outputPath                     The output path the results are written to, read from the "output.path" property.
+   * @param resultTtl                      How long the results of asynchronous conversions are kept, read from the "api.result-ttl" property.
+   */
+  public ConversionApiService(final LibreOfficeConverterService libreOfficeConverterService, final ConversionLeaseService conversionLeaseService,
+                              StatusStore redisQueueIdempotentRepository, final DocxAnalyzer docxAnalyzer,
+                              final TempDirConfig tempDirConfig, final ThreadingConfig threadingConfig,
+                              @Value("${api.max-pending:16}") final int maxPending,
+                              @Value("${output.path}") final String outputPath,
+                              @Value("${api.result-ttl:1d}") final Duration resultTtl) {
+    this.libreOfficeConverterService = libreOfficeConverterService;
+    this.conversionLeaseService = conversionLeaseService;
+    this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.docxAnalyzer = docxAnalyzer;
+    this.tempDirConfig = tempDirConfig;
+    this.resultDirectory = Path.of(outputPath, FILE_NAME_PREFIX);
+    this.resultTtl = resultTtl;
+    this.executor = threadingConfig.getTaskExecutor();
+    this.pending = new Semaphore(Math.max(1, maxPending));
+  }
+
+  /**
+   * Converts an uploaded document and returns once its PDF is written.
+   *
+   * @param content The uploaded DOCX. It is closed by this method.
+   * @param profile The PDF export profile, or null for the default profile.
+   * @return The converted PDF, in a temporary file which the caller deletes once it was sent.
+   * @throws RejectedExecutionException If too many conversions are pending.
+   * @throws Exception                  If the upload cannot be stored or the conversion fails.
+   */
+  public Path convert(final InputStream content, final String profile) throws Exception {
+    admit(content);
+    try {
+      String id = UUID.randomUUID().toString();
+      Path upload = Files.createTempFile(tempDirConfig.getTempDirPath(), "_upload", "_data");
+      convertUpload(id, upload, upload(content, upload), profile);
+      Path pdf = getPdf(id);
+      try {
+        Path result = Files.createTempFile(tempDirConfig.getTempDirPath(), "_result", ".pdf");
+        return Files.move(pdf, result, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(pdf);
+        redisQueueIdempotentRepository.remove(fileNameOf(id));
+      }
+    } finally {
+      pending.release();
+    }
+  }
+
+  /**
+   * Stores an uploaded document and converts it in the background.
+   * The upload is read completely before this method returns; the conversion is tracked by {@link #getStatus(String)}.
+   *
+   * @param content The uploaded DOCX. It is closed by this method.
+   * @param profile The PDF export profile, or null for the default profile.
+   * @return The id of the conversion.
+   * @throws RejectedExecutionException If too many conversions are pending.
+   * @throws IOException                If the upload cannot be stored.
+   */
+  public String submit(final InputStream content, final String profile) throws IOException {
+    admit(content);
+    Path upload = null;
+    try {
+      String id = UUID.randomUUID().toString();
+      upload = Files.createTempFile(tempDirConfig.getTempDirPath(), "_upload", "_data");
+      Path stored = upload;
+      String sha256 = upload(content, upload);
+      redisQueueIdempotentRepository.add(fileNameOf(id), FileStatusEnum.READ.toString());
+      executor.execute(() -> {
+        try {
+          convertUpload(id, stored, sha256, profile);
+        } catch (Exception e) {
+          LOG.error("Conversion {} failed: {}", id, e.getMessage());
+          failures.put(id, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        } finally {
+          pending.release();
+        }
+      });
+      return id;
+    } catch (IOException | RuntimeException e) {
+      pending.release();
+      if (upload != null) {
+        Files.deleteIfExists(upload);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Exports an uploaded document to several targets from a single load of the document and returns once all of them were tried.
+   *
+   * @param content The uploaded DOCX. It is closed by this method.
+   * @param targets The names of the targets: PDF export profiles or "thumbnail".
+   * @return The id of the export and the status of each target.
+   * @throws RejectedExecutionException If too many conversions are pending.
+   * @throws IllegalArgumentException   If no target or an unknown target is requested.
+   * @throws Exception                  If the upload cannot be stored or the document cannot be loaded.
+   */
+  public ExportStatus export(final InputStream content, final List<String> targets) throws Exception {
+    admit(content);
+    try {
+      String id = UUID.randomUUID().toString();
+      String fileName = fileNameOf(id);
+      Path upload = Files.createTempFile(tempDirConfig.getTempDirPath(), "_upload", "_data");
+      String sha256 = upload(content, upload);
+      try {
+        if (!conversionLeaseService.claim(fileName)) {
+          throw new IllegalStateException("Conversion " + id + " cannot be claimed");
+        }
+        try {
+          DocumentLaneEnum lane = docxAnalyzer.analyze(upload).getLane();
+          List<ExportResult> results = libreOfficeConverterService.exportFile(upload, fileName, sha256, lane, ConversionPriorityEnum.INTERACTIVE, targets);
+          boolean processed = results.stream().allMatch(result -> FileStatusEnum.PROCESSED.toString().equals(result.getStatus()));
+          return ExportStatus.builder()
+            .id(id)
+            .status((processed ? FileStatusEnum.PROCESSED : FileStatusEnum.FAILED).toString())
+            .targets(results)
+            .build();
+        } finally {
+          conversionLeaseService.release(fileName);
+        }
+      } finally {
+        Files.deleteIfExists(upload);
+      }
+    } finally {
+      pending.release();
+    }
+  }
+
+  /**
+   * Looks up the status of a conversion.
+   *
+   * @param id The id of the conversion.
+   * @return The status, or null if the conversion is unknown (or its status expired).
+   */
+  public ConversionStatus getStatus(final String id) {
+    if (!isValidId(id)) {
+      return null;
+    }
+    String error = failures.get(id);
+    if (error != null) {
+      return ConversionStatus.builder().id(id).status(FileStatusEnum.FAILED.toString()).error(error).build();
+    }
+    FileStatusEnum status = redisQueueIdempotentRepository.getStatus(fileNameOf(id));
+    if (status == null) {
+      return null;
+    }
+    return ConversionStatus.builder().id(id).status(status.toString()).build();
+  }
+
+  /**
+   * @param id The id of the conversion.
+   * @return The PDF of the conversion, which only exists once the conversion is PROCESSED, or null for an invalid id.
+   */
+  public Path getPdf(final String id) {
+    if (!isValidId(id)) {
+      return null;
+    }
+    return libreOfficeConverterService.getOutputFile(fileNameOf(id)).toPath();
+  }
+
+  /**
+   * @param id     The id of the export.
+   * @param target The name of the target.
+   * @return The file of the target, which only exists once the target is PROCESSED, or null for an invalid id or unknown target.
+   */
+  public Path getExport(final String id, final String target) {
+    if (!isValidId(id)) {
+      return null;
+    }
+    FileStatusEnum status = redisQueueIdempotentRepository.getStatus(LibreOfficeConverterService.exportStatusKey(fileNameOf(id), target));
+    File exportFile = libreOfficeConverterService.getExportFile(fileNameOf(id), target);
+    if (status != FileStatusEnum.PROCESSED || exportFile == null) {
+      return null;
+    }
+    return exportFile.toPath();
+  }
+
+  /**
+   * Deletes the results of the asynchronous conversions and exports older than "api.result-ttl", together with their
+   * PROCESSED statuses, at the interval set by the "api.cleanup-interval" property.
+   */
+  @Scheduled(fixedDelayString = "${api.cleanup-interval:1h}")
+  public void deleteExpiredResults() {
+    if (!Files.isDirectory(resultDirectory)) {
+      return;
+    }
+    long expiredBefore = System.currentTimeMillis() - resultTtl.toMillis();
+    int deleted = 0;
+    try (DirectoryStream<Path> results = Files.newDirectoryStream(resultDirectory)) {
+      for (Path result : results) {
+        // "<id>.pdf" or "<id>.<target>.<extension>"
+        String[] parts = result.getFileName().toString().split("\\.");
+        if (!isValidId(parts[0])) {
+          continue;
+        }
+        try {
+          if (Files.getLastModifiedTime(result).toMillis() >= expiredBefore) {
+            continue;
+          }
+          Files.deleteIfExists(result);
+          deleted++;
+        } catch (IOException e) {
+          LOG.warn("Cannot delete the expired result {}: {}", result.getFileName(), e.getMessage());
+          continue;
+        }
+        redisQueueIdempotentRepository.remove(fileNameOf(parts[0]));
+        if (parts.length == 3) {
+          redisQueueIdempotentRepository.remove(LibreOfficeConverterService.exportStatusKey(fileNameOf(parts[0]), parts[1]));
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot list the results in {}: {}", resultDirectory, e.getMessage());
+    }
+    if (deleted > 0) {
+      LOG.info("Deleted {} expired conversion results", deleted);
+    }
+  }
+
+  private void admit(final InputStream content) throws IOException {
+    if (!pending.tryAcquire()) {
+      content.close();
+      throw new RejectedExecutionException("Too many pending conversions");
+    }
+  }
+
+  /**
+   * Streams the upload into the given temporary file, deleting the file if the upload breaks off.
+   *
+   * @return The hex encoded SHA-256 hash of the upload.
+   */
+  private String upload(final InputStream content, final Path upload) throws IOException {
+    try {
+      return UtilsService.transferAndHash(content, upload);
+    } catch (IOException e) {
+      Files.deleteIfExists(upload);
+      throw e;
+    }
+  }
+
+  /**
+   * Claims and converts a stored upload with INTERACTIVE priority, deleting the upload afterwards.
+   */
+  private void convertUpload(final String id, final Path upload, final String sha256, final String profile) throws Exception {
+    String fileName = fileNameOf(id);
+    try {
+      if (!conversionLeaseService.claim(fileName)) {
+        throw new IllegalStateException("Conversion " + id + " cannot be claimed");
+      }
+      try {
+        DocumentLaneEnum lane = docxAnalyzer.analyze(upload).getLane();
+        libreOfficeConverterService.convertFile(upload, fileName, sha256, lane, ConversionPriorityEnum.INTERACTIVE, profile);
+      } finally {
+        conversionLeaseService.release(fileName);
+      }
+    } finally {
+      Files.deleteIfExists(upload);
+    }
+  }
+
+  /**
+   * Ids are UUIDs; anything else (e.g. a path) is rejected before it is used in a file name.
+   */
+  private boolean isValidId(final String id) {
+    try {
+      return id != null && UUID.fromString(id).toString().equals(id);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private String fileNameOf(final String id) {
+    return FILE_NAME_PREFIX + id + EXTENSION;
+  }
+}
@@ -0,0 +1,215 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of converted PDF files, keyed by the SHA-256 hash of the DOCX input.
+ * Byte-identical documents (e.g. repeated templates or re-uploads) are converted only once;
+ * later requests get a copy of the cached PDF at their output path.
+ * The cache is bounded by size and evicts the least recently used entries first.
+ * The cache directory is kept outside the output directory, so consumers of the output never see the entries; it may be
+ * placed on a shared volume to share results between nodes.
+ * Entries are copied rather than hard-linked by default: a hard link shares its content with the output file, so a consumer
+ * changing the PDF in place would change the cached entry as well. Hard links ("conversion-cache.hard-links") save the copy
+ * when the outputs are never modified.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConversionCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConversionCache.class);
+  private static final String EXTENSION = ".pdf";
+
+  private final boolean enabled;
+  private final boolean hardLinks;
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final AtomicLong usedBytes = new AtomicLong(0);
+
+  /**
+   * Constructs a new ConversionCache.
+   *
+   * @param enabled    Whether the cache is used, read from the "conversion-cache.enabled" property.
+   * @param cachePath  The cache directory, read from the "conversion-cache.path" property (defaults to a directory in the
+   *                   system temporary directory).
+   * @param maxSize    The maximum size of the cache, read from the "conversion-cache.max-size" property.
+   * @param hardLinks  Whether entries are hard-linked instead of copied, read from the "conversion-cache.hard-links" property.
+   */
+  public ConversionCache(@Value("${conversion-cache.enabled:true}") final boolean enabled,
+                         @Value("${conversion-cache.path:${java.io.tmpdir}/wordpdfconverter-cache}") final String cachePath,
+                         @Value("${conversion-cache.max-size:1GB}") final DataSize maxSize,
+                         @Value("${conversion-cache.hard-links:false}") final boolean hardLinks) {
+    this.enabled = enabled;
+    this.hardLinks = hardLinks;
+    this.cacheDir = Path.of(cachePath);
+    this.maxSizeBytes = maxSize.toBytes();
+  }
+
+  /**
+   * Creates the cache directory and computes the size of the entries left by previous runs.
+   *
+   * @throws IOException If the cache directory cannot be created or read.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    Files.createDirectories(cacheDir);
+    try (Stream<Path> entries = Files.walk(cacheDir)) {
+      usedBytes.set(entries.filter(Files::isRegularFile).mapToLong(this::sizeOf).sum());
+    }
+  }
+
+  /**
+   * Places the cached PDF for the given input hash at the output path.
+   *
+   * @param sha256     The hex encoded SHA-256 hash of the DOCX input.
+   * @param outputFile The path the PDF should be written to.
+   * @return true on a cache hit, false if the document has to be converted.
+   */
+  public boolean restore(final String sha256, final Path outputFile) {
+    if (!enabled || sha256 == null) {
+      return false;
+    }
+    Path cached = entryPath(sha256);
+    if (!Files.exists(cached)) {
+      return false;
+    }
+    try {
+      Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+      copyOrLink(cached, outputFile);
+      return true;
+    } catch (IOException e) {
+      // The entry may have been evicted in the meantime, the document is converted instead
+      LOG.warn("Cannot restore cached PDF {}: {}", cached, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Adds a converted PDF to the cache and evicts the least recently used entries if the cache exceeds its maximum size.
+   *
+   * @param sha256  The hex encoded SHA-256 hash of the DOCX input.
+   * @param pdfFile The converted PDF.
+   */
+  public void store(final String sha256, final Path pdfFile) {
+    if (!enabled || sha256 == null) {
+      return;
+    }
+    Path cached = entryPath(sha256);
+    if (Files.exists(cached)) {
+      return;
+    }
+    try {
+      Files.createDirectories(cached.getParent());
+      Path temp = Files.createTempFile(cached.getParent(), "_cache", "_data");
+      Files.delete(temp);
+      copyOrLink(pdfFile, temp);
+      Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      if (usedBytes.addAndGet(sizeOf(cached)) > maxSizeBytes) {
+        evict();
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot store PDF {} in the conversion cache: {}", pdfFile, e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache is back under its maximum size.
+   */
+  private synchronized void evict() {
+    if (usedBytes.get() <= maxSizeBytes) {
+      return;
+    }
+    List<Path> entries;
+    try (Stream<Path> walk = Files.walk(cacheDir)) {
+      entries = walk.filter(path -> path.toString().endsWith(EXTENSION))
+        .sorted(Comparator.comparing(this::lastModified))
+        .collect(Collectors.toList());
+    } catch (IOException e) {
+      LOG.warn("Cannot list the conversion cache: {}", e.getMessage());
+      return;
+    }
+    for (Path entry : entries) {
+      if (usedBytes.get() <= maxSizeBytes) {
+        break;
+      }
+      long size = sizeOf(entry);
+      try {
+        if (Files.deleteIfExists(entry)) {
+          usedBytes.addAndGet(-size);
+        }
+      } catch (IOException e) {
+        LOG.warn("Cannot evict {} from the conversion cache: {}", entry, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Copies the source to the target, or hard-links it if hard links are enabled, falling back to a copy when the paths
+   * are on different file systems. An existing target is replaced, missing parent directories are created.
+   */
+  private void copyOrLink(final Path source, final Path target) throws IOException {
+    Files.createDirectories(target.getParent());
+    Files.deleteIfExists(target);
+    if (hardLinks) {
+      try {
+        Files.createLink(target, source);
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.debug("Cannot hard-link {} to {}, copying it: {}", source, target, e.getMessage());
+      }
+    }
+    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Entries are spread over subdirectories named after the first two characters of the hash.
+   */
+  private Path entryPath(final String sha256) {
+    return cacheDir.resolve(sha256.substring(0, 2)).resolve(sha256 + EXTENSION);
+  }
+
+  private long sizeOf(final Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private FileTime lastModified(final Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  /**
+   * @return The number of bytes used by the cache entries.
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+}
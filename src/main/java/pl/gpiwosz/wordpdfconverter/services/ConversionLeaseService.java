@@ -0,0 +1,118 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service responsible for cluster-wide claims of files being converted.
+ * A claim atomically sets the PROCESSING status together with a short lease owned by this node.
+ * While the conversion runs, the lease is renewed by a heartbeat; if the node crashes, the lease expires
+ * and the redelivered message can be claimed by another node instead of staying PROCESSING for days.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConversionLeaseService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConversionLeaseService.class);
+
+  private final StatusStore redisQueueIdempotentRepository;
+  private final String nodeId;
+  private final Duration leaseTtl;
+  private final Set<String> heldLeases = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Constructs a new ConversionLeaseService.
+   *
+   * @param redisQueueIdempotentRepository The repository holding the conversion statuses and leases.
+   * @param nodeId   The id of this node, read from the "converter.node-id" property (defaults to pid@hostname).
+   * @param leaseTtl How long a lease is valid without a heartbeat, read from the "conversion.lease.ttl" property.
+   */
+  public ConversionLeaseService(StatusStore redisQueueIdempotentRepository,
+                                @Value("${converter.node-id:}") final String nodeId,
+                                @Value("${conversion.lease.ttl:60s}") final Duration leaseTtl) {
+    this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.nodeId = (nodeId == null || nodeId.isEmpty()) ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+    this.leaseTtl = leaseTtl;
+  }
+
+  /**
+   * Claims a file for conversion on this node.
+   *
+   * @param fileName The file name.
+   * @return true if the file was claimed; false if it is PROCESSED or being converted by a live node.
+   */
+  public boolean claim(final String fileName) {
+    return claim(fileName, null);
+  }
+
+  /**
+   * Claims a version of a file for conversion on this node. A PROCESSED file is claimed again if its version changed.
+   *
+   * @param fileName The file name.
+   * @param version  The version of the document (see {@link StatusStore#claim(String, String, String, Duration)}), or null.
+   * @return true if the file was claimed; false if this version is PROCESSED or the file is being converted by a live node.
+   */
+  public boolean claim(final String fileName, final String version) {
+    if (!redisQueueIdempotentRepository.claim(fileName, version, nodeId, leaseTtl)) {
+      return false;
+    }
+    heldLeases.add(fileName);
+    return true;
+  }
+
+  /**
+   * Tells whether a version of a file which could not be claimed has to wait for the conversion of another version,
+   * instead of being dropped as a duplicate.
+   *
+   * @param fileName The file name.
+   * @param version  The version of the document, or null.
+   * @return true if the file is PROCESSING in a version other than the given one.
+   */
+  public boolean isConvertingOtherVersion(final String fileName, final String version) {
+    return version != null
+      && redisQueueIdempotentRepository.getStatus(fileName) == FileStatusEnum.PROCESSING
+      && !version.equals(redisQueueIdempotentRepository.getClaimedVersion(fileName));
+  }
+
+  /**
+   * Releases the lease of a file claimed by this node. Does nothing if this node does not hold it.
+   * Must only be called for the claim which succeeded, not for a message of the same file which was refused.
+   *
+   * @param fileName The file name, or null.
+   */
+  public void release(final String fileName) {
+    if (fileName != null && heldLeases.remove(fileName)) {
+      redisQueueIdempotentRepository.releaseLease(fileName, nodeId);
+    }
+  }
+
+  /**
+   * Renews the leases of all files currently converted on this node.
+   * The heartbeat interval should be well below the lease TTL.
+   */
+  @Scheduled(fixedRateString = "${conversion.lease.heartbeat:20s}")
+  public void heartbeat() {
+    for (String fileName : heldLeases) {
+      if (!redisQueueIdempotentRepository.renewLease(fileName, nodeId, leaseTtl)) {
+        LOG.warn("Lease of {} held by {} could not be renewed", fileName, nodeId);
+      }
+    }
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+}
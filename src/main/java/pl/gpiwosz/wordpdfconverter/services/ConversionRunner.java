@@ -0,0 +1,450 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.document.DefaultDocumentFormatRegistry;
+import org.jodconverter.core.document.DocumentFormat;
+import org.jodconverter.core.office.OfficeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Service running a conversion on the {@link OfficeInstancePool} within deadlines, so a wedged soffice process cannot hold
+ * a document (and an instance) indefinitely.
+ * <ul>
+ *     <li>Soft deadline ("conversion.timeout.soft"): an attempt running longer is cancelled by killing its soffice process
+ *     (the instance is restarted by the pool) and the document is tried again, up to "conversion.retry.max-attempts" attempts.
+ *     While the cancelled instance restarts, the retry runs on another one. If the process cannot be killed, the thread of
+ *     the attempt is interrupted instead, so it stops waiting for JODConverter and gives back its instance and slot.</li>
+ *     <li>Hard deadline ("conversion.timeout.hard"): the time a document may take over all its attempts.
+ *     JODConverter's task execution timeout is set to it as well, as the last resort.</li>
+ *     <li>Hedging ("conversion.hedge.enabled"): an attempt running longer than the p99 of the recent conversions (but at least
+ *     "conversion.hedge.min-delay") gets a second attempt on another instance, if a slot and an instance are idle.
+ *     The first attempt to finish wins, the other one is cancelled.</li>
+ * </ul>
+ * Attempts run on the threads of the {@link ThreadingConfig}; the caller waits for the outcome.
+ * Multi-target exports (a {@link MultiExportTask}) run within the same deadlines and retries, but are never hedged.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConversionRunner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConversionRunner.class);
+  private static final String HEDGE_SUFFIX = ".hedge.pdf";
+  private static final int LATENCY_WINDOW = 256;
+  private static final int MIN_LATENCY_SAMPLES = 20;
+  private static final double HEDGE_PERCENTILE = 0.99;
+  private static final Duration CANCEL_WAIT = Duration.ofSeconds(10);
+
+  private final OfficeInstancePool officeInstancePool;
+  private final ConversionScheduler conversionScheduler;
+  private final ConverterMetrics converterMetrics;
+  private final Executor executor;
+  private final Duration softTimeout;
+  private final Duration hardTimeout;
+  private final int maxAttempts;
+  private final boolean hedging;
+  private final Duration hedgeMinDelay;
+
+  private final long[] latencies = new long[LATENCY_WINDOW];
+  private int latencyCount;
+  private int latencyIndex;
+
+  /**
+   * Constructs a new ConversionRunner.
+   *
+   * @param officeInstancePool  The pool of LibreOffice instances running the conversions.
+   * @param conversionScheduler The scheduler granting the extra slot of a hedged attempt.
+   * @param converterMetrics    The metrics of the attempts.
+   * @param threadingConfig     The threads the attempts run on.
+   * @param softTimeout         The time after which an attempt is cancelled and retried, read from the "conversion.timeout.soft" property (0 disables it).
+   * @param hardTimeout         The time a conversion may take over all attempts, read from the "conversion.timeout.hard" property.
+   * @param maxAttempts         The number of attempts of a conversion, read from the "conversion.retry.max-attempts" property.
+   * @param hedging             Whether slow conversions get a parallel attempt, read from the "conversion.hedge.enabled" property.
+   * @param hedgeMinDelay       The shortest time before a parallel attempt is started, read from the "conversion.hedge.min-delay" property.
+   */
+  public ConversionRunner(final OfficeInstancePool officeInstancePool, final ConversionScheduler conversionScheduler,
+                          final ConverterMetrics converterMetrics, final ThreadingConfig threadingConfig,
+                          @Value("${conversion.timeout.soft:60s}") final Duration softTimeout,
+                          @Value("${conversion.timeout.hard:180s}") final Duration hardTimeout,
+                          @Value("${conversion.retry.max-attempts:2}") final int maxAttempts,
+                          @Value("${conversion.hedge.enabled:false}") final boolean hedging,
+                          @Value("${conversion.hedge.min-delay:10s}") final Duration hedgeMinDelay) {
+    this.officeInstancePool = officeInstancePool;
+    this.conversionScheduler = conversionScheduler;
+    this.converterMetrics = converterMetrics;
+    this.executor = threadingConfig.getTaskExecutor();
+    this.softTimeout = softTimeout;
+    this.hardTimeout = hardTimeout;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.hedging = hedging;
+    this.hedgeMinDelay = hedgeMinDelay;
+  }
+
+  /**
+   * Converts a file, retrying cancelled attempts, and returns once the output is written.
+   * The caller is expected to hold a slot of the {@link ConversionScheduler}.
+   *
+   * @param inputFile  The file to convert.
+   * @param outputFile The PDF to write.
+   * @throws OfficeException      If the conversion fails, or does not finish within the deadlines.
+   * @throws InterruptedException If the thread is interrupted while waiting; running attempts are cancelled and waited for a moment.
+   */
+  public void convert(final File inputFile, final File outputFile) throws OfficeException, InterruptedException {
+    convert(inputFile, outputFile, DefaultDocumentFormatRegistry.PDF);
+  }
+
+  /**
+   * Converts a file to the given format (e.g. a PDF with the filter data of an export profile), retrying cancelled attempts,
+   * and returns once the output is written.
+   *
+   * @param inputFile    The file to convert.
+   * @param outputFile   The file to write.
+   * @param outputFormat The format of the output.
+   * @throws OfficeException      If the conversion fails, or does not finish within the deadlines.
+   * @throws InterruptedException If the thread is interrupted while waiting; running attempts are cancelled and waited for a moment.
+   */
+  public void convert(final File inputFile, final File outputFile, final DocumentFormat outputFormat) throws OfficeException, InterruptedException {
+    run(inputFile, outputFile, target -> instance -> instance.getConverter().convert(inputFile).to(target).as(outputFormat).execute(), hedging);
+  }
+
+  /**
+   * Loads a file once and exports it to several targets with a {@link MultiExportTask}, retrying cancelled attempts,
+   * and returns once all targets were tried. The caller is expected to hold a slot of the {@link ConversionScheduler}.
+   *
+   * @param inputFile The file to export.
+   * @param targets   The files to write, with their formats.
+   * @return The targets which could not be written, with their errors; empty if all of them were written.
+   * @throws OfficeException      If the document cannot be loaded, or the export does not finish within the deadlines.
+   * @throws InterruptedException If the thread is interrupted while waiting; running attempts are cancelled and waited for a moment.
+   */
+  public Map<File, Exception> export(final File inputFile, final Map<File, DocumentFormat> targets) throws OfficeException, InterruptedException {
+    AtomicReference<MultiExportTask> completed = new AtomicReference<>();
+    run(inputFile, null, target -> instance -> {
+      MultiExportTask task = new MultiExportTask(inputFile, targets);
+      instance.getOfficeManager().execute(task);
+      completed.set(task);
+    }, false);
+    return completed.get().getErrors();
+  }
+
+  /**
+   * Runs the attempts of a conversion until one succeeds, the attempts are used up or the hard deadline passes.
+   *
+   * @param work      Creates the work of an attempt writing to the given file (the output, or a hedged copy of it).
+   * @param hedgeable Whether a slow attempt may be hedged; only a conversion with a single output file can be.
+   */
+  private void run(final File inputFile, final File outputFile, final Function<File, Work> work, final boolean hedgeable)
+    throws OfficeException, InterruptedException {
+    long deadline = System.nanoTime() + hardTimeout.toNanos();
+    for (int attemptNumber = 1; ; attemptNumber++) {
+      Attempt failed = runRound(inputFile, outputFile, work, hedgeable, deadline);
+      if (failed == null) {
+        return;
+      }
+      if (!failed.isCancelled() || attemptNumber >= maxAttempts || System.nanoTime() - deadline >= 0) {
+        throw failed.getError() instanceof OfficeException officeException
+          ? officeException
+          : new OfficeException("Conversion of " + inputFile.getName() + " failed", failed.getError());
+      }
+      LOG.warn("Retrying the cancelled conversion of {} (attempt {} of {})", inputFile.getName(), attemptNumber + 1, maxAttempts);
+      converterMetrics.countExtraAttempt("retry");
+    }
+  }
+
+  /**
+   * Runs one attempt (and possibly a hedged one) until one of them succeeds or all of them ended.
+   *
+   * @return null on success, otherwise the failed attempt whose error should be reported.
+   */
+  private Attempt runRound(final File inputFile, final File outputFile, final Function<File, Work> work, final boolean hedgeable,
+                           final long deadline) throws OfficeException, InterruptedException {
+    // the instance of a cancelled attempt may still be restarting, so waiting for one counts against the hard deadline
+    OfficeInstance instance = officeInstancePool.acquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    if (instance == null) {
+      throw new OfficeException("No LibreOffice instance became idle for " + inputFile.getName() + " within " + hardTimeout);
+    }
+    BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+    List<Attempt> running = new ArrayList<>();
+    running.add(start(instance, work.apply(outputFile), outputFile, false, finished));
+    long started = System.nanoTime();
+    boolean softExpired = softTimeout.isZero();
+    boolean hedgeTried = !hedgeable;
+    long hedgeDelay = hedgeable ? hedgeDelayNanos() : 0;
+    Attempt failed = null;
+    try {
+      while (!running.isEmpty()) {
+        long now = System.nanoTime();
+        long wait = deadline - now;
+        if (!softExpired) {
+          wait = Math.min(wait, started + softTimeout.toNanos() - now);
+        }
+        if (!hedgeTried) {
+          wait = Math.min(wait, started + hedgeDelay - now);
+        }
+        Attempt done = wait > 0 ? finished.poll(wait, TimeUnit.NANOSECONDS) : null;
+        if (done != null) {
+          running.remove(done);
+          if (done.isSucceeded()) {
+            complete(done, running, finished, outputFile);
+            return null;
+          }
+          if (failed == null || failed.isCancelled()) {
+            failed = done;
+          }
+          continue;
+        }
+
+        now = System.nanoTime();
+        if (now - deadline >= 0) {
+          LOG.error("Conversion of {} did not finish within {}, cancelling it", inputFile.getName(), hardTimeout);
+          cancelAll(running, finished);
+          throw new OfficeException("Conversion of " + inputFile.getName() + " did not finish within " + hardTimeout);
+        }
+        if (!softExpired && now - started >= softTimeout.toNanos()) {
+          softExpired = true;
+          hedgeTried = true;
+          LOG.warn("Conversion of {} exceeded {}, cancelling it", inputFile.getName(), softTimeout);
+          for (Attempt attempt : running) {
+            attempt.cancel();
+          }
+        }
+        if (!hedgeTried && now - started >= hedgeDelay) {
+          hedgeTried = true;
+          Attempt hedge = startHedge(inputFile, outputFile, work, finished);
+          if (hedge != null) {
+            running.add(hedge);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      cancelAll(running, finished);
+      throw e;
+    }
+    return failed;
+  }
+
+  /**
+   * Cancels the attempts which lost, waits for them to give back their instances and puts the winner's PDF in place.
+   */
+  private void complete(final Attempt winner, final List<Attempt> running, final BlockingQueue<Attempt> finished,
+                        final File outputFile) throws OfficeException, InterruptedException {
+    cancelAll(running, finished);
+    recordLatency(winner.getElapsedNanos());
+    if (winner.isHedge()) {
+      LOG.info("Hedged conversion of {} finished first", outputFile.getName());
+      try {
+        Files.move(winner.getTarget().toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        throw new OfficeException("Cannot move the hedged output to " + outputFile, e);
+      }
+    }
+  }
+
+  /**
+   * Cancels the running attempts and waits a moment for them to end, so a killed attempt cannot write the output
+   * after the winner. If an attempt does not end (its process could not be killed), it is left to JODConverter's timeout.
+   */
+  private void cancelAll(final List<Attempt> running, final BlockingQueue<Attempt> finished) throws InterruptedException {
+    for (Attempt attempt : running) {
+      attempt.cancel();
+    }
+    long waitUntil = System.nanoTime() + CANCEL_WAIT.toNanos();
+    while (!running.isEmpty()) {
+      Attempt done = finished.poll(waitUntil - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (done == null) {
+        LOG.warn("{} cancelled conversion attempt(s) did not end within {}", running.size(), CANCEL_WAIT);
+        return;
+      }
+      running.remove(done);
+    }
+  }
+
+  /**
+   * Starts a parallel attempt on another instance, but only if a slot and an instance are idle.
+   * The hedged attempt writes next to the output, so the two attempts never write the same file.
+   */
+  private Attempt startHedge(final File inputFile, final File outputFile, final Function<File, Work> work,
+                             final BlockingQueue<Attempt> finished) {
+    if (!conversionScheduler.tryAcquire()) {
+      return null;
+    }
+    OfficeInstance instance = officeInstancePool.tryAcquire();
+    if (instance == null) {
+      conversionScheduler.release();
+      return null;
+    }
+    LOG.info("Conversion of {} is slow, hedging it on port {}", inputFile.getName(), instance.getPort());
+    converterMetrics.countExtraAttempt("hedge");
+    File target = new File(outputFile.getParentFile(), "." + outputFile.getName() + HEDGE_SUFFIX);
+    try {
+      return start(instance, work.apply(target), target, true, finished);
+    } catch (RuntimeException e) {
+      conversionScheduler.release();
+      throw e;
+    }
+  }
+
+  private Attempt start(final OfficeInstance instance, final Work work, final File target, final boolean hedge,
+                        final BlockingQueue<Attempt> finished) {
+    Attempt attempt = new Attempt(instance, work, target, hedge, finished);
+    try {
+      executor.execute(attempt);
+    } catch (RuntimeException e) {
+      officeInstancePool.release(instance);
+      throw e;
+    }
+    return attempt;
+  }
+
+  private synchronized void recordLatency(final long nanos) {
+    latencies[latencyIndex] = nanos;
+    latencyIndex = (latencyIndex + 1) % LATENCY_WINDOW;
+    latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+  }
+
+  /**
+   * @return The p99 of the recent conversions, but at least the configured minimum delay.
+   */
+  private synchronized long hedgeDelayNanos() {
+    long minDelay = hedgeMinDelay.toNanos();
+    if (latencyCount < MIN_LATENCY_SAMPLES) {
+      return minDelay;
+    }
+    long[] sorted = Arrays.copyOf(latencies, latencyCount);
+    Arrays.sort(sorted);
+    return Math.max(minDelay, sorted[(int) Math.ceil(HEDGE_PERCENTILE * latencyCount) - 1]);
+  }
+
+  /**
+   * The work of an attempt on the instance it was given.
+   */
+  @FunctionalInterface
+  private interface Work {
+    void run(OfficeInstance instance) throws OfficeException;
+  }
+
+  /**
+   * One attempt of a conversion on one instance.
+   */
+  private final class Attempt implements Runnable {
+
+    private final OfficeInstance instance;
+    private final Work work;
+    private final File target;
+    private final boolean hedge;
+    private final BlockingQueue<Attempt> finished;
+    private final long startNanos = System.nanoTime();
+    private Thread thread;
+    private volatile long elapsedNanos;
+    private volatile Exception error;
+    private boolean done;
+    private boolean cancelled;
+
+    Attempt(final OfficeInstance instance, final Work work, final File target, final boolean hedge,
+            final BlockingQueue<Attempt> finished) {
+      this.instance = instance;
+      this.work = work;
+      this.target = target;
+      this.hedge = hedge;
+      this.finished = finished;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        thread = Thread.currentThread();
+      }
+      String outcome = "failure";
+      try {
+        if (isCancelled()) {
+          throw new OfficeException("Conversion attempt on port " + instance.getPort() + " cancelled before it started");
+        }
+        work.run(instance);
+        outcome = "success";
+      } catch (OfficeException | RuntimeException e) {
+        error = e;
+      } finally {
+        elapsedNanos = System.nanoTime() - startNanos;
+        boolean wasCancelled;
+        synchronized (this) {
+          done = true;
+          wasCancelled = cancelled;
+          thread = null;
+        }
+        if (wasCancelled) {
+          // the interrupt of a cancel must not leak into the next task of the thread
+          Thread.interrupted();
+        }
+        converterMetrics.conversionTimer(instance.getPort(), wasCancelled ? "cancelled" : outcome)
+          .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        officeInstancePool.release(instance);
+        if (hedge) {
+          conversionScheduler.release();
+          if (wasCancelled || error != null) {
+            target.delete();
+          }
+        }
+        finished.add(this);
+      }
+    }
+
+    /**
+     * Kills the soffice process of the attempt, unless the attempt already ended (and its instance may run another conversion).
+     * If the process cannot be killed, the thread of the attempt is interrupted, which ends JODConverter's wait for the task.
+     */
+    synchronized void cancel() {
+      if (!done && !cancelled) {
+        cancelled = true;
+        if (!officeInstancePool.abort(instance) && thread != null) {
+          LOG.warn("Interrupting the conversion attempt on port {} instead", instance.getPort());
+          thread.interrupt();
+        }
+      }
+    }
+
+    synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    synchronized boolean isSucceeded() {
+      return done && !cancelled && error == null;
+    }
+
+    Exception getError() {
+      return error;
+    }
+
+    long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    File getTarget() {
+      return target;
+    }
+
+    boolean isHedge() {
+      return hedge;
+    }
+  }
+}
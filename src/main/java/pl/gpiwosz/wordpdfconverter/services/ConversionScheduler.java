@@ -0,0 +1,284 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.enums.ConversionPriorityEnum;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service responsible for admitting conversions to the LibreOffice instances.
+ * The number of slots follows the number of running LibreOffice instances (see {@link OfficePoolScaler}),
+ * so no more documents are taken into work than there are office processes able to convert them.
+ * The maximum number of slots equals the number of LibreOffice ports configured in "libreoffice.ports".
+ * Documents of the {@link DocumentLaneEnum#LARGE LARGE} lane may only use the slots left after the slots reserved
+ * for small documents ("lane.small.reserved-slots"), so a batch of huge documents never occupies every instance.
+ * While the pool runs no more instances than there are reserved slots, large documents wait (and count as waiting,
+ * so the pool grows); only a node with too few ports to ever honour the reservation lets them use one reserved slot.
+ * {@link ConversionPriorityEnum#INTERACTIVE INTERACTIVE} conversions get the next free slot before the waiting
+ * {@link ConversionPriorityEnum#BATCH BATCH} conversions.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConversionScheduler {
+
+  private final int maxCapacity;
+  private final ResizableSemaphore slots;
+  private final ResizableSemaphore largeSlots;
+  private final int reservedSmallSlots;
+  private final AtomicInteger numberOfCurrentTasks = new AtomicInteger(0);
+  private final AtomicLong maxWaitNanos = new AtomicLong(0);
+  private final AtomicInteger interactiveWaiting = new AtomicInteger(0);
+  private final List<Runnable> capacityListeners = new CopyOnWriteArrayList<>();
+  private int capacity;
+  private int largeCapacity;
+
+  /**
+   * Constructs a new ConversionScheduler.
+   *
+   * @param ports              A comma-separated string of port numbers for LibreOffice, read from application properties.
+   * @param reservedSmallSlots The number of slots large documents may not use, read from the "lane.small.reserved-slots" property.
+   */
+  public ConversionScheduler(@Value("${libreoffice.ports}") final String ports,
+                             @Value("${lane.small.reserved-slots:1}") final int reservedSmallSlots) {
+    this.maxCapacity = Math.max(1, UtilsService.getNumbersArray(ports).length);
+    this.reservedSmallSlots = Math.max(0, reservedSmallSlots);
+    this.capacity = this.maxCapacity;
+    this.largeCapacity = largeCapacityOf(this.capacity);
+    this.slots = new ResizableSemaphore(this.capacity);
+    this.largeSlots = new ResizableSemaphore(this.largeCapacity);
+  }
+
+  /**
+   * Blocks until a conversion slot usable by the lane is free and takes it.
+   *
+   * @param lane The lane of the document.
+   * @throws InterruptedException If the thread is interrupted while waiting for a slot.
+   */
+  public void acquire(final DocumentLaneEnum lane) throws InterruptedException {
+    acquire(lane, ConversionPriorityEnum.BATCH);
+  }
+
+  /**
+   * Blocks until a conversion slot usable by the lane is free and takes it, ahead of lower priority conversions.
+   *
+   * @param lane     The lane of the document.
+   * @param priority The priority of the conversion.
+   * @throws InterruptedException If the thread is interrupted while waiting for a slot.
+   */
+  public void acquire(final DocumentLaneEnum lane, final ConversionPriorityEnum priority) throws InterruptedException {
+    if (lane != DocumentLaneEnum.LARGE) {
+      acquire(priority);
+      return;
+    }
+    largeSlots.acquire();
+    try {
+      acquire(priority);
+    } catch (InterruptedException e) {
+      largeSlots.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives back a slot taken with {@link #acquire(DocumentLaneEnum)}.
+   *
+   * @param lane The lane of the document.
+   */
+  public void release(final DocumentLaneEnum lane) {
+    release();
+    if (lane == DocumentLaneEnum.LARGE) {
+      largeSlots.release();
+    }
+  }
+
+  /**
+   * Blocks until a conversion slot is free and takes it.
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting for a slot.
+   */
+  public void acquire() throws InterruptedException {
+    acquire(ConversionPriorityEnum.BATCH);
+  }
+
+  /**
+   * Blocks until a conversion slot is free and takes it.
+   * The slots are handed out in FIFO order, so a batch conversion which got a slot while interactive conversions
+   * wait gives it back once and queues up again, behind them.
+   */
+  private void acquire(final ConversionPriorityEnum priority) throws InterruptedException {
+    long start = System.nanoTime();
+    if (priority == ConversionPriorityEnum.INTERACTIVE) {
+      interactiveWaiting.incrementAndGet();
+      try {
+        slots.acquire();
+      } finally {
+        interactiveWaiting.decrementAndGet();
+      }
+    } else {
+      slots.acquire();
+      if (interactiveWaiting.get() > 0 && slots.hasQueuedThreads()) {
+        slots.release();
+        slots.acquire();
+      }
+    }
+    maxWaitNanos.accumulateAndGet(System.nanoTime() - start, Math::max);
+    numberOfCurrentTasks.incrementAndGet();
+  }
+
+  /**
+   * Takes a conversion slot if one is free and nobody waits for it, e.g. for a hedged attempt which must never
+   * delay other conversions.
+   *
+   * @return true if a slot was taken; it is given back with {@link #release()}.
+   */
+  public boolean tryAcquire() {
+    if (slots.hasQueuedThreads() || !slots.tryAcquire()) {
+      return false;
+    }
+    numberOfCurrentTasks.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Gives back a slot taken with {@link #acquire()} or {@link #tryAcquire()}.
+   */
+  public void release() {
+    numberOfCurrentTasks.decrementAndGet();
+    slots.release();
+  }
+
+  /**
+   * Changes the number of slots, e.g. after the office pool grew or shrank.
+   * Running conversions are not affected; when shrinking, slots are withdrawn as they are given back.
+   * The capacity listeners are notified if the number of slots changed.
+   *
+   * @param newCapacity The new number of slots, between 0 (no instance ready yet) and {@link #getMaxCapacity()}.
+   */
+  public synchronized void resize(final int newCapacity) {
+    int target = Math.max(0, Math.min(maxCapacity, newCapacity));
+    if (target == capacity) {
+      return;
+    }
+    int delta = target - capacity;
+    if (delta > 0) {
+      slots.release(delta);
+    } else if (delta < 0) {
+      slots.reducePermits(-delta);
+    }
+    capacity = target;
+
+    int largeTarget = largeCapacityOf(target);
+    int largeDelta = largeTarget - largeCapacity;
+    if (largeDelta > 0) {
+      largeSlots.release(largeDelta);
+    } else if (largeDelta < 0) {
+      largeSlots.reducePermits(-largeDelta);
+    }
+    largeCapacity = largeTarget;
+    capacityListeners.forEach(Runnable::run);
+  }
+
+  /**
+   * Registers a listener called whenever the number of slots changed, e.g. to size the queue consumers.
+   *
+   * @param listener The listener, called while the scheduler is locked, so {@link #getCapacity()} returns the new capacity.
+   */
+  public void addCapacityListener(final Runnable listener) {
+    capacityListeners.add(listener);
+  }
+
+  /**
+   * Large documents get the slots which are not reserved. If the ports cannot hold more instances than the reserved
+   * slots, they get one slot, so they are never starved.
+   */
+  private int largeCapacityOf(final int slotCount) {
+    if (maxCapacity <= reservedSmallSlots) {
+      return Math.min(1, slotCount);
+    }
+    return Math.max(0, slotCount - reservedSmallSlots);
+  }
+
+  /**
+   * @return The number of conversions that can run at the same time.
+   */
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return The number of large documents that can be converted at the same time.
+   */
+  public synchronized int getLargeCapacity() {
+    return largeCapacity;
+  }
+
+  /**
+   * @return The largest number of conversions that can ever run at the same time.
+   */
+  public int getMaxCapacity() {
+    return maxCapacity;
+  }
+
+  /**
+   * @return The largest number of large documents that can ever be converted at the same time.
+   */
+  public int getMaxLargeCapacity() {
+    return largeCapacityOf(maxCapacity);
+  }
+
+  /**
+   * @return The number of slots that are currently free.
+   */
+  public int getAvailableSlots() {
+    return Math.max(0, slots.availablePermits());
+  }
+
+  /**
+   * @return The number of threads waiting for a free slot, including large documents waiting for an unreserved slot.
+   */
+  public int getQueueLength() {
+    return slots.getQueueLength() + largeSlots.getQueueLength();
+  }
+
+  /**
+   * @return The number of interactive conversions waiting for a free slot.
+   */
+  public int getInteractiveQueueLength() {
+    return interactiveWaiting.get();
+  }
+
+  /**
+   * @return The longest time a conversion waited for a slot since the previous call, in nanoseconds.
+   */
+  public long getAndResetMaxWaitNanos() {
+    return maxWaitNanos.getAndSet(0);
+  }
+
+  public AtomicInteger getNumberOfCurrentTasks() {
+    return numberOfCurrentTasks;
+  }
+
+  /**
+   * Fair semaphore exposing {@link Semaphore#reducePermits(int)}.
+   */
+  private static final class ResizableSemaphore extends Semaphore {
+
+    ResizableSemaphore(final int permits) {
+      super(permits, true);
+    }
+
+    @Override
+    protected void reducePermits(final int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
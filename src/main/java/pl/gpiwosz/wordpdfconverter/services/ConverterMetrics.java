@@ -0,0 +1,215 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.camel.Exchange;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Service registering the Micrometer meters of the conversion pipeline, exposed through Actuator (/actuator/prometheus).
+ * Timers cover every stage a document goes through, from pickup to the finished PDF;
+ * gauges describe the load of the node and the memory of each LibreOffice instance.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class ConverterMetrics {
+
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * Constructs a new ConverterMetrics and registers the gauges.
+   *
+   * @param meterRegistry       The registry the meters are registered in.
+   * @param conversionScheduler The scheduler whose waiting threads and running tasks are reported.
+   * @param tempDirConfig       The temporary directory whose size is reported.
+   * @param officeInstancePool  The pool whose LibreOffice processes' memory is reported.
+   */
+  public ConverterMetrics(final MeterRegistry meterRegistry, final ConversionScheduler conversionScheduler,
+                          final TempDirConfig tempDirConfig, final OfficeInstancePool officeInstancePool) {
+    this.meterRegistry = meterRegistry;
+
+    Gauge.builder("converter.scheduler.waiting", conversionScheduler, ConversionScheduler::getQueueLength)
+      .description("Conversions waiting for a free LibreOffice slot")
+      .register(meterRegistry);
+    Gauge.builder("converter.tasks.current", conversionScheduler, scheduler -> scheduler.getNumberOfCurrentTasks().get())
+      .description("Conversions currently running")
+      .register(meterRegistry);
+    Gauge.builder("converter.tempdir.size", tempDirConfig, config -> directorySize(config.getTempDirPath()))
+      .description("Bytes held in the temporary directory")
+      .baseUnit("bytes")
+      .register(meterRegistry);
+    Gauge.builder("converter.office.instances", officeInstancePool, OfficeInstancePool::getRunningCount)
+      .description("LibreOffice instances currently started")
+      .register(meterRegistry);
+    for (OfficeInstance instance : officeInstancePool.getInstances()) {
+      Gauge.builder("converter.office.rss", instance, ConverterMetrics::residentSetSize)
+        .description("Resident set size of the soffice process")
+        .tag("port", String.valueOf(instance.getPort()))
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    }
+  }
+
+  /**
+   * Records the time from the pickup of a file until its message was sent to the queue.
+   *
+   * @param exchange The exchange created by the file consumer.
+   */
+  public void recordPickupToEnqueue(final Exchange exchange) {
+    Timer.builder("converter.pickup.enqueue")
+      .description("Time from file pickup until the message is on the queue")
+      .publishPercentileHistogram()
+      .register(meterRegistry)
+      .record(Duration.ofMillis(exchange.getClock().elapsed()));
+  }
+
+  /**
+   * Records how long a message waited on the queue, based on its JMS timestamp.
+   *
+   * @param exchange The exchange created by the queue consumer.
+   */
+  public void recordQueueWait(final Exchange exchange) {
+    Long sentAt = exchange.getIn().getHeader("JMSTimestamp", Long.class);
+    if (sentAt == null || sentAt == 0) {
+      return;
+    }
+    Timer.builder("converter.queue.wait")
+      .description("Time a message waited on the queue")
+      .publishPercentileHistogram()
+      .register(meterRegistry)
+      .record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - sentAt)));
+  }
+
+  /**
+   * @return The timer of writing documents into the temporary directory.
+   */
+  public Timer tempFileWriteTimer() {
+    return Timer.builder("converter.tempfile.write")
+      .description("Time spent writing documents into the temporary directory")
+      .publishPercentileHistogram()
+      .register(meterRegistry);
+  }
+
+  /**
+   * Returns the timer of soffice conversions on one LibreOffice instance.
+   *
+   * @param port    The port of the LibreOffice instance.
+   * @param outcome "success", "failure" or "cancelled".
+   * @return The timer.
+   */
+  public Timer conversionTimer(final int port, final String outcome) {
+    return Timer.builder("converter.conversion")
+      .description("Time LibreOffice spent converting a document")
+      .tag("port", String.valueOf(port))
+      .tag("outcome", outcome)
+      .publishPercentileHistogram()
+      .register(meterRegistry);
+  }
+
+  /**
+   * Counts a conversion request by its result.
+   *
+   * @param outcome "success", "failure" or "cache_hit".
+   */
+  public void countConversion(final String outcome) {
+    Counter.builder("converter.conversions")
+      .description("Conversion requests by outcome")
+      .tag("outcome", outcome)
+      .register(meterRegistry)
+      .increment();
+  }
+
+  /**
+   * Records a finished export with its PDF export profile, to compare the size and time trade-off of the profiles.
+   *
+   * @param profile     The name of the PDF export profile.
+   * @param inputBytes  The size of the input document.
+   * @param outputBytes The size of the written PDF.
+   * @param nanos       The time the conversion took, including retries and waiting for an instance.
+   */
+  public void recordExport(final String profile, final long inputBytes, final long outputBytes, final long nanos) {
+    Timer.builder("converter.export")
+      .description("Time to export a document to PDF, by export profile")
+      .tag("profile", profile)
+      .publishPercentileHistogram()
+      .register(meterRegistry)
+      .record(nanos, TimeUnit.NANOSECONDS);
+    DistributionSummary.builder("converter.export.output.size")
+      .description("Size of the exported PDFs, by export profile")
+      .tag("profile", profile)
+      .baseUnit("bytes")
+      .register(meterRegistry)
+      .record(outputBytes);
+    if (inputBytes > 0) {
+      DistributionSummary.builder("converter.export.size.ratio")
+        .description("Size of the exported PDF relative to its input document, by export profile")
+        .tag("profile", profile)
+        .register(meterRegistry)
+        .record((double) outputBytes / inputBytes);
+    }
+  }
+
+  /**
+   * Records a document converted in pieces.
+   *
+   * @param pieces The number of pieces.
+   * @param nanos  The time from splitting until the merged PDF was written.
+   */
+  public void recordSplitConversion(final int pieces, final long nanos) {
+    Timer.builder("converter.split")
+      .description("Time to convert a large document in pieces, including splitting and merging")
+      .publishPercentileHistogram()
+      .register(meterRegistry)
+      .record(nanos, TimeUnit.NANOSECONDS);
+    DistributionSummary.builder("converter.split.pieces")
+      .description("Number of pieces large documents were converted in")
+      .register(meterRegistry)
+      .record(pieces);
+  }
+
+  /**
+   * Counts an attempt of a conversion beyond the first one.
+   *
+   * @param reason "retry" (after a cancelled attempt) or "hedge" (parallel attempt of a slow conversion).
+   */
+  public void countExtraAttempt(final String reason) {
+    Counter.builder("converter.conversion.extra.attempts")
+      .description("Conversion attempts beyond the first one, by reason")
+      .tag("reason", reason)
+      .register(meterRegistry)
+      .increment();
+  }
+
+  private static double directorySize(final Path directory) {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      return paths.filter(Files::isRegularFile).mapToLong(path -> {
+        try {
+          return Files.size(path);
+        } catch (IOException e) {
+          return 0;
+        }
+      }).sum();
+    } catch (IOException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static double residentSetSize(final OfficeInstance instance) {
+    long residentSetSize = instance.getResidentSetSize();
+    return residentSetSize >= 0 ? residentSetSize : Double.NaN;
+  }
+}
@@ -0,0 +1,23 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.office.OfficeException;
+
+/**
+ * Thrown when a document is not converted because it failed too often and was moved to the quarantine directory
+ * (see {@link QuarantineService}). Retrying it is pointless, so its message is consumed instead of being redelivered.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class DocumentQuarantinedException extends OfficeException {
+
+  /**
+   * Constructs a new DocumentQuarantinedException.
+   *
+   * @param message The detail message.
+   */
+  public DocumentQuarantinedException(final String message) {
+    super(message);
+  }
+}
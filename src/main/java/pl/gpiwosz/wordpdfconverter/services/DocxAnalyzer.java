@@ -0,0 +1,174 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.dtos.DocumentProfile;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Service estimating the conversion cost of a DOCX before it is queued, to pick its {@link DocumentLaneEnum lane}.
+ * Only the zip central directory at the end of the file is read: it lists every part with its uncompressed size,
+ * so the total size, the number of embedded media files and a rough page count are known without inflating anything.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class DocxAnalyzer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DocxAnalyzer.class);
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final String MEDIA_PREFIX = "word/media/";
+  private static final String MAIN_DOCUMENT = "word/document.xml";
+  /**
+   * Rough size of the WordprocessingML markup of one page of text, used for the page estimate.
+   */
+  private static final long DOCUMENT_XML_BYTES_PER_PAGE = 16 * 1024;
+
+  private final long largeMinSize;
+  private final int largeMinPages;
+  private final int largeMinMediaCount;
+
+  /**
+   * Constructs a new DocxAnalyzer.
+   *
+   * @param largeMinSize       The uncompressed size from which a document is LARGE, read from the "lane.large.min-size" property.
+   * @param largeMinPages      The estimated page count from which a document is LARGE, read from the "lane.large.min-pages" property.
+   * @param largeMinMediaCount The number of embedded media from which a document is LARGE, read from the "lane.large.min-media-count" property.
+   */
+  public DocxAnalyzer(@Value("${lane.large.min-size:20MB}") final DataSize largeMinSize,
+                      @Value("${lane.large.min-pages:50}") final int largeMinPages,
+                      @Value("${lane.large.min-media-count:30}") final int largeMinMediaCount) {
+    this.largeMinSize = largeMinSize.toBytes();
+    this.largeMinPages = largeMinPages;
+    this.largeMinMediaCount = largeMinMediaCount;
+  }
+
+  /**
+   * Analyzes a DOCX file on the local file system.
+   *
+   * @param file The DOCX file.
+   * @return The profile of the document; a file which is not a readable zip is profiled as SMALL.
+   */
+  public DocumentProfile analyze(final Path file) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+      ByteBuffer tail = read(channel, size - tailSize, tailSize);
+      int end = findEndOfCentralDirectory(tail);
+      if (end < 0) {
+        return unknown();
+      }
+      long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+      long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+      if (directoryOffset + directorySize > size) {
+        return unknown();
+      }
+      return profile(read(channel, directoryOffset, (int) directorySize));
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Cannot analyze {}: {}", file, e.getMessage());
+      return unknown();
+    }
+  }
+
+  /**
+   * Analyzes a DOCX held in memory.
+   *
+   * @param content The DOCX content.
+   * @return The profile of the document; content which is not a zip is profiled as SMALL.
+   */
+  public DocumentProfile analyze(final byte[] content) {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+      int end = findEndOfCentralDirectory(buffer);
+      if (end < 0) {
+        return unknown();
+      }
+      int directorySize = buffer.getInt(end + 12);
+      int directoryOffset = buffer.getInt(end + 16);
+      return profile(buffer.slice(directoryOffset, directorySize).order(ByteOrder.LITTLE_ENDIAN));
+    } catch (RuntimeException e) {
+      LOG.debug("Cannot analyze document: {}", e.getMessage());
+      return unknown();
+    }
+  }
+
+  /**
+   * Walks the central directory headers and sums up the document.
+   */
+  private DocumentProfile profile(final ByteBuffer directory) {
+    long uncompressedSize = 0;
+    long documentXmlSize = 0;
+    int mediaCount = 0;
+    int position = 0;
+    while (position + CENTRAL_DIRECTORY_HEADER_SIZE <= directory.limit()
+      && directory.getInt(position) == CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+      long entrySize = Integer.toUnsignedLong(directory.getInt(position + 24));
+      int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+      int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+      int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+      String name = StandardCharsets.UTF_8.decode(directory.slice(position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength)).toString();
+
+      uncompressedSize += entrySize;
+      if (name.startsWith(MEDIA_PREFIX)) {
+        mediaCount++;
+      } else if (name.equals(MAIN_DOCUMENT)) {
+        documentXmlSize = entrySize;
+      }
+      position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    int estimatedPages = (int) Math.max(1, documentXmlSize / DOCUMENT_XML_BYTES_PER_PAGE);
+    boolean large = uncompressedSize >= largeMinSize || estimatedPages >= largeMinPages || mediaCount >= largeMinMediaCount;
+    return DocumentProfile.builder()
+      .uncompressedSize(uncompressedSize)
+      .mediaCount(mediaCount)
+      .estimatedPages(estimatedPages)
+      .lane(large ? DocumentLaneEnum.LARGE : DocumentLaneEnum.SMALL)
+      .build();
+  }
+
+  /**
+   * @return The position of the end of central directory record in the buffer, or -1 if there is none.
+   */
+  private int findEndOfCentralDirectory(final ByteBuffer buffer) {
+    for (int position = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+      if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  private ByteBuffer read(final FileChannel channel, final long offset, final int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    return buffer.flip();
+  }
+
+  private DocumentProfile unknown() {
+    return DocumentProfile.builder()
+      .lane(DocumentLaneEnum.SMALL)
+      .build();
+  }
+}
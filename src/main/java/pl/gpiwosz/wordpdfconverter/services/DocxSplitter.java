@@ -0,0 +1,502 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Splits a DOCX into smaller DOCX documents at page boundaries, so the pieces can be converted in parallel and their PDFs
+ * merged (see {@link SplitConversionService}).
+ * <p>
+ * The body of "word/document.xml" is cut between its top-level blocks (paragraphs and tables), only where the original
+ * starts a new page anyway: after a section break which is not continuous, after a paragraph ending with a page break,
+ * or before a paragraph with "page break before". Every piece keeps all other parts of the package (styles, numbering,
+ * headers, footers, media), and ends with the section properties governing its last block.
+ * <p>
+ * Whatever a piece cannot know about the pieces before it is either fixed up or prevents the split:
+ * <ul>
+ *     <li>Footnotes numbered through the whole document continue their numbering: the first section of a piece starts
+ *     after the footnotes before it.</li>
+ *     <li>Page numbers can be continued by {@link #writePiece} once the page counts of the previous pieces are known.</li>
+ *     <li>Numbered (not bullet) lists are never cut: a split point must not have the same list on both sides.</li>
+ *     <li>Documents with endnotes or fields counting pages of the whole document (NUMPAGES, SECTIONPAGES) are not split.</li>
+ * </ul>
+ * The XML is not parsed into a tree: blocks are found by matching tags, which keeps the memory of a 500 page document
+ * at the size of its markup.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public final class DocxSplitter {
+
+  private static final String MAIN_DOCUMENT = "word/document.xml";
+  private static final String STYLES = "word/styles.xml";
+  private static final String NUMBERING = "word/numbering.xml";
+  private static final String SETTINGS = "word/settings.xml";
+  private static final String MEDIA_PREFIX = "word/media/";
+  private static final String SECTION_END = "</w:sectPr>";
+
+  private static final Pattern FIELD_INSTRUCTION = Pattern.compile("(?:<w:instrText[^>]*>|w:instr=\")\\s*([A-Z]+)");
+  private static final Pattern NUM_ID = Pattern.compile("<w:numId w:val=\"(\\d+)\"");
+  private static final Pattern STYLE_REF = Pattern.compile("<w:pStyle w:val=\"([^\"]+)\"");
+  private static final Pattern STYLE = Pattern.compile("<w:style\\b[^>]*w:styleId=\"([^\"]+)\"[^>]*>(.*?)</w:style>", Pattern.DOTALL);
+  private static final Pattern BASED_ON = Pattern.compile("<w:basedOn w:val=\"([^\"]+)\"");
+  private static final Pattern NUM = Pattern.compile("<w:num w:numId=\"(\\d+)\"[^>]*>.*?<w:abstractNumId w:val=\"(\\d+)\"", Pattern.DOTALL);
+  private static final Pattern ABSTRACT_NUM = Pattern.compile("<w:abstractNum\\b[^>]*w:abstractNumId=\"(\\d+)\"[^>]*>(.*?)</w:abstractNum>", Pattern.DOTALL);
+  private static final Pattern NUM_FORMAT = Pattern.compile("<w:numFmt w:val=\"([^\"]+)\"");
+  private static final Pattern FOOTNOTE_REFERENCE = Pattern.compile("<w:footnoteReference\\b(?![^>]*customMarkFollows=\"(?:1|true|on)\")");
+  private static final Pattern PAGE_BREAK = Pattern.compile("<w:br\\b[^>]*w:type=\"page\"");
+  private static final Pattern PAGE_BREAK_BEFORE = Pattern.compile("<w:pageBreakBefore(?:\\s*/>|\\s+w:val=\"(?:1|true|on)\")");
+  private static final Pattern TEXT = Pattern.compile("<w:t[ >]");
+  private static final Pattern PARAGRAPH_SECTION = Pattern.compile("<w:sectPr\\b(?:[^>]*?/>|[^>]*>.*?" + SECTION_END + ")", Pattern.DOTALL);
+  private static final Pattern CONTINUOUS_SECTION = Pattern.compile("<w:type w:val=\"continuous\"");
+  private static final Pattern PAGE_NUMBER_TYPE = Pattern.compile("<w:pgNumType\\b([^>]*?)(/?)>");
+  private static final Set<String> WHOLE_DOCUMENT_FIELDS = Set.of("NUMPAGES", "SECTIONPAGES");
+  private static final Set<String> UNCOUNTED_FORMATS = Set.of("bullet", "none");
+
+  private final Path source;
+  private final String xml;
+  private final int bodyStart;
+  private final int bodyEnd;
+  private final String finalSection;
+  private final List<Block> blocks = new ArrayList<>();
+  private final boolean pageFields;
+  private final boolean continuousFootnotes;
+  private final boolean splittable;
+
+  private DocxSplitter(final Path source, final ZipFile zip) throws IOException {
+    this.source = source;
+    this.xml = read(zip, MAIN_DOCUMENT);
+    int bodyOpen = xml.indexOf("<w:body");
+    this.bodyStart = bodyOpen < 0 ? -1 : xml.indexOf('>', bodyOpen) + 1;
+    this.bodyEnd = xml.lastIndexOf("</w:body>");
+    if (bodyStart <= 0 || bodyEnd < bodyStart) {
+      this.finalSection = "";
+      this.pageFields = false;
+      this.continuousFootnotes = false;
+      this.splittable = false;
+      return;
+    }
+
+    Map<String, Integer> abstractOfNum = countedLists(read(zip, NUMBERING));
+    Map<String, String> styleNumIds = styleNumIds(read(zip, STYLES));
+    String trailing = "";
+    int position = bodyStart;
+    while (true) {
+      int start = xml.indexOf('<', position);
+      if (start < 0 || start >= bodyEnd) {
+        break;
+      }
+      int end = elementEnd(start);
+      String text = xml.substring(start, end);
+      if (text.startsWith("<w:sectPr")) {
+        trailing = text;
+      } else {
+        blocks.add(new Block(text, countedListsOf(text, abstractOfNum, styleNumIds)));
+      }
+      position = end;
+    }
+    this.finalSection = trailing;
+
+    boolean pageFieldsFound = false;
+    boolean wholeDocumentFields = false;
+    Enumeration<? extends ZipEntry> entries = zip.entries();
+    while (entries.hasMoreElements()) {
+      String name = entries.nextElement().getName();
+      if (name.equals(MAIN_DOCUMENT) || name.startsWith("word/header") || name.startsWith("word/footer")) {
+        Matcher fields = FIELD_INSTRUCTION.matcher(name.equals(MAIN_DOCUMENT) ? xml : read(zip, name));
+        while (fields.find()) {
+          pageFieldsFound |= fields.group(1).equals("PAGE");
+          wholeDocumentFields |= WHOLE_DOCUMENT_FIELDS.contains(fields.group(1));
+        }
+      }
+    }
+    this.pageFields = pageFieldsFound;
+    this.continuousFootnotes = !xml.contains("<w:numRestart") && !read(zip, SETTINGS).contains("<w:numRestart");
+    this.splittable = !wholeDocumentFields && !xml.contains("<w:endnoteReference") && blocks.size() > 1;
+  }
+
+  /**
+   * Reads the body of a DOCX.
+   *
+   * @param docx The DOCX file.
+   * @return The splitter of the document.
+   * @throws IOException If the file is not a readable DOCX.
+   */
+  public static DocxSplitter open(final Path docx) throws IOException {
+    try (ZipFile zip = new ZipFile(docx.toFile())) {
+      if (zip.getEntry(MAIN_DOCUMENT) == null) {
+        throw new IOException(docx + " has no " + MAIN_DOCUMENT);
+      }
+      return new DocxSplitter(docx, zip);
+    }
+  }
+
+  /**
+   * @return Whether the headers, footers or body number pages, so the pieces need their first page number.
+   */
+  public boolean hasPageFields() {
+    return pageFields;
+  }
+
+  /**
+   * Picks the split points for at most the given number of pieces of about the same markup size.
+   *
+   * @param pieces The wanted number of pieces.
+   * @return The index of the first block of every piece but the first, empty if the document cannot be split.
+   */
+  public List<Integer> splitPoints(final int pieces) {
+    List<Integer> points = new ArrayList<>();
+    if (!splittable || pieces < 2) {
+      return points;
+    }
+    long[] offsets = new long[blocks.size() + 1];
+    for (int i = 0; i < blocks.size(); i++) {
+      offsets[i + 1] = offsets[i] + blocks.get(i).text.length();
+    }
+    List<Integer> candidates = candidates();
+    int next = 0;
+    for (int piece = 1; piece < pieces && next < candidates.size(); piece++) {
+      long target = offsets[blocks.size()] * piece / pieces;
+      int best = -1;
+      for (int i = next; i < candidates.size(); i++) {
+        if (best < 0 || Math.abs(offsets[candidates.get(i)] - target) < Math.abs(offsets[candidates.get(best)] - target)) {
+          best = i;
+        } else {
+          break;
+        }
+      }
+      points.add(candidates.get(best));
+      next = best + 1;
+    }
+    return points;
+  }
+
+  /**
+   * Writes one piece as a DOCX.
+   *
+   * @param splitPoints     The split points returned by {@link #splitPoints(int)}.
+   * @param piece           The index of the piece.
+   * @param target          The DOCX to write.
+   * @param firstPageNumber The number of the first page of the piece, or 0 to leave page numbering as it is.
+   * @throws IOException If the source cannot be read or the target cannot be written.
+   */
+  public void writePiece(final List<Integer> splitPoints, final int piece, final Path target, final int firstPageNumber) throws IOException {
+    int from = piece == 0 ? 0 : splitPoints.get(piece - 1);
+    int to = piece == splitPoints.size() ? blocks.size() : splitPoints.get(piece);
+    List<String> pieceBlocks = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      pieceBlocks.add(blocks.get(i).text);
+    }
+
+    // the last section of the piece is closed by the section properties governing its last block
+    String trailing = finalSection;
+    if (to < blocks.size()) {
+      Matcher section = PARAGRAPH_SECTION.matcher(pieceBlocks.get(pieceBlocks.size() - 1));
+      if (section.find()) {
+        trailing = section.group();
+        pieceBlocks.set(pieceBlocks.size() - 1, pieceBlocks.get(pieceBlocks.size() - 1).substring(0, section.start())
+          + pieceBlocks.get(pieceBlocks.size() - 1).substring(section.end()));
+      } else {
+        trailing = nextSection(to);
+      }
+    }
+
+    // the first section of the piece continues the numbering of footnotes and pages
+    int footnotes = 0;
+    for (int i = 0; i < from; i++) {
+      footnotes += blocks.get(i).footnotes;
+    }
+    StringBuilder additions = new StringBuilder();
+    if (footnotes > 0 && continuousFootnotes) {
+      additions.append("<w:footnotePr><w:numStart w:val=\"").append(footnotes + 1).append("\"/></w:footnotePr>");
+    }
+    boolean firstSectionFound = false;
+    for (int i = 0; i < pieceBlocks.size() && !firstSectionFound; i++) {
+      String block = pieceBlocks.get(i);
+      Matcher section = PARAGRAPH_SECTION.matcher(block);
+      if (section.find()) {
+        pieceBlocks.set(i, block.substring(0, section.start())
+          + continueNumbering(section.group(), additions, firstPageNumber) + block.substring(section.end()));
+        firstSectionFound = true;
+      }
+    }
+    if (!firstSectionFound) {
+      trailing = continueNumbering(trailing, additions, firstPageNumber);
+    }
+
+    StringBuilder document = new StringBuilder(xml.length() / Math.max(1, splitPoints.size()) + 1024);
+    document.append(xml, 0, bodyStart);
+    pieceBlocks.forEach(document::append);
+    document.append(trailing).append(xml, bodyEnd, xml.length());
+    writePackage(target, document.toString());
+  }
+
+  /**
+   * Adds the footnote numbering and the first page number to section properties which do not set them already.
+   */
+  private static String continueNumbering(final String section, final StringBuilder additions, final int firstPageNumber) {
+    String result = section;
+    if (result.endsWith("/>")) {
+      result = result.substring(0, result.length() - 2) + ">" + SECTION_END;
+    }
+    StringBuilder inserted = new StringBuilder();
+    if (!result.contains("<w:footnotePr")) {
+      inserted.append(additions);
+    }
+    if (firstPageNumber > 0) {
+      Matcher pageNumberType = PAGE_NUMBER_TYPE.matcher(result);
+      if (!pageNumberType.find()) {
+        inserted.append("<w:pgNumType w:start=\"").append(firstPageNumber).append("\"/>");
+      } else if (!pageNumberType.group(1).contains("w:start=")) {
+        result = result.substring(0, pageNumberType.start()) + "<w:pgNumType" + pageNumberType.group(1)
+          + " w:start=\"" + firstPageNumber + "\"" + pageNumberType.group(2) + ">" + result.substring(pageNumberType.end());
+      }
+    }
+    int end = result.lastIndexOf(SECTION_END);
+    return result.substring(0, end) + inserted + result.substring(end);
+  }
+
+  /**
+   * The blocks a piece may start with: the original starts a new page there, and no numbered list runs across.
+   */
+  private List<Integer> candidates() {
+    List<BitSet> listsAfter = new ArrayList<>(blocks.size() + 1);
+    for (int i = 0; i <= blocks.size(); i++) {
+      listsAfter.add(null);
+    }
+    BitSet after = new BitSet();
+    listsAfter.set(blocks.size(), (BitSet) after.clone());
+    for (int i = blocks.size() - 1; i >= 0; i--) {
+      after.or(blocks.get(i).lists);
+      listsAfter.set(i, (BitSet) after.clone());
+    }
+    List<Integer> candidates = new ArrayList<>();
+    BitSet before = new BitSet();
+    for (int i = 1; i < blocks.size(); i++) {
+      before.or(blocks.get(i - 1).lists);
+      if (isPageBoundary(i) && !before.intersects(listsAfter.get(i))) {
+        candidates.add(i);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @return Whether the block with the given index starts on a new page in the original.
+   */
+  private boolean isPageBoundary(final int index) {
+    String previous = blocks.get(index - 1).text;
+    if (previous.startsWith("<w:p")) {
+      Matcher section = PARAGRAPH_SECTION.matcher(previous);
+      if (section.find()) {
+        return !CONTINUOUS_SECTION.matcher(section.group()).find();
+      }
+      Matcher pageBreak = PAGE_BREAK.matcher(previous);
+      int lastBreak = -1;
+      while (pageBreak.find()) {
+        lastBreak = pageBreak.end();
+      }
+      if (lastBreak >= 0 && !TEXT.matcher(previous).region(lastBreak, previous.length()).find()) {
+        return true;
+      }
+    }
+    String current = blocks.get(index).text;
+    return current.startsWith("<w:p") && PAGE_BREAK_BEFORE.matcher(current).find();
+  }
+
+  /**
+   * @return The section properties of the first section break at or after the given block, or the final section.
+   */
+  private String nextSection(final int from) {
+    for (int i = from; i < blocks.size(); i++) {
+      Matcher section = PARAGRAPH_SECTION.matcher(blocks.get(i).text);
+      if (section.find()) {
+        return section.group();
+      }
+    }
+    return finalSection;
+  }
+
+  /**
+   * Copies the package of the source with the given main document. Media are stored, they are compressed already.
+   */
+  private void writePackage(final Path target, final String document) throws IOException {
+    try (ZipFile zip = new ZipFile(source.toFile());
+         ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(target))) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().equals(MAIN_DOCUMENT)) {
+          out.putNextEntry(new ZipEntry(MAIN_DOCUMENT));
+          out.write(document.getBytes(StandardCharsets.UTF_8));
+        } else {
+          ZipEntry copy = new ZipEntry(entry.getName());
+          if (entry.getName().startsWith(MEDIA_PREFIX) && entry.getSize() >= 0 && entry.getCrc() >= 0) {
+            copy.setMethod(ZipEntry.STORED);
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getSize());
+            copy.setCrc(entry.getCrc());
+          }
+          out.putNextEntry(copy);
+          try (InputStream in = zip.getInputStream(entry)) {
+            in.transferTo(out);
+          }
+        }
+        out.closeEntry();
+      }
+    }
+  }
+
+  /**
+   * Finds the end of the element starting at the given offset by counting the nesting of the tags.
+   */
+  private int elementEnd(final int start) {
+    int depth = 0;
+    int position = start;
+    while (true) {
+      int open = xml.indexOf('<', position);
+      int close = xml.indexOf('>', open);
+      if (open < 0 || close < 0) {
+        return bodyEnd;
+      }
+      char next = xml.charAt(open + 1);
+      if (next == '/') {
+        depth--;
+      } else if (next != '?' && next != '!' && xml.charAt(close - 1) != '/') {
+        depth++;
+      }
+      position = close + 1;
+      if (depth <= 0) {
+        return position;
+      }
+    }
+  }
+
+  /**
+   * Maps the ids of the numberings which count (not bullets) to their abstract numbering; numberings sharing an
+   * abstract numbering continue each other.
+   */
+  private static Map<String, Integer> countedLists(final String numbering) {
+    Set<String> countedAbstracts = new HashSet<>();
+    Matcher abstractNum = ABSTRACT_NUM.matcher(numbering);
+    while (abstractNum.find()) {
+      Matcher format = NUM_FORMAT.matcher(abstractNum.group(2));
+      while (format.find()) {
+        if (!UNCOUNTED_FORMATS.contains(format.group(1))) {
+          countedAbstracts.add(abstractNum.group(1));
+          break;
+        }
+      }
+    }
+    Map<String, Integer> abstractOfNum = new HashMap<>();
+    Matcher num = NUM.matcher(numbering);
+    while (num.find()) {
+      if (countedAbstracts.contains(num.group(2))) {
+        abstractOfNum.put(num.group(1), Integer.parseInt(num.group(2)));
+      }
+    }
+    return abstractOfNum;
+  }
+
+  /**
+   * Maps the paragraph styles to the numbering they apply, directly or through the styles they are based on.
+   */
+  private static Map<String, String> styleNumIds(final String styles) {
+    Map<String, String> numIds = new HashMap<>();
+    Map<String, String> basedOn = new HashMap<>();
+    Matcher style = STYLE.matcher(styles);
+    while (style.find()) {
+      Matcher numId = NUM_ID.matcher(style.group(2));
+      if (numId.find()) {
+        numIds.put(style.group(1), numId.group(1));
+      }
+      Matcher parent = BASED_ON.matcher(style.group(2));
+      if (parent.find()) {
+        basedOn.put(style.group(1), parent.group(1));
+      }
+    }
+    Map<String, String> resolved = new HashMap<>();
+    for (String id : basedOn.keySet()) {
+      String current = id;
+      for (int depth = 0; current != null && depth < 16; depth++) {
+        if (numIds.containsKey(current)) {
+          resolved.put(id, numIds.get(current));
+          break;
+        }
+        current = basedOn.get(current);
+      }
+    }
+    resolved.putAll(numIds);
+    return resolved;
+  }
+
+  /**
+   * @return The abstract numberings which count and are used by the paragraphs of a block.
+   */
+  private static BitSet countedListsOf(final String block, final Map<String, Integer> abstractOfNum, final Map<String, String> styleNumIds) {
+    BitSet lists = new BitSet();
+    Matcher numId = NUM_ID.matcher(block);
+    while (numId.find()) {
+      Integer abstractNum = abstractOfNum.get(numId.group(1));
+      if (abstractNum != null) {
+        lists.set(abstractNum);
+      }
+    }
+    Matcher style = STYLE_REF.matcher(block);
+    while (style.find()) {
+      Integer abstractNum = abstractOfNum.get(styleNumIds.get(style.group(1)));
+      if (abstractNum != null) {
+        lists.set(abstractNum);
+      }
+    }
+    return lists;
+  }
+
+  private static String read(final ZipFile zip, final String name) throws IOException {
+    ZipEntry entry = zip.getEntry(name);
+    if (entry == null) {
+      return "";
+    }
+    try (InputStream in = zip.getInputStream(entry)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * A top-level block of the body: a paragraph, a table or another block-level element.
+   */
+  private static final class Block {
+
+    private final String text;
+    private final BitSet lists;
+    private final int footnotes;
+
+    Block(final String text, final BitSet lists) {
+      this.text = text;
+      this.lists = lists;
+      int count = 0;
+      Matcher footnote = FOOTNOTE_REFERENCE.matcher(text);
+      while (footnote.find()) {
+        count++;
+      }
+      this.footnotes = count;
+    }
+  }
+}
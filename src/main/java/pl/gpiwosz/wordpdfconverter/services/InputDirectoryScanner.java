@@ -0,0 +1,433 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service detecting new or changed DOCX files in the input directory incrementally, so the cost of a poll depends on
+ * the change rate and not on the number of files in the directory.
+ * <p>
+ * Changes are picked up from a {@link WatchService} (inotify on Linux). As a fallback (and to catch anything a watch
+ * missed, e.g. on network file systems) the tree is scanned by a change time cursor: directories which did not change
+ * since the cursor are not listed again, only their known subdirectories are visited, so sharded subdirectories keep
+ * the scans cheap. Files rewritten in place do not change their directory, so every full scan interval all directories
+ * are listed (still reporting only files changed since the cursor). The cursor is persisted in a checkpoint file of this node
+ * (its path is suffixed with the node id, or the host name), so a restart only looks at what changed meanwhile and nodes sharing
+ * the output volume do not overwrite each other's cursor.
+ * <p>
+ * A file is reported once it has not been modified for the configured minimum age, i.e. once it has been written completely.
+ * The caller confirms each reported file with {@link #completed(Path)} once it is queued, or gives it back with
+ * {@link #failed(Path)} to have it reported again; the cursor never moves past a file which is not confirmed yet,
+ * so a file whose pickup failed is not lost, not even across a restart.
+ * Hidden files and directories (e.g. the claim-check store) are ignored.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class InputDirectoryScanner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InputDirectoryScanner.class);
+  private static final String EXTENSION = ".docx";
+  /**
+   * Margin kept behind the cursor for file systems with coarse timestamps and clocks of writers on other hosts.
+   */
+  private static final long CLOCK_SLACK_MILLIS = 2000;
+  private static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
+
+  private final Path root;
+  private final Path checkpointFile;
+  private final boolean watch;
+  private final boolean recursive;
+  private final Duration minAge;
+  private final Duration fullScanInterval;
+  private final Duration pollInterval;
+
+  private WatchService watchService;
+  private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+  private final Map<Path, List<Path>> subdirectories = new HashMap<>();
+  /**
+   * Files seen but not reported yet, with their change time when they were seen.
+   */
+  private final Map<Path, Long> pending = new HashMap<>();
+  /**
+   * Files reported but not confirmed yet, with their change time when they were seen.
+   */
+  private final Map<Path, Long> unconfirmed = new HashMap<>();
+  /**
+   * Files reported within the slack window, with their modification time, so they are not reported twice.
+   */
+  private final Map<Path, Long> reported = new HashMap<>();
+  private long cursor;
+  private long persistedCursor;
+  private long lastFullScan;
+  private long lastCheckpoint;
+  private boolean overflow;
+
+  /**
+   * Constructs a new InputDirectoryScanner.
+   *
+   * @param inputPath        The input directory, read from the "input.path" property.
+   * @param checkpointPath   The file the cursor is persisted in, read from the "scanner.checkpoint-path" property; "-" and the node name are appended.
+   * @param nodeId           The id of this node, read from the "converter.node-id" property (defaults to the host name).
+   * @param watch            Whether to use a {@link WatchService}, read from the "scanner.watch" property.
+   * @param recursive        Whether to scan subdirectories, read from the "scanner.recursive" property.
+   * @param minAge           How long a file has to be unmodified to be reported, read from the "scanner.min-age" property.
+   * @param fullScanInterval How often the cursor scan runs in addition to the watch, read from the "scanner.full-scan-interval" property.
+   * @param pollInterval     How often the scanner is polled, read from the "scanner.poll-interval" property.
+   */
+  public InputDirectoryScanner(@Value("${input.path}") final String inputPath,
+                               @Value("${scanner.checkpoint-path:${output.path}/.scanner-checkpoint}") final String checkpointPath,
+                               @Value("${converter.node-id:}") final String nodeId,
+                               @Value("${scanner.watch:true}") final boolean watch,
+                               @Value("${scanner.recursive:true}") final boolean recursive,
+                               @Value("${scanner.min-age:2s}") final Duration minAge,
+                               @Value("${scanner.full-scan-interval:5m}") final Duration fullScanInterval,
+                               @Value("${scanner.poll-interval:1s}") final Duration pollInterval) {
+    this.root = Path.of(inputPath).toAbsolutePath().normalize();
+    this.checkpointFile = Path.of(checkpointPath + "-" + nodeName(nodeId));
+    this.watch = watch;
+    this.recursive = recursive;
+    this.minAge = minAge;
+    this.fullScanInterval = fullScanInterval;
+    this.pollInterval = pollInterval;
+  }
+
+  /**
+   * Loads the checkpoint and starts watching the input directory.
+   *
+   * @throws IOException If the input directory cannot be created.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    Files.createDirectories(root);
+    cursor = readCheckpoint();
+    persistedCursor = cursor;
+    if (watch) {
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(root);
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.warn("Cannot watch {}, falling back to cursor scans: {}", root, e.getMessage());
+        closeWatchService();
+      }
+    }
+  }
+
+  /**
+   * Stops watching and persists the checkpoint.
+   */
+  @PreDestroy
+  public synchronized void close() {
+    closeWatchService();
+    writeCheckpoint();
+  }
+
+  /**
+   * Collects the files which are new or changed since the previous poll and completely written.
+   *
+   * @return The absolute paths of the files to convert.
+   */
+  public synchronized List<Path> poll() {
+    long now = System.currentTimeMillis();
+    if (watchService != null) {
+      drainWatchEvents(now);
+    }
+    if (overflow || now - lastFullScan >= fullScanInterval.toMillis()) {
+      overflow = false;
+      scanDirectory(root, cursor, true);
+      lastFullScan = now;
+    } else if (watchService == null) {
+      scanDirectory(root, cursor, false);
+    }
+    List<Path> ready = collectSettled(now);
+    advanceCursor(now);
+    return ready;
+  }
+
+  /**
+   * Confirms a reported file, e.g. once it was queued for conversion, so the cursor may move past it.
+   *
+   * @param file The reported file.
+   */
+  public synchronized void completed(final Path file) {
+    unconfirmed.remove(file);
+  }
+
+  /**
+   * Gives back a reported file which could not be handled, so it is reported again by the next poll.
+   *
+   * @param file The reported file.
+   */
+  public synchronized void failed(final Path file) {
+    Long changed = unconfirmed.remove(file);
+    reported.remove(file);
+    pending.putIfAbsent(file, changed == null ? cursor : changed);
+  }
+
+  /**
+   * Returns the name of a file relative to the input directory, with "/" separators, as used for the status keys.
+   *
+   * @param file The absolute path of the file.
+   * @return The relative name.
+   */
+  public String relativeName(final Path file) {
+    return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  public Duration getPollInterval() {
+    return pollInterval;
+  }
+
+  private void drainWatchEvents(final long now) {
+    WatchKey key;
+    while ((key = watchService.poll()) != null) {
+      Path directory = watchedDirectories.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+          overflow = true;
+          continue;
+        }
+        Path child = directory.resolve((Path) event.context());
+        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+          if (recursive && !isHidden(child)) {
+            // files may have been added before the watch was registered, so the new directory is listed completely
+            registerTree(child);
+            scanDirectory(child, 0, true);
+          }
+        } else if (isCandidate(child)) {
+          pending.putIfAbsent(child, now);
+        }
+      }
+      if (!key.reset()) {
+        watchedDirectories.remove(key);
+        subdirectories.remove(directory);
+      }
+    }
+  }
+
+  /**
+   * Lists the directories changed since the given time and queues their files changed since then.
+   * Unless all directories are listed, unchanged directories are skipped and only their known subdirectories are visited.
+   */
+  private void scanDirectory(final Path directory, final long since, final boolean listAll) {
+    List<Path> known = subdirectories.get(directory);
+    long directoryChanged = changeTime(directory);
+    if (directoryChanged < 0) {
+      subdirectories.remove(directory);
+      return;
+    }
+    if (!listAll && known != null && directoryChanged < since) {
+      for (Path subdirectory : known) {
+        scanDirectory(subdirectory, since, listAll);
+      }
+      return;
+    }
+    List<Path> found = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attributes.isDirectory()) {
+          if (recursive && !isHidden(entry)) {
+            found.add(entry);
+            if (watchService != null && !subdirectories.containsKey(entry)) {
+              register(entry);
+            }
+          }
+        } else if (isCandidate(entry)) {
+          long changed = changeTime(entry);
+          if (changed >= since) {
+            pending.putIfAbsent(entry, changed);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot list {}: {}", directory, e.getMessage());
+      return;
+    }
+    subdirectories.put(directory, found);
+    for (Path subdirectory : found) {
+      scanDirectory(subdirectory, since, listAll);
+    }
+  }
+
+  /**
+   * Takes the pending files which have not been modified for the minimum age and were not reported with this modification time yet.
+   */
+  private List<Path> collectSettled(final long now) {
+    List<Path> ready = new ArrayList<>();
+    Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Path, Long> entry = iterator.next();
+      Path file = entry.getKey();
+      long modified;
+      try {
+        modified = Files.getLastModifiedTime(file).toMillis();
+      } catch (IOException e) {
+        iterator.remove(); // deleted meanwhile
+        continue;
+      }
+      if (now - modified < minAge.toMillis()) {
+        continue; // still being written
+      }
+      iterator.remove();
+      Long previous = reported.put(file, modified);
+      if (previous == null || previous != modified) {
+        unconfirmed.put(file, entry.getValue());
+        ready.add(file);
+      }
+    }
+    return ready;
+  }
+
+  /**
+   * Moves the cursor up to the oldest file not reported or not confirmed yet (minus the slack), persisting it from time to time.
+   */
+  private void advanceCursor(final long now) {
+    long next = now - minAge.toMillis() - CLOCK_SLACK_MILLIS;
+    for (long changed : pending.values()) {
+      next = Math.min(next, changed - CLOCK_SLACK_MILLIS);
+    }
+    for (long changed : unconfirmed.values()) {
+      next = Math.min(next, changed - CLOCK_SLACK_MILLIS);
+    }
+    if (next > cursor) {
+      cursor = next;
+      reported.values().removeIf(modified -> modified < cursor - CLOCK_SLACK_MILLIS);
+    }
+    if (cursor != persistedCursor && now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+      writeCheckpoint();
+      lastCheckpoint = now;
+    }
+  }
+
+  private void registerTree(final Path directory) {
+    register(directory);
+    if (!recursive) {
+      return;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, entry -> Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))) {
+      for (Path entry : entries) {
+        if (!isHidden(entry)) {
+          registerTree(entry);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot list {}: {}", directory, e.getMessage());
+    }
+  }
+
+  private void register(final Path directory) {
+    try {
+      WatchKey key = directory.register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      watchedDirectories.put(key, directory);
+    } catch (IOException e) {
+      // e.g. the inotify watch limit is reached; the directory is still covered by the cursor scans
+      LOG.warn("Cannot watch {}: {}", directory, e.getMessage());
+    }
+  }
+
+  private void closeWatchService() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOG.warn("Cannot close the watch service: {}", e.getMessage());
+      }
+      watchService = null;
+      watchedDirectories.clear();
+    }
+  }
+
+  private boolean isCandidate(final Path file) {
+    return file.getFileName().toString().endsWith(EXTENSION) && !isHidden(file);
+  }
+
+  private boolean isHidden(final Path path) {
+    return path.getFileName().toString().startsWith(".");
+  }
+
+  /**
+   * The later of the modification time and the inode change time, so files moved in with an old modification time are found too.
+   *
+   * @return The change time in milliseconds, or -1 if the path does not exist.
+   */
+  private long changeTime(final Path path) {
+    try {
+      long modified = Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+      try {
+        FileTime changed = (FileTime) Files.getAttribute(path, "unix:ctime", LinkOption.NOFOLLOW_LINKS);
+        return Math.max(modified, changed.toMillis());
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        return modified;
+      }
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @param nodeId The configured node id, or null or empty to use the host name.
+   * @return The name of this node, usable in a file name. Unlike the pid it stays the same across restarts.
+   */
+  static String nodeName(final String nodeId) {
+    String name = nodeId;
+    if (name == null || name.isEmpty()) {
+      try {
+        name = InetAddress.getLocalHost().getHostName();
+      } catch (UnknownHostException e) {
+        name = "local";
+      }
+    }
+    return name.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  private long readCheckpoint() {
+    try {
+      return Long.parseLong(Files.readString(checkpointFile, StandardCharsets.UTF_8).trim());
+    } catch (IOException | NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private void writeCheckpoint() {
+    try {
+      Files.createDirectories(checkpointFile.toAbsolutePath().getParent());
+      Path temp = Files.createTempFile(checkpointFile.toAbsolutePath().getParent(), "_checkpoint", "_data");
+      Files.writeString(temp, String.valueOf(cursor), StandardCharsets.UTF_8);
+      Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      persistedCursor = cursor;
+    } catch (IOException e) {
+      LOG.warn("Cannot write the scanner checkpoint {}: {}", checkpointFile, e.getMessage());
+    }
+  }
+}
@@ -1,24 +1,40 @@
 package pl.gpiwosz.wordpdfconverter.services;
 
-import org.jodconverter.core.DocumentConverter;
+import org.jodconverter.core.document.DocumentFormat;
 import org.jodconverter.core.office.OfficeException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.dtos.ExportResult;
+import pl.gpiwosz.wordpdfconverter.dtos.PdfExportProfile;
+import pl.gpiwosz.wordpdfconverter.enums.ConversionPriorityEnum;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
 import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
-import pl.gpiwosz.wordpdfconverter.repositories.RedisIdempotentRepository;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service responsible for converting files to PDF using LibreOffice via JODConverter.
- * This service uses an asynchronous approach to handle conversions.
+ * Conversions run on the caller's thread once the {@link ConversionScheduler} grants a free LibreOffice slot,
+ * so the caller (e.g. the JMS consumer) only completes after the document has been converted.
+ * The conversion itself runs on an instance taken from the {@link OfficeInstancePool}, within the deadlines of the {@link ConversionRunner}.
+ * PDFs are exported with the {@link PdfExportProfiles profile} requested for the document, or the one of its input folder.
+ * Very large documents may be converted in parallel pieces by the {@link SplitConversionService}.
+ * Documents which fail repeatedly are quarantined by the {@link QuarantineService} instead of being retried forever.
+ * A document needed in several formats is loaded once and exported to all of them by {@link #exportFile}.
  *
  * @author Grzegorz Piwosz
  * @version 1.0
@@ -27,32 +43,48 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Service
 public class LibreOfficeConverterService {
 
-  private final DocumentConverter converter;
+  private final ConversionRunner conversionRunner;
   private final String outputPath;
-  private final ExecutorService executor;
+  private final ConversionScheduler conversionScheduler;
   private final TempDirConfig tempDirConfig;
-  private final RedisIdempotentRepository redisQueueIdempotentRepository;
-
-  private final AtomicInteger numberOfCurrentTasks = new AtomicInteger(0);
+  private final StatusStore redisQueueIdempotentRepository;
+  private final ConversionCache conversionCache;
+  private final ConverterMetrics converterMetrics;
+  private final PdfExportProfiles pdfExportProfiles;
+  private final SplitConversionService splitConversionService;
+  private final QuarantineService quarantineService;
 
   /**
    * Constructs a new LibreOfficeConverterService.
    *
    * @param outputPath    The output path for converted files, read from application properties.
-   * @param converter     The JODConverter DocumentConverter instance.
+   * @param conversionRunner The runner converting the documents on the LibreOffice instances within the deadlines.
    * @param tempDirConfig The TempDirConfig instance for managing temporary files.
+   * @param conversionScheduler The scheduler granting LibreOffice slots to conversions.
+   * @param conversionCache The cache of converted PDF files keyed by the hash of the input.
+   * @param converterMetrics The metrics of the conversion stages.
+   * @param pdfExportProfiles The PDF export profiles.
+   * @param splitConversionService The service converting very large documents in parallel pieces.
+   * @param quarantineService The service counting the failures of the documents and quarantining poison documents.
    */
-  public LibreOfficeConverterService(@Value("${output.path}") final String outputPath, final DocumentConverter converter, final TempDirConfig tempDirConfig, RedisIdempotentRepository redisQueueIdempotentRepository) {
-    this.converter = converter;
+  public LibreOfficeConverterService(@Value("${output.path}") final String outputPath, final ConversionRunner conversionRunner, final TempDirConfig tempDirConfig, StatusStore redisQueueIdempotentRepository, final ConversionScheduler conversionScheduler, final ConversionCache conversionCache, final ConverterMetrics converterMetrics, final PdfExportProfiles pdfExportProfiles, final SplitConversionService splitConversionService, final QuarantineService quarantineService) {
+    this.conversionRunner = conversionRunner;
     this.outputPath = outputPath;
     this.tempDirConfig = tempDirConfig;
-    this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.conversionScheduler = conversionScheduler;
+    this.conversionCache = conversionCache;
+    this.converterMetrics = converterMetrics;
+    this.pdfExportProfiles = pdfExportProfiles;
+    this.splitConversionService = splitConversionService;
+    this.quarantineService = quarantineService;
   }
 
   /**
-   * Converts a file (represented as a byte array) to PDF asynchronously.
-   * The conversion process happens in a separate thread using an ExecutorService.
+   * Converts a file (represented as a byte array) to PDF.
+   * If a document with the same content was converted before, the cached PDF is used and no LibreOffice slot is taken.
+   * Otherwise the method blocks until a LibreOffice slot is free and returns once the conversion has finished,
+   * so the message is acknowledged only after the PDF is written.
    * The input file is first written to a temporary file, then converted, and finally the temporary file is deleted.
    *
    * @param fileBytes The byte array containing the file content.
@@ -60,21 +92,318 @@ public class LibreOfficeConverterService {
    * @throws Exception If an error occurs during file processing or conversion. This includes exceptions thrown by the underlying JODConverter library.
    */
   public void convertFile(final byte[] fileBytes, final String fileName) throws Exception {
-    File inputFile = createFileFromByteArray(fileBytes, fileName);
-    String outputFileName = outputPath + "/" + fileName.substring(0, fileName.lastIndexOf('.')) + ".pdf";
-    File outputFile = new File(outputFileName);
-    executor.execute(() -> {
+    PdfExportProfile profile = pdfExportProfiles.select(null, fileName);
+    String sha256 = UtilsService.sha256Hex(fileBytes);
+    String cacheKey = PdfExportProfiles.cacheKey(sha256, profile);
+    if (restoreFromCache(cacheKey, fileName)) {
+      return;
+    }
+    conversionScheduler.acquire();
+    File inputFile = null;
+    try {
+      inputFile = converterMetrics.tempFileWriteTimer().recordCallable(() -> createFileFromByteArray(fileBytes, fileName));
+      convert(inputFile, fileName, sha256, cacheKey, profile);
+    } finally {
+      if (inputFile != null) {
+        inputFile.delete();
+      }
+      conversionScheduler.release();
+    }
+  }
+
+  /**
+   * Converts a file which is already available on the local file system (e.g. on the shared volume in claim-check mode) to PDF.
+   * The file is handed to LibreOffice in place, without copying it into the temporary directory, and is not deleted afterwards.
+   *
+   * @param inputPath The path of the file to convert.
+   * @param fileName  The original file name.
+   * @param sha256    The hex encoded SHA-256 hash of the file, or null if it has to be computed.
+   * @param lane      The lane of the document, deciding which slots it may use.
+   * @throws Exception If an error occurs during conversion. This includes exceptions thrown by the underlying JODConverter library.
+   */
+  public void convertFile(final Path inputPath, final String fileName, final String sha256, final DocumentLaneEnum lane) throws Exception {
+    convertFile(inputPath, fileName, sha256, lane, ConversionPriorityEnum.BATCH, null);
+  }
+
+  /**
+   * Converts a file which is already available on the local file system to PDF, waiting for a LibreOffice slot with the given priority.
+   *
+   * @param inputPath The path of the file to convert.
+   * @param fileName  The original file name.
+   * @param sha256    The hex encoded SHA-256 hash of the file, or null if it has to be computed.
+   * @param lane      The lane of the document, deciding which slots it may use.
+   * @param priority  The priority of the conversion, e.g. INTERACTIVE for callers of the HTTP API.
+   * @param profile   The requested PDF export profile, or null for the profile of the document's folder.
+   * @throws Exception If an error occurs during conversion. This includes exceptions thrown by the underlying JODConverter library.
+   */
+  public void convertFile(final Path inputPath, final String fileName, final String sha256, final DocumentLaneEnum lane,
+                          final ConversionPriorityEnum priority, final String profile) throws Exception {
+    String hash = sha256;
+    if (hash == null) {
+      try (InputStream in = Files.newInputStream(inputPath)) {
+        hash = UtilsService.copyAndHash(in, null);
+      }
+    }
+    PdfExportProfile exportProfile = pdfExportProfiles.select(profile, fileName);
+    String cacheKey = PdfExportProfiles.cacheKey(hash, exportProfile);
+    if (restoreFromCache(cacheKey, fileName)) {
+      return;
+    }
+    conversionScheduler.acquire(lane, priority);
+    try {
+      convert(inputPath.toFile(), fileName, hash, cacheKey, exportProfile);
+    } finally {
+      conversionScheduler.release(lane);
+    }
+  }
+
+  /**
+   * Converts a file read from a stream (e.g. a JMS message body or a remote content store) to PDF.
+   * The stream is transferred into a temporary file with NIO while it is hashed, so the document is never
+   * held in the heap as a whole; it is then converted, and the temporary file is deleted.
+   *
+   * @param content  The stream with the file content. It is closed by this method.
+   * @param fileName The original file name.
+   * @param sha256   The hex encoded SHA-256 hash of the content, or null if it has to be computed while copying.
+   * @param lane     The lane of the document, deciding which slots it may use.
+   * @throws Exception If an error occurs during file processing or conversion. This includes exceptions thrown by the underlying JODConverter library.
+   */
+  public void convertFile(final InputStream content, final String fileName, final String sha256, final DocumentLaneEnum lane) throws Exception {
+    convertFile(content, fileName, sha256, lane, null);
+  }
+
+  /**
+   * Converts a file read from a stream to PDF with the given export profile.
+   *
+   * @param content  The stream with the file content. It is closed by this method.
+   * @param fileName The original file name.
+   * @param sha256   The hex encoded SHA-256 hash of the content, or null if it has to be computed while copying.
+   * @param lane     The lane of the document, deciding which slots it may use.
+   * @param profile  The requested PDF export profile, or null for the profile of the document's folder.
+   * @throws Exception If an error occurs during file processing or conversion. This includes exceptions thrown by the underlying JODConverter library.
+   */
+  public void convertFile(final InputStream content, final String fileName, final String sha256, final DocumentLaneEnum lane,
+                          final String profile) throws Exception {
+    PdfExportProfile exportProfile = pdfExportProfiles.select(profile, fileName);
+    if (restoreFromCache(PdfExportProfiles.cacheKey(sha256, exportProfile), fileName)) {
+      content.close();
+      return;
+    }
+    File inputFile = null;
+    try (content) {
+      inputFile = Files.createTempFile(tempDirConfig.getTempDirPath(), "_temp", "_data").toFile();
+      Path inputPath = inputFile.toPath();
+      String hash = converterMetrics.tempFileWriteTimer().recordCallable(() -> UtilsService.transferAndHash(content, inputPath));
+      String cacheKey = PdfExportProfiles.cacheKey(hash, exportProfile);
+      if (restoreFromCache(cacheKey, fileName)) {
+        return;
+      }
+      conversionScheduler.acquire(lane);
       try {
-        redisQueueIdempotentRepository.add(fileName, FileStatusEnum.PROCESSING.toString());
-        numberOfCurrentTasks.incrementAndGet();
-        converter.convert(inputFile).to(outputFile).execute();
-        numberOfCurrentTasks.decrementAndGet();
+        convert(inputFile, fileName, hash, cacheKey, exportProfile);
+      } finally {
+        conversionScheduler.release(lane);
+      }
+    } finally {
+      if (inputFile != null) {
         inputFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Exports a file which is already available on the local file system to several targets (PDF export profiles and the
+   * "thumbnail" PNG, see {@link PdfExportProfiles#exportFormatOf}) with a single load of the document in one LibreOffice instance.
+   * Each target is written to {@link #getExportFile} and gets its own PROCESSED or FAILED status under {@link #exportStatusKey};
+   * the file itself is marked PROCESSED if all targets were written, otherwise FAILED.
+   * The file is expected to be claimed as PROCESSING by the caller. Exports bypass the {@link ConversionCache} and are never split.
+   *
+   * @param inputPath The path of the file to export.
+   * @param fileName  The original file name.
+   * @param sha256    The hex encoded SHA-256 hash of the file, identifying its failures.
+   * @param lane      The lane of the document, deciding which slots it may use.
+   * @param priority  The priority of the export.
+   * @param targets   The names of the targets, without duplicates.
+   * @return The result of each target, in the requested order.
+   * @throws IllegalArgumentException     If no target or an unknown target is requested.
+   * @throws DocumentQuarantinedException If the document is quarantined instead of being exported.
+   * @throws Exception If the document cannot be loaded or the export does not finish within the deadlines.
+   */
+  public List<ExportResult> exportFile(final Path inputPath, final String fileName, final String sha256, final DocumentLaneEnum lane,
+                                       final ConversionPriorityEnum priority, final List<String> targets) throws Exception {
+    if (targets.isEmpty()) {
+      throw new IllegalArgumentException("No export target requested");
+    }
+    Map<File, DocumentFormat> formats = new LinkedHashMap<>();
+    for (String target : targets) {
+      DocumentFormat format = pdfExportProfiles.exportFormatOf(target);
+      if (format == null) {
+        throw new IllegalArgumentException("Unknown export target: " + target);
+      }
+      formats.put(getExportFile(fileName, target), format);
+    }
+    conversionScheduler.acquire(lane, priority);
+    try {
+      if (!quarantineService.admit(sha256)) {
+        quarantine(inputPath.toFile(), fileName, sha256);
+      }
+      Map<File, Exception> errors;
+      long start = System.nanoTime();
+      try {
+        for (File exportFile : formats.keySet()) {
+          Files.createDirectories(exportFile.toPath().getParent());
+          Files.deleteIfExists(exportFile.toPath());
+        }
+        errors = conversionRunner.export(inputPath.toFile(), formats);
+      } catch (OfficeException | IOException e) {
+        converterMetrics.countConversion("failure");
+        for (String target : targets) {
+          redisQueueIdempotentRepository.add(exportStatusKey(fileName, target), FileStatusEnum.FAILED.toString());
+        }
+        if (quarantineService.recordFailure(sha256, e)) {
+          quarantine(inputPath.toFile(), fileName, sha256);
+        }
+        redisQueueIdempotentRepository.add(fileName, FileStatusEnum.FAILED.toString());
+        throw e;
+      }
+      long nanos = System.nanoTime() - start;
+      List<ExportResult> results = new ArrayList<>();
+      for (String target : targets) {
+        File exportFile = getExportFile(fileName, target);
+        Exception error = errors.get(exportFile);
+        FileStatusEnum status = error == null ? FileStatusEnum.PROCESSED : FileStatusEnum.FAILED;
+        if (error == null) {
+          converterMetrics.recordExport(target, inputPath.toFile().length(), exportFile.length(), nanos);
+        }
+        redisQueueIdempotentRepository.add(exportStatusKey(fileName, target), status.toString());
+        results.add(ExportResult.builder()
+          .target(target)
+          .status(status.toString())
+          .error(error == null ? null : String.valueOf(error.getMessage()))
+          .build());
+      }
+      if (errors.isEmpty()) {
+        quarantineService.recordSuccess(sha256);
+        converterMetrics.countConversion("success");
         redisQueueIdempotentRepository.add(fileName, FileStatusEnum.PROCESSED.toString());
-      } catch (OfficeException e) {
-        throw new RuntimeException(e); // Re-throw as RuntimeException so it is not necessary to handle it in caller method
+      } else {
+        converterMetrics.countConversion("failure");
+        redisQueueIdempotentRepository.add(fileName, FileStatusEnum.FAILED.toString());
+      }
+      return results;
+    } finally {
+      conversionScheduler.release(lane);
+    }
+  }
+
+  /**
+   * Places the cached PDF of a document with the same content at the output path and marks the file as PROCESSED.
+   *
+   * @param cacheKey The key of the conversion (see {@link PdfExportProfiles#cacheKey}), or null if unknown.
+   * @param fileName The original file name.
+   * @return true if the PDF was taken from the cache.
+   */
+  private boolean restoreFromCache(final String cacheKey, final String fileName) {
+    if (!conversionCache.restore(cacheKey, getOutputFile(fileName).toPath())) {
+      return false;
+    }
+    redisQueueIdempotentRepository.add(fileName, FileStatusEnum.PROCESSED.toString());
+    converterMetrics.countConversion("cache_hit");
+    return true;
+  }
+
+  /**
+   * Converts the input file to PDF in the output directory, marks it PROCESSED and adds the result to the {@link ConversionCache}.
+   * The file is expected to be claimed as PROCESSING by the caller (see {@link ConversionLeaseService}).
+   * If the conversion fails, the file is marked FAILED, so the redelivered message can be converted again, unless the
+   * document used up its attempts: then it is quarantined and marked QUARANTINED.
+   *
+   * @param inputFile The file to convert.
+   * @param fileName  The original file name, used for the output file name and the status key.
+   * @param sha256    The hex encoded SHA-256 hash of the file, identifying its failures.
+   * @param cacheKey  The key of the conversion in the cache.
+   * @param profile   The PDF export profile.
+   * @throws DocumentQuarantinedException If the document is quarantined instead of being converted.
+   * @throws OfficeException      If the conversion fails.
+   * @throws IOException          If a previous output file cannot be replaced.
+   * @throws InterruptedException If the thread is interrupted while waiting for an instance.
+   */
+  private void convert(final File inputFile, final String fileName, final String sha256, final String cacheKey, final PdfExportProfile profile)
+    throws OfficeException, IOException, InterruptedException {
+    if (!quarantineService.admit(sha256)) {
+      quarantine(inputFile, fileName, sha256);
+    }
+    File outputFile = getOutputFile(fileName);
+    long start = System.nanoTime();
+    try {
+      // files from subdirectories of the input directory are written to the same subdirectories of the output directory
+      Files.createDirectories(outputFile.toPath().getParent());
+      // the previous output may be a hard link to a cache entry, which must not be overwritten in place
+      Files.deleteIfExists(outputFile.toPath());
+      DocumentFormat outputFormat = pdfExportProfiles.formatOf(profile);
+      if (!splitConversionService.convert(inputFile, outputFile, outputFormat)) {
+        conversionRunner.convert(inputFile, outputFile, outputFormat);
+      }
+      converterMetrics.recordExport(profile.getName(), inputFile.length(), outputFile.length(), System.nanoTime() - start);
+      redisQueueIdempotentRepository.add(fileName, FileStatusEnum.PROCESSED.toString());
+    } catch (OfficeException | IOException e) {
+      converterMetrics.countConversion("failure");
+      if (quarantineService.recordFailure(sha256, e)) {
+        quarantine(inputFile, fileName, sha256);
       }
-    });
+      redisQueueIdempotentRepository.add(fileName, FileStatusEnum.FAILED.toString());
+      throw e;
+    }
+    quarantineService.recordSuccess(sha256);
+    converterMetrics.countConversion("success");
+    conversionCache.store(cacheKey, outputFile.toPath());
+  }
+
+  /**
+   * Copies a poison document to the quarantine directory and marks it QUARANTINED.
+   *
+   * @throws DocumentQuarantinedException Always, so the caller consumes the message instead of having it redelivered.
+   */
+  private void quarantine(final File inputFile, final String fileName, final String sha256) throws DocumentQuarantinedException {
+    quarantineService.quarantine(inputFile, fileName, sha256);
+    redisQueueIdempotentRepository.add(fileName, FileStatusEnum.QUARANTINED.toString());
+    converterMetrics.countConversion("quarantined");
+    throw new DocumentQuarantinedException(fileName + " failed too often and was quarantined");
+  }
+
+  /**
+   * Returns the PDF a file is converted to: the file name (which may contain subdirectories) in the output directory, with the ".pdf" extension.
+   *
+   * @param fileName The original file name.
+   * @return The output file.
+   */
+  public File getOutputFile(final String fileName) {
+    return new File(outputPath + "/" + fileName.substring(0, fileName.lastIndexOf('.')) + ".pdf");
+  }
+
+  /**
+   * Returns the file an export target of a file is written to: the file name in the output directory, with the target
+   * and the extension of its format, e.g. "report.archive.pdf" or "report.thumbnail.png".
+   *
+   * @param fileName The original file name.
+   * @param target   The name of the target.
+   * @return The export file, or null if the target is unknown.
+   */
+  public File getExportFile(final String fileName, final String target) {
+    DocumentFormat format = pdfExportProfiles.exportFormatOf(target);
+    if (format == null) {
+      return null;
+    }
+    return new File(outputPath + "/" + fileName.substring(0, fileName.lastIndexOf('.')) + "." + target + "." + format.getExtension());
+  }
+
+  /**
+   * @param fileName The original file name.
+   * @param target   The name of an export target.
+   * @return The key of the target's status in the status store.
+   */
+  public static String exportStatusKey(final String fileName, final String target) {
+    return fileName + "#" + target;
   }
 
   /**
@@ -86,7 +415,7 @@ public class LibreOfficeConverterService {
    * @throws IOException              If an I/O error occurs during file creation.
    * @throws IllegalArgumentException If the input byte array or file path is null or empty.
    */
-  private File createFileFromByteArray(final byte[] data, final String filePath) throws IOException {
+  File createFileFromByteArray(final byte[] data, final String filePath) throws IOException {
     if (data == null) {
       throw new IllegalArgumentException("Byte array cannot be null.");
     }
@@ -98,13 +427,16 @@ public class LibreOfficeConverterService {
     String temFilePath = Files.createTempFile(tempDirConfig.getTempDirPath(), "_temp", "_data").toString();
 
     File file = new File(temFilePath);
-    try (FileOutputStream fos = new FileOutputStream(file)) {
-      fos.write(data);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
     }
     return file;
   }
 
   public AtomicInteger getNumberOfCurrentTasks() {
-    return numberOfCurrentTasks;
+    return conversionScheduler.getNumberOfCurrentTasks();
   }
 }
@@ -0,0 +1,87 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import org.jodconverter.core.document.DocumentFamily;
+import org.jodconverter.core.document.DocumentFormat;
+import org.jodconverter.core.job.SourceDocumentSpecsFromFile;
+import org.jodconverter.core.office.OfficeContext;
+import org.jodconverter.core.office.OfficeException;
+import org.jodconverter.local.office.LocalOfficeContext;
+import org.jodconverter.local.office.LocalOfficeUtils;
+import org.jodconverter.local.office.utils.Lo;
+import org.jodconverter.local.task.AbstractLocalOfficeTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JODConverter task loading a document once and storing it to several targets (e.g. a PDF, a PDF/A and a PNG thumbnail)
+ * before closing it, so the document is loaded and laid out once instead of once per target.
+ * A target which cannot be stored does not stop the others; its error is kept in {@link #getErrors()}.
+ * A document which cannot be loaded fails the whole task.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class MultiExportTask extends AbstractLocalOfficeTask {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MultiExportTask.class);
+
+  private final Map<File, DocumentFormat> targets;
+  private final Map<File, Exception> errors = new LinkedHashMap<>();
+
+  /**
+   * Constructs a new MultiExportTask.
+   *
+   * @param inputFile The document to export.
+   * @param targets   The files to write, with their formats, in the order they are stored.
+   */
+  public MultiExportTask(final File inputFile, final Map<File, DocumentFormat> targets) {
+    super(new SourceDocumentSpecsFromFile(inputFile));
+    this.targets = targets;
+  }
+
+  @Override
+  public void execute(final OfficeContext context) throws OfficeException {
+    XComponent document = loadDocument((LocalOfficeContext) context, source.getFile());
+    try {
+      DocumentFamily family = LocalOfficeUtils.getDocumentFamily(document);
+      XStorable storable = Lo.qi(XStorable.class, document);
+      for (Map.Entry<File, DocumentFormat> target : targets.entrySet()) {
+        try {
+          store(storable, family, target.getKey(), target.getValue());
+        } catch (OfficeException | com.sun.star.uno.Exception | RuntimeException e) {
+          LOG.warn("Cannot export {} to {}: {}", source.getFile().getName(), target.getKey().getName(), e.getMessage());
+          errors.put(target.getKey(), e);
+        }
+      }
+    } finally {
+      closeDocument(document);
+    }
+  }
+
+  /**
+   * @return The targets which could not be stored, with their errors; empty if all of them were written.
+   */
+  public Map<File, Exception> getErrors() {
+    return Collections.unmodifiableMap(errors);
+  }
+
+  private static void store(final XStorable storable, final DocumentFamily family, final File target, final DocumentFormat format)
+    throws OfficeException, com.sun.star.uno.Exception {
+    Map<String, Object> storeProperties = format.getStoreProperties(family);
+    if (storeProperties == null) {
+      throw new OfficeException("Unsupported conversion of a " + family + " document to " + format.getName());
+    }
+    Map<String, Object> properties = new HashMap<>(storeProperties);
+    properties.put("Overwrite", true);
+    storable.storeToURL(LocalOfficeUtils.toUrl(target), LocalOfficeUtils.toUnoProperties(properties));
+  }
+}
@@ -0,0 +1,134 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.dtos.NodeCapacity;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service publishing the conversion capacity of this node to the {@link StatusStore}, so the load of the nodes sharing the queues can be compared.
+ * Every node writes its slots (ready LibreOffice instances), busy slots and local waiters into one hash, keyed by the node id
+ * of the {@link ConversionLeaseService}; the queue consumers of a node follow its slots (see the queue routes), so on a
+ * balanced cluster the busy slots of the nodes grow and shrink together.
+ * Nodes which did not publish for "capacity.stale-after" (e.g. crashed ones) are left out and removed from the hash.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class NodeCapacityService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NodeCapacityService.class);
+  private static final String SEPARATOR = ",";
+
+  private final ConversionScheduler conversionScheduler;
+  private final StatusStore redisQueueIdempotentRepository;
+  private final String nodeId;
+  private final Duration staleAfter;
+
+  /**
+   * Constructs a new NodeCapacityService.
+   *
+   * @param conversionScheduler            The scheduler whose slots are published.
+   * @param conversionLeaseService         The service providing the id of this node.
+   * @param redisQueueIdempotentRepository The repository holding the capacities of the nodes.
+   * @param staleAfter                     The age after which a published capacity is dropped, read from the "capacity.stale-after" property.
+   */
+  public NodeCapacityService(final ConversionScheduler conversionScheduler, final ConversionLeaseService conversionLeaseService,
+                             StatusStore redisQueueIdempotentRepository,
+                             @Value("${capacity.stale-after:30s}") final Duration staleAfter) {
+    this.conversionScheduler = conversionScheduler;
+    this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.nodeId = conversionLeaseService.getNodeId();
+    this.staleAfter = staleAfter;
+  }
+
+  /**
+   * Publishes the capacity of this node, at the interval set by the "capacity.publish-interval" property.
+   */
+  @Scheduled(fixedRateString = "${capacity.publish-interval:5s}")
+  public void publish() {
+    redisQueueIdempotentRepository.setNodeCapacity(nodeId, encode(getLocalCapacity()));
+  }
+
+  /**
+   * Withdraws the capacity of this node when it shuts down, so it is not counted until it becomes stale.
+   */
+  @PreDestroy
+  public void withdraw() {
+    redisQueueIdempotentRepository.removeNodeCapacity(nodeId);
+  }
+
+  /**
+   * @return The current capacity of this node.
+   */
+  public NodeCapacity getLocalCapacity() {
+    return NodeCapacity.builder()
+      .nodeId(nodeId)
+      .slots(conversionScheduler.getCapacity())
+      .busySlots(Math.max(0, conversionScheduler.getNumberOfCurrentTasks().get()))
+      .waiting(conversionScheduler.getQueueLength())
+      .maxSlots(conversionScheduler.getMaxCapacity())
+      .updatedAt(System.currentTimeMillis())
+      .build();
+  }
+
+  /**
+   * Reads the capacities published by the nodes, dropping the stale ones.
+   *
+   * @return The capacities of the live nodes, ordered by node id.
+   */
+  public List<NodeCapacity> getClusterCapacity() {
+    long oldest = System.currentTimeMillis() - staleAfter.toMillis();
+    List<NodeCapacity> capacities = new ArrayList<>();
+    for (Map.Entry<String, String> entry : redisQueueIdempotentRepository.getNodeCapacities().entrySet()) {
+      NodeCapacity capacity = decode(entry.getKey(), entry.getValue());
+      if (capacity == null || capacity.getUpdatedAt() < oldest) {
+        LOG.info("Removing the stale capacity of node {}", entry.getKey());
+        redisQueueIdempotentRepository.removeNodeCapacity(entry.getKey());
+      } else {
+        capacities.add(capacity);
+      }
+    }
+    capacities.sort(Comparator.comparing(NodeCapacity::getNodeId));
+    return capacities;
+  }
+
+  private static String encode(final NodeCapacity capacity) {
+    return String.join(SEPARATOR, String.valueOf(capacity.getSlots()), String.valueOf(capacity.getBusySlots()),
+      String.valueOf(capacity.getWaiting()), String.valueOf(capacity.getMaxSlots()), String.valueOf(capacity.getUpdatedAt()));
+  }
+
+  /**
+   * @return The decoded capacity, or null if the value is malformed (e.g. written by an incompatible version).
+   */
+  private static NodeCapacity decode(final String nodeId, final String value) {
+    String[] fields = value.split(SEPARATOR);
+    if (fields.length < 5) {
+      return null;
+    }
+    try {
+      return NodeCapacity.builder()
+        .nodeId(nodeId)
+        .slots(Integer.parseInt(fields[0]))
+        .busySlots(Integer.parseInt(fields[1]))
+        .waiting(Integer.parseInt(fields[2]))
+        .maxSlots(Integer.parseInt(fields[3]))
+        .updatedAt(Long.parseLong(fields[4]))
+        .build();
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.DocumentConverter;
+import org.jodconverter.core.office.OfficeException;
+import org.jodconverter.core.office.OfficeManager;
+import org.jodconverter.local.LocalConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A single LibreOffice process listening on its own port, with the converter bound to it.
+ * An office manager cannot be started again once stopped, so the instance creates a new one every time it is started.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class OfficeInstance {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OfficeInstance.class);
+
+  private final int port;
+  private final Supplier<OfficeManager> officeManagerFactory;
+  private final Function<OfficeManager, DocumentConverter> converterFactory;
+  private volatile OfficeManager officeManager;
+  private volatile DocumentConverter converter;
+  private final AtomicLong completedTasks = new AtomicLong(0);
+  private final AtomicLong tasksSinceStart = new AtomicLong(0);
+  private volatile boolean restartRequested;
+  private volatile ProcessHandle process;
+  private volatile long lastUsedAt = System.currentTimeMillis();
+  private volatile boolean memoryUnreadable;
+
+  /**
+   * Constructs a new OfficeInstance.
+   *
+   * @param port                 The port the LibreOffice process listens on.
+   * @param officeManagerFactory Creates the office manager owning the process of this port only.
+   */
+  public OfficeInstance(final int port, final Supplier<OfficeManager> officeManagerFactory) {
+    this(port, officeManagerFactory, officeManager -> LocalConverter.builder().officeManager(officeManager).build());
+  }
+
+  /**
+   * Constructs a new OfficeInstance with its own converter, e.g. a simulated one in a load test.
+   *
+   * @param port                 The port the LibreOffice process listens on.
+   * @param officeManagerFactory Creates the office manager owning the process of this port only.
+   * @param converterFactory     Creates the converter bound to a started office manager.
+   */
+  public OfficeInstance(final int port, final Supplier<OfficeManager> officeManagerFactory,
+                        final Function<OfficeManager, DocumentConverter> converterFactory) {
+    this.port = port;
+    this.officeManagerFactory = officeManagerFactory;
+    this.converterFactory = converterFactory;
+  }
+
+  /**
+   * Starts a LibreOffice process through a new office manager.
+   *
+   * @throws OfficeException If the process cannot be started.
+   */
+  public void start() throws OfficeException {
+    OfficeManager startedManager = officeManagerFactory.get();
+    startedManager.start();
+    officeManager = startedManager;
+    converter = converterFactory.apply(startedManager);
+    tasksSinceStart.set(0);
+    restartRequested = false;
+    lastUsedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * Stops the LibreOffice process.
+   *
+   * @throws OfficeException If the process cannot be stopped.
+   */
+  public void stop() throws OfficeException {
+    process = null;
+    if (isRunning()) {
+      officeManager.stop();
+    }
+  }
+
+  /**
+   * Stops the LibreOffice process and starts a fresh one.
+   * Must only be called while the instance runs no conversion.
+   *
+   * @throws OfficeException If the new process cannot be started.
+   */
+  public void restart() throws OfficeException {
+    stop();
+    start();
+  }
+
+  public boolean isRunning() {
+    OfficeManager current = officeManager;
+    return current != null && current.isRunning();
+  }
+
+  /**
+   * Looks up the soffice process of this instance among the descendants of this JVM,
+   * by the port in its "-accept" argument.
+   * On Linux the soffice script runs the oosplash wrapper, which starts soffice.bin with the same arguments,
+   * so the soffice.bin process is preferred and otherwise the deepest matching process is taken.
+   * The handle is remembered while the process is alive, so sampling does not walk the process tree every time.
+   *
+   * @return The process handle, or empty if the process is not running.
+   */
+  public Optional<ProcessHandle> findProcess() {
+    if (!isRunning()) {
+      return Optional.empty();
+    }
+    ProcessHandle known = process;
+    if (known != null && known.isAlive()) {
+      return Optional.of(known);
+    }
+    List<ProcessHandle> candidates = ProcessHandle.current().descendants()
+      .filter(candidate -> candidate.info().commandLine().map(commandLine -> acceptsOnPort(commandLine, port)).orElse(false))
+      .toList();
+    Optional<ProcessHandle> found = candidates.stream()
+      .filter(candidate -> candidate.info().command().map(OfficeInstance::isOfficeBinary).orElse(false))
+      .findFirst()
+      .or(() -> candidates.stream()
+        .filter(candidate -> candidates.stream().noneMatch(other -> other.parent().map(candidate::equals).orElse(false)))
+        .findFirst());
+    process = found.orElse(null);
+    return found;
+  }
+
+  /**
+   * Tells whether a command line is the one of an office process accepting connections on a port, e.g.
+   * {@code soffice.bin -accept=socket,host=127.0.0.1,port=2002,tcpNoDelay=1;urp;StarOffice.ServiceManager ...}.
+   *
+   * @param commandLine The command line of a process.
+   * @param port        The port.
+   * @return true if the "-accept" argument of the command line names the port.
+   */
+  static boolean acceptsOnPort(final String commandLine, final int port) {
+    int accept = commandLine.indexOf("-accept=");
+    if (accept < 0) {
+      return false;
+    }
+    int end = commandLine.indexOf(' ', accept);
+    String connection = commandLine.substring(accept, end < 0 ? commandLine.length() : end).split(";", 2)[0];
+    return Arrays.asList(connection.split(",")).contains("port=" + port);
+  }
+
+  /**
+   * @param command The executable of a process.
+   * @return true if it is the office binary itself rather than a wrapper (oosplash or the soffice script).
+   */
+  static boolean isOfficeBinary(final String command) {
+    String name = command.substring(Math.max(command.lastIndexOf('/'), command.lastIndexOf('\\')) + 1);
+    return name.equals("soffice.bin") || name.equalsIgnoreCase("soffice.exe");
+  }
+
+  /**
+   * Reads the memory of the soffice process. If the instance runs but its memory cannot be read (its process is not found,
+   * or /proc is not available), a warning is logged once, since the memory limits are then not enforced for it.
+   *
+   * @return The resident set size of the soffice process in bytes, or -1 if it is not running or cannot be read.
+   */
+  public long getResidentSetSize() {
+    long residentSetSize = findProcess().map(handle -> UtilsService.readResidentSetSize(handle.pid())).orElse(-1L);
+    if (residentSetSize >= 0) {
+      memoryUnreadable = false;
+    } else if (isRunning() && !memoryUnreadable) {
+      memoryUnreadable = true;
+      LOG.warn("Cannot read the memory of LibreOffice on port {}, its memory limits are not enforced", port);
+    }
+    return residentSetSize;
+  }
+
+  /**
+   * Records a finished task.
+   */
+  public void taskCompleted() {
+    completedTasks.incrementAndGet();
+    tasksSinceStart.incrementAndGet();
+    lastUsedAt = System.currentTimeMillis();
+  }
+
+  public long getCompletedTasks() {
+    return completedTasks.get();
+  }
+
+  /**
+   * @return The number of tasks run by the current LibreOffice process.
+   */
+  public long getTasksSinceStart() {
+    return tasksSinceStart.get();
+  }
+
+  /**
+   * Marks the instance to be restarted as soon as it is idle.
+   */
+  public void requestRestart() {
+    restartRequested = true;
+  }
+
+  /**
+   * @return The time the last task finished (or the process started), in milliseconds since the epoch.
+   */
+  public long getLastUsedAt() {
+    return lastUsedAt;
+  }
+
+  public boolean isRestartRequested() {
+    return restartRequested;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public DocumentConverter getConverter() {
+    return converter;
+  }
+
+  public OfficeManager getOfficeManager() {
+    return officeManager;
+  }
+}
@@ -0,0 +1,411 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.office.OfficeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of {@link OfficeInstance}s, one per configured LibreOffice port.
+ * Unlike a single multi-port office manager, the pool knows which instance runs a conversion,
+ * so conversions can be measured and instances managed per port.
+ * <p>
+ * The pool is elastic: only the minimum number of instances is started with it, further ports are started in the background
+ * with {@link #grow()} and instances idle for long are stopped again with {@link #shrink(Duration)} (see {@link OfficePoolScaler}).
+ * <p>
+ * Instances are recycled gracefully: an instance which ran too many tasks, grew too large or was asked to restart
+ * is taken out of the pool once its current conversion finished, restarted in the background and only then given
+ * back, so no conversion is ever killed mid-flight.
+ * <p>
+ * Every started (or restarted) instance is warmed up with a sample conversion before it takes documents, so the first
+ * documents do not pay for loading fonts and filters. With {@link #startInBackground()} the instances start in parallel
+ * without holding up the application startup; ready listeners are told whenever an instance becomes available.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+public class OfficeInstancePool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OfficeInstancePool.class);
+  private static final long RESTART_RETRY_SECONDS = 10;
+
+  private final List<OfficeInstance> instances;
+  private final BlockingQueue<OfficeInstance> idleInstances = new LinkedBlockingQueue<>();
+  private final Set<OfficeInstance> runningInstances = ConcurrentHashMap.newKeySet();
+  private final Set<OfficeInstance> startingInstances = ConcurrentHashMap.newKeySet();
+  private final List<Runnable> readyListeners = new CopyOnWriteArrayList<>();
+  private final InstanceWarmup warmup;
+  private final int minInstances;
+  private final long maxTasksPerProcess;
+  private final long maxResidentSetSize;
+  private final ScheduledExecutorService restartExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "office-restart");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile boolean stopped;
+
+  /**
+   * Constructs a new OfficeInstancePool which runs all its instances and never restarts them on its own.
+   *
+   * @param instances The instances of the pool.
+   */
+  public OfficeInstancePool(final List<OfficeInstance> instances) {
+    this(instances, instances.size(), 0, 0, instance -> {
+    });
+  }
+
+  /**
+   * Constructs a new OfficeInstancePool.
+   *
+   * @param instances          The instances of the pool, i.e. its maximum size.
+   * @param minInstances       The number of instances which always run.
+   * @param maxTasksPerProcess The number of tasks after which an instance is restarted, 0 for no limit.
+   * @param maxResidentSetSize The resident set size in bytes above which an instance is restarted after its task, 0 for no limit.
+   * @param warmup             The sample conversion run on every started instance before it takes documents.
+   */
+  public OfficeInstancePool(final List<OfficeInstance> instances, final int minInstances, final long maxTasksPerProcess,
+                            final long maxResidentSetSize, final InstanceWarmup warmup) {
+    this.instances = List.copyOf(instances);
+    this.minInstances = Math.max(1, Math.min(this.instances.size(), minInstances));
+    this.maxTasksPerProcess = maxTasksPerProcess;
+    this.maxResidentSetSize = maxResidentSetSize;
+    this.warmup = warmup;
+  }
+
+  /**
+   * Starts the minimum number of instances and makes them available for conversions.
+   *
+   * @throws OfficeException If an instance cannot be started.
+   */
+  public void start() throws OfficeException {
+    for (OfficeInstance instance : instances.subList(0, minInstances)) {
+      startingInstances.add(instance);
+      startInstance(instance);
+    }
+  }
+
+  /**
+   * Starts the minimum number of instances in parallel, each on its own thread, and returns right away.
+   * An instance which fails to start is left to {@link #grow()}.
+   *
+   * @return A future completed once every instance started or failed.
+   */
+  public CompletableFuture<Void> startInBackground() {
+    List<CompletableFuture<Void>> starts = new ArrayList<>();
+    for (OfficeInstance instance : instances.subList(0, minInstances)) {
+      startingInstances.add(instance);
+      starts.add(startOnOwnThread(instance));
+    }
+    return CompletableFuture.allOf(starts.toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Starts and warms up an instance registered as starting on a thread of its own.
+   * A failure is only logged; the instance is then left to a later {@link #grow()}.
+   *
+   * @return A future completed once the instance started or failed.
+   */
+  private CompletableFuture<Void> startOnOwnThread(final OfficeInstance instance) {
+    CompletableFuture<Void> start = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        startInstance(instance);
+        LOG.info("LibreOffice on port {} started, {} instances running", instance.getPort(), runningInstances.size());
+      } catch (OfficeException | RuntimeException e) {
+        LOG.error("Cannot start LibreOffice on port {}: {}", instance.getPort(), e.getMessage());
+      } finally {
+        start.complete(null);
+      }
+    }, "office-start-" + instance.getPort());
+    thread.setDaemon(true);
+    thread.start();
+    return start;
+  }
+
+  /**
+   * Registers a listener told whenever an instance became available, e.g. to add conversion slots.
+   * If instances are available already, the listener is told right away.
+   *
+   * @param listener The listener.
+   */
+  public void addReadyListener(final Runnable listener) {
+    readyListeners.add(listener);
+    if (!runningInstances.isEmpty()) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Starts one more instance in the background, unless all instances are running or starting already.
+   * The instance is started and warmed up on a thread of its own, so the caller (e.g. a scheduled task) is not held up;
+   * ready listeners are told once it is available.
+   *
+   * @return The instance being started, or null if the pool is at its maximum size.
+   */
+  public synchronized OfficeInstance grow() {
+    for (OfficeInstance instance : instances) {
+      if (!runningInstances.contains(instance) && startingInstances.add(instance)) {
+        startOnOwnThread(instance);
+        return instance;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stops one instance which has been idle for at least the given time, unless the pool is at its minimum size.
+   *
+   * @param idleTimeout How long an instance has to be idle to be stopped.
+   * @return The stopped instance, or null if none was stopped.
+   */
+  public synchronized OfficeInstance shrink(final Duration idleTimeout) {
+    if (runningInstances.size() <= minInstances) {
+      return null;
+    }
+    long idleSince = System.currentTimeMillis() - idleTimeout.toMillis();
+    for (OfficeInstance instance : idleInstances) {
+      // removing it from the idle queue first guarantees no conversion takes it meanwhile
+      if (instance.getLastUsedAt() <= idleSince && idleInstances.remove(instance)) {
+        runningInstances.remove(instance);
+        try {
+          instance.stop();
+        } catch (OfficeException e) {
+          LOG.warn("Cannot stop LibreOffice on port {}: {}", instance.getPort(), e.getMessage());
+        }
+        LOG.info("Office pool shrank to {} instances (port {} stopped)", runningInstances.size(), instance.getPort());
+        return instance;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Starts and warms up an instance registered as starting, then makes it available.
+   */
+  private void startInstance(final OfficeInstance instance) throws OfficeException {
+    try {
+      instance.start();
+      warmUp(instance);
+      runningInstances.add(instance);
+      idleInstances.add(instance);
+    } finally {
+      startingInstances.remove(instance);
+    }
+    for (Runnable listener : readyListeners) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Runs the sample conversion on an instance. A failed warm-up is only logged, the instance is usable anyway.
+   */
+  private void warmUp(final OfficeInstance instance) {
+    long start = System.nanoTime();
+    try {
+      warmup.warmUp(instance);
+      LOG.info("LibreOffice on port {} warmed up in {} ms", instance.getPort(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (OfficeException | RuntimeException e) {
+      LOG.warn("Cannot warm up LibreOffice on port {}: {}", instance.getPort(), e.getMessage());
+    }
+  }
+
+  /**
+   * Stops all instances.
+   */
+  public void stop() {
+    stopped = true;
+    restartExecutor.shutdownNow();
+    idleInstances.clear();
+    runningInstances.clear();
+    for (OfficeInstance instance : instances) {
+      try {
+        instance.stop();
+      } catch (OfficeException e) {
+        LOG.warn("Cannot stop LibreOffice on port {}: {}", instance.getPort(), e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Takes an idle instance, waiting until one is given back if all are busy.
+   *
+   * @return The instance to run a conversion on.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public OfficeInstance acquire() throws InterruptedException {
+    return idleInstances.take();
+  }
+
+  /**
+   * Takes an idle instance, waiting at most the given time until one is given back (or restarted) if all are busy.
+   *
+   * @param timeout The longest wait.
+   * @param unit    The unit of the timeout.
+   * @return The instance to run a conversion on, or null if none became idle in time.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public OfficeInstance acquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+    return idleInstances.poll(timeout, unit);
+  }
+
+  /**
+   * Takes an idle instance if there is one.
+   *
+   * @return The instance to run a conversion on, or null if all instances are busy.
+   */
+  public OfficeInstance tryAcquire() {
+    return idleInstances.poll();
+  }
+
+  /**
+   * Cancels the conversion running on an instance by killing its soffice process.
+   * The conversion fails and, once the instance is given back, it is restarted like any instance due for a restart.
+   * Unlike {@link #requestRestart(OfficeInstance)} this does not wait for the conversion, so it is meant for wedged ones.
+   *
+   * @param instance The busy instance.
+   * @return true if the process was killed, false if it could not be found (the conversion then keeps running).
+   */
+  public boolean abort(final OfficeInstance instance) {
+    instance.requestRestart();
+    Optional<ProcessHandle> process = instance.findProcess();
+    if (process.isEmpty()) {
+      LOG.warn("Cannot find the LibreOffice process on port {} to cancel its conversion", instance.getPort());
+      return false;
+    }
+    LOG.warn("Killing LibreOffice on port {} (pid {}) to cancel its conversion", instance.getPort(), process.get().pid());
+    return process.get().destroyForcibly();
+  }
+
+  /**
+   * Gives back an instance taken with {@link #acquire()}.
+   * If the instance is due for a restart, it is restarted first and only then made available again.
+   *
+   * @param instance The instance.
+   */
+  public void release(final OfficeInstance instance) {
+    instance.taskCompleted();
+    if (needsRestart(instance)) {
+      scheduleRestart(instance, 0);
+    } else {
+      idleInstances.add(instance);
+    }
+  }
+
+  /**
+   * Asks for a graceful restart of an instance: an idle instance is restarted right away,
+   * a busy one as soon as its current conversion finished.
+   *
+   * @param instance The instance to restart.
+   */
+  public void requestRestart(final OfficeInstance instance) {
+    instance.requestRestart();
+    if (idleInstances.remove(instance)) {
+      scheduleRestart(instance, 0);
+    }
+  }
+
+  private boolean needsRestart(final OfficeInstance instance) {
+    if (instance.isRestartRequested()) {
+      return true;
+    }
+    if (maxTasksPerProcess > 0 && instance.getTasksSinceStart() >= maxTasksPerProcess) {
+      LOG.info("LibreOffice on port {} ran {} tasks, restarting it", instance.getPort(), instance.getTasksSinceStart());
+      return true;
+    }
+    if (maxResidentSetSize > 0) {
+      long residentSetSize = instance.getResidentSetSize();
+      if (residentSetSize > maxResidentSetSize) {
+        LOG.info("LibreOffice on port {} uses {} bytes, restarting it", instance.getPort(), residentSetSize);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Restarts a drained instance in the background and gives it back once it runs again.
+   * If the restart fails, it is retried later and the instance stays out of the pool meanwhile.
+   */
+  private void scheduleRestart(final OfficeInstance instance, final long delaySeconds) {
+    if (stopped) {
+      return;
+    }
+    restartExecutor.schedule(() -> {
+      try {
+        instance.restart();
+        LOG.info("LibreOffice on port {} restarted", instance.getPort());
+        warmUp(instance);
+        if (!stopped) {
+          idleInstances.add(instance);
+        }
+      } catch (OfficeException | RuntimeException e) {
+        LOG.error("Cannot restart LibreOffice on port {}, retrying in {}s: {}", instance.getPort(), RESTART_RETRY_SECONDS, e.getMessage());
+        scheduleRestart(instance, RESTART_RETRY_SECONDS);
+      }
+    }, delaySeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return All instances of the pool, running or not.
+   */
+  public List<OfficeInstance> getInstances() {
+    return instances;
+  }
+
+  /**
+   * @return The number of instances being started and warmed up.
+   */
+  public int getStartingCount() {
+    return startingInstances.size();
+  }
+
+  /**
+   * @return The number of started instances, busy, idle or restarting.
+   */
+  public int getRunningCount() {
+    return runningInstances.size();
+  }
+
+  public int getMinInstances() {
+    return minInstances;
+  }
+
+  public int getMaxInstances() {
+    return instances.size();
+  }
+
+  /**
+   * @return The number of instances not running a conversion.
+   */
+  public int getIdleCount() {
+    return idleInstances.size();
+  }
+
+  /**
+   * The sample conversion warming up a started instance.
+   */
+  @FunctionalInterface
+  public interface InstanceWarmup {
+
+    /**
+     * @param instance The started instance.
+     * @throws OfficeException If the sample conversion fails.
+     */
+    void warmUp(OfficeInstance instance) throws OfficeException;
+  }
+}
@@ -0,0 +1,136 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+
+import java.time.Duration;
+import java.util.Enumeration;
+
+/**
+ * Service resizing the {@link OfficeInstancePool} to the load.
+ * The pool grows by one instance per check while documents wait, either on the lane queues or locally for a slot,
+ * as long as the memory left on the host (or in the container) can hold another LibreOffice process.
+ * It shrinks by one instance per check once an instance has been idle for the configured time.
+ * The {@link ConversionScheduler} is resized with the pool, so there is always one slot per running instance;
+ * instances start in the background, and slots are added as they become ready. No further instance is started
+ * while one is still starting.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class OfficePoolScaler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OfficePoolScaler.class);
+
+  private final OfficeInstancePool officeInstancePool;
+  private final ConversionScheduler conversionScheduler;
+  private final JmsTemplate jmsTemplate;
+  private final Duration scaleUpWait;
+  private final Duration idleTimeout;
+  private final long memoryPerInstance;
+  private final long minFreeMemory;
+
+  /**
+   * Constructs a new OfficePoolScaler.
+   *
+   * @param officeInstancePool  The pool to resize.
+   * @param conversionScheduler The scheduler whose slots follow the pool size.
+   * @param jmsTemplate         The template used to look at the backlog of the lane queues.
+   * @param scaleUpWait         The wait for a slot above which the pool grows, read from the "office.pool.scale-up-wait" property.
+   * @param idleTimeout         How long an instance is idle before it is stopped, read from the "office.pool.idle-timeout" property.
+   * @param memoryPerInstance   The memory a new instance is expected to use, read from the "office.pool.memory-per-instance" property.
+   * @param minFreeMemory       The memory which has to stay free after a new instance started, read from the "office.pool.min-free-memory" property.
+   */
+  public OfficePoolScaler(final OfficeInstancePool officeInstancePool, final ConversionScheduler conversionScheduler, final JmsTemplate jmsTemplate,
+                          @Value("${office.pool.scale-up-wait:2s}") final Duration scaleUpWait,
+                          @Value("${office.pool.idle-timeout:5m}") final Duration idleTimeout,
+                          @Value("${office.pool.memory-per-instance:512MB}") final DataSize memoryPerInstance,
+                          @Value("${office.pool.min-free-memory:256MB}") final DataSize minFreeMemory) {
+    this.officeInstancePool = officeInstancePool;
+    this.conversionScheduler = conversionScheduler;
+    this.jmsTemplate = jmsTemplate;
+    this.scaleUpWait = scaleUpWait;
+    this.idleTimeout = idleTimeout;
+    this.memoryPerInstance = memoryPerInstance.toBytes();
+    this.minFreeMemory = minFreeMemory.toBytes();
+  }
+
+  /**
+   * Aligns the scheduler slots with the instances started by the pool, and with every instance becoming ready later.
+   */
+  @PostConstruct
+  public void init() {
+    conversionScheduler.resize(officeInstancePool.getRunningCount());
+    officeInstancePool.addReadyListener(() -> conversionScheduler.resize(officeInstancePool.getRunningCount()));
+  }
+
+  /**
+   * Grows or shrinks the pool by at most one instance, at the interval set by the "office.pool.scale-interval" property.
+   */
+  @Scheduled(fixedDelayString = "${office.pool.scale-interval:10s}")
+  public void scale() {
+    int running = officeInstancePool.getRunningCount();
+    boolean waitingLocally = conversionScheduler.getQueueLength() > 0
+      || conversionScheduler.getAndResetMaxWaitNanos() >= scaleUpWait.toNanos();
+    int limit = officeInstancePool.getMaxInstances() + 1;
+    int backlog = 0;
+    for (DocumentLaneEnum lane : DocumentLaneEnum.values()) {
+      backlog += countBacklog(lane.getQueueName(), limit - backlog);
+    }
+
+    if ((waitingLocally || backlog > running) && running < officeInstancePool.getMaxInstances()) {
+      if (officeInstancePool.getStartingCount() == 0 && hasMemoryForInstance()) {
+        officeInstancePool.grow();
+      }
+    } else if (!waitingLocally && backlog == 0 && officeInstancePool.shrink(idleTimeout) != null) {
+      conversionScheduler.resize(officeInstancePool.getRunningCount());
+    }
+  }
+
+  private boolean hasMemoryForInstance() {
+    long available = UtilsService.readAvailableMemory();
+    if (available >= 0 && available - memoryPerInstance < minFreeMemory) {
+      LOG.debug("Not growing the office pool, only {} MB of memory available", available / (1024 * 1024));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Counts the messages waiting on a queue by browsing it, stopping at the given limit.
+   *
+   * @param queueName The queue.
+   * @param limit     The number of messages above which counting stops.
+   * @return The number of waiting messages (at most the limit), or 0 if the broker cannot be reached.
+   */
+  private int countBacklog(final String queueName, final int limit) {
+    if (limit <= 0) {
+      return 0;
+    }
+    try {
+      Integer count = jmsTemplate.browse(queueName, (session, browser) -> {
+        Enumeration<?> messages = browser.getEnumeration();
+        int counted = 0;
+        while (counted < limit && messages.hasMoreElements()) {
+          messages.nextElement();
+          counted++;
+        }
+        return counted;
+      });
+      return count == null ? 0 : count;
+    } catch (JmsException e) {
+      LOG.warn("Cannot browse {}: {}", queueName, e.getMessage());
+      return 0;
+    }
+  }
+}
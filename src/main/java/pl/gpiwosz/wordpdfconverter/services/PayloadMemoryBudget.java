@@ -0,0 +1,178 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service bounding the document bytes this node holds in the heap at the same time, i.e. the content of the JMS messages
+ * being sent or consumed. Without it, every queue consumer may hold a whole document, so a burst of large documents
+ * multiplies the heap needed by the number of consumers.
+ * <p>
+ * Documents above "payload.spill-threshold" never travel in a message: they are spilled to the content store and
+ * sent as a claim-check reference, which the consumer converts from the disk. The messages carrying the smaller ones
+ * reserve their size from "payload.memory-budget" before the document is read to be sent.
+ * <p>
+ * A received message is in the heap already (the broker client reads the whole body before the route sees it), so a consumer
+ * never waits for the budget while holding it: a document whose size cannot be reserved right away, or which is above the
+ * threshold (a producer which does not spill), is streamed from the message into the content store and converted from the disk.
+ * Once more than half of the budget is reserved and a received document does not fit, the budget is exhausted: the pressure
+ * listeners pause the queue consumers, so no further messages are received, until releases free half of the budget again.
+ * The heap held by documents is therefore bounded by the budget plus the messages already received by the consumers when it ran
+ * out, i.e. consumers &times; the largest message size; that size is only bounded by the spill threshold if all producers spill.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class PayloadMemoryBudget {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PayloadMemoryBudget.class);
+  /**
+   * The budget is counted in KiB, so budgets beyond 2 GB fit the permits of the semaphore.
+   */
+  private static final long UNIT = 1024;
+
+  private final Semaphore budget;
+  private final int budgetUnits;
+  private final long spillThreshold;
+  private final Counter spilled;
+  private final AtomicBoolean exhausted = new AtomicBoolean();
+  private final List<Runnable> pressureListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructs a new PayloadMemoryBudget.
+   *
+   * @param meterRegistry  The registry the gauges of the budget and the counter of spilled documents are registered in.
+   * @param memoryBudget   The document bytes held in the heap at the same time, read from the "payload.memory-budget" property.
+   * @param spillThreshold The size from which documents are spilled to the content store instead of sent in a message,
+   *                       read from the "payload.spill-threshold" property; a negative size never spills.
+   */
+  public PayloadMemoryBudget(final MeterRegistry meterRegistry,
+                             @Value("${payload.memory-budget:256MB}") final DataSize memoryBudget,
+                             @Value("${payload.spill-threshold:8MB}") final DataSize spillThreshold) {
+    this.budgetUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget.toBytes() / UNIT));
+    this.budget = new Semaphore(budgetUnits, true);
+    this.spillThreshold = spillThreshold.isNegative() ? Long.MAX_VALUE : spillThreshold.toBytes();
+    Gauge.builder("converter.payload.in-flight", this, PayloadMemoryBudget::getReservedBytes)
+      .description("Document bytes held in the heap by messages being sent or consumed")
+      .baseUnit("bytes")
+      .register(meterRegistry);
+    Gauge.builder("converter.payload.waiting", budget, Semaphore::getQueueLength)
+      .description("Messages waiting for the memory budget")
+      .register(meterRegistry);
+    this.spilled = Counter.builder("converter.payload.spilled")
+      .description("Documents sent as a reference to the content store because of their size")
+      .register(meterRegistry);
+  }
+
+  /**
+   * @param size The size of a document in bytes.
+   * @return true if the document is too large to be sent in a message and is spilled to the content store.
+   */
+  public boolean shouldSpill(final long size) {
+    return size > spillThreshold;
+  }
+
+  /**
+   * Counts a document spilled to the content store.
+   */
+  public void countSpill() {
+    spilled.increment();
+  }
+
+  /**
+   * Reserves the memory of a document, waiting until enough of the budget is free.
+   * A document larger than the whole budget waits for the whole budget.
+   *
+   * @param size The size of the document in bytes.
+   * @return The reservation, to be passed to {@link #release(int)}.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public int reserve(final long size) throws InterruptedException {
+    int units = units(size);
+    if (units == 0) {
+      return 0;
+    }
+    if (!budget.tryAcquire(units)) {
+      LOG.debug("Waiting for {} KiB of the payload memory budget", units);
+      budget.acquire(units);
+    }
+    return units;
+  }
+
+  /**
+   * Reserves the memory of a document if enough of the budget is free right now.
+   * If it is not and more than half of the budget is reserved, the budget becomes exhausted and the pressure listeners are called.
+   *
+   * @param size The size of the document in bytes.
+   * @return The reservation, to be passed to {@link #release(int)}, or -1 if the budget is used up.
+   */
+  public int tryReserve(final long size) {
+    int units = units(size);
+    if (units == 0 || budget.tryAcquire(units)) {
+      return units;
+    }
+    if (budget.availablePermits() < budgetUnits / 2 && exhausted.compareAndSet(false, true)) {
+      LOG.info("Payload memory budget exhausted, {} MB reserved", getReservedBytes() / (1024 * 1024));
+      pressureListeners.forEach(Runnable::run);
+    }
+    return -1;
+  }
+
+  /**
+   * Releases a reservation made with {@link #reserve(long)} or {@link #tryReserve(long)}.
+   *
+   * @param reservation The reservation.
+   */
+  public void release(final int reservation) {
+    if (reservation > 0) {
+      budget.release(reservation);
+      if (exhausted.get() && budget.availablePermits() >= budgetUnits / 2 && exhausted.compareAndSet(true, false)) {
+        LOG.info("Payload memory budget available again, {} MB reserved", getReservedBytes() / (1024 * 1024));
+        pressureListeners.forEach(Runnable::run);
+      }
+    }
+  }
+
+  /**
+   * Registers a listener called whenever the budget becomes exhausted or available again, e.g. to pause the queue consumers.
+   *
+   * @param listener The listener; {@link #isExhausted()} tells which of the two happened.
+   */
+  public void addPressureListener(final Runnable listener) {
+    pressureListeners.add(listener);
+  }
+
+  /**
+   * @return true from a failed {@link #tryReserve(long)} with more than half of the budget reserved until half of it is free again.
+   */
+  public boolean isExhausted() {
+    return exhausted.get();
+  }
+
+  /**
+   * @return The bytes currently reserved.
+   */
+  public long getReservedBytes() {
+    return (budgetUnits - (long) budget.availablePermits()) * UNIT;
+  }
+
+  private int units(final long size) {
+    if (size <= 0) {
+      return 0;
+    }
+    return (int) Math.min(budgetUnits, (size + UNIT - 1) / UNIT);
+  }
+}
@@ -0,0 +1,282 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.document.DefaultDocumentFormatRegistry;
+import org.jodconverter.core.document.DocumentFamily;
+import org.jodconverter.core.document.DocumentFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.dtos.PdfExportProfile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Service holding the named PDF export profiles, passed to LibreOffice's PDF filter as its "FilterData".
+ * Profiles are defined by the "pdf.profiles" property, e.g.
+ * {@code compact(jpeg-quality=60, max-dpi=150); archive(pdfa=2, embed-standard-fonts=true)}, with the options:
+ * <ul>
+ *     <li>jpeg-quality: JPEG compression of the images, 1-100.</li>
+ *     <li>max-dpi: resolution the images are reduced to, 75, 150, 300, 600 or 1200.</li>
+ *     <li>pdfa: PDF/A part 1, 2 or 3 (which embeds all fonts).</li>
+ *     <li>embed-standard-fonts: whether the 14 standard PDF fonts are embedded too.</li>
+ * </ul>
+ * The profile of a document is taken from its message header, else from the longest matching input folder in
+ * "pdf.profile.folders" (e.g. {@code scans=compact, contracts/signed=archive}), else "pdf.profile.default".
+ * The built-in "default" profile uses LibreOffice's own settings.
+ * <p>
+ * Multi-target exports (see {@link LibreOfficeConverterService#exportFile}) may name any profile as a target, plus the
+ * built-in "thumbnail" target: a PNG of the first page.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class PdfExportProfiles {
+
+  /**
+   * The profile without any options, exporting with LibreOffice's defaults.
+   */
+  public static final String DEFAULT_PROFILE = "default";
+  /**
+   * The export target rendering the first page as a PNG instead of exporting a PDF.
+   */
+  public static final String THUMBNAIL_TARGET = "thumbnail";
+
+  private static final Logger LOG = LoggerFactory.getLogger(PdfExportProfiles.class);
+  private static final Pattern PROFILE = Pattern.compile("\\s*([\\w-]+)\\s*\\((.*)\\)\\s*");
+  private static final List<Integer> RESOLUTIONS = List.of(75, 150, 300, 600, 1200);
+  /**
+   * Hex digits of the filter data digest in the cache keys.
+   */
+  private static final int FILTER_DIGEST_LENGTH = 16;
+  /**
+   * Writer's PNG filter renders one page; the page range pins it to the first one.
+   */
+  private static final DocumentFormat THUMBNAIL_FORMAT = DocumentFormat.builder()
+    .from(DefaultDocumentFormatRegistry.PNG)
+    .storeProperty(DocumentFamily.TEXT, "FilterName", "writer_png_Export")
+    .storeProperty(DocumentFamily.TEXT, "FilterData", Map.of("PageRange", "1"))
+    .unmodifiable(true)
+    .build();
+
+  private final Map<String, PdfExportProfile> profiles = new HashMap<>();
+  private final Map<String, DocumentFormat> formats = new HashMap<>();
+  private final Map<String, String> folders = new LinkedHashMap<>();
+  private final PdfExportProfile defaultProfile;
+
+  /**
+   * Constructs a new PdfExportProfiles.
+   *
+   * @param profileDefinitions The profiles, read from the "pdf.profiles" property.
+   * @param defaultProfile     The profile of documents without a header or folder match, read from the "pdf.profile.default" property.
+   * @param folderProfiles     The profiles of input folders, read from the "pdf.profile.folders" property.
+   * @throws IllegalArgumentException If a profile, an option or a folder mapping is invalid.
+   */
+  public PdfExportProfiles(@Value("${pdf.profiles:}") final String profileDefinitions,
+                           @Value("${pdf.profile.default:" + DEFAULT_PROFILE + "}") final String defaultProfile,
+                           @Value("${pdf.profile.folders:}") final String folderProfiles) {
+    profiles.put(DEFAULT_PROFILE, PdfExportProfile.builder().name(DEFAULT_PROFILE).build());
+    for (String definition : profileDefinitions.split(";")) {
+      if (!definition.isBlank()) {
+        PdfExportProfile profile = parseProfile(definition);
+        if (THUMBNAIL_TARGET.equals(profile.getName())) {
+          throw new IllegalArgumentException("The name " + THUMBNAIL_TARGET + " is reserved for the thumbnail export target");
+        }
+        profiles.put(profile.getName(), profile);
+      }
+    }
+    for (PdfExportProfile profile : profiles.values()) {
+      formats.put(profile.getName(), toDocumentFormat(profile));
+    }
+    this.defaultProfile = require(defaultProfile.trim());
+
+    List<String[]> mappings = new ArrayList<>();
+    for (String mapping : folderProfiles.split(",")) {
+      if (mapping.isBlank()) {
+        continue;
+      }
+      String[] parts = mapping.split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid folder profile mapping: " + mapping.trim());
+      }
+      String folder = parts[0].trim().replace('\\', '/').replaceAll("^/+|/+$", "");
+      mappings.add(new String[]{folder, require(parts[1].trim()).getName()});
+    }
+    // longest folders first, so the most specific mapping wins
+    mappings.sort(Comparator.comparingInt((String[] mapping) -> mapping[0].length()).reversed());
+    mappings.forEach(mapping -> folders.put(mapping[0], mapping[1]));
+  }
+
+  /**
+   * @param name The name of a profile.
+   * @return Whether the profile exists.
+   */
+  public boolean exists(final String name) {
+    return name != null && profiles.containsKey(name);
+  }
+
+  /**
+   * Picks the profile of a document.
+   *
+   * @param requested The profile requested by the message header or the caller, or null.
+   * @param fileName  The name of the document relative to the input directory, or null.
+   * @return The requested profile if it exists, else the profile of the document's folder, else the default profile.
+   */
+  public PdfExportProfile select(final String requested, final String fileName) {
+    if (requested != null && !requested.isBlank()) {
+      PdfExportProfile profile = profiles.get(requested.trim());
+      if (profile != null) {
+        return profile;
+      }
+      LOG.warn("Unknown PDF export profile {} requested for {}, using the folder or default profile", requested, fileName);
+    }
+    if (fileName != null) {
+      for (Map.Entry<String, String> folder : folders.entrySet()) {
+        if (fileName.startsWith(folder.getKey() + "/")) {
+          return profiles.get(folder.getValue());
+        }
+      }
+    }
+    return defaultProfile;
+  }
+
+  /**
+   * @param profile The profile.
+   * @return The PDF format carrying the profile's filter data.
+   */
+  public DocumentFormat formatOf(final PdfExportProfile profile) {
+    return formats.get(profile.getName());
+  }
+
+  /**
+   * Looks up the format of a multi-target export target.
+   *
+   * @param target The name of a profile, or "thumbnail".
+   * @return The PDF format of the profile, the PNG format of the thumbnail, or null if the target is unknown.
+   */
+  public DocumentFormat exportFormatOf(final String target) {
+    if (THUMBNAIL_TARGET.equals(target)) {
+      return THUMBNAIL_FORMAT;
+    }
+    return target != null ? formats.get(target) : null;
+  }
+
+  /**
+   * Returns the key of a conversion in the {@link ConversionCache}: the same document exported with other filter data is
+   * another PDF. The key depends on the options of the profile, not on its name, so a profile whose options change does
+   * not restore the PDFs exported with the old ones.
+   *
+   * @param sha256  The hex encoded SHA-256 hash of the input, or null if unknown.
+   * @param profile The profile.
+   * @return The cache key, the plain hash for a profile without options, or null if the hash is unknown.
+   */
+  public static String cacheKey(final String sha256, final PdfExportProfile profile) {
+    Map<String, Object> filterData = filterDataOf(profile);
+    if (sha256 == null || filterData.isEmpty()) {
+      return sha256;
+    }
+    String options = new TreeMap<>(filterData).toString();
+    return sha256 + "." + UtilsService.sha256Hex(options.getBytes(StandardCharsets.UTF_8)).substring(0, FILTER_DIGEST_LENGTH);
+  }
+
+  private PdfExportProfile require(final String name) {
+    PdfExportProfile profile = profiles.get(name);
+    if (profile == null) {
+      throw new IllegalArgumentException("Unknown PDF export profile: " + name);
+    }
+    return profile;
+  }
+
+  /**
+   * Parses a profile definition like "compact(jpeg-quality=60, max-dpi=150)".
+   */
+  private static PdfExportProfile parseProfile(final String definition) {
+    Matcher matcher = PROFILE.matcher(definition);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Invalid PDF export profile: " + definition.trim());
+    }
+    PdfExportProfile.PdfExportProfileBuilder profile = PdfExportProfile.builder().name(matcher.group(1));
+    for (String option : matcher.group(2).split(",")) {
+      if (option.isBlank()) {
+        continue;
+      }
+      String[] parts = option.split("=", 2);
+      String key = parts[0].trim();
+      String value = parts.length == 2 ? parts[1].trim() : "";
+      try {
+        switch (key) {
+          case "jpeg-quality" -> profile.jpegQuality(inRange(key, Integer.parseInt(value), 1, 100));
+          case "max-dpi" -> profile.maxImageResolution(oneOf(key, Integer.parseInt(value), RESOLUTIONS));
+          case "pdfa" -> profile.pdfaVersion(inRange(key, Integer.parseInt(value), 1, 3));
+          case "embed-standard-fonts" -> profile.embedStandardFonts(Boolean.parseBoolean(value));
+          default -> throw new IllegalArgumentException("Unknown option " + key + " in PDF export profile " + matcher.group(1));
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value of " + key + " in PDF export profile " + matcher.group(1) + ": " + value);
+      }
+    }
+    return profile.build();
+  }
+
+  private static int inRange(final String key, final int value, final int min, final int max) {
+    if (value < min || value > max) {
+      throw new IllegalArgumentException(key + " must be between " + min + " and " + max + ": " + value);
+    }
+    return value;
+  }
+
+  private static int oneOf(final String key, final int value, final List<Integer> allowed) {
+    if (!allowed.contains(value)) {
+      throw new IllegalArgumentException(key + " must be one of " + allowed + ": " + value);
+    }
+    return value;
+  }
+
+  /**
+   * Builds the PDF format of a profile, with the options mapped to the FilterData of LibreOffice's "writer_pdf_Export" filter.
+   */
+  private static DocumentFormat toDocumentFormat(final PdfExportProfile profile) {
+    Map<String, Object> filterData = filterDataOf(profile);
+    if (filterData.isEmpty()) {
+      return DefaultDocumentFormatRegistry.PDF;
+    }
+    return DocumentFormat.builder()
+      .from(DefaultDocumentFormatRegistry.PDF)
+      .storeProperty(DocumentFamily.TEXT, "FilterData", filterData)
+      .unmodifiable(true)
+      .build();
+  }
+
+  /**
+   * Maps the options of a profile to the FilterData of LibreOffice's "writer_pdf_Export" filter.
+   */
+  private static Map<String, Object> filterDataOf(final PdfExportProfile profile) {
+    Map<String, Object> filterData = new HashMap<>();
+    if (profile.getJpegQuality() != null) {
+      filterData.put("UseLosslessCompression", false);
+      filterData.put("Quality", profile.getJpegQuality());
+    }
+    if (profile.getMaxImageResolution() != null) {
+      filterData.put("ReduceImageResolution", true);
+      filterData.put("MaxImageResolution", profile.getMaxImageResolution());
+    }
+    if (profile.getPdfaVersion() != null) {
+      filterData.put("SelectPdfVersion", profile.getPdfaVersion());
+    }
+    if (profile.getEmbedStandardFonts() != null) {
+      filterData.put("EmbedStandardFonts", profile.getEmbedStandardFonts());
+    }
+    return filterData;
+  }
+}
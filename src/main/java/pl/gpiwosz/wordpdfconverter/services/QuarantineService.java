@@ -0,0 +1,146 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service keeping poison documents (documents which crash or hang LibreOffice every time) from being converted forever.
+ * Every document has a failure fingerprint in the {@link StatusStore}, keyed by the SHA-256 hash of its content, so it is shared by all nodes,
+ * survives restarts and recognizes copies of the document under other names:
+ * <ul>
+ *     <li>Each conversion attempt is counted before it starts, so an attempt taking down the whole node counts as well.</li>
+ *     <li>Each failure records the error, its root cause and the node it happened on.</li>
+ *     <li>A successful conversion deletes the fingerprint.</li>
+ * </ul>
+ * Once a document used up "conversion.quarantine.max-attempts" attempts (0 disables the quarantine), it is copied to the
+ * quarantine directory ("quarantine.path") together with a report of its fingerprint, and is not converted again.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class QuarantineService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(QuarantineService.class);
+  private static final String REPORT_EXTENSION = ".failure.txt";
+  private static final int MAX_MESSAGE_LENGTH = 500;
+
+  private final StatusStore redisQueueIdempotentRepository;
+  private final String nodeId;
+  private final Path quarantinePath;
+  private final int maxAttempts;
+
+  /**
+   * Constructs a new QuarantineService.
+   *
+   * @param redisQueueIdempotentRepository The repository holding the failure fingerprints.
+   * @param conversionLeaseService         The service providing the id of this node.
+   * @param quarantinePath                 The directory poison documents are copied to, read from the "quarantine.path" property.
+   * @param maxAttempts                    The conversion attempts of a document before it is quarantined, read from the "conversion.quarantine.max-attempts" property.
+   */
+  public QuarantineService(StatusStore redisQueueIdempotentRepository, final ConversionLeaseService conversionLeaseService,
+                           @Value("${quarantine.path:${output.path}/quarantine}") final String quarantinePath,
+                           @Value("${conversion.quarantine.max-attempts:3}") final int maxAttempts) {
+    this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.nodeId = conversionLeaseService.getNodeId();
+    this.quarantinePath = Path.of(quarantinePath);
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Counts a conversion attempt of a document, before it starts.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @return true if the document may be converted, false if it used up its attempts and has to be quarantined.
+   */
+  public boolean admit(final String sha256) {
+    if (maxAttempts <= 0) {
+      return true;
+    }
+    return redisQueueIdempotentRepository.recordAttempt(sha256) <= maxAttempts;
+  }
+
+  /**
+   * Records a failed conversion attempt of a document.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   * @param error  The error of the attempt.
+   * @return true if the document used up its attempts and has to be quarantined instead of being retried.
+   */
+  public boolean recordFailure(final String sha256, final Exception error) {
+    if (maxAttempts <= 0) {
+      return false;
+    }
+    Throwable rootCause = error;
+    while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+      rootCause = rootCause.getCause();
+    }
+    Map<String, String> details = new LinkedHashMap<>();
+    details.put("lastError", truncate(error.getClass().getName() + ": " + error.getMessage()));
+    details.put("rootCause", truncate(rootCause.getClass().getName() + ": " + rootCause.getMessage()));
+    details.put("lastNode", nodeId);
+    details.put("lastFailure", Instant.now().toString());
+    redisQueueIdempotentRepository.recordFailure(sha256, details);
+    String attempts = redisQueueIdempotentRepository.getFingerprint(sha256).get("attempts");
+    return attempts != null && Long.parseLong(attempts) >= maxAttempts;
+  }
+
+  /**
+   * Forgets the failures of a document after it was converted.
+   *
+   * @param sha256 The hex encoded SHA-256 hash of the document.
+   */
+  public void recordSuccess(final String sha256) {
+    if (maxAttempts > 0) {
+      redisQueueIdempotentRepository.clearFingerprint(sha256);
+    }
+  }
+
+  /**
+   * Copies a poison document to the quarantine directory, under its original name, next to a report of its fingerprint.
+   * The document is kept in place; it is only never converted again.
+   *
+   * @param inputFile The document.
+   * @param fileName  The original file name, which may contain subdirectories.
+   * @param sha256    The hex encoded SHA-256 hash of the document.
+   */
+  public void quarantine(final File inputFile, final String fileName, final String sha256) {
+    Map<String, String> fingerprint = new TreeMap<>(redisQueueIdempotentRepository.getFingerprint(sha256));
+    LOG.error("Quarantining {} ({}) after {} attempts: {}", fileName, sha256, fingerprint.get("attempts"), fingerprint.get("lastError"));
+    Path target = quarantinePath.resolve(fileName).normalize();
+    if (!target.startsWith(quarantinePath.normalize())) {
+      LOG.error("Not copying {} outside the quarantine directory", fileName);
+      return;
+    }
+    try {
+      Files.createDirectories(target.getParent());
+      Files.copy(inputFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+      StringBuilder report = new StringBuilder()
+        .append("file=").append(fileName).append('\n')
+        .append("sha256=").append(sha256).append('\n')
+        .append("quarantined=").append(Instant.now()).append('\n');
+      fingerprint.forEach((field, value) -> report.append(field).append('=').append(value).append('\n'));
+      Files.writeString(target.resolveSibling(target.getFileName() + REPORT_EXTENSION), report);
+    } catch (IOException e) {
+      LOG.error("Cannot copy {} to the quarantine directory: {}", fileName, e.getMessage());
+    }
+  }
+
+  private static String truncate(final String message) {
+    return message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message;
+  }
+}
@@ -0,0 +1,294 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.jodconverter.core.document.DocumentFamily;
+import org.jodconverter.core.document.DocumentFormat;
+import org.jodconverter.core.office.OfficeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service converting very large documents in pieces: one soffice process converts a document single-threaded, so a
+ * 500 page report keeps one instance busy for minutes while the others may be idle.
+ * <p>
+ * Documents with at least "conversion.split.min-pages" (estimated) pages are split by the {@link DocxSplitter} at page
+ * boundaries into as many pieces as there are idle slots of the {@link ConversionScheduler} (up to "conversion.split.max-pieces",
+ * the caller's own slot included). The pieces are converted in parallel by the {@link ConversionRunner}, each within its own
+ * deadlines, and their PDFs are merged in order with PDFBox, which appends the outline (bookmarks) and page labels of every piece.
+ * If the document has page number fields, the pieces after the first one are converted a second time, in parallel again,
+ * starting at the page following the previous pieces.
+ * <p>
+ * Documents which cannot be split safely (see {@link DocxSplitter}), PDF/A exports (merging does not keep the conformance)
+ * and documents arriving while no slot is idle are converted in one piece.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class SplitConversionService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SplitConversionService.class);
+
+  private final ConversionRunner conversionRunner;
+  private final ConversionScheduler conversionScheduler;
+  private final DocxAnalyzer docxAnalyzer;
+  private final TempDirConfig tempDirConfig;
+  private final ConverterMetrics converterMetrics;
+  private final Executor executor;
+  private final boolean enabled;
+  private final int minPages;
+  private final int maxPieces;
+
+  /**
+   * Constructs a new SplitConversionService.
+   *
+   * @param conversionRunner    The runner converting the pieces.
+   * @param conversionScheduler The scheduler the additional slots are taken from.
+   * @param docxAnalyzer        The analyzer estimating the page count of the documents.
+   * @param tempDirConfig       The temporary directory the pieces are written to.
+   * @param converterMetrics    The metrics of the split conversions.
+   * @param threadingConfig     The threads the pieces are converted on.
+   * @param enabled             Whether large documents are split, read from the "conversion.split.enabled" property.
+   * @param minPages            The estimated page count from which documents are split, read from the "conversion.split.min-pages" property.
+   * @param maxPieces           The largest number of pieces, read from the "conversion.split.max-pieces" property.
+   */
+  public SplitConversionService(final ConversionRunner conversionRunner, final ConversionScheduler conversionScheduler,
+                                final DocxAnalyzer docxAnalyzer, final TempDirConfig tempDirConfig,
+                                final ConverterMetrics converterMetrics, final ThreadingConfig threadingConfig,
+                                @Value("${conversion.split.enabled:false}") final boolean enabled,
+                                @Value("${conversion.split.min-pages:200}") final int minPages,
+                                @Value("${conversion.split.max-pieces:4}") final int maxPieces) {
+    this.conversionRunner = conversionRunner;
+    this.conversionScheduler = conversionScheduler;
+    this.docxAnalyzer = docxAnalyzer;
+    this.tempDirConfig = tempDirConfig;
+    this.converterMetrics = converterMetrics;
+    this.executor = threadingConfig.getTaskExecutor();
+    this.enabled = enabled;
+    this.minPages = minPages;
+    this.maxPieces = maxPieces;
+  }
+
+  /**
+   * Converts a document in pieces, if it is large enough and slots are idle.
+   * The caller is expected to hold a slot of the {@link ConversionScheduler}, which converts one of the pieces.
+   *
+   * @param inputFile    The DOCX to convert.
+   * @param outputFile   The PDF to write.
+   * @param outputFormat The format of the output.
+   * @return true if the document was converted in pieces, false if it has to be converted in one piece.
+   * @throws OfficeException      If a piece cannot be converted.
+   * @throws IOException          If the pieces cannot be written or merged.
+   * @throws InterruptedException If the thread is interrupted while the pieces are converted.
+   */
+  public boolean convert(final File inputFile, final File outputFile, final DocumentFormat outputFormat)
+    throws OfficeException, IOException, InterruptedException {
+    if (!enabled || maxPieces < 2 || isPdfA(outputFormat) || docxAnalyzer.analyze(inputFile.toPath()).getEstimatedPages() < minPages) {
+      return false;
+    }
+    int extraSlots = 0;
+    while (extraSlots < maxPieces - 1 && conversionScheduler.tryAcquire()) {
+      extraSlots++;
+    }
+    Path workDir = null;
+    try {
+      if (extraSlots == 0) {
+        return false;
+      }
+      DocxSplitter splitter;
+      try {
+        splitter = DocxSplitter.open(inputFile.toPath());
+      } catch (IOException e) {
+        LOG.warn("Cannot split {}: {}", inputFile.getName(), e.getMessage());
+        return false;
+      }
+      List<Integer> splitPoints = splitter.splitPoints(extraSlots + 1);
+      if (splitPoints.isEmpty()) {
+        return false;
+      }
+      int pieces = splitPoints.size() + 1;
+      LOG.info("Converting {} in {} pieces", inputFile.getName(), pieces);
+      long start = System.nanoTime();
+      workDir = Files.createTempDirectory(tempDirConfig.getTempDirPath(), "_split");
+      List<Path> pdfs = new ArrayList<>();
+      for (int piece = 0; piece < pieces; piece++) {
+        splitter.writePiece(splitPoints, piece, workDir.resolve(piece + ".docx"), 0);
+        pdfs.add(workDir.resolve(piece + ".pdf"));
+      }
+      convertPieces(workDir, 0, pieces, outputFormat);
+
+      if (splitter.hasPageFields()) {
+        int firstPageNumber = 1;
+        for (int piece = 1; piece < pieces; piece++) {
+          firstPageNumber += countPages(pdfs.get(piece - 1));
+          splitter.writePiece(splitPoints, piece, workDir.resolve(piece + ".docx"), firstPageNumber);
+        }
+        convertPieces(workDir, 1, pieces, outputFormat);
+      }
+
+      merge(pdfs, outputFile.toPath(), workDir);
+      converterMetrics.recordSplitConversion(pieces, System.nanoTime() - start);
+      return true;
+    } finally {
+      for (int slot = 0; slot < extraSlots; slot++) {
+        conversionScheduler.release();
+      }
+      if (workDir != null) {
+        try {
+          TempDirConfig.deleteRecursively(workDir);
+        } catch (IOException e) {
+          LOG.warn("Cannot delete the pieces of {}: {}", inputFile.getName(), e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts the pieces with the given indexes in parallel and waits for all of them, reporting the first failure.
+   * If the thread is interrupted meanwhile, the conversions of the pieces are interrupted and waited for,
+   * so none of them still uses a slot or the work directory once this method returns.
+   */
+  private void convertPieces(final Path workDir, final int from, final int to, final DocumentFormat outputFormat)
+    throws OfficeException, IOException, InterruptedException {
+    List<PieceConversion> conversions = new ArrayList<>();
+    for (int piece = from; piece < to; piece++) {
+      File docx = workDir.resolve(piece + ".docx").toFile();
+      File pdf = workDir.resolve(piece + ".pdf").toFile();
+      PieceConversion conversion = new PieceConversion(() -> {
+        pdf.delete();
+        conversionRunner.convert(docx, pdf, outputFormat);
+        return null;
+      });
+      conversions.add(conversion);
+      executor.execute(conversion);
+    }
+    Throwable failure = null;
+    try {
+      for (PieceConversion conversion : conversions) {
+        try {
+          conversion.get();
+        } catch (ExecutionException e) {
+          failure = failure == null ? e.getCause() : failure;
+        }
+      }
+    } catch (InterruptedException e) {
+      for (PieceConversion conversion : conversions) {
+        conversion.cancel(true);
+      }
+      for (PieceConversion conversion : conversions) {
+        conversion.awaitEnd();
+      }
+      throw e;
+    }
+    if (failure instanceof OfficeException officeException) {
+      throw officeException;
+    }
+    if (failure instanceof InterruptedException interruptedException) {
+      throw interruptedException;
+    }
+    if (failure != null) {
+      throw new IOException("Conversion of a piece failed", failure);
+    }
+  }
+
+  private static int countPages(final Path pdf) throws IOException {
+    try (PDDocument document = Loader.loadPDF(pdf.toFile())) {
+      return document.getNumberOfPages();
+    }
+  }
+
+  /**
+   * Merges the PDFs of the pieces into a temporary file next to the output, then moves it onto the output.
+   */
+  private static void merge(final List<Path> pdfs, final Path outputFile, final Path workDir) throws IOException {
+    Path merged = workDir.resolve("merged.pdf");
+    PDFMergerUtility merger = new PDFMergerUtility();
+    for (Path pdf : pdfs) {
+      merger.addSource(pdf.toFile());
+    }
+    merger.setDestinationFileName(merged.toString());
+    merger.mergeDocuments(IOUtils.createTempFileOnlyStreamCache());
+    Files.move(merged, outputFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static boolean isPdfA(final DocumentFormat outputFormat) {
+    Map<String, Object> properties = outputFormat.getStoreProperties(DocumentFamily.TEXT);
+    return properties != null && properties.get("FilterData") instanceof Map<?, ?> filterData
+      && filterData.containsKey("SelectPdfVersion");
+  }
+
+  /**
+   * The conversion of one piece. Unlike a plain future, it can be waited for once cancelled,
+   * until its thread no longer converts (a cancelled conversion which never started does not run at all).
+   */
+  private static final class PieceConversion extends FutureTask<Void> {
+
+    private final AtomicBoolean taken = new AtomicBoolean();
+    private final CountDownLatch ended = new CountDownLatch(1);
+
+    PieceConversion(final Callable<Void> conversion) {
+      super(conversion);
+    }
+
+    @Override
+    public void run() {
+      if (!taken.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        super.run();
+      } finally {
+        ended.countDown();
+      }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      if (taken.compareAndSet(false, true)) {
+        ended.countDown();
+      }
+      return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Waits until the conversion ended, even if the waiting thread is interrupted (the interrupt is kept).
+     */
+    void awaitEnd() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          ended.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
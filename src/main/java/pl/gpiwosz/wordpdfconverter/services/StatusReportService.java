@@ -0,0 +1,66 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusPage;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.StatusStore;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service reporting the documents by status from the {@link StatusStore}, e.g. how many are still pending and which ones,
+ * from the per-status indexes of the store instead of a scan over all documents.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+@Service
+public class StatusReportService {
+
+  private final StatusStore redisQueueIdempotentRepository;
+  private final int maxPageSize;
+
+  /**
+   * Constructs a new StatusReportService.
+   *
+   * @param redisQueueIdempotentRepository The repository holding the conversion statuses.
+   * @param maxPageSize                    The largest page of file names, read from the "status-report.max-page-size" property.
+   */
+  public StatusReportService(StatusStore redisQueueIdempotentRepository,
+                             @Value("${status-report.max-page-size:1000}") final int maxPageSize) {
+    this.redisQueueIdempotentRepository = redisQueueIdempotentRepository;
+    this.maxPageSize = Math.max(1, maxPageSize);
+  }
+
+  /**
+   * @return The number of documents of each status.
+   */
+  public Map<FileStatusEnum, Long> countByStatus() {
+    return redisQueueIdempotentRepository.countByStatus();
+  }
+
+  /**
+   * Lists the documents with the given status, page by page.
+   *
+   * @param status The status.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit  The number of documents per page, capped at "status-report.max-page-size".
+   * @return The page.
+   * @throws IllegalArgumentException If the cursor is invalid.
+   */
+  public StatusPage list(final FileStatusEnum status, final String cursor, final int limit) {
+    return redisQueueIdempotentRepository.listByStatus(status, cursor, Math.max(1, Math.min(limit, maxPageSize)));
+  }
+
+  /**
+   * @param fileName The file name of the document.
+   * @return The status changes of the document within the retention period, oldest first.
+   */
+  public List<StatusChange> history(final String fileName) {
+    return redisQueueIdempotentRepository.getHistory(fileName);
+  }
+}
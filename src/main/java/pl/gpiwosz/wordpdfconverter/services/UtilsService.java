@@ -1,6 +1,23 @@
 package pl.gpiwosz.wordpdfconverter.services;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Utility class providing helper methods for common tasks.
@@ -10,6 +27,12 @@ import java.util.Arrays;
  *  @since 2025-01-01
  */
 public class UtilsService {
+
+  /**
+   * Maximum number of bytes moved by a single {@link FileChannel#transferFrom} call.
+   */
+  private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024;
+
   /**
    * Converts a comma-separated string of numbers into an array of integers.
    * This method handles potential parsing errors and empty strings.
@@ -33,4 +56,167 @@ public class UtilsService {
     }
     return numbersArray;
   }
+
+  /**
+   * Creates a new SHA-256 message digest.
+   *
+   * @return A fresh {@link MessageDigest} for SHA-256.
+   */
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available in this JVM.", e);
+    }
+  }
+
+  /**
+   * Copies a stream to the given output while hashing it with SHA-256, so the content is read only once.
+   *
+   * @param in  The stream to copy.
+   * @param out The destination, or null if the stream should only be hashed.
+   * @return The hex encoded SHA-256 hash of the copied content.
+   * @throws IOException If an I/O error occurs while reading or writing.
+   */
+  public static String copyAndHash(final InputStream in, final OutputStream out) throws IOException {
+    MessageDigest digest = sha256();
+    try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+      digestIn.transferTo(out != null ? out : OutputStream.nullOutputStream());
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Hashes a byte array with SHA-256.
+   *
+   * @param data The bytes to hash.
+   * @return The hex encoded SHA-256 hash.
+   */
+  public static String sha256Hex(final byte[] data) {
+    return HexFormat.of().formatHex(sha256().digest(data));
+  }
+
+  /**
+   * Streams the content into a file with {@link FileChannel#transferFrom} while hashing it with SHA-256.
+   * The content is never held in the heap as a whole, only in the channel's transfer buffer.
+   *
+   * @param in     The stream to write. It is closed by this method.
+   * @param target The file to write to. It is created or truncated.
+   * @return The hex encoded SHA-256 hash of the written content.
+   * @throws IOException If an I/O error occurs while reading or writing.
+   */
+  public static String transferAndHash(final InputStream in, final Path target) throws IOException {
+    MessageDigest digest = sha256();
+    try (ReadableByteChannel source = Channels.newChannel(new DigestInputStream(in, digest));
+         FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      long transferred;
+      while ((transferred = channel.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+        position += transferred;
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Writes a small DOCX (a heading, paragraphs in the common font families and a table), used to warm up LibreOffice.
+   *
+   * @param target The file to write to. It is created or truncated.
+   * @throws IOException If an I/O error occurs while writing.
+   */
+  public static void writeSampleDocx(final Path target) throws IOException {
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(target))) {
+      writeZipEntry(zip, "[Content_Types].xml", """
+        <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+        <Types xmlns="http://schemas.openxmlformats.org/package/2006/content-types">
+          <Default Extension="rels" ContentType="application/vnd.openxmlformats-package.relationships+xml"/>
+          <Default Extension="xml" ContentType="application/xml"/>
+          <Override PartName="/word/document.xml" ContentType="application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml"/>
+        </Types>
+        """);
+      writeZipEntry(zip, "_rels/.rels", """
+        <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+        <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+          <Relationship Id="rId1" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument" Target="word/document.xml"/>
+        </Relationships>
+        """);
+      writeZipEntry(zip, "word/document.xml", """
+        <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+        <w:document xmlns:w="http://schemas.openxmlformats.org/wordprocessingml/2006/main">
+          <w:body>
+            <w:p><w:r><w:rPr><w:b/><w:sz w:val="32"/></w:rPr><w:t>Warm-up</w:t></w:r></w:p>
+            <w:p><w:r><w:rPr><w:rFonts w:ascii="Liberation Serif" w:hAnsi="Liberation Serif"/></w:rPr><w:t>Zażółć gęślą jaźń.</w:t></w:r></w:p>
+            <w:p><w:r><w:rPr><w:rFonts w:ascii="Liberation Sans" w:hAnsi="Liberation Sans"/><w:i/></w:rPr><w:t>Zażółć gęślą jaźń.</w:t></w:r></w:p>
+            <w:tbl>
+              <w:tr>
+                <w:tc><w:p><w:r><w:t>1</w:t></w:r></w:p></w:tc>
+                <w:tc><w:p><w:r><w:t>2</w:t></w:r></w:p></w:tc>
+              </w:tr>
+            </w:tbl>
+            <w:p/>
+          </w:body>
+        </w:document>
+        """);
+    }
+  }
+
+  private static void writeZipEntry(final ZipOutputStream zip, final String name, final String content) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content.getBytes(StandardCharsets.UTF_8));
+    zip.closeEntry();
+  }
+
+  /**
+   * Reads the resident set size of a process from /proc/&lt;pid&gt;/status (Linux only).
+   *
+   * @param pid The process id.
+   * @return The resident set size in bytes, or -1 if it cannot be read.
+   */
+  public static long readResidentSetSize(final long pid) {
+    try {
+      List<String> lines = Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"));
+      for (String line : lines) {
+        if (line.startsWith("VmRSS:")) {
+          // e.g. "VmRSS:     385640 kB"
+          String[] parts = line.substring("VmRSS:".length()).trim().split("\\s+");
+          return Long.parseLong(parts[0]) * 1024;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // the process is gone or /proc is not available
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the memory available for new processes: MemAvailable from /proc/meminfo,
+   * limited by the headroom left in the container's cgroup (v2) if it has a memory limit.
+   *
+   * @return The available memory in bytes, or -1 if it cannot be read (e.g. not on Linux).
+   */
+  public static long readAvailableMemory() {
+    long available = -1;
+    try {
+      for (String line : Files.readAllLines(Path.of("/proc/meminfo"))) {
+        if (line.startsWith("MemAvailable:")) {
+          // e.g. "MemAvailable:    8123456 kB"
+          String[] parts = line.substring("MemAvailable:".length()).trim().split("\\s+");
+          available = Long.parseLong(parts[0]) * 1024;
+          break;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // /proc is not available
+    }
+    try {
+      String limit = Files.readString(Path.of("/sys/fs/cgroup/memory.max")).trim();
+      if (!"max".equals(limit)) {
+        long headroom = Long.parseLong(limit) - Long.parseLong(Files.readString(Path.of("/sys/fs/cgroup/memory.current")).trim());
+        available = available < 0 ? headroom : Math.min(available, headroom);
+      }
+    } catch (IOException | NumberFormatException e) {
+      // no cgroup v2 memory controller
+    }
+    return available;
+  }
 }
@@ -0,0 +1,111 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.jms.BytesMessage;
+import jakarta.jms.Message;
+import jakarta.jms.TextMessage;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.FileSystemContentStore;
+import pl.gpiwosz.wordpdfconverter.services.DocxAnalyzer;
+import pl.gpiwosz.wordpdfconverter.services.PayloadMemoryBudget;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link CamelFileSender} on an embedded broker: small files are streamed into the message within the memory budget,
+ * large ones are spilled to the content store and sent as a reference.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class CamelFileSenderTest {
+
+  private static final int SPILL_THRESHOLD = 64 * 1024;
+
+  @TempDir
+  Path tempDir;
+
+  private SingleConnectionFactory connectionFactory;
+  private JmsTemplate jmsTemplate;
+  private FileSystemContentStore contentStore;
+  private PayloadMemoryBudget payloadMemoryBudget;
+  private CamelFileSender sender;
+
+  @BeforeEach
+  void setUp() {
+    connectionFactory = new SingleConnectionFactory(new ActiveMQConnectionFactory("vm://sender-test?broker.persistent=false&broker.useJmx=false"));
+    jmsTemplate = new JmsTemplate(connectionFactory);
+    jmsTemplate.setReceiveTimeout(5000);
+    contentStore = new FileSystemContentStore(tempDir);
+    payloadMemoryBudget = new PayloadMemoryBudget(new SimpleMeterRegistry(), DataSize.ofMegabytes(1), DataSize.ofBytes(SPILL_THRESHOLD));
+    sender = new CamelFileSender(jmsTemplate, contentStore, false, new DocxAnalyzer(DataSize.ofMegabytes(20), 50, 30), payloadMemoryBudget);
+  }
+
+  @AfterEach
+  void tearDown() {
+    connectionFactory.destroy();
+  }
+
+  @Test
+  void smallFileIsStreamedIntoTheMessage() throws Exception {
+    byte[] content = content(SPILL_THRESHOLD / 2);
+    sender.process(new ByteArrayInputStream(content), Map.of(MessageHeaders.FILE_NAME, "small.docx"));
+
+    Message message = jmsTemplate.receive(DocumentLaneEnum.SMALL.getQueueName());
+    BytesMessage bytesMessage = assertInstanceOf(BytesMessage.class, message);
+    assertEquals("small.docx", bytesMessage.getStringProperty(MessageHeaders.FILE_NAME));
+    try (InputStream body = new BytesMessageInputStream(bytesMessage)) {
+      assertArrayEquals(content, body.readAllBytes());
+    }
+    assertEquals(0, payloadMemoryBudget.getReservedBytes());
+    assertTrue(storedFiles().isEmpty(), "the spooled copy is deleted once sent");
+  }
+
+  @Test
+  void largeFileIsSentAsAReference() throws Exception {
+    byte[] content = content(SPILL_THRESHOLD * 2);
+    sender.process(new ByteArrayInputStream(content), Map.of(MessageHeaders.FILE_NAME, "large.docx"));
+
+    Message message = jmsTemplate.receive(DocumentLaneEnum.SMALL.getQueueName());
+    TextMessage reference = assertInstanceOf(TextMessage.class, message);
+    assertTrue(reference.getBooleanProperty(MessageHeaders.DOCUMENT_TRANSIENT));
+    assertEquals(reference.getText(), reference.getStringProperty(MessageHeaders.DOCUMENT_KEY));
+    try (InputStream stored = contentStore.open(reference.getText())) {
+      assertArrayEquals(content, stored.readAllBytes());
+    }
+    assertFalse(storedFiles().isEmpty());
+  }
+
+  private List<Path> storedFiles() throws Exception {
+    try (var files = Files.walk(tempDir)) {
+      return files.filter(Files::isRegularFile).toList();
+    }
+  }
+
+  private static byte[] content(final int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+}
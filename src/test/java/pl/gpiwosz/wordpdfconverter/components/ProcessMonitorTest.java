@@ -0,0 +1,94 @@
+package pl.gpiwosz.wordpdfconverter.components;
+
+import org.jodconverter.core.office.OfficeManager;
+import org.jodconverter.core.task.OfficeTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstance;
+import pl.gpiwosz.wordpdfconverter.services.OfficeInstancePool;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ProcessMonitor} restarting LibreOffice instances which use too much memory.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class ProcessMonitorTest {
+
+  private Process office;
+  private OfficeInstancePool pool;
+
+  @AfterEach
+  void stop() {
+    if (pool != null) {
+      pool.stop();
+    }
+    if (office != null) {
+      office.destroyForcibly();
+    }
+  }
+
+  @Test
+  void checkProcessesRestartsAnInstanceAboveTheMaximum() throws Exception {
+    // a shell standing in for soffice, with the arguments jodconverter starts it with
+    office = new ProcessBuilder("sh", "-c", "sleep 60; :", "soffice",
+      "-accept=socket,host=127.0.0.1,port=2002,tcpNoDelay=1;urp;StarOffice.ServiceManager").start();
+    OfficeInstance instance = new OfficeInstance(2002, RunningOfficeManager::new);
+    pool = new OfficeInstancePool(List.of(instance));
+    pool.start();
+    pool.acquire();
+
+    assertTrue(instance.getResidentSetSize() > 0);
+    new ProcessMonitor(pool, DataSize.ofBytes(0), DataSize.ofKilobytes(1)).checkProcesses();
+
+    assertTrue(instance.isRestartRequested());
+  }
+
+  @Test
+  void checkProcessesSkipsAnInstanceWhoseMemoryCannotBeRead() throws Exception {
+    OfficeInstance instance = new OfficeInstance(2004, RunningOfficeManager::new);
+    pool = new OfficeInstancePool(List.of(instance));
+    pool.start();
+
+    assertEquals(-1, instance.getResidentSetSize());
+    new ProcessMonitor(pool, DataSize.ofBytes(0), DataSize.ofKilobytes(1)).checkProcesses();
+
+    assertFalse(instance.isRestartRequested());
+  }
+
+  /**
+   * Office manager which only reports itself running.
+   */
+  private static class RunningOfficeManager implements OfficeManager {
+
+    private volatile boolean running;
+
+    @Override
+    public void execute(final OfficeTask task) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isRunning() {
+      return running;
+    }
+
+    @Override
+    public void start() {
+      running = true;
+    }
+
+    @Override
+    public void stop() {
+      running = false;
+    }
+  }
+}
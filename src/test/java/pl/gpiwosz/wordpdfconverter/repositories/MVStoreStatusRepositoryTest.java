@@ -0,0 +1,80 @@
+package pl.gpiwosz.wordpdfconverter.repositories;
+
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.gpiwosz.wordpdfconverter.dtos.StatusChange;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the versioned idempotency of {@link MVStoreStatusRepository}: a file saved again under the same name is
+ * picked up and claimed again, an unchanged one is not; the status history is kept apart from the markers.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class MVStoreStatusRepositoryTest {
+
+  private static final Duration LEASE_TTL = Duration.ofMinutes(1);
+
+  private MVStore store;
+  private MVStoreStatusRepository fileRepository;
+  private MVStoreStatusRepository queueRepository;
+
+  @BeforeEach
+  void open() {
+    store = MVStore.open(null);
+    fileRepository = new MVStoreStatusRepository(store, "test.", FileStatusEnum.READ, Duration.ofDays(1));
+    queueRepository = new MVStoreStatusRepository(store, "test.", FileStatusEnum.PROCESSED, Duration.ofDays(1));
+  }
+
+  @AfterEach
+  void close() {
+    store.close();
+  }
+
+  @Test
+  void markSeenKeepsTheStatusUnderTheFileName() {
+    assertTrue(fileRepository.markSeen("a.docx@1-10", "a.docx"));
+    assertFalse(fileRepository.markSeen("a.docx@1-10", "a.docx"));
+    assertEquals(FileStatusEnum.READ, fileRepository.getStatus("a.docx"));
+    assertNull(fileRepository.getStatus("a.docx@1-10"));
+
+    assertTrue(fileRepository.markSeen("a.docx@2-12", "a.docx"));
+    assertTrue(fileRepository.removeSeen("a.docx@2-12", "a.docx"));
+    assertTrue(fileRepository.markSeen("a.docx@2-12", "a.docx"));
+  }
+
+  @Test
+  void processedFileIsClaimedAgainOnlyInANewVersion() {
+    assertTrue(queueRepository.claim("a.docx", "1-10", "node-1", LEASE_TTL));
+    assertFalse(queueRepository.claim("a.docx", "1-10", "node-2", LEASE_TTL));
+    queueRepository.add("a.docx", FileStatusEnum.PROCESSED.toString());
+
+    assertFalse(queueRepository.claim("a.docx", "1-10", "node-2", LEASE_TTL));
+    assertFalse(queueRepository.claim("a.docx", null, "node-2", LEASE_TTL));
+    assertTrue(queueRepository.claim("a.docx", "2-12", "node-2", LEASE_TTL));
+    assertEquals(FileStatusEnum.PROCESSING, queueRepository.getStatus("a.docx"));
+  }
+
+  @Test
+  void historyOutlivesTheRemovalOfTheMarker() {
+    assertTrue(fileRepository.markSeen("a.docx@1-10", "a.docx"));
+    assertTrue(queueRepository.claim("a.docx", "1-10", "node-1", LEASE_TTL));
+    assertTrue(fileRepository.removeSeen("a.docx@1-10", "a.docx"));
+
+    assertEquals(List.of("READ", "PROCESSING"),
+      fileRepository.getHistory("a.docx").stream().map(StatusChange::getStatus).toList());
+    assertTrue(fileRepository.getHistory("b.docx").isEmpty());
+  }
+}
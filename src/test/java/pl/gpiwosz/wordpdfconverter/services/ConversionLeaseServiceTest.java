@@ -0,0 +1,64 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.gpiwosz.wordpdfconverter.enums.FileStatusEnum;
+import pl.gpiwosz.wordpdfconverter.repositories.MVStoreStatusRepository;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ConversionLeaseService}: a refused claim never releases the lease of the running conversion,
+ * and a new version of a file being converted is told to wait rather than dropped.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class ConversionLeaseServiceTest {
+
+  private MVStore store;
+  private MVStoreStatusRepository repository;
+
+  @BeforeEach
+  void open() {
+    store = MVStore.open(null);
+    repository = new MVStoreStatusRepository(store, "test.", FileStatusEnum.PROCESSED, Duration.ofDays(1));
+  }
+
+  @AfterEach
+  void close() {
+    store.close();
+  }
+
+  @Test
+  void releasingARefusedClaimKeepsTheLease() {
+    ConversionLeaseService node1 = new ConversionLeaseService(repository, "node-1", Duration.ofMinutes(1));
+    ConversionLeaseService node2 = new ConversionLeaseService(repository, "node-2", Duration.ofMinutes(1));
+    assertTrue(node1.claim("a.docx", "1-10"));
+    assertFalse(node1.claim("a.docx", "1-10"));
+
+    node1.release(null);
+    assertFalse(node2.claim("a.docx", "1-10"));
+    node1.release("a.docx");
+    assertTrue(node2.claim("a.docx", "1-10"));
+  }
+
+  @Test
+  void onlyAnotherVersionWaitsForTheRunningConversion() {
+    ConversionLeaseService node = new ConversionLeaseService(repository, "node-1", Duration.ofMinutes(1));
+    assertTrue(node.claim("a.docx", "1-10"));
+
+    assertFalse(node.isConvertingOtherVersion("a.docx", "1-10"));
+    assertFalse(node.isConvertingOtherVersion("a.docx", null));
+    assertTrue(node.isConvertingOtherVersion("a.docx", "2-12"));
+
+    repository.add("a.docx", FileStatusEnum.PROCESSED.toString());
+    assertFalse(node.isConvertingOtherVersion("a.docx", "2-12"));
+  }
+}
@@ -0,0 +1,142 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jodconverter.core.office.OfficeException;
+import org.jodconverter.core.office.OfficeManager;
+import org.jodconverter.core.task.OfficeTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.gpiwosz.wordpdfconverter.config.TempDirConfig;
+import pl.gpiwosz.wordpdfconverter.config.ThreadingConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ConversionRunner} cancelling and retrying conversions.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class ConversionRunnerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final AtomicInteger executions = new AtomicInteger();
+  private final AtomicInteger starts = new AtomicInteger();
+  private final CountDownLatch hungTaskEnded = new CountDownLatch(1);
+  private OfficeInstancePool pool;
+
+  @AfterEach
+  void stopPool() {
+    if (pool != null) {
+      pool.stop();
+    }
+  }
+
+  @Test
+  void abortReportsAnInstanceWithoutProcess() throws Exception {
+    OfficeInstance instance = new OfficeInstance(2002, HangingOfficeManager::new);
+    instance.start();
+
+    assertFalse(new OfficeInstancePool(List.of(instance)).abort(instance));
+    assertTrue(instance.isRestartRequested());
+  }
+
+  @Test
+  void softDeadlineCancelsTheHungAttemptAndRetriesOnAnotherInstance() throws Exception {
+    pool = new OfficeInstancePool(List.of(new OfficeInstance(2002, HangingOfficeManager::new),
+      new OfficeInstance(2003, HangingOfficeManager::new)));
+    pool.start();
+    ConversionScheduler scheduler = new ConversionScheduler("2002,2003", 0);
+    ConverterMetrics metrics = new ConverterMetrics(new SimpleMeterRegistry(), scheduler, new TempDirConfig(tempDir.toString()), pool);
+    ConversionRunner runner = new ConversionRunner(pool, scheduler, metrics, new ThreadingConfig(false, 1),
+      Duration.ofMillis(200), Duration.ofSeconds(30), 2, false, Duration.ofSeconds(10));
+    File input = Files.writeString(tempDir.resolve("hung.docx"), "docx").toFile();
+
+    // without the cancel, the first attempt would hold its instance until the hard deadline
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> runner.convert(input, tempDir.resolve("hung.pdf").toFile()));
+
+    assertTrue(hungTaskEnded.await(5, TimeUnit.SECONDS));
+    assertEquals(2, executions.get());
+    // the cancelled instance is restarted with a new office manager and given back to the pool
+    long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while ((starts.get() < 3 || pool.getIdleCount() < 2) && System.nanoTime() < waitUntil) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, starts.get());
+    assertEquals(2, pool.getIdleCount());
+  }
+
+  @Test
+  void hardDeadlineBoundsTheWaitForAnIdleInstance() throws Exception {
+    pool = new OfficeInstancePool(List.of(new OfficeInstance(2002, HangingOfficeManager::new)));
+    pool.start();
+    ConversionScheduler scheduler = new ConversionScheduler("2002", 0);
+    ConverterMetrics metrics = new ConverterMetrics(new SimpleMeterRegistry(), scheduler, new TempDirConfig(tempDir.toString()), pool);
+    ConversionRunner runner = new ConversionRunner(pool, scheduler, metrics, new ThreadingConfig(false, 1),
+      Duration.ofSeconds(10), Duration.ofMillis(300), 2, false, Duration.ofSeconds(10));
+    File input = Files.writeString(tempDir.resolve("waiting.docx"), "docx").toFile();
+    // the only instance is busy, e.g. still restarting after a cancelled attempt
+    pool.acquire();
+
+    assertThrows(OfficeException.class, () -> assertTimeoutPreemptively(Duration.ofSeconds(5),
+      () -> runner.convert(input, tempDir.resolve("waiting.pdf").toFile())));
+    assertEquals(0, executions.get());
+  }
+
+  /**
+   * Office manager standing in for LibreOffice: the first task of the test hangs until its thread is interrupted,
+   * like JODConverter waiting for a wedged soffice process, the other tasks finish right away.
+   */
+  private class HangingOfficeManager implements OfficeManager {
+
+    private volatile boolean running;
+
+    @Override
+    public void execute(final OfficeTask task) throws OfficeException {
+      if (executions.incrementAndGet() > 1) {
+        return;
+      }
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OfficeException("Task was interrupted while executing", e);
+      } finally {
+        hungTaskEnded.countDown();
+      }
+    }
+
+    @Override
+    public boolean isRunning() {
+      return running;
+    }
+
+    @Override
+    public void start() {
+      starts.incrementAndGet();
+      running = true;
+    }
+
+    @Override
+    public void stop() {
+      running = false;
+    }
+  }
+}
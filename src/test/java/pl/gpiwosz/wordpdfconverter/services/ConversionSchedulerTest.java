@@ -0,0 +1,55 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.junit.jupiter.api.Test;
+import pl.gpiwosz.wordpdfconverter.enums.DocumentLaneEnum;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the lanes of {@link ConversionScheduler}: large documents never take the slots reserved for small ones.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class ConversionSchedulerTest {
+
+  @Test
+  void largeDocumentWaitsForASlotAboveTheReservedOnes() throws Exception {
+    ConversionScheduler scheduler = new ConversionScheduler("2001, 2002, 2003", 1);
+    scheduler.resize(1);
+    assertEquals(0, scheduler.getLargeCapacity());
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread large = new Thread(() -> {
+      try {
+        scheduler.acquire(DocumentLaneEnum.LARGE);
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    large.start();
+    assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(1, scheduler.getQueueLength());
+    assertEquals(1, scheduler.getAvailableSlots());
+
+    scheduler.resize(2);
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertEquals(1, scheduler.getAvailableSlots());
+    large.join();
+  }
+
+  @Test
+  void largeDocumentUsesTheOnlyPortIfItCanNeverHaveMore() {
+    ConversionScheduler scheduler = new ConversionScheduler("2001", 1);
+    assertEquals(1, scheduler.getLargeCapacity());
+    scheduler.resize(0);
+    assertEquals(0, scheduler.getLargeCapacity());
+  }
+}
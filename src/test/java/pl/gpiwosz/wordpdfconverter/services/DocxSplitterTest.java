@@ -0,0 +1,236 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link DocxSplitter} on small generated DOCX packages: where the document may be cut, which section
+ * properties close every piece, how the numbering of footnotes and pages is continued, and that the pieces are valid
+ * packages.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class DocxSplitterTest {
+
+  private static final String NUMBERING = "<w:numbering xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+    + "<w:abstractNum w:abstractNumId=\"0\"><w:lvl w:ilvl=\"0\"><w:numFmt w:val=\"decimal\"/></w:lvl></w:abstractNum>"
+    + "<w:abstractNum w:abstractNumId=\"1\"><w:lvl w:ilvl=\"0\"><w:numFmt w:val=\"bullet\"/></w:lvl></w:abstractNum>"
+    + "<w:num w:numId=\"1\"><w:abstractNumId w:val=\"0\"/></w:num>"
+    + "<w:num w:numId=\"2\"><w:abstractNumId w:val=\"1\"/></w:num>"
+    + "</w:numbering>";
+  private static final String PAGE_BREAK = "<w:r><w:br w:type=\"page\"/></w:r>";
+  private static final String FINAL_SECTION = "<w:sectPr><w:pgSz w:w=\"11906\" w:h=\"16838\"/></w:sectPr>";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void splitPointsAreOnlyPageAndSectionBoundaries() throws Exception {
+    Path docx = docx(FINAL_SECTION,
+      paragraph("one", ""),
+      paragraph("two", "", PAGE_BREAK),
+      paragraph("three", ""),
+      paragraph("four", "<w:sectPr><w:type w:val=\"nextPage\"/></w:sectPr>"),
+      paragraph("five", ""),
+      paragraph("six", "<w:sectPr><w:type w:val=\"continuous\"/></w:sectPr>"),
+      paragraph("seven", ""),
+      paragraph("eight", "<w:pageBreakBefore/>"));
+
+    DocxSplitter splitter = DocxSplitter.open(docx);
+
+    assertEquals(List.of(2, 4, 7), splitter.splitPoints(8));
+    assertTrue(List.of(2, 4, 7).containsAll(splitter.splitPoints(2)));
+    assertEquals(1, splitter.splitPoints(2).size());
+    assertEquals(List.of(), splitter.splitPoints(1));
+  }
+
+  @Test
+  void numberedListIsNeverCut() throws Exception {
+    Path docx = docx(FINAL_SECTION,
+      paragraph("first item", numbering(1)),
+      paragraph("second item", numbering(1), PAGE_BREAK),
+      paragraph("third item", numbering(1), PAGE_BREAK),
+      paragraph("bullet", numbering(2), PAGE_BREAK),
+      paragraph("bullet", numbering(2), PAGE_BREAK),
+      paragraph("end", ""));
+
+    assertEquals(List.of(3, 4, 5), DocxSplitter.open(docx).splitPoints(6));
+  }
+
+  @Test
+  void sectionOfTheLastBlockClosesThePiece() throws Exception {
+    String landscape = "<w:sectPr><w:pgSz w:w=\"16838\" w:h=\"11906\" w:orient=\"landscape\"/></w:sectPr>";
+    Path docx = docx(FINAL_SECTION,
+      paragraph("one", landscape),
+      paragraph("two", "", PAGE_BREAK),
+      paragraph("three", ""));
+    DocxSplitter splitter = DocxSplitter.open(docx);
+    List<Integer> splitPoints = splitter.splitPoints(3);
+    assertEquals(List.of(1, 2), splitPoints);
+
+    String first = document(write(splitter, splitPoints, 0, 0));
+    assertFalse(first.contains("<w:pPr>" + landscape));
+    assertTrue(first.endsWith(landscape + "</w:body></w:document>"), first);
+
+    // a piece ending with a page break is closed by the section it belongs to
+    String second = document(write(splitter, splitPoints, 1, 0));
+    assertTrue(second.endsWith(FINAL_SECTION + "</w:body></w:document>"), second);
+    assertTrue(second.contains(">two<"));
+
+    String last = document(write(splitter, splitPoints, 2, 0));
+    assertTrue(last.endsWith(FINAL_SECTION + "</w:body></w:document>"), last);
+  }
+
+  @Test
+  void footnoteAndPageNumberingAreContinued() throws Exception {
+    String footnotes = "<w:r><w:footnoteReference w:id=\"1\"/></w:r><w:r><w:footnoteReference w:id=\"2\"/></w:r>"
+      + "<w:r><w:footnoteReference w:customMarkFollows=\"1\" w:id=\"3\"/></w:r>";
+    Path docx = docx("<w:sectPr><w:pgNumType w:fmt=\"lowerRoman\"/></w:sectPr>",
+      paragraph("one", "", footnotes + PAGE_BREAK),
+      paragraph("two", "<w:sectPr><w:footnotePr><w:numFmt w:val=\"upperLetter\"/></w:footnotePr></w:sectPr>"),
+      paragraph("three", ""));
+    DocxSplitter splitter = DocxSplitter.open(docx);
+    List<Integer> splitPoints = splitter.splitPoints(3);
+    assertEquals(List.of(1, 2), splitPoints);
+
+    // the section of the piece sets its own footnote properties, only the page number is added
+    String second = document(write(splitter, splitPoints, 1, 4));
+    assertTrue(second.contains("<w:footnotePr><w:numFmt w:val=\"upperLetter\"/></w:footnotePr><w:pgNumType w:start=\"4\"/></w:sectPr>"), second);
+    assertFalse(second.contains("<w:numStart"));
+
+    String last = document(write(splitter, splitPoints, 2, 7));
+    assertTrue(last.contains("<w:pgNumType w:fmt=\"lowerRoman\" w:start=\"7\"/>"
+      + "<w:footnotePr><w:numStart w:val=\"3\"/></w:footnotePr></w:sectPr>"), last);
+
+    String unnumbered = document(write(splitter, splitPoints, 2, 0));
+    assertFalse(unnumbered.contains("w:start="));
+  }
+
+  @Test
+  void emptySectionPropertiesAreExpanded() throws Exception {
+    Path docx = docx(FINAL_SECTION,
+      paragraph("one", "", PAGE_BREAK),
+      paragraph("two", "<w:sectPr w:rsidR=\"00A1\"/>"),
+      paragraph("three", ""));
+    DocxSplitter splitter = DocxSplitter.open(docx);
+    assertEquals(List.of(1, 2), splitter.splitPoints(3));
+
+    // the first section of the piece is closed inside its paragraph
+    String second = document(write(splitter, List.of(1), 1, 2));
+    assertTrue(second.contains("<w:pPr><w:sectPr w:rsidR=\"00A1\"><w:pgNumType w:start=\"2\"/></w:sectPr></w:pPr>"), second);
+    assertTrue(second.endsWith(FINAL_SECTION + "</w:body></w:document>"), second);
+  }
+
+  @Test
+  void piecesAreValidPackages() throws Exception {
+    Path docx = docx(FINAL_SECTION,
+      paragraph("one", "", PAGE_BREAK),
+      paragraph("two", ""));
+    DocxSplitter splitter = DocxSplitter.open(docx);
+    List<Integer> splitPoints = splitter.splitPoints(2);
+
+    for (int piece = 0; piece <= splitPoints.size(); piece++) {
+      Path target = write(splitter, splitPoints, piece, piece + 1);
+      assertEquals(entries(docx), entries(target));
+      try (ZipFile zip = new ZipFile(target.toFile())) {
+        assertEquals(ZipEntry.STORED, zip.getEntry("word/media/image1.png").getMethod());
+        try (InputStream in = zip.getInputStream(zip.getEntry("word/document.xml"))) {
+          byte[] document = in.readAllBytes();
+          DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+          factory.setNamespaceAware(true);
+          assertDoesNotThrow(() -> factory.newDocumentBuilder().parse(new ByteArrayInputStream(document)));
+        }
+      }
+      assertDoesNotThrow(() -> DocxSplitter.open(target));
+    }
+  }
+
+  private static String paragraph(final String text, final String properties) {
+    return paragraph(text, properties, "");
+  }
+
+  private static String paragraph(final String text, final String properties, final String runs) {
+    return "<w:p>" + (properties.isEmpty() ? "" : "<w:pPr>" + properties + "</w:pPr>")
+      + "<w:r><w:t>" + text + "</w:t></w:r>" + runs + "</w:p>";
+  }
+
+  private static String numbering(final int numId) {
+    return "<w:numPr><w:ilvl w:val=\"0\"/><w:numId w:val=\"" + numId + "\"/></w:numPr>";
+  }
+
+  private Path docx(final String finalSection, final String... paragraphs) throws IOException {
+    Map<String, String> parts = new LinkedHashMap<>();
+    parts.put("[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+      + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+      + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+      + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+      + "<Default Extension=\"png\" ContentType=\"image/png\"/>"
+      + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+      + "</Types>");
+    parts.put("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+      + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+      + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+      + "</Relationships>");
+    parts.put("word/document.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+      + "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>"
+      + String.join("", paragraphs) + finalSection + "</w:body></w:document>");
+    parts.put("word/numbering.xml", NUMBERING);
+
+    Path docx = Files.createTempFile(tempDir, "source", ".docx");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(docx))) {
+      for (Map.Entry<String, String> part : parts.entrySet()) {
+        out.putNextEntry(new ZipEntry(part.getKey()));
+        out.write(part.getValue().getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+      out.putNextEntry(new ZipEntry("word/media/image1.png"));
+      out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+      out.closeEntry();
+    }
+    return docx;
+  }
+
+  private Path write(final DocxSplitter splitter, final List<Integer> splitPoints, final int piece, final int firstPageNumber) throws IOException {
+    Path target = Files.createTempFile(tempDir, "piece" + piece, ".docx");
+    splitter.writePiece(splitPoints, piece, target, firstPageNumber);
+    return target;
+  }
+
+  private static String document(final Path docx) throws IOException {
+    try (ZipFile zip = new ZipFile(docx.toFile());
+         InputStream in = zip.getInputStream(zip.getEntry("word/document.xml"))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static List<String> entries(final Path docx) throws IOException {
+    try (ZipFile zip = new ZipFile(docx.toFile())) {
+      List<String> names = new ArrayList<>();
+      Collections.list(zip.entries()).forEach(entry -> names.add(entry.getName()));
+      return names;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of {@link InputDirectoryScanner}: a reported file whose pickup failed is reported again, a confirmed one is not.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class InputDirectoryScannerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private InputDirectoryScanner scanner;
+
+  @AfterEach
+  void close() {
+    scanner.close();
+  }
+
+  @Test
+  void failedFileIsReportedAgainUntilCompleted() throws Exception {
+    Path input = Files.createDirectories(tempDir.resolve("input"));
+    scanner = new InputDirectoryScanner(input.toString(), tempDir.resolve("checkpoint").toString(), "test",
+      false, true, Duration.ZERO, Duration.ZERO, Duration.ofSeconds(1));
+    scanner.init();
+    Path file = Files.writeString(input.resolve("a.docx"), "docx");
+
+    assertEquals(List.of(file), scanner.poll());
+    assertEquals(List.of(), scanner.poll());
+
+    scanner.failed(file);
+    assertEquals(List.of(file), scanner.poll());
+
+    scanner.completed(file);
+    assertEquals(List.of(), scanner.poll());
+  }
+}
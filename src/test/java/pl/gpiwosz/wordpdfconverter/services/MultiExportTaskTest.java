@@ -0,0 +1,115 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XServiceInfo;
+import com.sun.star.uno.Exception;
+import com.sun.star.util.XCloseable;
+import org.jodconverter.core.document.DefaultDocumentFormatRegistry;
+import org.jodconverter.core.document.DocumentFormat;
+import org.jodconverter.local.office.LocalOfficeContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link MultiExportTask} against a stand-in of LibreOffice's component loader: a document exported to several
+ * targets is loaded and closed once.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class MultiExportTaskTest {
+
+  @TempDir
+  Path tempDir;
+
+  private int loads;
+  private int closes;
+  private final List<String> stored = new ArrayList<>();
+
+  @Test
+  void loadsTheDocumentOnceForAllTargets() throws java.lang.Exception {
+    Map<File, DocumentFormat> targets = new LinkedHashMap<>();
+    targets.put(tempDir.resolve("document.pdf").toFile(), DefaultDocumentFormatRegistry.PDF);
+    targets.put(tempDir.resolve("document-a.pdf").toFile(), DefaultDocumentFormatRegistry.PDF);
+    targets.put(tempDir.resolve("document.png").toFile(), DefaultDocumentFormatRegistry.PNG);
+
+    MultiExportTask task = new MultiExportTask(input(), targets);
+    task.execute(context(null));
+
+    assertEquals(1, loads);
+    assertEquals(1, closes);
+    assertEquals(List.of("document.pdf", "document-a.pdf", "document.png"), stored);
+    assertTrue(task.getErrors().isEmpty());
+  }
+
+  @Test
+  void failedTargetDoesNotStopTheOthers() throws java.lang.Exception {
+    File broken = tempDir.resolve("broken.pdf").toFile();
+    Map<File, DocumentFormat> targets = new LinkedHashMap<>();
+    targets.put(broken, DefaultDocumentFormatRegistry.PDF);
+    targets.put(tempDir.resolve("document.pdf").toFile(), DefaultDocumentFormatRegistry.PDF);
+
+    MultiExportTask task = new MultiExportTask(input(), targets);
+    task.execute(context("broken.pdf"));
+
+    assertEquals(1, loads);
+    assertEquals(1, closes);
+    assertEquals(List.of("broken.pdf", "document.pdf"), stored);
+    assertEquals(List.of(broken), List.copyOf(task.getErrors().keySet()));
+  }
+
+  private File input() throws java.lang.Exception {
+    Path input = tempDir.resolve("document.docx");
+    Files.write(input, new byte[]{1, 2, 3});
+    return input.toFile();
+  }
+
+  /**
+   * @param failingTarget The name of the target whose store fails, or null.
+   * @return An office context whose loader opens a text document, counting the loads, stores and closes.
+   */
+  private LocalOfficeContext context(final String failingTarget) {
+    Object document = Proxy.newProxyInstance(getClass().getClassLoader(),
+      new Class<?>[]{XComponent.class, XServiceInfo.class, XStorable.class, XCloseable.class}, (proxy, method, args) -> switch (method.getName()) {
+        case "supportsService" -> "com.sun.star.text.GenericTextDocument".equals(args[0]);
+        case "storeToURL" -> {
+          String name = ((String) args[0]).substring(((String) args[0]).lastIndexOf('/') + 1);
+          stored.add(name);
+          if (name.equals(failingTarget)) {
+            throw new Exception("Cannot store " + name);
+          }
+          yield null;
+        }
+        case "close" -> {
+          closes++;
+          yield null;
+        }
+        case "hashCode" -> System.identityHashCode(proxy);
+        case "equals" -> proxy == args[0];
+        default -> null;
+      });
+    XComponentLoader loader = (XComponentLoader) Proxy.newProxyInstance(getClass().getClassLoader(),
+      new Class<?>[]{XComponentLoader.class}, (proxy, method, args) -> {
+        loads++;
+        return document;
+      });
+    return (LocalOfficeContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+      new Class<?>[]{LocalOfficeContext.class}, (proxy, method, args) ->
+        method.getName().equals("getComponentLoader") ? loader : null);
+  }
+}
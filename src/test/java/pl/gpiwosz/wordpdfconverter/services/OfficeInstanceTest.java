@@ -0,0 +1,109 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.jodconverter.core.office.OfficeManager;
+import org.jodconverter.core.task.OfficeTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link OfficeInstance} finding its soffice process.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class OfficeInstanceTest {
+
+  /**
+   * The command line jodconverter 4.4.8 starts soffice with for port 2002.
+   */
+  private static final String SOFFICE_COMMAND_LINE = "/usr/lib/libreoffice/program/soffice.bin"
+    + " -accept=socket,host=127.0.0.1,port=2002,tcpNoDelay=1;urp;StarOffice.ServiceManager"
+    + " -env:UserInstallation=file:///tmp/.jodconverter_socket_host-127.0.0.1_port-2002_tcpNoDelay-1"
+    + " -headless -nocrashreport -nodefault -nofirststartwizard -nolockcheck -nologo -norestore";
+
+  private final List<Process> processes = new ArrayList<>();
+
+  @AfterEach
+  void destroyProcesses() {
+    processes.forEach(Process::destroyForcibly);
+  }
+
+  @Test
+  void acceptsOnPortMatchesJodconverterAcceptString() {
+    assertTrue(OfficeInstance.acceptsOnPort(SOFFICE_COMMAND_LINE, 2002));
+    assertFalse(OfficeInstance.acceptsOnPort(SOFFICE_COMMAND_LINE, 200));
+    assertFalse(OfficeInstance.acceptsOnPort(SOFFICE_COMMAND_LINE, 20021));
+    assertFalse(OfficeInstance.acceptsOnPort(SOFFICE_COMMAND_LINE.replace("port=2002,", "port=2003,"), 2002));
+    assertTrue(OfficeInstance.acceptsOnPort("soffice -accept=socket,host=127.0.0.1,port=2002;urp;", 2002));
+    assertFalse(OfficeInstance.acceptsOnPort("java -jar converter.jar --server.port=2002", 2002));
+  }
+
+  @Test
+  void isOfficeBinarySkipsWrappers() {
+    assertTrue(OfficeInstance.isOfficeBinary("/usr/lib/libreoffice/program/soffice.bin"));
+    assertTrue(OfficeInstance.isOfficeBinary("C:\\Program Files\\LibreOffice\\program\\soffice.exe"));
+    assertFalse(OfficeInstance.isOfficeBinary("/usr/lib/libreoffice/program/oosplash"));
+    assertFalse(OfficeInstance.isOfficeBinary("/usr/lib/libreoffice/program/soffice"));
+  }
+
+  @Test
+  void findProcessFindsTheChildAcceptingOnThePort() throws Exception {
+    Process other = startFakeOffice(2003);
+    Process office = startFakeOffice(2002);
+    OfficeInstance instance = new OfficeInstance(2002, RunningOfficeManager::new, officeManager -> null);
+    instance.start();
+
+    Optional<ProcessHandle> found = instance.findProcess();
+
+    assertEquals(Optional.of(office.pid()), found.map(ProcessHandle::pid));
+    assertTrue(other.isAlive());
+    assertTrue(instance.getResidentSetSize() > 0);
+  }
+
+  /**
+   * Starts a shell standing in for soffice, with the jodconverter arguments of a port on its command line.
+   */
+  private Process startFakeOffice(final int port) throws Exception {
+    Process process = new ProcessBuilder("sh", "-c", "sleep 60; :", "soffice",
+      SOFFICE_COMMAND_LINE.split(" ")[1].replace("port=2002,", "port=" + port + ",")).start();
+    processes.add(process);
+    return process;
+  }
+
+  /**
+   * Office manager which only reports itself running.
+   */
+  static class RunningOfficeManager implements OfficeManager {
+
+    private volatile boolean running;
+
+    @Override
+    public void execute(final OfficeTask task) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isRunning() {
+      return running;
+    }
+
+    @Override
+    public void start() {
+      running = true;
+    }
+
+    @Override
+    public void stop() {
+      running = false;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link PayloadMemoryBudget}: the pressure listeners are told when the budget runs out and when it is available again.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class PayloadMemoryBudgetTest {
+
+  @Test
+  void budgetIsExhaustedUntilHalfOfItIsFree() {
+    PayloadMemoryBudget budget = new PayloadMemoryBudget(new SimpleMeterRegistry(), DataSize.ofKilobytes(1000), DataSize.ofMegabytes(8));
+    AtomicInteger calls = new AtomicInteger();
+    budget.addPressureListener(calls::incrementAndGet);
+
+    int first = budget.tryReserve(DataSize.ofKilobytes(400).toBytes());
+    assertEquals(-1, budget.tryReserve(DataSize.ofKilobytes(700).toBytes()));
+    assertFalse(budget.isExhausted());
+
+    int second = budget.tryReserve(DataSize.ofKilobytes(300).toBytes());
+    int third = budget.tryReserve(DataSize.ofKilobytes(200).toBytes());
+    assertEquals(-1, budget.tryReserve(DataSize.ofKilobytes(400).toBytes()));
+    assertTrue(budget.isExhausted());
+    assertEquals(1, calls.get());
+
+    budget.release(third);
+    assertTrue(budget.isExhausted());
+    budget.release(second);
+    assertFalse(budget.isExhausted());
+    assertEquals(2, calls.get());
+    budget.release(first);
+  }
+}
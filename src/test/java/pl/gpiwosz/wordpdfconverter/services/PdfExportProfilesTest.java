@@ -0,0 +1,35 @@
+package pl.gpiwosz.wordpdfconverter.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests of {@link PdfExportProfiles#cacheKey}: the key follows the filter data of the profile, not its name.
+ *
+ * @author Grzegorz Piwosz
+ * @version 1.0
+ * @since 2025-01-01
+ */
+class PdfExportProfilesTest {
+
+  private static final String HASH = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  @Test
+  void cacheKeyFollowsTheFilterData() {
+    PdfExportProfiles profiles = new PdfExportProfiles(
+      "plain(); compact(jpeg-quality=60, max-dpi=150); small(max-dpi=150, jpeg-quality=60); sharper(jpeg-quality=90, max-dpi=150)",
+      PdfExportProfiles.DEFAULT_PROFILE, "");
+
+    assertEquals(HASH, PdfExportProfiles.cacheKey(HASH, profiles.select(null, null)));
+    assertEquals(HASH, PdfExportProfiles.cacheKey(HASH, profiles.select("plain", null)));
+    assertNull(PdfExportProfiles.cacheKey(null, profiles.select("compact", null)));
+
+    String compact = PdfExportProfiles.cacheKey(HASH, profiles.select("compact", null));
+    assertNotEquals(HASH, compact);
+    assertEquals(compact, PdfExportProfiles.cacheKey(HASH, profiles.select("small", null)));
+    assertNotEquals(compact, PdfExportProfiles.cacheKey(HASH, profiles.select("sharper", null)));
+  }
+}